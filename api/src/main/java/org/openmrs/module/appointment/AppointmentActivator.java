@@ -15,7 +15,10 @@ package org.openmrs.module.appointment;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.appointment.api.cluster.ChangeLog;
+import org.openmrs.module.appointment.api.warmup.AppointmentWarmUp;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
@@ -35,6 +38,8 @@ public class AppointmentActivator implements ModuleActivator {
 	 * @see ModuleActivator#contextRefreshed()
 	 */
 	public void contextRefreshed() {
+		startChangeLog();
+		startWarmUp();
 		log.info("Appointment Module refreshed");
 	}
 	
@@ -49,6 +54,7 @@ public class AppointmentActivator implements ModuleActivator {
 	 * @see ModuleActivator#started()
 	 */
 	public void started() {
+		startChangeLog();
 		log.info("Appointment Module started");
 	}
 	
@@ -57,6 +63,8 @@ public class AppointmentActivator implements ModuleActivator {
 	 */
 	public void willStop() {
 		log.info("Stopping Appointment Module");
+		stopChangeLog();
+		stopWarmUp();
 	}
 	
 	/**
@@ -66,4 +74,47 @@ public class AppointmentActivator implements ModuleActivator {
 		log.info("Appointment Module stopped");
 	}
 	
+	/**
+	 * Starts polling the change log, so this node evicts what it cached about objects changed by
+	 * the other nodes of a cluster.
+	 */
+	private void startChangeLog() {
+		try {
+			Context.getRegisteredComponent("appointmentChangeLog", ChangeLog.class).start();
+		}
+		catch (Exception e) {
+			log.error("Unable to start polling the appointment change log", e);
+		}
+	}
+	
+	/**
+	 * Starts warming the caches and queries of the module up in the background.
+	 */
+	private void startWarmUp() {
+		try {
+			Context.getRegisteredComponent("appointmentWarmUp", AppointmentWarmUp.class).start();
+		}
+		catch (Exception e) {
+			log.error("Unable to start the appointment warm-up", e);
+		}
+	}
+	
+	private void stopChangeLog() {
+		try {
+			Context.getRegisteredComponent("appointmentChangeLog", ChangeLog.class).stop();
+		}
+		catch (Exception e) {
+			log.error("Unable to stop polling the appointment change log", e);
+		}
+	}
+	
+	private void stopWarmUp() {
+		try {
+			Context.getRegisteredComponent("appointmentWarmUp", AppointmentWarmUp.class).stop();
+		}
+		catch (Exception e) {
+			log.error("Unable to stop the appointment warm-up", e);
+		}
+	}
+	
 }
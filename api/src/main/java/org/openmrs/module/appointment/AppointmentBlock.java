@@ -117,4 +117,17 @@ public class AppointmentBlock extends BaseOpenmrsData {
 		this.types = types;
 	}
 	
+	/**
+	 * @param other another block.
+	 * @return whether both blocks have the same provider and share some time; blocks which only
+	 *         touch do not overlap.
+	 */
+	public boolean overlaps(AppointmentBlock other) {
+		if (provider == null || other.getProvider() == null || startDate == null || endDate == null
+		        || other.getStartDate() == null || other.getEndDate() == null)
+			return false;
+		return provider.getProviderId().equals(other.getProvider().getProviderId())
+		        && startDate.before(other.getEndDate()) && endDate.after(other.getStartDate());
+	}
+	
 }
@@ -0,0 +1,134 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A row of the module's change log: one saved or purged object, written in the transaction that
+ * changed it. Other OpenMRS nodes read it to evict what they cached about the object, and
+ * downstream systems read the log as a change feed, in id order.
+ */
+public class AppointmentChange implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String ACTION_SAVE = "SAVE";
+
+	public static final String ACTION_PURGE = "PURGE";
+
+	public static final String ACTION_VOID = "VOID";
+
+	public static final String ACTION_UNVOID = "UNVOID";
+
+	public static final String ACTION_RETIRE = "RETIRE";
+
+	public static final String ACTION_UNRETIRE = "UNRETIRE";
+
+	private Integer appointmentChangeId;
+
+	private String entityType;
+
+	private Integer entityId;
+
+	private Integer patientId;
+
+	private String action;
+
+	private String nodeId;
+
+	private Date dateCreated;
+
+	public AppointmentChange() {
+
+	}
+
+	/**
+	 * @param entityType the simple class name of the changed object, e.g. "Appointment".
+	 * @param entityId the id of the changed object.
+	 * @param patientId the patient of the changed object, if it belongs to one.
+	 * @param action one of the ACTION constants.
+	 * @param nodeId the node which made the change.
+	 */
+	public AppointmentChange(String entityType, Integer entityId, Integer patientId, String action, String nodeId) {
+		setEntityType(entityType);
+		setEntityId(entityId);
+		setPatientId(patientId);
+		setAction(action);
+		setNodeId(nodeId);
+		setDateCreated(new Date());
+	}
+
+	public Integer getAppointmentChangeId() {
+		return appointmentChangeId;
+	}
+
+	public void setAppointmentChangeId(Integer appointmentChangeId) {
+		this.appointmentChangeId = appointmentChangeId;
+	}
+
+	public String getEntityType() {
+		return entityType;
+	}
+
+	public void setEntityType(String entityType) {
+		this.entityType = entityType;
+	}
+
+	public Integer getEntityId() {
+		return entityId;
+	}
+
+	public void setEntityId(Integer entityId) {
+		this.entityId = entityId;
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public void setPatientId(Integer patientId) {
+		this.patientId = patientId;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public void setAction(String action) {
+		this.action = action;
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+
+	@Override
+	public String toString() {
+		return action + " " + entityType + " " + entityId + " by " + nodeId;
+	}
+}
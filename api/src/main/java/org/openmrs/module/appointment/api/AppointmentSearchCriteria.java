@@ -0,0 +1,146 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.Location;
+import org.openmrs.Provider;
+import org.openmrs.module.appointment.AppointmentType;
+
+/**
+ * The constraints of {@link AppointmentService#searchAppointments(AppointmentSearchCriteria, int)}.
+ * Every constraint is optional, those which are set must all match.
+ */
+public class AppointmentSearchCriteria {
+
+	private String patientQuery;
+
+	private Date fromDate;
+
+	private Date toDate;
+
+	private Provider provider;
+
+	private Location location;
+
+	private AppointmentType appointmentType;
+
+	private Set<String> statuses = new HashSet<String>();
+
+	private boolean includeVoided;
+
+	private Date afterStartDate;
+
+	private Integer afterAppointmentId;
+
+	public AppointmentSearchCriteria() {
+	}
+
+	public String getPatientQuery() {
+		return patientQuery;
+	}
+
+	/**
+	 * @param patientQuery words each starting a name or an identifier of the patient, in any order.
+	 */
+	public void setPatientQuery(String patientQuery) {
+		this.patientQuery = patientQuery;
+	}
+
+	public Date getFromDate() {
+		return fromDate;
+	}
+
+	/**
+	 * @param fromDate the earliest start date of the time slot.
+	 */
+	public void setFromDate(Date fromDate) {
+		this.fromDate = fromDate;
+	}
+
+	public Date getToDate() {
+		return toDate;
+	}
+
+	/**
+	 * @param toDate the latest start date of the time slot.
+	 */
+	public void setToDate(Date toDate) {
+		this.toDate = toDate;
+	}
+
+	public Provider getProvider() {
+		return provider;
+	}
+
+	public void setProvider(Provider provider) {
+		this.provider = provider;
+	}
+
+	public Location getLocation() {
+		return location;
+	}
+
+	public void setLocation(Location location) {
+		this.location = location;
+	}
+
+	public AppointmentType getAppointmentType() {
+		return appointmentType;
+	}
+
+	public void setAppointmentType(AppointmentType appointmentType) {
+		this.appointmentType = appointmentType;
+	}
+
+	public Set<String> getStatuses() {
+		return statuses;
+	}
+
+	/**
+	 * @param statuses the statuses to match, empty for any.
+	 */
+	public void setStatuses(Set<String> statuses) {
+		this.statuses = statuses;
+	}
+
+	public boolean isIncludeVoided() {
+		return includeVoided;
+	}
+
+	public void setIncludeVoided(boolean includeVoided) {
+		this.includeVoided = includeVoided;
+	}
+
+	public Date getAfterStartDate() {
+		return afterStartDate;
+	}
+
+	public Integer getAfterAppointmentId() {
+		return afterAppointmentId;
+	}
+
+	/**
+	 * Continues a search after the given result, to fetch the next page.
+	 *
+	 * @param lastResult the last result of the previous page, null to start from the first.
+	 */
+	public void setStartAfter(AppointmentSearchResult lastResult) {
+		afterStartDate = lastResult == null ? null : lastResult.getStartDate();
+		afterAppointmentId = lastResult == null ? null : lastResult.getAppointmentId();
+	}
+}
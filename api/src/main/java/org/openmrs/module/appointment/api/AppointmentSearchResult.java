@@ -0,0 +1,179 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * One row found by {@link AppointmentService#searchAppointments(AppointmentSearchCriteria, int)}:
+ * the fields of an appointment needed to list it, without loading the appointment and its patient.
+ */
+public class AppointmentSearchResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private Integer appointmentId;
+
+	private String uuid;
+
+	private String status;
+
+	private Date startDate;
+
+	private Date endDate;
+
+	private Integer patientId;
+
+	private String patientName;
+
+	private String patientIdentifier;
+
+	private Integer providerId;
+
+	private String providerName;
+
+	private Integer locationId;
+
+	private String locationName;
+
+	private Integer appointmentTypeId;
+
+	private String appointmentTypeName;
+
+	private boolean voided;
+
+	public AppointmentSearchResult() {
+	}
+
+	public Integer getAppointmentId() {
+		return appointmentId;
+	}
+
+	public void setAppointmentId(Integer appointmentId) {
+		this.appointmentId = appointmentId;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	public void setUuid(String uuid) {
+		this.uuid = uuid;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public void setEndDate(Date endDate) {
+		this.endDate = endDate;
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public void setPatientId(Integer patientId) {
+		this.patientId = patientId;
+	}
+
+	public String getPatientName() {
+		return patientName;
+	}
+
+	public void setPatientName(String patientName) {
+		this.patientName = patientName;
+	}
+
+	public String getPatientIdentifier() {
+		return patientIdentifier;
+	}
+
+	public void setPatientIdentifier(String patientIdentifier) {
+		this.patientIdentifier = patientIdentifier;
+	}
+
+	public Integer getProviderId() {
+		return providerId;
+	}
+
+	public void setProviderId(Integer providerId) {
+		this.providerId = providerId;
+	}
+
+	public String getProviderName() {
+		return providerName;
+	}
+
+	public void setProviderName(String providerName) {
+		this.providerName = providerName;
+	}
+
+	public Integer getLocationId() {
+		return locationId;
+	}
+
+	public void setLocationId(Integer locationId) {
+		this.locationId = locationId;
+	}
+
+	public String getLocationName() {
+		return locationName;
+	}
+
+	public void setLocationName(String locationName) {
+		this.locationName = locationName;
+	}
+
+	public Integer getAppointmentTypeId() {
+		return appointmentTypeId;
+	}
+
+	public void setAppointmentTypeId(Integer appointmentTypeId) {
+		this.appointmentTypeId = appointmentTypeId;
+	}
+
+	public String getAppointmentTypeName() {
+		return appointmentTypeName;
+	}
+
+	public void setAppointmentTypeName(String appointmentTypeName) {
+		this.appointmentTypeName = appointmentTypeName;
+	}
+
+	public boolean isVoided() {
+		return voided;
+	}
+
+	public void setVoided(boolean voided) {
+		this.voided = voided;
+	}
+}
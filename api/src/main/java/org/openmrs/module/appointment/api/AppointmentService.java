@@ -13,6 +13,8 @@
  */
 package org.openmrs.module.appointment.api;
 
+import java.io.Reader;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -25,9 +27,15 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.appointment.Appointment;
 import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentChange;
 import org.openmrs.module.appointment.AppointmentStatusHistory;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerationJob;
+import org.openmrs.module.appointment.api.importer.AppointmentImportReport;
+import org.openmrs.module.appointment.api.reschedule.ReschedulePolicy;
+import org.openmrs.module.appointment.api.reschedule.RescheduleReport;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -181,28 +189,69 @@ public interface AppointmentService extends OpenmrsService {
 	 * @should save edited appointment block
 	 * @should throw error when name is null
 	 * @should throw error when name is empty string
+	 * @should throw error when the provider has an overlapping block
 	 */
 	AppointmentBlock saveAppointmentBlock(AppointmentBlock appointmentBlock) throws APIException;
 	
 	/**
-	 * Voids a given appointment block.
+	 * Voids a given appointment block, along with its time slots and appointments. The status each
+	 * voided appointment had until then is closed in its status history.
 	 * 
 	 * @param appointmentBlock the appointment block to void.
 	 * @param reason the reason why the appointment block is voided.
 	 * @return the appointment block that has been voided.
 	 * @should void given appointment block
+	 * @should void the time slots and appointments of the block
+	 * @should void the time slots and appointments at the stored date voided of the block
 	 */
 	AppointmentBlock voidAppointmentBlock(AppointmentBlock appointmentBlock, String reason);
 	
 	/**
-	 * Unvoids an appointment block.
+	 * Unvoids an appointment block, along with the time slots and appointments voided with it. The
+	 * time each unvoided appointment was voided is recorded in its status history, with the VOIDED
+	 * status.
 	 * 
 	 * @param appointmentBlock the appointment block to unvoid.
 	 * @return the unvoided appointment block
 	 * @should unvoided given appointment block
+	 * @should unvoid only the time slots and appointments voided with the block
+	 * @should record the time the appointments were voided in their status history
 	 */
 	AppointmentBlock unvoidAppointmentBlock(AppointmentBlock appointmentBlock);
 	
+	/**
+	 * Moves the scheduled appointments of a block to the time slots of another block, for instance
+	 * when its provider calls in sick. Each appointment goes to a future time slot of the target
+	 * block which offers its type and has room for its duration, chosen by the policy; the others
+	 * stay where they are. The moves are applied in a single transaction and recorded in the status
+	 * history of the moved appointments.
+	 * 
+	 * @param source the block whose appointments are moved.
+	 * @param target the block to move them to.
+	 * @param policy how the appointments are placed.
+	 * @return the moved appointments and the unplaceable ones.
+	 * @throws APIException if the target is the source or its time slots are being generated.
+	 * @should move the appointments to the time slots with room
+	 * @should report the appointments which do not fit
+	 */
+	RescheduleReport rescheduleAppointmentBlock(AppointmentBlock source, AppointmentBlock target, ReschedulePolicy policy)
+	        throws APIException;
+	
+	/**
+	 * Moves the scheduled appointments of a block to the time slots another provider has at the same
+	 * location during the block, as {@link #rescheduleAppointmentBlock(AppointmentBlock, AppointmentBlock, ReschedulePolicy)}
+	 * does.
+	 * 
+	 * @param source the block whose appointments are moved.
+	 * @param provider the provider to move them to.
+	 * @param policy how the appointments are placed.
+	 * @return the moved appointments and the unplaceable ones.
+	 * @throws APIException if the provider is the provider of the source.
+	 * @should move the appointments to the time slots of the provider
+	 */
+	RescheduleReport rescheduleAppointmentBlock(AppointmentBlock source, Provider provider, ReschedulePolicy policy)
+	        throws APIException;
+	
 	/**
 	 * Completely removes an appointment block from the database. This is not reversible.
 	 * 
@@ -220,6 +269,19 @@ public interface AppointmentService extends OpenmrsService {
 	@Transactional(readOnly = true)
 	List<AppointmentBlock> getAppointmentBlocks(Date fromDate, Date toDate, Location location);
 	
+	/**
+	 * Gets the blocks during which the provider of a block is already scheduled, using the index of
+	 * the blocks by provider and dates.
+	 * 
+	 * @param appointmentBlock a block with a provider and dates, saved or not.
+	 * @return the other non voided blocks of the provider sharing some time with the block, ordered
+	 *         by start date.
+	 * @should get the blocks of the provider overlapping the block
+	 * @should not count the block itself or blocks which only touch it
+	 */
+	@Transactional(readOnly = true)
+	List<AppointmentBlock> getOverlappingAppointmentBlocks(AppointmentBlock appointmentBlock);
+	
 	//Appointment
 	/**
 	 * Gets all appointments.
@@ -270,6 +332,32 @@ public interface AppointmentService extends OpenmrsService {
 	 */
 	Appointment saveAppointment(Appointment appointment) throws APIException;
 	
+	/**
+	 * Books a new appointment in its time slot, reserving the following time slots of the block it
+	 * runs into when its type lasts longer than the time slot. The time slots are locked and checked
+	 * to be free before the appointment is saved, so two bookings never share a time slot.
+	 * 
+	 * @param appointment the new appointment, in the first time slot of its run.
+	 * @return the saved appointment.
+	 * @throws TimeSlotTakenException if the appointment no longer fits at its time slot.
+	 * @should reserve the following time slots of an appointment longer than its time slot
+	 * @should fail if the time slots are no longer free
+	 */
+	Appointment bookAppointment(Appointment appointment) throws APIException;
+	
+	/**
+	 * Counts the appointments left in a status after their time, such as the scheduled appointments
+	 * nobody marked as missed or completed.
+	 * 
+	 * @param status the status of the appointments.
+	 * @param endedBefore the date before which their time slots ended.
+	 * @return the number of non voided appointments with the status whose non voided time slot ended
+	 *         before the date.
+	 * @should count the non voided appointments with the status ended before the date
+	 */
+	@Transactional(readOnly = true)
+	long getAppointmentCount(String status, Date endedBefore);
+	
 	/**
 	 * Voids a given appointment.
 	 * 
@@ -306,6 +394,26 @@ public interface AppointmentService extends OpenmrsService {
 	 */
 	List<Appointment> getAppointmentsOfPatient(Patient patient);
 	
+	/**
+	 * Returns one page of the appointments of a patient, most recent first, so that a patient with
+	 * a long history can be shown page by page.
+	 * 
+	 * @param patient the patient.
+	 * @param includeVoided whether voided appointments should be returned.
+	 * @param fromDate (optional) earliest start date of the time slot.
+	 * @param toDate (optional) latest start date of the time slot.
+	 * @param startAfter (optional) the last appointment of the previous page, null for the first page.
+	 * @param limit the maximum number of appointments to return.
+	 * @return the appointments of the patient ordered by start date, most recent first.
+	 * @should return the most recent appointments first
+	 * @should not return voided appointments unless asked to
+	 * @should return the appointments within the given dates
+	 * @should continue after the given appointment
+	 */
+	@Transactional(readOnly = true)
+	List<Appointment> getAppointmentsOfPatient(Patient patient, boolean includeVoided, Date fromDate, Date toDate,
+	        Appointment startAfter, int limit);
+	
 	/**
 	 * Returns the appointment corresponding to the given visit.
 	 * 
@@ -413,6 +521,50 @@ public interface AppointmentService extends OpenmrsService {
 	@Transactional(readOnly = true)
 	List<TimeSlot> getTimeSlotsInAppointmentBlock(AppointmentBlock appointmentBlock);
 	
+	/**
+	 * Gets the free time of a provider on a day, from the availability calendar: what the booked
+	 * appointments of the non voided time slots leave free, in units of
+	 * {@link org.openmrs.module.appointment.api.availability.AvailabilityBits#UNIT_MINUTES}.
+	 * 
+	 * @param provider the provider.
+	 * @param location (optional) the location, null for all locations.
+	 * @param day any time of the day.
+	 * @return the free time as {@link org.openmrs.module.appointment.api.availability.AvailabilityBits}.
+	 * @should return the time left free by the booked appointments
+	 */
+	@Transactional(readOnly = true)
+	long[] getFreeTime(Provider provider, Location location, Date day);
+	
+	/**
+	 * Gets the providers free at the same time on every one of some days.
+	 * 
+	 * @param providers the providers.
+	 * @param location (optional) the location, null for any location.
+	 * @param days any time of each day.
+	 * @param minuteOfDay the start of the time, in minutes after midnight.
+	 * @param minutes the length of the time.
+	 * @return the providers free during the time on every day, in the given order.
+	 * @should return the providers free during the time on every day
+	 */
+	@Transactional(readOnly = true)
+	List<Provider> getProvidersFreeAt(List<Provider> providers, Location location, Collection<Date> days,
+	        int minuteOfDay, int minutes);
+	
+	/**
+	 * Gets the first free time of a provider lasting at least some minutes.
+	 * 
+	 * @param provider the provider.
+	 * @param location (optional) the location, null for any location.
+	 * @param fromDay any time of the first day searched.
+	 * @param toDay any time of the last day searched.
+	 * @param minutes the length of the free time.
+	 * @return the start of the first free time, null if there is none.
+	 * @should return the start of the first free time long enough
+	 * @should return null if no free time is long enough
+	 */
+	@Transactional(readOnly = true)
+	Date getFirstFreeTime(Provider provider, Location location, Date fromDay, Date toDay, int minutes);
+	
 	//Appointment Status History
 	/**
 	 * Gets all appointment status histories.
@@ -466,18 +618,97 @@ public interface AppointmentService extends OpenmrsService {
 	Appointment getLastAppointment(Patient patient);
 	
 	/**
-	 * Return a list of time slots that stands within the given constraints.
+	 * Retrieves the first upcoming appointment of a patient, ignoring voided and cancelled ones.
+	 * 
+	 * @param patient the patient for which we are retrieving.
+	 * @return The next appointment of the given patient, null if there is none.
+	 * @should return the first appointment starting in the future
+	 * @should not return cancelled appointments
+	 */
+	@Transactional(readOnly = true)
+	Appointment getNextAppointment(Patient patient);
+	
+	/**
+	 * Summarizes the last and next appointments of a patient. Summaries are cached by patient and
+	 * evicted whenever an appointment of the patient is saved, voided, unvoided or purged, so screens
+	 * can ask for them repeatedly.
+	 * 
+	 * @param patient the patient.
+	 * @return the summary, null if the patient is null or has not been saved.
+	 * @should return the last and next appointments of the patient
+	 * @should reflect saved appointments of the patient
+	 */
+	@Transactional(readOnly = true)
+	PatientAppointmentSummary getPatientAppointmentSummary(Patient patient);
+	
+	/**
+	 * Return a list of time slots that stands within the given constraints. The slots of blocks
+	 * whose time slots are being generated are left out until the generation completes.
 	 * 
 	 * @param appointmentType - Type of the appointment
 	 * @param fromDate - (optional) earliest start date.
 	 * @param toDate - (optional) latest start date.
 	 * @param provider - (optional) the appointment's provider.
-	 * @return List of TimeSlots that stands within the given constraints, null if illegal values
-	 *         (fromDate>toDate or null appointmentType)
+	 * @return List of TimeSlots that stands within the given constraints, ordered by start date
+	 * @throws APIException if illegal values (fromDate>toDate or null appointmentType)
+	 * @should return the non voided time slots of blocks offering the type
+	 * @should not return the time slots of blocks being generated
 	 */
+	@Transactional(readOnly = true)
 	List<TimeSlot> getTimeSlotsByConstraints(AppointmentType appointmentType, Date fromDate, Date toDate, Provider provider)
 	        throws APIException;
 	
+	/**
+	 * Gets the first time slots where an appointment of a type fits, in a single search split by
+	 * provider and location rather than a search per provider. An appointment fits in a time slot
+	 * with room for its duration, or at the start of a run of free consecutive time slots of a block
+	 * lasting as long as it, which {@link #bookAppointment(Appointment)} reserves. The slots of blocks
+	 * whose time slots are being generated are left out until the generation completes.
+	 * 
+	 * @param appointmentType the type of the appointment.
+	 * @param fromDate the earliest start date.
+	 * @param toDate the latest start date.
+	 * @param provider (optional) the provider, null for any provider.
+	 * @param location (optional) the location, null for any location.
+	 * @param maxResults the number of time slots wanted.
+	 * @return the non voided time slots of blocks offering the type where an appointment of the type
+	 *         fits, ordered by start date.
+	 * @throws APIException if the type or a date is missing, or fromDate is not before toDate.
+	 * @should return the first time slots of all providers with room for the type
+	 * @should only return time slots at the location
+	 * @should return the first time slot of runs lasting the duration of the type
+	 */
+	@Transactional(readOnly = true)
+	List<TimeSlot> getAvailableTimeSlots(AppointmentType appointmentType, Date fromDate, Date toDate, Provider provider,
+	        Location location, int maxResults) throws APIException;
+	
+	/**
+	 * Generates the time slots of a saved appointment block in the background, replacing its
+	 * current ones in a single transaction when done.
+	 * 
+	 * @param appointmentBlock the saved block.
+	 * @param slotLengthInMinutes the length of each slot.
+	 * @return the queued job, to follow or cancel by its id.
+	 * @throws APIException if the block is not saved, its slots are already being generated or too
+	 *             many generations are queued.
+	 */
+	TimeSlotGenerationJob generateTimeSlots(AppointmentBlock appointmentBlock, int slotLengthInMinutes)
+	        throws APIException;
+	
+	/**
+	 * @param jobId the id of a time slot generation.
+	 * @return the generation, null if unknown or finished for more than an hour.
+	 */
+	TimeSlotGenerationJob getTimeSlotGenerationJob(String jobId);
+	
+	/**
+	 * Cancels a queued or running time slot generation; the block keeps its former slots.
+	 * 
+	 * @param jobId the id of the generation.
+	 * @return whether the generation was queued or running.
+	 */
+	boolean cancelTimeSlotGeneration(String jobId);
+	
 	/**
 	 * Returns a list of strings, where each string represents an identifier of the given patient
 	 * and its value. The preferred identifier will be the first in the list. The format of each
@@ -488,4 +719,76 @@ public interface AppointmentService extends OpenmrsService {
 	 * @return a list of strings where each string represents an identifier of the patient.
 	 */
 	List<String> getPatientIdentifiersRepresentation(Patient patient);
+	
+	/**
+	 * Searches appointments for a type-ahead list. Results are light rows rather than appointments,
+	 * ordered by start date then id, and a search can continue after the last row of a previous
+	 * page with {@link AppointmentSearchCriteria#setStartAfter(AppointmentSearchResult)}.
+	 * 
+	 * @param criteria the constraints the appointments must match.
+	 * @param limit the maximum number of rows to return.
+	 * @return the matching rows, at most limit of them.
+	 * @should find appointments by the start of a patient name
+	 * @should find appointments with the given statuses
+	 * @should not return voided appointments unless asked to
+	 * @should continue after the last result of a previous page
+	 */
+	@Transactional(readOnly = true)
+	List<AppointmentSearchResult> searchAppointments(AppointmentSearchCriteria criteria, int limit) throws APIException;
+	
+	/**
+	 * Reads the change feed: every save, void, unvoid, retire, unretire and purge made through this
+	 * service, in the order of its sequence number, the change id. A consumer keeps the id of the
+	 * last change it processed and passes it back as the cursor to read the next batch. Changes
+	 * are only returned once they are older than the global property
+	 * appointment.changeFeed.settleSeconds, so that a change whose transaction commits late is not
+	 * skipped by a cursor which has moved past it.
+	 * 
+	 * @param cursor the id of the last change read, null to read from the oldest change kept.
+	 * @param limit the maximum number of changes to return.
+	 * @return the changes after the cursor, in id order, at most limit of them.
+	 * @should return the changes after the cursor in order
+	 * @should record voided appointments as voided
+	 */
+	@Transactional(readOnly = true)
+	List<AppointmentChange> getChangesSince(Integer cursor, int limit) throws APIException;
+	
+	/**
+	 * Deletes the changes written before a given date from the change feed.
+	 * 
+	 * @param before the date before which changes are deleted.
+	 * @return the number of deleted changes.
+	 * @should delete the changes written before the given date
+	 */
+	int purgeChangesBefore(Date before) throws APIException;
+	
+	/**
+	 * Imports appointment blocks from CSV and generates their time slots, committing every 500
+	 * rows. The columns are described by {@link org.openmrs.module.appointment.api.importer.AppointmentImporter}.
+	 * 
+	 * @param input the CSV, closed when done.
+	 * @param resumeAfterRow the last committed row of a previous import of the file, 0 for a new
+	 *            import.
+	 * @return the report of the import, with the rows that were skipped and why.
+	 * @throws APIException if the header misses a column.
+	 * @should import valid rows and report invalid ones
+	 * @should resume after the given row
+	 */
+	@Transactional(propagation = Propagation.SUPPORTS)
+	AppointmentImportReport importAppointmentBlocks(Reader input, int resumeAfterRow) throws APIException;
+	
+	/**
+	 * Imports appointments from CSV into existing time slots, committing every 500 rows. The columns
+	 * are described by {@link org.openmrs.module.appointment.api.importer.AppointmentImporter}.
+	 * 
+	 * @param input the CSV, closed when done.
+	 * @param resumeAfterRow the last committed row of a previous import of the file, 0 for a new
+	 *            import.
+	 * @return the report of the import, with the rows that were skipped and why.
+	 * @throws APIException if the header misses a column.
+	 * @should import appointments into the matching time slots
+	 * @should fail if the header misses a column
+	 */
+	@Transactional(propagation = Propagation.SUPPORTS)
+	AppointmentImportReport importAppointments(Reader input, int resumeAfterRow) throws APIException;
 }
@@ -0,0 +1,98 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.openmrs.module.appointment.Appointment;
+
+/**
+ * The last and next appointments of a patient, as returned by
+ * {@link AppointmentService#getPatientAppointmentSummary(org.openmrs.Patient)}. Only the fields
+ * screens show about them are kept, so a summary can be cached without holding Hibernate objects.
+ */
+public class PatientAppointmentSummary implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Integer patientId;
+
+	private final Integer lastAppointmentId;
+
+	private final String lastAppointmentStatus;
+
+	private final Date lastAppointmentStartDate;
+
+	private final Integer nextAppointmentId;
+
+	private final Date nextAppointmentStartDate;
+
+	/**
+	 * @param patientId the patient.
+	 * @param lastAppointment the appointment of the patient with the latest time slot, may be null.
+	 * @param nextAppointment the first upcoming appointment of the patient, may be null.
+	 */
+	public PatientAppointmentSummary(Integer patientId, Appointment lastAppointment, Appointment nextAppointment) {
+		this.patientId = patientId;
+		if (lastAppointment != null) {
+			lastAppointmentId = lastAppointment.getAppointmentId();
+			lastAppointmentStatus = lastAppointment.getStatus();
+			lastAppointmentStartDate = lastAppointment.getTimeSlot().getStartDate();
+		} else {
+			lastAppointmentId = null;
+			lastAppointmentStatus = null;
+			lastAppointmentStartDate = null;
+		}
+		if (nextAppointment != null) {
+			nextAppointmentId = nextAppointment.getAppointmentId();
+			nextAppointmentStartDate = nextAppointment.getTimeSlot().getStartDate();
+		} else {
+			nextAppointmentId = null;
+			nextAppointmentStartDate = null;
+		}
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public Integer getLastAppointmentId() {
+		return lastAppointmentId;
+	}
+
+	public String getLastAppointmentStatus() {
+		return lastAppointmentStatus;
+	}
+
+	public Date getLastAppointmentStartDate() {
+		return lastAppointmentStartDate;
+	}
+
+	public Integer getNextAppointmentId() {
+		return nextAppointmentId;
+	}
+
+	public Date getNextAppointmentStartDate() {
+		return nextAppointmentStartDate;
+	}
+
+	/**
+	 * @return whether the next appointment has started since the summary was made, which makes it
+	 *         outdated.
+	 */
+	public boolean isNextAppointmentPast() {
+		return nextAppointmentStartDate != null && nextAppointmentStartDate.getTime() <= System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api;
+
+import org.openmrs.api.APIException;
+
+/**
+ * Thrown by {@link AppointmentService#bookAppointment(org.openmrs.module.appointment.Appointment)}
+ * when the time slots of an appointment no longer have room for it, so that it can be told apart
+ * from the other failures of a booking.
+ */
+public class TimeSlotTakenException extends APIException {
+
+	private static final long serialVersionUID = 1L;
+
+	public TimeSlotTakenException(String message) {
+		super(message);
+	}
+}
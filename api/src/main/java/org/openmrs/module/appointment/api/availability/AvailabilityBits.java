@@ -0,0 +1,153 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.availability;
+
+/**
+ * Operations on the availability of a day held as a bitset: bit i of a long[] of
+ * {@link #WORDS_PER_DAY} words is set when the 5 minutes starting i * 5 minutes after midnight are
+ * free. Days with a daylight saving change are still 24 hours long here, the extra hour of a 25
+ * hour day is dropped.
+ */
+public final class AvailabilityBits {
+
+	public static final int UNIT_MINUTES = 5;
+
+	public static final int UNITS_PER_DAY = 24 * 60 / UNIT_MINUTES;
+
+	public static final int WORDS_PER_DAY = (UNITS_PER_DAY + 63) / 64;
+
+	private AvailabilityBits() {
+	}
+
+	/**
+	 * @return a day without free time.
+	 */
+	public static long[] newDay() {
+		return new long[WORDS_PER_DAY];
+	}
+
+	/**
+	 * Marks units as free.
+	 *
+	 * @param bits the day.
+	 * @param fromUnit the first unit, inclusive.
+	 * @param toUnit the last unit, exclusive.
+	 */
+	public static void set(long[] bits, int fromUnit, int toUnit) {
+		fromUnit = Math.max(fromUnit, 0);
+		toUnit = Math.min(toUnit, UNITS_PER_DAY);
+		while (fromUnit < toUnit) {
+			int word = fromUnit >>> 6;
+			int end = Math.min(toUnit, (word + 1) << 6);
+			int length = end - fromUnit;
+			long mask = length == 64 ? -1L : ((1L << length) - 1) << (fromUnit & 63);
+			bits[word] |= mask;
+			fromUnit = end;
+		}
+	}
+
+	/**
+	 * @return whether all units of the range are free.
+	 */
+	public static boolean isSet(long[] bits, int fromUnit, int toUnit) {
+		if (fromUnit < 0 || toUnit > UNITS_PER_DAY)
+			return false;
+		long[] range = newDay();
+		set(range, fromUnit, toUnit);
+		for (int i = 0; i < WORDS_PER_DAY; i++) {
+			if ((bits[i] & range[i]) != range[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the units free in both days, in the first one.
+	 */
+	public static void and(long[] bits, long[] other) {
+		for (int i = 0; i < WORDS_PER_DAY; i++)
+			bits[i] &= other[i];
+	}
+
+	/**
+	 * Adds the units free in the second day to the first one.
+	 */
+	public static void or(long[] bits, long[] other) {
+		for (int i = 0; i < WORDS_PER_DAY; i++)
+			bits[i] |= other[i];
+	}
+
+	/**
+	 * @return whether no unit is free.
+	 */
+	public static boolean isEmpty(long[] bits) {
+		for (long word : bits) {
+			if (word != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of free units.
+	 */
+	public static int count(long[] bits) {
+		int count = 0;
+		for (long word : bits)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * Finds the first run of consecutive free units. The run is found by and-ing the day with itself
+	 * shifted by doubling lengths, so a day takes a few word operations whatever the run length.
+	 *
+	 * @param bits the day.
+	 * @param units the length of the run, at least 1.
+	 * @return the first unit of the first run, -1 if there is none.
+	 */
+	public static int findRun(long[] bits, int units) {
+		if (units <= 0 || units > UNITS_PER_DAY)
+			return -1;
+		//Bit i of starts is set when the length units from i are all free.
+		long[] starts = bits.clone();
+		int length = 1;
+		while (length < units) {
+			int shift = Math.min(length, units - length);
+			and(starts, shiftDown(starts, shift));
+			length += shift;
+		}
+		for (int i = 0; i < WORDS_PER_DAY; i++) {
+			if (starts[i] != 0)
+				return (i << 6) + Long.numberOfTrailingZeros(starts[i]);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a day whose unit i is unit i + shift of the given one.
+	 */
+	private static long[] shiftDown(long[] bits, int shift) {
+		long[] shifted = newDay();
+		int words = shift >>> 6;
+		int offset = shift & 63;
+		for (int i = 0; i + words < WORDS_PER_DAY; i++) {
+			long word = bits[i + words] >>> offset;
+			if (offset != 0 && i + words + 1 < WORDS_PER_DAY)
+				word |= bits[i + words + 1] << (64 - offset);
+			shifted[i] = word;
+		}
+		return shifted;
+	}
+}
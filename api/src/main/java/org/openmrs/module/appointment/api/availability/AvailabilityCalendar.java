@@ -0,0 +1,401 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.availability;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.module.appointment.api.cache.ExpiringLruCache;
+import org.openmrs.module.appointment.api.db.TimeSlotDAO;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * The free time of providers, by provider, day and location, as {@link AvailabilityBits}. The free
+ * time of a time slot is what its booked appointments leave after its start. The days of a
+ * provider are read together with a single projection query, without loading any time slot or
+ * appointment, and kept in a bounded cache of a few hundred bytes per provider and day.
+ * <p>
+ * Like {@link org.openmrs.module.appointment.api.cache.PatientAppointmentCache}, every eviction
+ * moves the calendar to a new generation, and loaded days are only stored if no eviction happened
+ * since their loading started. Must be called in a transaction.
+ */
+public class AvailabilityCalendar {
+
+	private static final long UNIT_MILLIS = AvailabilityBits.UNIT_MINUTES * 60 * 1000L;
+
+	private final ExpiringLruCache<DayKey, Map<Integer, long[]>> days;
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private TimeSlotDAO timeSlotDAO;
+
+	/**
+	 * Creates a calendar of 20000 provider days, each kept at most 5 minutes.
+	 */
+	public AvailabilityCalendar() {
+		this(20000, 300);
+	}
+
+	/**
+	 * @param maxEntries the maximum number of cached provider days.
+	 * @param maxAgeSeconds how long a day is used before being loaded again.
+	 */
+	public AvailabilityCalendar(int maxEntries, int maxAgeSeconds) {
+		days = new ExpiringLruCache<DayKey, Map<Integer, long[]>>("availabilityCalendar", maxEntries,
+		        maxAgeSeconds * 1000L);
+	}
+
+	public void setTimeSlotDAO(TimeSlotDAO timeSlotDAO) {
+		this.timeSlotDAO = timeSlotDAO;
+	}
+
+	/**
+	 * @param providerId the provider.
+	 * @param locationId (optional) the location, null for all locations.
+	 * @param day any time of the day.
+	 * @return the free time of the provider on the day.
+	 */
+	public long[] getFreeTime(Integer providerId, Integer locationId, Date day) {
+		Date dayStart = getDayStart(day);
+		Map<DayKey, Map<Integer, long[]>> loaded = getDays(Collections.singleton(providerId), Collections
+		        .singletonList(dayStart));
+		return getFreeTime(loaded.get(new DayKey(providerId, dayStart)), locationId);
+	}
+
+	/**
+	 * @param providerIds the providers.
+	 * @param locationId (optional) the location, null for any location.
+	 * @param days any time of each day.
+	 * @param minuteOfDay the start of the time, in minutes after midnight.
+	 * @param minutes the length of the time.
+	 * @return the providers free during the time on every day, in the given order.
+	 */
+	public List<Integer> getProvidersFreeAt(Collection<Integer> providerIds, Integer locationId, Collection<Date> days,
+	        int minuteOfDay, int minutes) {
+		List<Integer> free = new ArrayList<Integer>();
+		if (providerIds.isEmpty() || days.isEmpty() || minutes <= 0)
+			return free;
+		Set<Date> dayStarts = new LinkedHashSet<Date>();
+		for (Date day : days)
+			dayStarts.add(getDayStart(day));
+		int fromUnit = minuteOfDay / AvailabilityBits.UNIT_MINUTES;
+		int toUnit = (minuteOfDay + minutes + AvailabilityBits.UNIT_MINUTES - 1) / AvailabilityBits.UNIT_MINUTES;
+
+		Map<DayKey, Map<Integer, long[]>> loaded = getDays(providerIds, new ArrayList<Date>(dayStarts));
+		for (Integer providerId : providerIds) {
+			long[] allDays = null;
+			for (Date dayStart : dayStarts) {
+				long[] bits = getFreeTime(loaded.get(new DayKey(providerId, dayStart)), locationId);
+				if (allDays == null)
+					allDays = bits;
+				else
+					AvailabilityBits.and(allDays, bits);
+			}
+			if (AvailabilityBits.isSet(allDays, fromUnit, toUnit))
+				free.add(providerId);
+		}
+		return free;
+	}
+
+	/**
+	 * @param providerId the provider.
+	 * @param locationId (optional) the location, null for any location.
+	 * @param fromDay any time of the first day searched.
+	 * @param toDay any time of the last day searched.
+	 * @param minutes the length of the free time.
+	 * @return the start of the first free time of the given length, null if there is none.
+	 */
+	public Date getFirstFreeTime(Integer providerId, Integer locationId, Date fromDay, Date toDay, int minutes) {
+		int units = (minutes + AvailabilityBits.UNIT_MINUTES - 1) / AvailabilityBits.UNIT_MINUTES;
+		List<Date> dayStarts = new ArrayList<Date>();
+		for (Date dayStart = getDayStart(fromDay); !dayStart.after(toDay); dayStart = addDays(dayStart, 1))
+			dayStarts.add(dayStart);
+		if (dayStarts.isEmpty() || units <= 0)
+			return null;
+
+		Map<DayKey, Map<Integer, long[]>> loaded = getDays(Collections.singleton(providerId), dayStarts);
+		for (Date dayStart : dayStarts) {
+			int unit = AvailabilityBits.findRun(getFreeTime(loaded.get(new DayKey(providerId, dayStart)), locationId),
+			    units);
+			if (unit >= 0)
+				return new Date(dayStart.getTime() + unit * UNIT_MILLIS);
+		}
+		return null;
+	}
+
+	/**
+	 * Loads the days of the providers not cached yet, with one query.
+	 *
+	 * @param providerIds the providers.
+	 * @param fromDay any time of the first day.
+	 * @param toDay any time of the last day.
+	 * @return the number of provider days now cached or loaded.
+	 */
+	public int prime(Collection<Integer> providerIds, Date fromDay, Date toDay) {
+		List<Date> dayStarts = new ArrayList<Date>();
+		for (Date dayStart = getDayStart(fromDay); !dayStart.after(toDay); dayStart = addDays(dayStart, 1))
+			dayStarts.add(dayStart);
+		if (providerIds.isEmpty() || dayStarts.isEmpty())
+			return 0;
+		return getDays(providerIds, dayStarts).size();
+	}
+
+	/**
+	 * Evicts every day, now and when the current transaction completes, since a day loaded in
+	 * between may hold uncommitted data.
+	 */
+	public void evictAll() {
+		clear();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCompletion(int status) {
+					clear();
+				}
+			});
+		}
+	}
+
+	public void clear() {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			days.clear();
+		}
+	}
+
+	/**
+	 * Evicts days of a provider, now and when the current transaction completes, since a day loaded
+	 * in between may hold uncommitted data.
+	 *
+	 * @param providerId the provider.
+	 * @param fromDate (optional) any time of the first day, null for every day of the provider.
+	 * @param toDate any time of the last day, if a first day is given.
+	 */
+	public void evict(final Integer providerId, final Date fromDate, final Date toDate) {
+		remove(providerId, fromDate, toDate);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCompletion(int status) {
+					remove(providerId, fromDate, toDate);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Evicts days of a provider now, for changes already committed.
+	 *
+	 * @param providerId the provider.
+	 * @param fromDate (optional) any time of the first day, null for every day of the provider.
+	 * @param toDate any time of the last day, if a first day is given.
+	 */
+	public void remove(Integer providerId, Date fromDate, Date toDate) {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			if (fromDate == null) {
+				for (DayKey key : days.getKeys()) {
+					if (key.providerId == providerId)
+						days.remove(key);
+				}
+				return;
+			}
+			for (Date dayStart = getDayStart(fromDate); !dayStart.after(toDate); dayStart = addDays(dayStart, 1))
+				days.remove(new DayKey(providerId, dayStart));
+		}
+	}
+
+	/**
+	 * @return the number of cached provider days.
+	 */
+	public int getSize() {
+		return days.getSize();
+	}
+
+	public int getMaxEntries() {
+		return days.getMaxEntries();
+	}
+
+	public long getHits() {
+		return days.getHits();
+	}
+
+	public long getMisses() {
+		return days.getMisses();
+	}
+
+	public long getEvictions() {
+		return days.getEvictions();
+	}
+
+	public void resetStatistics() {
+		days.resetStatistics();
+	}
+
+	/**
+	 * @return the free time by location of each of the given days of the providers, from the cache
+	 *         or else loaded with one query.
+	 */
+	private Map<DayKey, Map<Integer, long[]>> getDays(Collection<Integer> providerIds, List<Date> dayStarts) {
+		Map<DayKey, Map<Integer, long[]>> result = new HashMap<DayKey, Map<Integer, long[]>>();
+		Set<DayKey> missing = new HashSet<DayKey>();
+		Set<Integer> missingProviderIds = new HashSet<Integer>();
+		Date firstMissing = null;
+		Date lastMissing = null;
+		for (Integer providerId : providerIds) {
+			for (Date dayStart : dayStarts) {
+				DayKey key = new DayKey(providerId, dayStart);
+				Map<Integer, long[]> locations = days.get(key);
+				if (locations != null) {
+					result.put(key, locations);
+					continue;
+				}
+				missing.add(key);
+				missingProviderIds.add(providerId);
+				if (firstMissing == null || dayStart.before(firstMissing))
+					firstMissing = dayStart;
+				if (lastMissing == null || dayStart.after(lastMissing))
+					lastMissing = dayStart;
+			}
+		}
+		if (missing.isEmpty())
+			return result;
+
+		long loadGeneration = generation.get();
+		Map<DayKey, Map<Integer, long[]>> loaded = load(missingProviderIds, firstMissing, addDays(lastMissing, 1));
+		synchronized (generation) {
+			for (DayKey key : missing) {
+				Map<Integer, long[]> locations = loaded.get(key);
+				if (locations == null)
+					locations = Collections.emptyMap();
+				result.put(key, locations);
+				if (generation.get() == loadGeneration)
+					days.put(key, locations);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the free time of the providers between the given days. Time slots starting the day
+	 * before are read too, for those ending after midnight.
+	 */
+	private Map<DayKey, Map<Integer, long[]>> load(Set<Integer> providerIds, Date fromDate, Date toDate) {
+		Map<DayKey, Map<Integer, long[]>> loaded = new HashMap<DayKey, Map<Integer, long[]>>();
+		for (Object[] row : timeSlotDAO.getAvailability(providerIds, addDays(fromDate, -1), toDate)) {
+			Integer providerId = (Integer) row[0];
+			Integer locationId = (Integer) row[1];
+			long freeStart = ((Date) row[2]).getTime() + ((Number) row[4]).longValue() * 60 * 1000L;
+			long end = ((Date) row[3]).getTime();
+			for (Date dayStart = getDayStart(new Date(freeStart)); dayStart.getTime() < end; dayStart = addDays(dayStart,
+			    1)) {
+				long from = Math.max(freeStart, dayStart.getTime()) - dayStart.getTime();
+				long to = Math.min(end, addDays(dayStart, 1).getTime()) - dayStart.getTime();
+				int fromUnit = (int) ((from + UNIT_MILLIS - 1) / UNIT_MILLIS);
+				int toUnit = (int) (to / UNIT_MILLIS);
+				if (fromUnit >= toUnit)
+					continue;
+				DayKey key = new DayKey(providerId, dayStart);
+				Map<Integer, long[]> locations = loaded.get(key);
+				if (locations == null) {
+					locations = new HashMap<Integer, long[]>();
+					loaded.put(key, locations);
+				}
+				long[] bits = locations.get(locationId);
+				if (bits == null) {
+					bits = AvailabilityBits.newDay();
+					locations.put(locationId, bits);
+				}
+				AvailabilityBits.set(bits, fromUnit, toUnit);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * @return a copy of the free time at the location, or at all locations if null.
+	 */
+	private long[] getFreeTime(Map<Integer, long[]> locations, Integer locationId) {
+		long[] free = AvailabilityBits.newDay();
+		if (locations == null)
+			return free;
+		if (locationId != null) {
+			long[] bits = locations.get(locationId);
+			if (bits != null)
+				AvailabilityBits.or(free, bits);
+			return free;
+		}
+		for (long[] bits : locations.values())
+			AvailabilityBits.or(free, bits);
+		return free;
+	}
+
+	private static Date getDayStart(Date date) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTime();
+	}
+
+	private static Date addDays(Date date, int days) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.add(Calendar.DAY_OF_MONTH, days);
+		return calendar.getTime();
+	}
+
+	/**
+	 * A provider and the start of a day.
+	 */
+	private static final class DayKey {
+
+		private final int providerId;
+
+		private final long dayStart;
+
+		DayKey(Integer providerId, Date dayStart) {
+			this.providerId = providerId;
+			this.dayStart = dayStart.getTime();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof DayKey))
+				return false;
+			DayKey other = (DayKey) obj;
+			return providerId == other.providerId && dayStart == other.dayStart;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * providerId + (int) (dayStart ^ (dayStart >>> 32));
+		}
+	}
+}
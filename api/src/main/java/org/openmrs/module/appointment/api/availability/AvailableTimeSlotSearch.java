@@ -0,0 +1,165 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.availability;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.db.TimeSlotDAO;
+
+/**
+ * Searches the time slots of any provider where an appointment of a type fits, in the current
+ * transaction, as found by a {@link TimeSlotRunScanner}. The search is split by provider and
+ * location. The {@link AvailabilityCalendar}
+ * gives the first free time of each provider at each location without loading anything: those
+ * without free time are skipped and the others are searched from the earliest, a page of time
+ * slots at a time, merging the slots found in start date order. The search stops as soon as no
+ * remaining provider can have a time slot starting before the last of the wanted ones.
+ */
+public class AvailableTimeSlotSearch {
+	
+	private static final Comparator<TimeSlot> START_DATE_ORDER = new Comparator<TimeSlot>() {
+		
+		public int compare(TimeSlot timeSlot, TimeSlot other) {
+			int compared = timeSlot.getStartDate().compareTo(other.getStartDate());
+			return compared != 0 ? compared : timeSlot.getTimeSlotId().compareTo(other.getTimeSlotId());
+		}
+	};
+	
+	private final TimeSlotDAO timeSlotDAO;
+	
+	private final AvailabilityCalendar availabilityCalendar;
+	
+	public AvailableTimeSlotSearch(TimeSlotDAO timeSlotDAO, AvailabilityCalendar availabilityCalendar) {
+		this.timeSlotDAO = timeSlotDAO;
+		this.availabilityCalendar = availabilityCalendar;
+	}
+	
+	/**
+	 * @param appointmentType the type of the appointment.
+	 * @param fromDate the earliest start date.
+	 * @param toDate the latest start date.
+	 * @param providerId (optional) the provider, null for any provider.
+	 * @param locationId (optional) the location, null for any location.
+	 * @param excludedAppointmentBlockIds (optional) the blocks whose time slots are left out.
+	 * @param maxResults the number of time slots wanted.
+	 * @return the first time slots of non voided blocks offering the type where an appointment of
+	 *         the type fits, ordered by start date.
+	 */
+	public List<TimeSlot> search(AppointmentType appointmentType, Date fromDate, Date toDate, Integer providerId,
+	        Integer locationId, Collection<Integer> excludedAppointmentBlockIds, int maxResults) {
+		List<TimeSlot> found = new ArrayList<TimeSlot>();
+		if (maxResults <= 0)
+			return found;
+		int duration = appointmentType.getDuration() == null ? 0 : appointmentType.getDuration();
+		//Rounded down, the calendar only holds whole units of the free time of a time slot.
+		int minutes = Math.max(AvailabilityBits.UNIT_MINUTES, duration / AvailabilityBits.UNIT_MINUTES
+		        * AvailabilityBits.UNIT_MINUTES);
+		
+		List<Partition> partitions = new ArrayList<Partition>();
+		for (Object[] row : timeSlotDAO.getProviderLocations(appointmentType, fromDate, toDate, providerId, locationId,
+		    excludedAppointmentBlockIds)) {
+			Date firstFreeTime = availabilityCalendar.getFirstFreeTime((Integer) row[0], (Integer) row[1], fromDate,
+			    toDate, minutes);
+			if (firstFreeTime != null)
+				partitions.add(new Partition((Integer) row[0], (Integer) row[1], firstFreeTime));
+		}
+		Collections.sort(partitions);
+		
+		for (Partition partition : partitions) {
+			if (found.size() == maxResults
+			        && !partition.getEarliestStartDate().before(found.get(maxResults - 1).getStartDate()))
+				break;
+			TimeSlotRunScanner scanner = new TimeSlotRunScanner(duration);
+			int firstResult = 0;
+			List<TimeSlot> page;
+			do {
+				page = timeSlotDAO.getTimeSlots(appointmentType, fromDate, toDate, partition.providerId,
+				    partition.locationId, excludedAppointmentBlockIds, firstResult, maxResults);
+				firstResult += page.size();
+			} while (merge(found, page, scanner, maxResults) && page.size() == maxResults);
+		}
+		return found;
+	}
+	
+	/**
+	 * Adds the time slots of a page where the appointment fits to the found ones, keeping the first
+	 * ones only.
+	 * 
+	 * @return whether the next page may still hold time slots to keep.
+	 */
+	private boolean merge(List<TimeSlot> found, List<TimeSlot> page, TimeSlotRunScanner scanner, int maxResults) {
+		Map<Integer, Integer> bookedMinutes = timeSlotDAO.getBookedMinutes(page);
+		for (TimeSlot timeSlot : page) {
+			Date earliestStartDate = scanner.getPendingStartDate();
+			if (earliestStartDate == null)
+				earliestStartDate = timeSlot.getStartDate();
+			if (found.size() == maxResults && !earliestStartDate.before(found.get(maxResults - 1).getStartDate()))
+				return false;
+			Integer booked = bookedMinutes.get(timeSlot.getTimeSlotId());
+			TimeSlot fitting = scanner.next(timeSlot, booked == null ? 0 : booked);
+			if (fitting == null)
+				continue;
+			int index = Collections.binarySearch(found, fitting, START_DATE_ORDER);
+			found.add(index < 0 ? -index - 1 : index, fitting);
+			if (found.size() > maxResults)
+				found.remove(maxResults);
+		}
+		return true;
+	}
+	
+	/**
+	 * A provider at a location, with its first free time.
+	 */
+	private static class Partition implements Comparable<Partition> {
+		
+		private final Integer providerId;
+		
+		private final Integer locationId;
+		
+		private final Date firstFreeTime;
+		
+		Partition(Integer providerId, Integer locationId, Date firstFreeTime) {
+			this.providerId = providerId;
+			this.locationId = locationId;
+			this.firstFreeTime = firstFreeTime;
+		}
+		
+		/**
+		 * @return the start of the day of the first free time: a time slot may start before its free
+		 *         time, but clinic time slots are not booked past midnight.
+		 */
+		Date getEarliestStartDate() {
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(firstFreeTime);
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			return calendar.getTime();
+		}
+		
+		public int compareTo(Partition other) {
+			return firstFreeTime.compareTo(other.firstFreeTime);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.availability;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.module.appointment.TimeSlot;
+
+/**
+ * Books appointments in memory into locked time slots, for the operations placing many
+ * appointments in one transaction. Where an appointment fits is found with a
+ * {@link TimeSlotRunScanner}, as when booking a single one, and the appointments booked here are
+ * counted in the following checks, including those running into the following time slots.
+ */
+public class TimeSlotBookings {
+
+	private static final long MINUTE = 60 * 1000L;
+
+	/**
+	 * The time slots of each block, ordered by start date.
+	 */
+	private final Map<Integer, List<TimeSlot>> blockTimeSlots = new LinkedHashMap<Integer, List<TimeSlot>>();
+
+	/**
+	 * The minutes booked by the appointments of each time slot, by time slot id.
+	 */
+	private final Map<Integer, Integer> ownMinutes = new HashMap<Integer, Integer>();
+
+	/**
+	 * @param timeSlots the time slots, ordered by start date.
+	 * @param bookedMinutes the minutes booked from the start of each time slot, by time slot id, as
+	 *            by {@link org.openmrs.module.appointment.api.db.TimeSlotDAO#getBookedMinutes}.
+	 */
+	public TimeSlotBookings(List<TimeSlot> timeSlots, Map<Integer, Integer> bookedMinutes) {
+		for (TimeSlot timeSlot : timeSlots) {
+			Integer appointmentBlockId = timeSlot.getAppointmentBlock().getAppointmentBlockId();
+			List<TimeSlot> slots = blockTimeSlots.get(appointmentBlockId);
+			if (slots == null) {
+				slots = new ArrayList<TimeSlot>();
+				blockTimeSlots.put(appointmentBlockId, slots);
+			}
+			slots.add(timeSlot);
+		}
+		//The minutes of the appointments running into a time slot are taken back from it, except for
+		//the first time slot of a block, whose previous ones are not known.
+		for (List<TimeSlot> slots : blockTimeSlots.values()) {
+			long bookedUntil = Long.MIN_VALUE;
+			for (TimeSlot timeSlot : slots) {
+				long startDate = timeSlot.getStartDate().getTime();
+				Integer booked = bookedMinutes.get(timeSlot.getTimeSlotId());
+				long bookedEnd = startDate + (booked == null ? 0 : booked) * MINUTE;
+				long own = bookedEnd - Math.max(startDate, bookedUntil);
+				if (own > 0)
+					ownMinutes.put(timeSlot.getTimeSlotId(), (int) (own / MINUTE));
+				bookedUntil = Math.max(bookedUntil, bookedEnd);
+			}
+		}
+	}
+
+	/**
+	 * @param timeSlot one of the time slots.
+	 * @param duration the duration of the appointment, in minutes.
+	 * @return true if an appointment of the duration fits in the time slot.
+	 */
+	public boolean fits(TimeSlot timeSlot, int duration) {
+		List<TimeSlot> slots = blockTimeSlots.get(timeSlot.getAppointmentBlock().getAppointmentBlockId());
+		if (slots == null)
+			return false;
+		long toDate = timeSlot.getStartDate().getTime() + duration * MINUTE;
+		for (TimeSlot fitting : scan(slots, duration, toDate)) {
+			if (fitting.getTimeSlotId().equals(timeSlot.getTimeSlotId()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param duration the duration of the appointment, in minutes.
+	 * @return the time slots an appointment of the duration fits in, ordered by start date.
+	 */
+	public List<TimeSlot> getFittingTimeSlots(int duration) {
+		List<TimeSlot> fitting = new ArrayList<TimeSlot>();
+		for (List<TimeSlot> slots : blockTimeSlots.values())
+			fitting.addAll(scan(slots, duration, Long.MAX_VALUE));
+		if (blockTimeSlots.size() > 1) {
+			Collections.sort(fitting, new Comparator<TimeSlot>() {
+
+				public int compare(TimeSlot timeSlot, TimeSlot other) {
+					return timeSlot.getStartDate().compareTo(other.getStartDate());
+				}
+			});
+		}
+		return fitting;
+	}
+
+	/**
+	 * Counts an appointment booked in a time slot in the following checks.
+	 *
+	 * @param timeSlot one of the time slots.
+	 * @param duration the duration of the appointment, in minutes.
+	 */
+	public void book(TimeSlot timeSlot, int duration) {
+		Integer own = ownMinutes.get(timeSlot.getTimeSlotId());
+		ownMinutes.put(timeSlot.getTimeSlotId(), (own == null ? 0 : own) + duration);
+	}
+
+	private List<TimeSlot> scan(List<TimeSlot> slots, int duration, long toDate) {
+		List<TimeSlot> fitting = new ArrayList<TimeSlot>();
+		TimeSlotRunScanner scanner = new TimeSlotRunScanner(duration);
+		long bookedUntil = Long.MIN_VALUE;
+		for (TimeSlot timeSlot : slots) {
+			long startDate = timeSlot.getStartDate().getTime();
+			if (startDate >= toDate)
+				break;
+			Integer own = ownMinutes.get(timeSlot.getTimeSlotId());
+			long bookedEnd = Math.max(startDate, bookedUntil) + (own == null ? 0 : own) * MINUTE;
+			bookedUntil = Math.max(bookedUntil, bookedEnd);
+			TimeSlot next = scanner.next(timeSlot, (int) ((bookedEnd - startDate) / MINUTE));
+			if (next != null)
+				fitting.add(next);
+		}
+		return fitting;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.availability;
+
+import java.util.Date;
+import java.util.LinkedList;
+
+import org.openmrs.module.appointment.TimeSlot;
+
+/**
+ * Finds where appointments of a given duration fit, in a single scan of time slots ordered by start
+ * date. An appointment fits in a time slot with enough free minutes, or else starts a run of
+ * consecutive free time slots of the same block whose lengths add up to its duration, and runs on
+ * into the following slots of the run. A sliding window holds the free time slots seen since the
+ * last booked one: each slot added to it completes at most one run, starting at its first slot.
+ */
+public class TimeSlotRunScanner {
+	
+	private final int duration;
+	
+	private final LinkedList<TimeSlot> window = new LinkedList<TimeSlot>();
+	
+	private long windowMinutes;
+	
+	/**
+	 * @param duration the duration of the appointments, in minutes.
+	 */
+	public TimeSlotRunScanner(int duration) {
+		this.duration = duration;
+	}
+	
+	/**
+	 * Scans the next time slot.
+	 * 
+	 * @param timeSlot the time slot, starting no earlier than the previous one.
+	 * @param bookedMinutes the minutes booked from its start.
+	 * @return the time slot an appointment can now be booked in, null if none.
+	 */
+	public TimeSlot next(TimeSlot timeSlot, int bookedMinutes) {
+		long minutes = getMinutes(timeSlot);
+		if (bookedMinutes > 0 || !window.isEmpty() && !continues(window.getLast(), timeSlot)) {
+			window.clear();
+			windowMinutes = 0;
+		}
+		if (bookedMinutes > 0)
+			return minutes - bookedMinutes >= duration ? timeSlot : null;
+		
+		window.addLast(timeSlot);
+		windowMinutes += minutes;
+		if (windowMinutes < duration)
+			return null;
+		TimeSlot first = window.removeFirst();
+		windowMinutes -= getMinutes(first);
+		return first;
+	}
+	
+	/**
+	 * @return the start date of the earliest time slot a run still to complete may start at, null if
+	 *         no run is in progress.
+	 */
+	public Date getPendingStartDate() {
+		return window.isEmpty() ? null : window.getFirst().getStartDate();
+	}
+	
+	private boolean continues(TimeSlot previous, TimeSlot timeSlot) {
+		return previous.getAppointmentBlock().getAppointmentBlockId().equals(
+		    timeSlot.getAppointmentBlock().getAppointmentBlockId())
+		        && previous.getEndDate().getTime() == timeSlot.getStartDate().getTime();
+	}
+	
+	private static long getMinutes(TimeSlot timeSlot) {
+		return (timeSlot.getEndDate().getTime() - timeSlot.getStartDate().getTime()) / (60 * 1000L);
+	}
+}
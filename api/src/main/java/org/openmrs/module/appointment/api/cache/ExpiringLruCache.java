@@ -0,0 +1,175 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small thread safe cache holding at most a given number of entries, evicting the least recently
+ * used one when full, and forgetting entries older than a given age. Hits and misses are counted so
+ * the effectiveness of the cache can be monitored.
+ */
+public class ExpiringLruCache<K, V> {
+
+	private final String name;
+
+	private final int maxEntries;
+
+	private final long maxAgeMillis;
+
+	private final Map<K, Entry<V>> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param name the name the cache is reported under.
+	 * @param maxEntries the maximum number of entries.
+	 * @param maxAgeMillis how long an entry is valid, in milliseconds.
+	 */
+	public ExpiringLruCache(String name, final int maxEntries, long maxAgeMillis) {
+		this.name = name;
+		this.maxEntries = maxEntries;
+		this.maxAgeMillis = maxAgeMillis;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				return size() > ExpiringLruCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached value, null if there is none or it expired.
+	 */
+	public V get(K key) {
+		synchronized (entries) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null && System.currentTimeMillis() - entry.created > maxAgeMillis) {
+				entries.remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
+	}
+
+	public void put(K key, V value) {
+		synchronized (entries) {
+			entries.put(key, new Entry<V>(value));
+		}
+	}
+
+	/**
+	 * Removes the entry of the given key, if any.
+	 */
+	public void remove(K key) {
+		synchronized (entries) {
+			if (entries.remove(key) != null)
+				evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes all entries whose value equals the given one.
+	 */
+	public void removeValue(V value) {
+		synchronized (entries) {
+			for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext();) {
+				Entry<V> entry = it.next();
+				if (value == null ? entry.value == null : value.equals(entry.value)) {
+					it.remove();
+					evictions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the keys of the entries, expired ones included.
+	 */
+	public List<K> getKeys() {
+		synchronized (entries) {
+			return new ArrayList<K>(entries.keySet());
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			evictions.addAndGet(entries.size());
+			entries.clear();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counters.
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	private static class Entry<V> {
+
+		final V value;
+
+		final long created = System.currentTimeMillis();
+
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.module.appointment.api.PatientAppointmentSummary;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Caches the {@link PatientAppointmentSummary} of recently looked up patients, by patient id.
+ * <p>
+ * A summary loaded while another transaction changes the appointments of its patient could hold
+ * data that is outdated once that transaction commits. Every eviction therefore moves the cache to
+ * a new generation, and a summary is only stored if no eviction happened since its loading started.
+ */
+public class PatientAppointmentCache implements PatientAppointmentCacheMBean {
+
+	private final ExpiringLruCache<Integer, PatientAppointmentSummary> summaries;
+
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Creates a cache of 10000 patients, each kept at most 5 minutes.
+	 */
+	public PatientAppointmentCache() {
+		this(10000, 300);
+	}
+
+	/**
+	 * @param maxEntries the maximum number of cached patients.
+	 * @param maxAgeSeconds how long a summary is used before being loaded again.
+	 */
+	public PatientAppointmentCache(int maxEntries, int maxAgeSeconds) {
+		summaries = new ExpiringLruCache<Integer, PatientAppointmentSummary>("patientAppointments", maxEntries,
+		        maxAgeSeconds * 1000L);
+	}
+
+	/**
+	 * @return the cached summary of the patient, null if there is none or its next appointment has
+	 *         started since it was loaded.
+	 */
+	public PatientAppointmentSummary get(Integer patientId) {
+		PatientAppointmentSummary summary = summaries.get(patientId);
+		if (summary != null && summary.isNextAppointmentPast()) {
+			summaries.remove(patientId);
+			return null;
+		}
+		return summary;
+	}
+
+	/**
+	 * @return the current generation, to be read before loading a summary and passed to
+	 *         {@link #put(PatientAppointmentSummary, long)}.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Stores a summary, unless an eviction happened since the given generation.
+	 *
+	 * @param summary the loaded summary.
+	 * @param loadGeneration the generation read before loading it.
+	 */
+	public void put(PatientAppointmentSummary summary, long loadGeneration) {
+		synchronized (generation) {
+			if (generation.get() == loadGeneration)
+				summaries.put(summary.getPatientId(), summary);
+		}
+	}
+
+	/**
+	 * Evicts a patient now, so that the current transaction sees its own changes, and once more when
+	 * the transaction completes, since a summary loaded in between may hold uncommitted data.
+	 *
+	 * @param patientId the patient whose appointments changed.
+	 */
+	public void evict(final Integer patientId) {
+		if (patientId == null)
+			return;
+		evictNow(patientId);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCompletion(int status) {
+					evictNow(patientId);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Evicts every patient, now and when the current transaction completes. Used when time slots
+	 * change, which can move the appointments of any patient.
+	 */
+	public void evictAll() {
+		clear();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCompletion(int status) {
+					clear();
+				}
+			});
+		}
+	}
+
+	private void evictNow(Integer patientId) {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			summaries.remove(patientId);
+		}
+	}
+
+	public void clear() {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			summaries.clear();
+		}
+	}
+
+	public int getSize() {
+		return summaries.getSize();
+	}
+
+	public int getMaxEntries() {
+		return summaries.getMaxEntries();
+	}
+
+	public long getHits() {
+		return summaries.getHits();
+	}
+
+	public long getMisses() {
+		return summaries.getMisses();
+	}
+
+	public long getEvictions() {
+		return summaries.getEvictions();
+	}
+
+	public void resetStatistics() {
+		summaries.resetStatistics();
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.cluster;
+
+import java.util.List;
+
+import org.openmrs.module.appointment.AppointmentChange;
+
+/**
+ * Notified by {@link ChangeLog} of the changes committed by any node, this one included.
+ */
+public interface ChangeListener {
+
+	/**
+	 * Called from the polling thread, outside of any transaction and OpenMRS session.
+	 *
+	 * @param changes the newly committed changes, in id order.
+	 */
+	void onChanges(List<AppointmentChange> changes);
+}
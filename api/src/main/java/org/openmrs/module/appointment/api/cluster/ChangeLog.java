@@ -0,0 +1,281 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.cluster;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.api.db.AppointmentChangeDAO;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The module's invalidation bus between the OpenMRS nodes sharing a database. Every change made
+ * through AppointmentService is written to the appointment_change table in the transaction of the
+ * change; each node polls the table and hands the changes committed since its last poll to its
+ * {@link ChangeListener}s, which evict what they cached about the changed objects.
+ * <p>
+ * Polling follows a high-water mark, the highest change id seen. Since ids are assigned before
+ * their transactions commit, the changes of the last lookback seconds are also read again and
+ * those not seen yet are delivered late rather than missed. The lookback must exceed the longest
+ * transaction and the clock difference between the nodes.
+ * <p>
+ * Configured by runtime properties: appointment.changeLog.pollSeconds (default 5, 0 disables
+ * polling), appointment.changeLog.lookbackSeconds (default 60) and appointment.changeLog.nodeId
+ * (default the process name, pid@host).
+ */
+public class ChangeLog {
+
+	public static final String POLL_SECONDS_PROPERTY = "appointment.changeLog.pollSeconds";
+
+	public static final String LOOKBACK_SECONDS_PROPERTY = "appointment.changeLog.lookbackSeconds";
+
+	public static final String NODE_ID_PROPERTY = "appointment.changeLog.nodeId";
+
+	private static final int BATCH_SIZE = 500;
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private AppointmentChangeDAO appointmentChangeDAO;
+
+	private PlatformTransactionManager transactionManager;
+
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+
+	private String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+
+	private int pollSeconds = 5;
+
+	private int lookbackSeconds = 60;
+
+	private final Object pollLock = new Object();
+
+	private int highWaterMark = -1;
+
+	/**
+	 * The ids of the changes delivered within the lookback, with the time they were delivered.
+	 */
+	private final Map<Integer, Long> deliveredChanges = new LinkedHashMap<Integer, Long>();
+
+	private ScheduledExecutorService executor;
+
+	public void setAppointmentChangeDAO(AppointmentChangeDAO appointmentChangeDAO) {
+		this.appointmentChangeDAO = appointmentChangeDAO;
+	}
+
+	public AppointmentChangeDAO getAppointmentChangeDAO() {
+		return appointmentChangeDAO;
+	}
+
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	public void addListener(ChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(ChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the id of this node, written with its changes.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @return whether the change was made by this node.
+	 */
+	public boolean isLocal(AppointmentChange change) {
+		return nodeId.equals(change.getNodeId());
+	}
+
+	/**
+	 * Writes a change, in the current transaction.
+	 *
+	 * @param entityType the simple class name of the changed object.
+	 * @param entityId the id of the changed object.
+	 * @param patientId the patient of the changed object, if any.
+	 * @param action one of the {@link AppointmentChange} ACTION constants.
+	 */
+	public void record(String entityType, Integer entityId, Integer patientId, String action) {
+		if (entityId == null)
+			return;
+		appointmentChangeDAO.saveOrUpdate(new AppointmentChange(entityType, entityId, patientId, action, nodeId));
+	}
+
+	/**
+	 * Writes many changes at once, in the current transaction.
+	 *
+	 * @param changes the changes, to which the id of this node is set.
+	 */
+	public void recordAll(List<AppointmentChange> changes) {
+		for (AppointmentChange change : changes)
+			change.setNodeId(nodeId);
+		appointmentChangeDAO.insertChanges(changes);
+	}
+
+	/**
+	 * Reads the runtime properties and starts polling, unless already started or disabled.
+	 */
+	public synchronized void start() {
+		if (executor != null)
+			return;
+		Properties properties = Context.getRuntimeProperties();
+		pollSeconds = getIntegerProperty(properties, POLL_SECONDS_PROPERTY, pollSeconds);
+		lookbackSeconds = getIntegerProperty(properties, LOOKBACK_SECONDS_PROPERTY, lookbackSeconds);
+		if (properties.getProperty(NODE_ID_PROPERTY) != null)
+			nodeId = properties.getProperty(NODE_ID_PROPERTY).trim();
+		if (pollSeconds <= 0) {
+			log.info("Appointment change log polling is disabled");
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "appointment-change-log");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				try {
+					poll();
+				}
+				catch (Exception e) {
+					log.warn("Unable to poll the appointment change log", e);
+				}
+			}
+		}, 0, pollSeconds, TimeUnit.SECONDS);
+		log.info("Polling the appointment change log every " + pollSeconds + " seconds as node " + nodeId);
+	}
+
+	/**
+	 * Stops polling.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Reads the changes committed since the previous poll and delivers them to the listeners. The
+	 * first poll only sets the high-water mark to the latest change.
+	 *
+	 * @return the number of delivered changes.
+	 */
+	public int poll() {
+		List<AppointmentChange> changes;
+		synchronized (pollLock) {
+			//Not read-only, so that a lagging read replica never hides changes from the poll.
+			TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+			changes = transactionTemplate.execute(new TransactionCallback<List<AppointmentChange>>() {
+
+				public List<AppointmentChange> doInTransaction(TransactionStatus status) {
+					return readChanges();
+				}
+			});
+		}
+		if (changes.isEmpty())
+			return 0;
+		for (ChangeListener listener : listeners) {
+			try {
+				listener.onChanges(changes);
+			}
+			catch (RuntimeException e) {
+				log.warn("Change listener " + listener + " failed", e);
+			}
+		}
+		return changes.size();
+	}
+
+	private List<AppointmentChange> readChanges() {
+		List<AppointmentChange> changes = new ArrayList<AppointmentChange>();
+		long now = System.currentTimeMillis();
+		long lookbackMillis = lookbackSeconds * 1000L;
+		if (highWaterMark < 0) {
+			//Changes made before this node started are of no interest, not even late ones.
+			highWaterMark = appointmentChangeDAO.getLastChangeId();
+			for (AppointmentChange change : appointmentChangeDAO.getRecentChanges(new Date(now - lookbackMillis),
+			    highWaterMark, Integer.MAX_VALUE))
+				deliveredChanges.put(change.getAppointmentChangeId(), now);
+			return changes;
+		}
+
+		//Late commits below the high-water mark first, then everything above it.
+		List<AppointmentChange> candidates = new ArrayList<AppointmentChange>(appointmentChangeDAO.getRecentChanges(
+		    new Date(now - lookbackMillis), highWaterMark, BATCH_SIZE));
+		List<AppointmentChange> batch;
+		int afterChangeId = highWaterMark;
+		do {
+			batch = appointmentChangeDAO.getChangesAfter(afterChangeId, BATCH_SIZE);
+			candidates.addAll(batch);
+			if (!batch.isEmpty())
+				afterChangeId = batch.get(batch.size() - 1).getAppointmentChangeId();
+		} while (batch.size() == BATCH_SIZE);
+
+		for (AppointmentChange change : candidates) {
+			if (deliveredChanges.containsKey(change.getAppointmentChangeId()))
+				continue;
+			deliveredChanges.put(change.getAppointmentChangeId(), now);
+			changes.add(change);
+		}
+		highWaterMark = afterChangeId;
+
+		//Ids delivered before the lookback can no longer be read again.
+		for (Iterator<Long> it = deliveredChanges.values().iterator(); it.hasNext();) {
+			if (it.next() >= now - 2 * lookbackMillis)
+				break;
+			it.remove();
+		}
+		return changes;
+	}
+
+	private int getIntegerProperty(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value of runtime property " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+}
@@ -15,11 +15,63 @@ package org.openmrs.module.appointment.api.db;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.openmrs.Location;
+import org.openmrs.User;
 import org.openmrs.module.appointment.AppointmentBlock;
 
 public interface AppointmentBlockDAO extends SingleClassDAO {
 	
 	List<AppointmentBlock> getAppointmentBlocks(Date fromDate, Date toDate, Location location);
+	
+	/**
+	 * Probes the index of the blocks by provider and dates for the blocks overlapping a given one:
+	 * the last block starting no later than it, and the blocks starting while it runs. As the blocks
+	 * of a provider do not overlap, no earlier block can. Reads the database without flushing the
+	 * session, so that the given block is not flushed before it is validated. Takes no lock, so
+	 * blocks saved at the same time in other transactions are not seen.
+	 * 
+	 * @param appointmentBlock a block with a provider and dates.
+	 * @return the other non voided blocks of its provider overlapping it, ordered by start date.
+	 */
+	List<AppointmentBlock> getOverlappingAppointmentBlocks(AppointmentBlock appointmentBlock);
+	
+	/**
+	 * Reads the provider of a block as saved in the database, ignoring the changes of the session
+	 * which are not flushed yet.
+	 * 
+	 * @param appointmentBlockId the id of the block.
+	 * @return the id of the saved provider of the block, null if it is not saved.
+	 */
+	Integer getSavedProviderId(Integer appointmentBlockId);
+	
+	/**
+	 * Voids the time slots and appointments of a block which are not voided yet, with bulk updates,
+	 * and closes the current status of each voided appointment in its status history. They are
+	 * voided at the date voided of the block as stored in the database, which may have dropped the
+	 * milliseconds, so the block is flushed first. The time slots and appointments already loaded in
+	 * the session are not refreshed.
+	 * 
+	 * @param appointmentBlock the voided block.
+	 * @param voidedBy the user voiding the block.
+	 * @param voidReason the void reason of the block.
+	 * @return the ids of the voided appointments, mapped to the ids of their patients.
+	 */
+	Map<Integer, Integer> voidTimeSlotsAndAppointments(AppointmentBlock appointmentBlock, User voidedBy, String voidReason);
+	
+	/**
+	 * Unvoids the time slots and appointments of a block which were voided along with it, that is
+	 * at its date voided as stored in the database, with bulk updates, and records the time each
+	 * unvoided appointment was voided in its status history, with the VOIDED status. Must be called
+	 * before the unvoided block is saved. The time slots and appointments already loaded in the
+	 * session are not refreshed.
+	 * 
+	 * @param appointmentBlock the block being unvoided.
+	 * @param unvoidedBy the user unvoiding the block, set as the changer of the appointments.
+	 * @param dateUnvoided the date the block is unvoided.
+	 * @return the ids of the unvoided appointments, mapped to the ids of their patients.
+	 */
+	Map<Integer, Integer> unvoidTimeSlotsAndAppointments(AppointmentBlock appointmentBlock, User unvoidedBy,
+	        Date dateUnvoided);
 }
@@ -0,0 +1,76 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db;
+
+import java.util.Date;
+import java.util.List;
+
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.api.cluster.ChangeLog;
+
+/**
+ * Database methods for {@link ChangeLog}.
+ */
+public interface AppointmentChangeDAO extends SingleClassDAO {
+	
+	/**
+	 * @return the id of the latest change, 0 if there is none.
+	 */
+	int getLastChangeId();
+	
+	/**
+	 * @param afterChangeId the id after which changes are returned.
+	 * @param maxResults the maximum number of changes to return.
+	 * @return the changes after the given id, in id order.
+	 */
+	List<AppointmentChange> getChangesAfter(int afterChangeId, int maxResults);
+	
+	/**
+	 * Returns the recent changes up to a given id. Ids are assigned when a change is written but
+	 * become visible when its transaction commits, so a change can show up after changes with
+	 * higher ids have been read; reading the recent ones again finds it.
+	 * 
+	 * @param since the date since which changes are returned.
+	 * @param upToChangeId the highest id to return.
+	 * @param maxResults the maximum number of changes to return.
+	 * @return the changes, in id order.
+	 */
+	List<AppointmentChange> getRecentChanges(Date since, int upToChangeId, int maxResults);
+	
+	/**
+	 * Deletes the changes written before a given date.
+	 * 
+	 * @param before the date before which changes are deleted.
+	 * @return the number of deleted changes.
+	 */
+	int deleteChangesBefore(Date before);
+	
+	/**
+	 * Inserts changes with a single batched statement, bypassing the session.
+	 * 
+	 * @param changes the changes.
+	 */
+	void insertChanges(List<AppointmentChange> changes);
+	
+	/**
+	 * Finds the appointment block of the object a change is about: the block itself, or the block of
+	 * the changed time slot, appointment or appointment status history.
+	 * 
+	 * @param change the change.
+	 * @return the block, null if the object has been purged or belongs to no block.
+	 */
+	AppointmentBlock getAppointmentBlock(AppointmentChange change);
+	
+}
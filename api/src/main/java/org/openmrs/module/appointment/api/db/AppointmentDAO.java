@@ -15,13 +15,19 @@ package org.openmrs.module.appointment.api.db;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.openmrs.Patient;
 import org.openmrs.Provider;
+import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentBlock;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentSearchCriteria;
+import org.openmrs.module.appointment.api.AppointmentSearchResult;
 import org.openmrs.module.appointment.api.AppointmentService;
 
 /**
@@ -31,8 +37,87 @@ public interface AppointmentDAO extends SingleClassDAO {
 	
 	List<Appointment> getAppointmentsByPatient(Patient patient);
 	
+	/**
+	 * @param patient the patient.
+	 * @param includeVoided whether voided appointments should be returned.
+	 * @param fromDate (optional) earliest start date of the time slot.
+	 * @param toDate (optional) latest start date of the time slot.
+	 * @param startAfter (optional) the appointment to continue after.
+	 * @param maxResults the maximum number of appointments to return.
+	 * @return the appointments of the patient, most recent time slot first.
+	 */
+	List<Appointment> getAppointmentsByPatient(Patient patient, boolean includeVoided, Date fromDate, Date toDate,
+	        Appointment startAfter, int maxResults);
+	
 	Appointment getAppointmentByVisit(Visit visit);
 	
 	Appointment getLastAppointment(Patient patient);
 	
+	/**
+	 * Reads the patient and time slot of an appointment as saved in the database, with the provider
+	 * and dates of the block of the time slot, in one query ignoring the changes of the session which
+	 * are not flushed yet.
+	 * 
+	 * @param appointmentId the id of the appointment.
+	 * @return the saved appointment, null if it is not saved.
+	 */
+	SavedAppointment getSavedAppointment(Integer appointmentId);
+	
+	/**
+	 * @param patient the patient.
+	 * @param fromDate the date after which the time slot must start.
+	 * @return the non voided, not cancelled appointment of the patient starting first after the
+	 *         date, null if there is none.
+	 */
+	Appointment getNextAppointment(Patient patient, Date fromDate);
+	
+	/**
+	 * Finds the patients having, for every given word, a name or an identifier starting with it.
+	 * 
+	 * @param words the lower case words, made of letters, digits and dashes only.
+	 * @param maxResults the maximum number of ids to return.
+	 * @return the ids of the matching patients.
+	 */
+	List<Integer> getPatientIdsByWords(List<String> words, int maxResults);
+	
+	/**
+	 * Finds the appointments matching the criteria, ordered by start date then id.
+	 * 
+	 * @param criteria the constraints, its patient query is ignored.
+	 * @param patientIds (optional) the patients to restrict the search to.
+	 * @param maxResults the maximum number of rows to return.
+	 * @return the matching rows, with their patient names and identifiers.
+	 */
+	List<AppointmentSearchResult> searchAppointments(AppointmentSearchCriteria criteria, List<Integer> patientIds,
+	        int maxResults);
+	
+	/**
+	 * @param appointmentBlock the block.
+	 * @param status the status of the appointments.
+	 * @return the non voided appointments with the status in the non voided time slots of the block,
+	 *         with their time slots and types, ordered by start date then id.
+	 */
+	List<Appointment> getAppointmentsInAppointmentBlock(AppointmentBlock appointmentBlock, String status);
+	
+	/**
+	 * Moves appointments to other time slots with a single batched update, and closes their current
+	 * status in their status history with a single batched insert. An appointment is only moved if it
+	 * is still in the time slot and the status it was read with, and not voided. The moved
+	 * appointments are evicted from the session.
+	 * 
+	 * @param moves the appointments, mapped to their new time slots.
+	 * @param changedBy the user moving the appointments.
+	 * @param dateChanged the date of the move.
+	 * @return the ids of the moved appointments.
+	 */
+	Set<Integer> moveAppointments(Map<Appointment, TimeSlot> moves, User changedBy, Date dateChanged);
+	
+	/**
+	 * @param status the status of the appointments.
+	 * @param endedBefore the date before which their time slots ended.
+	 * @return the number of non voided appointments with the status whose non voided time slot ended
+	 *         before the date.
+	 */
+	long getAppointmentCount(String status, Date endedBefore);
+	
 }
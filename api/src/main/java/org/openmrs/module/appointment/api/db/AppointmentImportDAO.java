@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.importer.AppointmentImporter;
+
+/**
+ * Database methods for {@link AppointmentImporter}: lookups of many references at once and batched
+ * inserts.
+ */
+public interface AppointmentImportDAO {
+	
+	/**
+	 * @param identifiers provider identifiers.
+	 * @return the non retired providers with the given identifiers, by identifier; the oldest one
+	 *         if several share an identifier.
+	 */
+	Map<String, Provider> getProvidersByIdentifier(Collection<String> identifiers);
+	
+	/**
+	 * @param names location names.
+	 * @return the non retired locations with the given names, by name.
+	 */
+	Map<String, Location> getLocationsByName(Collection<String> names);
+	
+	/**
+	 * @param identifiers patient identifiers, of any type.
+	 * @return the non voided patients with the given identifiers, by identifier; an identifier
+	 *         shared by several patients maps to null.
+	 */
+	Map<String, Patient> getPatientsByIdentifier(Collection<String> identifiers);
+	
+	/**
+	 * @param providers the providers of the blocks.
+	 * @param fromDate the earliest start date.
+	 * @param toDate the latest start date.
+	 * @return the non voided time slots of the non voided blocks of the providers, with their blocks,
+	 *         ordered by start date and locked until the end of the transaction as when booking an appointment.
+	 */
+	List<TimeSlot> getTimeSlots(Collection<Provider> providers, Date fromDate, Date toDate);
+	
+	/**
+	 * Inserts new time slots with a single batched statement, bypassing the session, then sets their
+	 * ids. The slots must have their uuid, creator and date created set, and belong to blocks which
+	 * had no time slots before.
+	 * 
+	 * @param timeSlots the time slots.
+	 */
+	void insertTimeSlots(List<TimeSlot> timeSlots);
+	
+	/**
+	 * Inserts new appointments with a single batched statement, bypassing the session, then sets
+	 * their ids. The appointments must have their uuid, creator and date created set.
+	 * 
+	 * @param appointments the appointments.
+	 */
+	void insertAppointments(List<Appointment> appointments);
+	
+}
@@ -14,5 +14,10 @@
 package org.openmrs.module.appointment.api.db;
 
 public interface AppointmentTypeDAO extends SingleClassDAO {
+	
+	/**
+	 * Drops the cached names of the appointment types, after another node changed them.
+	 */
+	void invalidateNameIndex();
 
 }
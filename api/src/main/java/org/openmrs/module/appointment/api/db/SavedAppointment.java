@@ -0,0 +1,63 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db;
+
+import java.util.Date;
+
+/**
+ * Where an appointment is as saved in the database, as returned by
+ * {@link AppointmentDAO#getSavedAppointment(Integer)}: its patient, its time slot, and the provider
+ * and dates of the block of the time slot.
+ */
+public class SavedAppointment {
+
+	private final Integer patientId;
+
+	private final Integer timeSlotId;
+
+	private final Integer providerId;
+
+	private final Date blockStartDate;
+
+	private final Date blockEndDate;
+
+	public SavedAppointment(Integer patientId, Integer timeSlotId, Integer providerId, Date blockStartDate,
+	    Date blockEndDate) {
+		this.patientId = patientId;
+		this.timeSlotId = timeSlotId;
+		this.providerId = providerId;
+		this.blockStartDate = blockStartDate;
+		this.blockEndDate = blockEndDate;
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public Integer getTimeSlotId() {
+		return timeSlotId;
+	}
+
+	public Integer getProviderId() {
+		return providerId;
+	}
+
+	public Date getBlockStartDate() {
+		return blockStartDate;
+	}
+
+	public Date getBlockEndDate() {
+		return blockEndDate;
+	}
+}
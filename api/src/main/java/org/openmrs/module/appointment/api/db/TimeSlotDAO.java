@@ -13,9 +13,12 @@
  */
 package org.openmrs.module.appointment.api.db;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import org.openmrs.Location;
 import org.openmrs.Provider;
 import org.openmrs.api.APIException;
 import org.openmrs.module.appointment.Appointment;
@@ -41,11 +44,13 @@ public interface TimeSlotDAO extends SingleClassDAO {
 	 * @param fromDate - (optional) earliest start date.
 	 * @param toDate - (optional) latest start date.
 	 * @param provider - (optional) the appointment's provider.
-	 * @return List of TimeSlots that stands within the given constraints, null if illegal values
-	 *         (fromDate>toDate or null appointmentType)
+	 * @param excludedAppointmentBlockIds - (optional) the blocks whose time slots are left out.
+	 * @return List of the TimeSlots of non voided blocks offering the type that stands within the
+	 *         given constraints, ordered by start date.
+	 * @throws APIException if illegal values (fromDate>toDate or null appointmentType)
 	 */
-	List<TimeSlot> getTimeSlotsByConstraints(AppointmentType appointmentType, Date fromDate, Date toDate, Provider provider)
-	        throws APIException;
+	List<TimeSlot> getTimeSlotsByConstraints(AppointmentType appointmentType, Date fromDate, Date toDate,
+	        Provider provider, Collection<Integer> excludedAppointmentBlockIds) throws APIException;
 	
 	/**
 	 * Return a list of time slots that are associated with the given Appointment Block
@@ -55,4 +60,69 @@ public interface TimeSlotDAO extends SingleClassDAO {
 	 *         (null appointmentBlock)
 	 */
 	List<TimeSlot> getTimeSlotsByAppointmentBlock(AppointmentBlock appointmentBlock);
+	
+	/**
+	 * Returns the time slots appointments can be moved to, locked until the end of the transaction.
+	 * 
+	 * @param appointmentBlock (optional) the block of the time slots.
+	 * @param provider (optional) the provider of the blocks of the time slots.
+	 * @param location (optional) the location of the blocks of the time slots.
+	 * @param fromDate (optional) earliest start date.
+	 * @param toDate (optional) latest start date.
+	 * @return the non voided time slots of non voided blocks, with their blocks, ordered by start
+	 *         date.
+	 */
+	List<TimeSlot> getTimeSlotsForUpdate(AppointmentBlock appointmentBlock, Provider provider, Location location,
+	        Date fromDate, Date toDate);
+	
+	/**
+	 * @param timeSlots the time slots.
+	 * @return the minutes booked in each time slot by its non voided and not cancelled appointments,
+	 *         and by those of the previous time slots of its block running into it, by time slot
+	 *         id; the time slots without such appointments are left out.
+	 */
+	Map<Integer, Integer> getBookedMinutes(Collection<TimeSlot> timeSlots);
+	
+	/**
+	 * Reads what the availability of providers is computed from, without loading any time slot.
+	 * 
+	 * @param providerIds the ids of the providers.
+	 * @param fromDate the earliest start date.
+	 * @param toDate the start date the time slots start before.
+	 * @return for each non voided time slot of a non voided block of the providers: the provider id,
+	 *         the location id, the start date, the end date and the minutes booked from its start, as
+	 *         by {@link #getBookedMinutes(Collection)}.
+	 */
+	List<Object[]> getAvailability(Collection<Integer> providerIds, Date fromDate, Date toDate);
+	
+	/**
+	 * Gets the providers and locations of the blocks a search for time slots has to look into.
+	 * 
+	 * @param appointmentType the type the blocks offer.
+	 * @param fromDate the earliest start date of the time slots.
+	 * @param toDate the latest start date of the time slots.
+	 * @param providerId (optional) the provider of the blocks.
+	 * @param locationId (optional) the location of the blocks.
+	 * @param excludedAppointmentBlockIds (optional) the blocks left out.
+	 * @return the distinct provider id and location id of the non voided blocks offering the type
+	 *         during the dates.
+	 */
+	List<Object[]> getProviderLocations(AppointmentType appointmentType, Date fromDate, Date toDate, Integer providerId,
+	        Integer locationId, Collection<Integer> excludedAppointmentBlockIds);
+	
+	/**
+	 * Gets a page of the time slots of a provider at a location.
+	 * 
+	 * @param appointmentType the type the blocks of the time slots offer.
+	 * @param fromDate the earliest start date.
+	 * @param toDate the latest start date.
+	 * @param providerId the provider of the blocks.
+	 * @param locationId the location of the blocks.
+	 * @param excludedAppointmentBlockIds (optional) the blocks whose time slots are left out.
+	 * @param firstResult the index of the first time slot of the page.
+	 * @param maxResults the size of the page.
+	 * @return the non voided time slots of non voided blocks, ordered by start date.
+	 */
+	List<TimeSlot> getTimeSlots(AppointmentType appointmentType, Date fromDate, Date toDate, Integer providerId,
+	        Integer locationId, Collection<Integer> excludedAppointmentBlockIds, int firstResult, int maxResults);
 }
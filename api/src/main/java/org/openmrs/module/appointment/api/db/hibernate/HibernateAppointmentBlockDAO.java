@@ -13,13 +13,19 @@
  */
 package org.openmrs.module.appointment.api.db.hibernate;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Restrictions;
 import org.openmrs.Location;
+import org.openmrs.User;
 import org.openmrs.module.appointment.AppointmentBlock;
 import org.openmrs.module.appointment.api.db.AppointmentBlockDAO;
 import org.openmrs.util.OpenmrsUtil;
@@ -53,4 +59,85 @@ public class HibernateAppointmentBlockDAO extends HibernateSingleClassDAO implem
 		}
 		return criteria.list();
 	}
+	
+	@Override
+	public Map<Integer, Integer> voidTimeSlotsAndAppointments(AppointmentBlock appointmentBlock, User voidedBy,
+	        String voidReason) {
+		Session session = sessionFactory.getCurrentSession();
+		//The children get the date as stored, so that they can be found by it on every database.
+		session.flush();
+		Date dateVoided = getSavedDateVoided(appointmentBlock);
+		session.getNamedQuery("Appointment.voidWithBlock").setParameter("voidedBy", voidedBy).setParameter("dateVoided",
+		    dateVoided).setParameter("voidReason", voidReason).setParameter("appointmentBlock", appointmentBlock)
+		        .executeUpdate();
+		//The voided appointments are told apart by their date voided.
+		session.getNamedQuery("AppointmentStatusHistory.insertForAppointmentsVoidedWithBlock").setParameter(
+		    "dateVoided", dateVoided).setParameter("appointmentBlock", appointmentBlock).executeUpdate();
+		session.getNamedQuery("TimeSlot.voidWithBlock").setParameter("voidedBy", voidedBy).setParameter("dateVoided",
+		    dateVoided).setParameter("voidReason", voidReason).setParameter("appointmentBlock", appointmentBlock)
+		        .executeUpdate();
+		return getAppointmentsVoidedWithBlock(appointmentBlock, dateVoided);
+	}
+	
+	@Override
+	public Map<Integer, Integer> unvoidTimeSlotsAndAppointments(AppointmentBlock appointmentBlock, User unvoidedBy,
+	        Date dateUnvoided) {
+		Session session = sessionFactory.getCurrentSession();
+		//Not flushed, as the block in the session is already unvoided.
+		Date dateVoided = getSavedDateVoided(appointmentBlock);
+		if (dateVoided == null)
+			return new LinkedHashMap<Integer, Integer>();
+		
+		Map<Integer, Integer> appointments = getAppointmentsVoidedWithBlock(appointmentBlock, dateVoided);
+		session.getNamedQuery("AppointmentStatusHistory.insertForAppointmentsUnvoidedWithBlock").setParameter(
+		    "dateUnvoided", dateUnvoided).setParameter("dateVoided", dateVoided).setInteger("appointmentBlockId",
+		    appointmentBlock.getAppointmentBlockId()).executeUpdate();
+		session.getNamedQuery("Appointment.unvoidWithBlock").setParameter("changedBy", unvoidedBy).setParameter(
+		    "dateChanged", dateUnvoided).setParameter("dateVoided", dateVoided).setParameter("appointmentBlock",
+		    appointmentBlock).executeUpdate();
+		session.getNamedQuery("TimeSlot.unvoidWithBlock").setParameter("dateVoided", dateVoided).setParameter(
+		    "appointmentBlock", appointmentBlock).executeUpdate();
+		return appointments;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentBlock> getOverlappingAppointmentBlocks(AppointmentBlock appointmentBlock) {
+		Integer appointmentBlockId = appointmentBlock.getAppointmentBlockId();
+		Session session = sessionFactory.getCurrentSession();
+		List<AppointmentBlock> overlapping = new ArrayList<AppointmentBlock>();
+		AppointmentBlock previous = (AppointmentBlock) session.getNamedQuery("AppointmentBlock.getPreviousAppointmentBlock")
+		        .setParameter("provider", appointmentBlock.getProvider()).setParameter("startDate",
+		            appointmentBlock.getStartDate()).setInteger("appointmentBlockId",
+		            appointmentBlockId == null ? 0 : appointmentBlockId).setMaxResults(1).setFlushMode(FlushMode.MANUAL)
+		        .uniqueResult();
+		if (previous != null && previous.getEndDate().after(appointmentBlock.getStartDate()))
+			overlapping.add(previous);
+		overlapping.addAll(session.getNamedQuery("AppointmentBlock.getAppointmentBlocksStartingWithin").setParameter(
+		    "provider", appointmentBlock.getProvider()).setParameter("startDate", appointmentBlock.getStartDate())
+		        .setParameter("endDate", appointmentBlock.getEndDate()).setInteger("appointmentBlockId",
+		            appointmentBlockId == null ? 0 : appointmentBlockId).setFlushMode(FlushMode.MANUAL).list());
+		return overlapping;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Integer getSavedProviderId(Integer appointmentBlockId) {
+		return (Integer) sessionFactory.getCurrentSession().getNamedQuery("AppointmentBlock.getSavedProviderId")
+		        .setInteger("appointmentBlockId", appointmentBlockId).setFlushMode(FlushMode.MANUAL).uniqueResult();
+	}
+	
+	private Date getSavedDateVoided(AppointmentBlock appointmentBlock) {
+		return (Date) sessionFactory.getCurrentSession().getNamedQuery("AppointmentBlock.getDateVoided").setParameter(
+		    "appointmentBlockId", appointmentBlock.getAppointmentBlockId()).setFlushMode(FlushMode.MANUAL).uniqueResult();
+	}
+	
+	private Map<Integer, Integer> getAppointmentsVoidedWithBlock(AppointmentBlock appointmentBlock, Date dateVoided) {
+		List<Object[]> rows = sessionFactory.getCurrentSession().getNamedQuery("Appointment.getVoidedWithBlock")
+		        .setParameter("dateVoided", dateVoided).setParameter("appointmentBlock", appointmentBlock).list();
+		Map<Integer, Integer> appointments = new LinkedHashMap<Integer, Integer>();
+		for (Object[] row : rows)
+			appointments.put((Integer) row[0], (Integer) row[1]);
+		return appointments;
+	}
 }
@@ -0,0 +1,112 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db.hibernate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.jdbc.Work;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.api.db.AppointmentChangeDAO;
+import org.springframework.transaction.annotation.Transactional;
+
+public class HibernateAppointmentChangeDAO extends HibernateSingleClassDAO implements AppointmentChangeDAO {
+	
+	public HibernateAppointmentChangeDAO() {
+		super(AppointmentChange.class);
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public int getLastChangeId() {
+		Integer lastChangeId = (Integer) sessionFactory.getCurrentSession().getNamedQuery(
+		    "AppointmentChange.getLastChangeId").uniqueResult();
+		return lastChangeId == null ? 0 : lastChangeId;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentChange> getChangesAfter(int afterChangeId, int maxResults) {
+		return sessionFactory.getCurrentSession().getNamedQuery("AppointmentChange.getChangesAfter").setInteger(
+		    "afterChangeId", afterChangeId).setMaxResults(maxResults).list();
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentChange> getRecentChanges(Date since, int upToChangeId, int maxResults) {
+		return sessionFactory.getCurrentSession().getNamedQuery("AppointmentChange.getRecentChanges").setParameter(
+		    "since", since).setInteger("upToChangeId", upToChangeId).setMaxResults(maxResults).list();
+	}
+	
+	@Override
+	@Transactional
+	public int deleteChangesBefore(Date before) {
+		return sessionFactory.getCurrentSession().getNamedQuery("AppointmentChange.deleteChangesBefore").setParameter(
+		    "before", before).executeUpdate();
+	}
+	
+	@Override
+	@Transactional
+	public void insertChanges(final List<AppointmentChange> changes) {
+		if (changes.isEmpty())
+			return;
+		sessionFactory.getCurrentSession().flush();
+		sessionFactory.getCurrentSession().doWork(new Work() {
+			
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection
+				        .prepareStatement("insert into appointment_change (entity_type, entity_id, patient_id, action,"
+				                + " node_id, date_created) values (?, ?, ?, ?, ?, ?)");
+				try {
+					for (AppointmentChange change : changes) {
+						statement.setString(1, change.getEntityType());
+						statement.setInt(2, change.getEntityId());
+						if (change.getPatientId() == null)
+							statement.setNull(3, Types.INTEGER);
+						else
+							statement.setInt(3, change.getPatientId());
+						statement.setString(4, change.getAction());
+						statement.setString(5, change.getNodeId());
+						statement.setTimestamp(6, new Timestamp(change.getDateCreated().getTime()));
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+				finally {
+					statement.close();
+				}
+			}
+		});
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public AppointmentBlock getAppointmentBlock(AppointmentChange change) {
+		if ("AppointmentBlock".equals(change.getEntityType()))
+			return (AppointmentBlock) sessionFactory.getCurrentSession().get(AppointmentBlock.class, change.getEntityId());
+		else if (!"TimeSlot".equals(change.getEntityType()) && !"Appointment".equals(change.getEntityType())
+		        && !"AppointmentStatusHistory".equals(change.getEntityType()))
+			return null;
+		return (AppointmentBlock) sessionFactory.getCurrentSession().getNamedQuery(
+		    "AppointmentChange.getAppointmentBlockOf" + change.getEntityType()).setInteger("id", change.getEntityId())
+		        .uniqueResult();
+	}
+	
+}
@@ -13,17 +13,37 @@
  */
 package org.openmrs.module.appointment.api.db.hibernate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.hibernate.FlushMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 import org.openmrs.Patient;
 import org.openmrs.Provider;
+import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentBlock;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentSearchCriteria;
+import org.openmrs.module.appointment.api.AppointmentSearchResult;
 import org.openmrs.module.appointment.api.db.AppointmentDAO;
+import org.openmrs.module.appointment.api.db.SavedAppointment;
 import org.springframework.transaction.annotation.Transactional;
 
 public class HibernateAppointmentDAO extends HibernateSingleClassDAO implements AppointmentDAO {
@@ -39,28 +59,295 @@ public class HibernateAppointmentDAO extends HibernateSingleClassDAO implements
 		    Restrictions.eq("patient", patient)).list();
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Appointment> getAppointmentsByPatient(Patient patient, boolean includeVoided, Date fromDate,
+	        Date toDate, Appointment startAfter, int maxResults) {
+		//The time slot is fetched with the page, it is always displayed with the appointment.
+		StringBuilder query = new StringBuilder("select appointment from Appointment as appointment"
+		        + " inner join fetch appointment.timeSlot as timeSlot where appointment.patient = :patient");
+		if (!includeVoided)
+			query.append(" and appointment.voided = false");
+		if (fromDate != null)
+			query.append(" and timeSlot.startDate >= :fromDate");
+		if (toDate != null)
+			query.append(" and timeSlot.startDate <= :toDate");
+		if (startAfter != null)
+			query.append(" and (timeSlot.startDate < :afterStartDate or (timeSlot.startDate = :afterStartDate")
+			        .append(" and appointment.appointmentId < :afterAppointmentId))");
+		query.append(" order by timeSlot.startDate desc, appointment.appointmentId desc");
+		
+		Query hql = super.sessionFactory.getCurrentSession().createQuery(query.toString());
+		hql.setParameter("patient", patient);
+		if (fromDate != null)
+			hql.setParameter("fromDate", fromDate);
+		if (toDate != null)
+			hql.setParameter("toDate", toDate);
+		if (startAfter != null) {
+			hql.setParameter("afterStartDate", startAfter.getTimeSlot().getStartDate());
+			hql.setParameter("afterAppointmentId", startAfter.getAppointmentId());
+		}
+		return hql.setMaxResults(maxResults).list();
+	}
+	
 	@Override
 	@Transactional(readOnly = true)
 	public Appointment getAppointmentByVisit(Visit visit) {
-		return (Appointment) super.sessionFactory.getCurrentSession().createQuery(
-		    "from " + mappedClass.getSimpleName() + " at where at.visit = :visit").setParameter("visit", visit)
-		        .uniqueResult();
+		return (Appointment) super.sessionFactory.getCurrentSession().getNamedQuery("Appointment.getByVisit")
+		        .setParameter("visit", visit).uniqueResult();
 	}
 	
 	@Override
 	@Transactional(readOnly = true)
 	public Appointment getLastAppointment(Patient patient) {
-		String query = "select appointment from Appointment as appointment"
-		        + " where appointment.patient = :patient and appointment.timeSlot.startDate ="
-		        + " (select max(timeSlot.startDate) from Appointment as appointment inner join appointment.timeSlot"
-		        + " where appointment.patient = :patient)";
-		
-		List<Appointment> appointment = super.sessionFactory.getCurrentSession().createQuery(query).setParameter("patient",
-		    patient).list();
+		List<Appointment> appointment = super.sessionFactory.getCurrentSession().getNamedQuery(
+		    "Appointment.getLastAppointment").setParameter("patient", patient).list();
 		
 		if (appointment.size() > 0)
 			return (Appointment) appointment.get(0);
 		else
 			return null;
 	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public SavedAppointment getSavedAppointment(Integer appointmentId) {
+		Object[] row = (Object[]) super.sessionFactory.getCurrentSession().getNamedQuery(
+		    "Appointment.getSavedAppointment").setInteger("appointmentId", appointmentId).setFlushMode(FlushMode.MANUAL)
+		        .uniqueResult();
+		if (row == null)
+			return null;
+		return new SavedAppointment((Integer) row[0], (Integer) row[1], (Integer) row[2], (Date) row[3], (Date) row[4]);
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Appointment getNextAppointment(Patient patient, Date fromDate) {
+		return (Appointment) super.sessionFactory.getCurrentSession().getNamedQuery("Appointment.getNextAppointment")
+		        .setParameter("patient", patient).setParameter("fromDate", fromDate).setMaxResults(1).uniqueResult();
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Integer> getPatientIdsByWords(List<String> words, int maxResults) {
+		//Every word must start a name or an identifier, not necessarily the same one. The columns are
+		//compared as they are, so that the prefix matches are index range scans: like core's patient
+		//search, this relies on the case insensitive collation of the OpenMRS schema. The capitalized
+		//word is tried too, for databases comparing case, e.g. the H2 of the tests.
+		StringBuilder query = new StringBuilder("select patient.patientId from Patient as patient where patient.voided = false");
+		for (int i = 0; i < words.size(); i++) {
+			String word = ":word" + i;
+			String capitalizedWord = ":capitalizedWord" + i;
+			query.append(" and (patient.patientId in (select name.person.personId from PersonName as name")
+			        .append(" where name.voided = false and (");
+			String[] columns = { "name.givenName", "name.middleName", "name.familyName" };
+			for (int j = 0; j < columns.length; j++) {
+				query.append(j > 0 ? " or " : "").append(columns[j]).append(" like ").append(word).append(" or ").append(
+				    columns[j]).append(" like ").append(capitalizedWord);
+			}
+			query.append(")) or patient.patientId in (select identifier.patient.patientId from PatientIdentifier")
+			        .append(" as identifier where identifier.voided = false and (identifier.identifier like ").append(word)
+			        .append(" or identifier.identifier like ").append(capitalizedWord).append(")))");
+		}
+		Query hql = super.sessionFactory.getCurrentSession().createQuery(query.toString());
+		for (int i = 0; i < words.size(); i++) {
+			String word = words.get(i);
+			hql.setString("word" + i, word + "%");
+			hql.setString("capitalizedWord" + i, word.substring(0, 1).toUpperCase() + word.substring(1) + "%");
+		}
+		return hql.setMaxResults(maxResults).list();
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentSearchResult> searchAppointments(AppointmentSearchCriteria criteria, List<Integer> patientIds,
+	        int maxResults) {
+		StringBuilder query = new StringBuilder("select appointment.appointmentId, appointment.uuid, appointment.status,"
+		        + " timeSlot.startDate, timeSlot.endDate, appointment.patient.patientId, provider.providerId, provider.name,"
+		        + " location.locationId, location.name, type.appointmentTypeId, type.name, appointment.voided"
+		        + " from Appointment as appointment inner join appointment.timeSlot as timeSlot"
+		        + " inner join timeSlot.appointmentBlock as block inner join block.provider as provider"
+		        + " inner join block.location as location inner join appointment.appointmentType as type where 1 = 1");
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		if (!criteria.isIncludeVoided())
+			query.append(" and appointment.voided = false");
+		if (patientIds != null) {
+			query.append(" and appointment.patient.patientId in (:patientIds)");
+			parameters.put("patientIds", patientIds);
+		}
+		if (criteria.getFromDate() != null) {
+			query.append(" and timeSlot.startDate >= :fromDate");
+			parameters.put("fromDate", criteria.getFromDate());
+		}
+		if (criteria.getToDate() != null) {
+			query.append(" and timeSlot.startDate <= :toDate");
+			parameters.put("toDate", criteria.getToDate());
+		}
+		if (criteria.getProvider() != null) {
+			query.append(" and block.provider = :provider");
+			parameters.put("provider", criteria.getProvider());
+		}
+		if (criteria.getLocation() != null) {
+			query.append(" and block.location = :location");
+			parameters.put("location", criteria.getLocation());
+		}
+		if (criteria.getAppointmentType() != null) {
+			query.append(" and appointment.appointmentType = :appointmentType");
+			parameters.put("appointmentType", criteria.getAppointmentType());
+		}
+		if (criteria.getStatuses() != null && !criteria.getStatuses().isEmpty()) {
+			query.append(" and appointment.status in (:statuses)");
+			parameters.put("statuses", criteria.getStatuses());
+		}
+		if (criteria.getAfterStartDate() != null) {
+			//Keyset paging: continue after the last row instead of skipping rows with an offset.
+			query.append(" and (timeSlot.startDate > :afterStartDate or (timeSlot.startDate = :afterStartDate")
+			        .append(" and appointment.appointmentId > :afterAppointmentId))");
+			parameters.put("afterStartDate", criteria.getAfterStartDate());
+			parameters.put("afterAppointmentId", criteria.getAfterAppointmentId() == null ? 0 : criteria
+			        .getAfterAppointmentId());
+		}
+		query.append(" order by timeSlot.startDate, appointment.appointmentId");
+		
+		Query hql = super.sessionFactory.getCurrentSession().createQuery(query.toString());
+		for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+			if (parameter.getValue() instanceof Collection)
+				hql.setParameterList(parameter.getKey(), (Collection) parameter.getValue());
+			else
+				hql.setParameter(parameter.getKey(), parameter.getValue());
+		}
+		List<Object[]> rows = hql.setMaxResults(maxResults).list();
+		
+		List<AppointmentSearchResult> results = new ArrayList<AppointmentSearchResult>(rows.size());
+		Map<Integer, List<AppointmentSearchResult>> resultsByPatient = new HashMap<Integer, List<AppointmentSearchResult>>();
+		for (Object[] row : rows) {
+			AppointmentSearchResult result = new AppointmentSearchResult();
+			result.setAppointmentId((Integer) row[0]);
+			result.setUuid((String) row[1]);
+			result.setStatus((String) row[2]);
+			result.setStartDate((Date) row[3]);
+			result.setEndDate((Date) row[4]);
+			result.setPatientId((Integer) row[5]);
+			result.setProviderId((Integer) row[6]);
+			result.setProviderName((String) row[7]);
+			result.setLocationId((Integer) row[8]);
+			result.setLocationName((String) row[9]);
+			result.setAppointmentTypeId((Integer) row[10]);
+			result.setAppointmentTypeName((String) row[11]);
+			result.setVoided((Boolean) row[12]);
+			results.add(result);
+			List<AppointmentSearchResult> patientResults = resultsByPatient.get(result.getPatientId());
+			if (patientResults == null) {
+				patientResults = new ArrayList<AppointmentSearchResult>();
+				resultsByPatient.put(result.getPatientId(), patientResults);
+			}
+			patientResults.add(result);
+		}
+		if (resultsByPatient.isEmpty())
+			return results;
+		
+		//One query each for the names and identifiers of the page's patients, preferred ones first.
+		List<Object[]> names = super.sessionFactory.getCurrentSession().getNamedQuery("Appointment.getPatientNames")
+		        .setParameterList("patientIds", resultsByPatient.keySet()).list();
+		for (Object[] name : names) {
+			StringBuilder fullName = new StringBuilder();
+			for (int i = 1; i < name.length; i++) {
+				if (name[i] != null && ((String) name[i]).length() > 0)
+					fullName.append(fullName.length() > 0 ? " " : "").append(name[i]);
+			}
+			for (AppointmentSearchResult result : resultsByPatient.get(name[0])) {
+				if (result.getPatientName() == null)
+					result.setPatientName(fullName.toString());
+			}
+		}
+		List<Object[]> identifiers = super.sessionFactory.getCurrentSession().getNamedQuery(
+		    "Appointment.getPatientIdentifiers").setParameterList("patientIds", resultsByPatient.keySet()).list();
+		for (Object[] identifier : identifiers) {
+			for (AppointmentSearchResult result : resultsByPatient.get(identifier[0])) {
+				if (result.getPatientIdentifier() == null)
+					result.setPatientIdentifier((String) identifier[1]);
+			}
+		}
+		return results;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Appointment> getAppointmentsInAppointmentBlock(AppointmentBlock appointmentBlock, String status) {
+		return super.sessionFactory.getCurrentSession().getNamedQuery("Appointment.getAppointmentsInAppointmentBlock")
+		        .setParameter("appointmentBlock", appointmentBlock).setParameter("status", status).list();
+	}
+	
+	@Override
+	@Transactional
+	public Set<Integer> moveAppointments(final Map<Appointment, TimeSlot> moves, final User changedBy,
+	        final Date dateChanged) {
+		final Set<Integer> moved = new HashSet<Integer>();
+		if (moves.isEmpty())
+			return moved;
+		Session session = super.sessionFactory.getCurrentSession();
+		session.flush();
+		session.doWork(new Work() {
+			
+			public void execute(Connection connection) throws SQLException {
+				List<Appointment> appointments = new ArrayList<Appointment>(moves.keySet());
+				PreparedStatement statement = connection
+				        .prepareStatement("update appointment set time_slot_id = ?, changed_by = ?, date_changed = ?"
+				                + " where appointment_id = ? and time_slot_id = ? and status = ? and voided = ?");
+				try {
+					for (Appointment appointment : appointments) {
+						statement.setInt(1, moves.get(appointment).getTimeSlotId());
+						statement.setInt(2, changedBy.getUserId());
+						statement.setTimestamp(3, new Timestamp(dateChanged.getTime()));
+						statement.setInt(4, appointment.getAppointmentId());
+						statement.setInt(5, appointment.getTimeSlot().getTimeSlotId());
+						statement.setString(6, appointment.getStatus());
+						statement.setBoolean(7, false);
+						statement.addBatch();
+					}
+					int[] counts = statement.executeBatch();
+					for (int i = 0; i < counts.length; i++) {
+						if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO)
+							moved.add(appointments.get(i).getAppointmentId());
+					}
+				}
+				finally {
+					statement.close();
+				}
+				if (moved.isEmpty())
+					return;
+				
+				statement = connection.prepareStatement("insert into appointment_status_history (appointment_id, status,"
+				        + " start_date, end_date) values (?, ?, ?, ?)");
+				try {
+					for (Appointment appointment : appointments) {
+						if (!moved.contains(appointment.getAppointmentId()))
+							continue;
+						Date startDate = appointment.getDateChanged() != null ? appointment.getDateChanged() : appointment
+						        .getDateCreated();
+						statement.setInt(1, appointment.getAppointmentId());
+						statement.setString(2, appointment.getStatus());
+						statement.setTimestamp(3, new Timestamp(startDate.getTime()));
+						statement.setTimestamp(4, new Timestamp(dateChanged.getTime()));
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+				finally {
+					statement.close();
+				}
+			}
+		});
+		//The session copies are out of date.
+		for (Appointment appointment : moves.keySet())
+			session.evict(appointment);
+		return moved;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public long getAppointmentCount(String status, Date endedBefore) {
+		return (Long) super.sessionFactory.getCurrentSession().getNamedQuery("Appointment.getAppointmentCount")
+		        .setParameter("status", status).setParameter("endedBefore", endedBefore).uniqueResult();
+	}
 }
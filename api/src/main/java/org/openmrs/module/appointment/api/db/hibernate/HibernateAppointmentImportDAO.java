@@ -0,0 +1,230 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db.hibernate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.LockMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.jdbc.Work;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.db.AppointmentImportDAO;
+import org.springframework.transaction.annotation.Transactional;
+
+public class HibernateAppointmentImportDAO implements AppointmentImportDAO {
+	
+	private SessionFactory sessionFactory;
+	
+	public void setSessionFactory(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Map<String, Provider> getProvidersByIdentifier(Collection<String> identifiers) {
+		Map<String, Provider> providers = new HashMap<String, Provider>();
+		if (identifiers.isEmpty())
+			return providers;
+		List<Provider> list = sessionFactory.getCurrentSession().getNamedQuery(
+		    "AppointmentImport.getProvidersByIdentifier").setParameterList("identifiers", identifiers).list();
+		//Identifiers are not unique in OpenMRS; the oldest provider wins.
+		for (Provider provider : list) {
+			if (!providers.containsKey(provider.getIdentifier()))
+				providers.put(provider.getIdentifier(), provider);
+		}
+		return providers;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Map<String, Location> getLocationsByName(Collection<String> names) {
+		Map<String, Location> locations = new HashMap<String, Location>();
+		if (names.isEmpty())
+			return locations;
+		List<Location> list = sessionFactory.getCurrentSession().getNamedQuery("AppointmentImport.getLocationsByName")
+		        .setParameterList("names", names).list();
+		for (Location location : list)
+			locations.put(location.getName(), location);
+		return locations;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Map<String, Patient> getPatientsByIdentifier(Collection<String> identifiers) {
+		Map<String, Patient> patients = new HashMap<String, Patient>();
+		if (identifiers.isEmpty())
+			return patients;
+		List<Object[]> rows = sessionFactory.getCurrentSession().getNamedQuery(
+		    "AppointmentImport.getPatientsByIdentifier").setParameterList("identifiers", identifiers).list();
+		for (Object[] row : rows) {
+			String identifier = (String) row[0];
+			Patient patient = (Patient) row[1];
+			if (patients.containsKey(identifier) && !patient.equals(patients.get(identifier)))
+				patients.put(identifier, null);
+			else if (!patients.containsKey(identifier))
+				patients.put(identifier, patient);
+		}
+		return patients;
+	}
+	
+	@Override
+	@Transactional
+	public List<TimeSlot> getTimeSlots(Collection<Provider> providers, Date fromDate, Date toDate) {
+		return sessionFactory.getCurrentSession().getNamedQuery("AppointmentImport.getTimeSlots").setParameterList(
+		    "providers", providers).setParameter("fromDate", fromDate).setParameter("toDate", toDate).setLockMode(
+		    "timeSlot", LockMode.UPGRADE).list();
+	}
+	
+	@Override
+	@Transactional
+	public void insertTimeSlots(final List<TimeSlot> timeSlots) {
+		if (timeSlots.isEmpty())
+			return;
+		sessionFactory.getCurrentSession().flush();
+		sessionFactory.getCurrentSession().doWork(new Work() {
+			
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection
+				        .prepareStatement("insert into appointment_time_slot (appointment_block_id, start_date, end_date,"
+				                + " uuid, creator, date_created, voided) values (?, ?, ?, ?, ?, ?, ?)");
+				try {
+					for (TimeSlot timeSlot : timeSlots) {
+						statement.setInt(1, timeSlot.getAppointmentBlock().getAppointmentBlockId());
+						statement.setTimestamp(2, new Timestamp(timeSlot.getStartDate().getTime()));
+						statement.setTimestamp(3, new Timestamp(timeSlot.getEndDate().getTime()));
+						statement.setString(4, timeSlot.getUuid());
+						statement.setInt(5, timeSlot.getCreator().getUserId());
+						statement.setTimestamp(6, new Timestamp(timeSlot.getDateCreated().getTime()));
+						statement.setBoolean(7, false);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+				finally {
+					statement.close();
+				}
+				
+				//The blocks had no slots before, so their slots are told apart by their start date.
+				Map<String, TimeSlot> timeSlotsByKey = new HashMap<String, TimeSlot>();
+				Set<Integer> appointmentBlockIds = new HashSet<Integer>();
+				for (TimeSlot timeSlot : timeSlots) {
+					Integer appointmentBlockId = timeSlot.getAppointmentBlock().getAppointmentBlockId();
+					timeSlotsByKey.put(appointmentBlockId + "|" + timeSlot.getStartDate().getTime(), timeSlot);
+					appointmentBlockIds.add(appointmentBlockId);
+				}
+				StringBuilder placeholders = new StringBuilder();
+				for (int i = 0; i < appointmentBlockIds.size(); i++)
+					placeholders.append(i == 0 ? "?" : ", ?");
+				statement = connection.prepareStatement("select time_slot_id, appointment_block_id, start_date"
+				        + " from appointment_time_slot where appointment_block_id in (" + placeholders + ")");
+				try {
+					int index = 1;
+					for (Integer appointmentBlockId : appointmentBlockIds)
+						statement.setInt(index++, appointmentBlockId);
+					ResultSet resultSet = statement.executeQuery();
+					try {
+						while (resultSet.next()) {
+							TimeSlot timeSlot = timeSlotsByKey.get(resultSet.getInt(2) + "|"
+							        + resultSet.getTimestamp(3).getTime());
+							if (timeSlot != null)
+								timeSlot.setTimeSlotId(resultSet.getInt(1));
+						}
+					}
+					finally {
+						resultSet.close();
+					}
+				}
+				finally {
+					statement.close();
+				}
+			}
+		});
+	}
+	
+	@Override
+	@Transactional
+	public void insertAppointments(final List<Appointment> appointments) {
+		if (appointments.isEmpty())
+			return;
+		sessionFactory.getCurrentSession().flush();
+		sessionFactory.getCurrentSession().doWork(new Work() {
+			
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection
+				        .prepareStatement("insert into appointment (time_slot_id, patient_id, appointment_type_id, status,"
+				                + " reason, uuid, creator, date_created, voided) values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+				try {
+					for (Appointment appointment : appointments) {
+						statement.setInt(1, appointment.getTimeSlot().getTimeSlotId());
+						statement.setInt(2, appointment.getPatient().getPatientId());
+						statement.setInt(3, appointment.getAppointmentType().getAppointmentTypeId());
+						statement.setString(4, appointment.getStatus());
+						if (appointment.getReason() == null)
+							statement.setNull(5, Types.VARCHAR);
+						else
+							statement.setString(5, appointment.getReason());
+						statement.setString(6, appointment.getUuid());
+						statement.setInt(7, appointment.getCreator().getUserId());
+						statement.setTimestamp(8, new Timestamp(appointment.getDateCreated().getTime()));
+						statement.setBoolean(9, false);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+				finally {
+					statement.close();
+				}
+				
+				//Generated keys of batches are not portable; the ids are read back by uuid.
+				Map<String, Appointment> appointmentsByUuid = new HashMap<String, Appointment>();
+				StringBuilder placeholders = new StringBuilder();
+				for (Appointment appointment : appointments) {
+					appointmentsByUuid.put(appointment.getUuid(), appointment);
+					placeholders.append(placeholders.length() == 0 ? "?" : ", ?");
+				}
+				statement = connection.prepareStatement("select appointment_id, uuid from appointment where uuid in ("
+				        + placeholders + ")");
+				try {
+					int index = 1;
+					for (Appointment appointment : appointments)
+						statement.setString(index++, appointment.getUuid());
+					ResultSet resultSet = statement.executeQuery();
+					while (resultSet.next())
+						appointmentsByUuid.get(resultSet.getString(2)).setAppointmentId(resultSet.getInt(1));
+					resultSet.close();
+				}
+				finally {
+					statement.close();
+				}
+			}
+		});
+	}
+	
+}
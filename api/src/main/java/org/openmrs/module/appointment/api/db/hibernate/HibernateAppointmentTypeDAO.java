@@ -13,12 +13,152 @@
  */
 package org.openmrs.module.appointment.api.db.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.api.db.AppointmentTypeDAO;
+import org.openmrs.module.appointment.api.search.TrigramIndex;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class HibernateAppointmentTypeDAO extends HibernateSingleClassDAO implements AppointmentTypeDAO {
-	
+
+	/**
+	 * Changes made outside of this DAO, by SQL scripts or other servers, are picked up after this
+	 * many milliseconds.
+	 */
+	private static final long NAME_INDEX_MAX_AGE = 5 * 60 * 1000;
+
+	/**
+	 * Index of the appointment type names used by the fuzzy search, null while cold. It is dropped
+	 * whenever a type is saved or deleted and rebuilt by the next search.
+	 */
+	private volatile TrigramIndex nameIndex;
+
+	private volatile long nameIndexBuilt;
+
+	/**
+	 * Incremented on every change so a rebuild racing with a change doesn't install a stale index.
+	 */
+	private long nameIndexVersion;
+
+	private final Object nameIndexLock = new Object();
+
 	public HibernateAppointmentTypeDAO() {
 		super(AppointmentType.class);
 	}
+
+	/**
+	 * Answers from the name index, falling back to the database while the index is cold. Retired
+	 * types are included, as before.
+	 *
+	 * @see org.openmrs.module.appointment.api.db.hibernate.HibernateSingleClassDAO#getAll(java.lang.String)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentType> getAll(String fuzzySearchPhrase) {
+		TrigramIndex index = nameIndex;
+		if (index == null || System.currentTimeMillis() - nameIndexBuilt > NAME_INDEX_MAX_AGE) {
+			List<AppointmentType> appointmentTypes = super.getAll(fuzzySearchPhrase == null ? "" : fuzzySearchPhrase);
+			rebuildNameIndex();
+			return rank(appointmentTypes, fuzzySearchPhrase);
+		}
+
+		List<Integer> appointmentTypeIds = index.search(fuzzySearchPhrase);
+		List<AppointmentType> appointmentTypes = new ArrayList<AppointmentType>();
+		if (appointmentTypeIds.isEmpty())
+			return appointmentTypes;
+		Map<Integer, AppointmentType> appointmentTypesById = new HashMap<Integer, AppointmentType>();
+		for (AppointmentType appointmentType : (List<AppointmentType>) sessionFactory.getCurrentSession().getNamedQuery(
+		    "AppointmentType.getByIds").setParameterList("appointmentTypeIds", appointmentTypeIds).list())
+			appointmentTypesById.put(appointmentType.getAppointmentTypeId(), appointmentType);
+		for (Integer appointmentTypeId : appointmentTypeIds) {
+			//Missing if the type was added by a transaction which was rolled back since.
+			AppointmentType appointmentType = appointmentTypesById.get(appointmentTypeId);
+			if (appointmentType != null)
+				appointmentTypes.add(appointmentType);
+		}
+		return appointmentTypes;
+	}
+
+	@Override
+	@Transactional
+	public Object saveOrUpdate(Object object) {
+		Object saved = super.saveOrUpdate(object);
+		invalidateNameIndex();
+		return saved;
+	}
+
+	@Override
+	@Transactional
+	public void delete(Object object) {
+		super.delete(object);
+		invalidateNameIndex();
+	}
+
+	/**
+	 * Drops the name index now, so the current transaction sees its own changes, and once more when
+	 * the transaction completes, since an index built in between may hold uncommitted names.
+	 */
+	public void invalidateNameIndex() {
+		dropNameIndex();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCompletion(int status) {
+					dropNameIndex();
+				}
+			});
+		}
+	}
+
+	private void dropNameIndex() {
+		synchronized (nameIndexLock) {
+			nameIndexVersion++;
+			nameIndex = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void rebuildNameIndex() {
+		long version;
+		synchronized (nameIndexLock) {
+			version = nameIndexVersion;
+		}
+		List<Object[]> rows = sessionFactory.getCurrentSession().getNamedQuery("AppointmentType.getNames").list();
+		Map<Integer, String> namesById = new HashMap<Integer, String>();
+		for (Object[] row : rows)
+			namesById.put((Integer) row[0], (String) row[1]);
+		TrigramIndex index = new TrigramIndex(namesById);
+		synchronized (nameIndexLock) {
+			if (nameIndexVersion == version) {
+				nameIndexBuilt = System.currentTimeMillis();
+				nameIndex = index;
+			}
+		}
+	}
+
+	/**
+	 * Orders types found by the database the same way the index orders its matches.
+	 */
+	private static List<AppointmentType> rank(List<AppointmentType> appointmentTypes, String fuzzySearchPhrase) {
+		final String phrase = TrigramIndex.normalize(fuzzySearchPhrase == null ? "" : fuzzySearchPhrase);
+		Collections.sort(appointmentTypes, new Comparator<AppointmentType>() {
+
+			public int compare(AppointmentType type1, AppointmentType type2) {
+				int result = TrigramIndex.rank(TrigramIndex.normalize(type1.getName()), phrase)
+				        - TrigramIndex.rank(TrigramIndex.normalize(type2.getName()), phrase);
+				return result != 0 ? result : type1.getName().compareTo(type2.getName());
+			}
+		});
+		return appointmentTypes;
+	}
 }
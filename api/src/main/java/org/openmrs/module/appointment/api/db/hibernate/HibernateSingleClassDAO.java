@@ -31,6 +31,11 @@ public abstract class HibernateSingleClassDAO<T> implements SingleClassDAO<T> {
 	
 	protected Class<T> mappedClass;
 	
+	/**
+	 * The named query looking an object up by uuid, declared next to the mapping of the class.
+	 */
+	private String getByUuidQueryName;
+	
 	/**
 	 * Marked private because you *must* provide the class at runtime when instantiating one of
 	 * these, using the next constructor
@@ -47,6 +52,7 @@ public abstract class HibernateSingleClassDAO<T> implements SingleClassDAO<T> {
 	 */
 	protected HibernateSingleClassDAO(Class<T> mappedClass) {
 		this.mappedClass = mappedClass;
+		this.getByUuidQueryName = mappedClass.getSimpleName() + ".getByUuid";
 	}
 	
 	public void setSessionFactory(SessionFactory sessionFactory) {
@@ -64,8 +70,8 @@ public abstract class HibernateSingleClassDAO<T> implements SingleClassDAO<T> {
 	@Override
 	@Transactional(readOnly = true)
 	public T getByUuid(String uuid) {
-		return (T) sessionFactory.getCurrentSession().createQuery(
-		    "from " + mappedClass.getSimpleName() + " at where at.uuid = :uuid").setString("uuid", uuid).uniqueResult();
+		return (T) sessionFactory.getCurrentSession().getNamedQuery(getByUuidQueryName).setString("uuid", uuid)
+		        .uniqueResult();
 	}
 	
 	@SuppressWarnings("unchecked")
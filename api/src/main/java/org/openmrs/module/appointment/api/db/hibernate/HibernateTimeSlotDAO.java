@@ -1,10 +1,19 @@
 package org.openmrs.module.appointment.api.db.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
+import org.hibernate.LockMode;
+import org.hibernate.Query;
 import org.hibernate.criterion.Restrictions;
+import org.openmrs.Location;
 import org.openmrs.Provider;
 import org.openmrs.api.APIException;
 import org.openmrs.module.appointment.Appointment;
@@ -29,15 +38,36 @@ public class HibernateTimeSlotDAO extends HibernateSingleClassDAO implements Tim
 	@Override
 	@Transactional(readOnly = true)
 	public List<TimeSlot> getTimeSlotsByConstraints(AppointmentType appointmentType, Date fromDate, Date toDate,
-	        Provider provider) throws APIException {
+	        Provider provider, Collection<Integer> excludedAppointmentBlockIds) throws APIException {
 		if (appointmentType == null)
 			throw new APIException("Appointment Type can not be null.");
 		else if (fromDate != null && toDate != null && !fromDate.before(toDate))
 			throw new APIException("fromDate can not be later than toDate");
-		else {
-			//TODO change this
-			return getAll();
-		}
+		
+		StringBuilder hql = new StringBuilder("select timeSlot from TimeSlot as timeSlot"
+		        + " inner join timeSlot.appointmentBlock as block where timeSlot.voided = false and block.voided = false"
+		        + " and :appointmentType in elements(block.types)");
+		if (fromDate != null)
+			hql.append(" and timeSlot.startDate >= :fromDate");
+		if (toDate != null)
+			hql.append(" and timeSlot.startDate <= :toDate");
+		if (provider != null)
+			hql.append(" and block.provider = :provider");
+		if (excludedAppointmentBlockIds != null && !excludedAppointmentBlockIds.isEmpty())
+			hql.append(" and block.appointmentBlockId not in (:excludedAppointmentBlockIds)");
+		hql.append(" order by timeSlot.startDate, timeSlot.timeSlotId");
+		
+		Query query = super.sessionFactory.getCurrentSession().createQuery(hql.toString());
+		query.setParameter("appointmentType", appointmentType);
+		if (fromDate != null)
+			query.setParameter("fromDate", fromDate);
+		if (toDate != null)
+			query.setParameter("toDate", toDate);
+		if (provider != null)
+			query.setParameter("provider", provider);
+		if (excludedAppointmentBlockIds != null && !excludedAppointmentBlockIds.isEmpty())
+			query.setParameterList("excludedAppointmentBlockIds", excludedAppointmentBlockIds);
+		return query.list();
 	}
 	
 	@Override
@@ -49,4 +79,168 @@ public class HibernateTimeSlotDAO extends HibernateSingleClassDAO implements Tim
 		    Restrictions.eq("appointmentBlock", appointmentBlock)).list();
 	}
 	
+	@Override
+	public List<TimeSlot> getTimeSlotsForUpdate(AppointmentBlock appointmentBlock, Provider provider, Location location,
+	        Date fromDate, Date toDate) {
+		StringBuilder hql = new StringBuilder("select timeSlot from TimeSlot as timeSlot"
+		        + " inner join fetch timeSlot.appointmentBlock as block where timeSlot.voided = false and block.voided = false");
+		if (appointmentBlock != null)
+			hql.append(" and block = :appointmentBlock");
+		if (provider != null)
+			hql.append(" and block.provider = :provider");
+		if (location != null)
+			hql.append(" and block.location = :location");
+		if (fromDate != null)
+			hql.append(" and timeSlot.startDate >= :fromDate");
+		if (toDate != null)
+			hql.append(" and timeSlot.startDate <= :toDate");
+		hql.append(" order by timeSlot.startDate, timeSlot.timeSlotId");
+		
+		Query query = super.sessionFactory.getCurrentSession().createQuery(hql.toString());
+		if (appointmentBlock != null)
+			query.setParameter("appointmentBlock", appointmentBlock);
+		if (provider != null)
+			query.setParameter("provider", provider);
+		if (location != null)
+			query.setParameter("location", location);
+		if (fromDate != null)
+			query.setParameter("fromDate", fromDate);
+		if (toDate != null)
+			query.setParameter("toDate", toDate);
+		return query.setLockMode("timeSlot", LockMode.UPGRADE).list();
+	}
+	
+	@Override
+	public Map<Integer, Integer> getBookedMinutes(Collection<TimeSlot> timeSlots) {
+		Map<Integer, Integer> bookedMinutes = new HashMap<Integer, Integer>();
+		if (timeSlots.isEmpty())
+			return bookedMinutes;
+		Set<Integer> appointmentBlockIds = new HashSet<Integer>();
+		Date toDate = null;
+		for (TimeSlot timeSlot : timeSlots) {
+			appointmentBlockIds.add(timeSlot.getAppointmentBlock().getAppointmentBlockId());
+			if (toDate == null || timeSlot.getStartDate().after(toDate))
+				toDate = timeSlot.getStartDate();
+		}
+		Map<Integer, Integer> ownMinutes = toMinutes(super.sessionFactory.getCurrentSession().getNamedQuery(
+		    "TimeSlot.getBookedMinutesInBlocks").setParameterList("appointmentBlockIds", appointmentBlockIds)
+		        .setParameter("toDate", toDate).list());
+		List<Object[]> timeSlotRows = super.sessionFactory.getCurrentSession().getNamedQuery(
+		    "TimeSlot.getTimeSlotsInBlocks").setParameterList("appointmentBlockIds", appointmentBlockIds).setParameter(
+		    "toDate", toDate).list();
+		Map<Integer, Integer> blockMinutes = addOverrunningMinutes(timeSlotRows, ownMinutes);
+		for (TimeSlot timeSlot : timeSlots) {
+			Integer booked = blockMinutes.get(timeSlot.getTimeSlotId());
+			if (booked != null)
+				bookedMinutes.put(timeSlot.getTimeSlotId(), booked);
+		}
+		return bookedMinutes;
+	}
+	
+	@Override
+	public List<Object[]> getAvailability(Collection<Integer> providerIds, Date fromDate, Date toDate) {
+		List<Object[]> availability = new ArrayList<Object[]>();
+		if (providerIds.isEmpty())
+			return availability;
+		Map<Integer, Integer> ownMinutes = toMinutes(super.sessionFactory.getCurrentSession().getNamedQuery(
+		    "TimeSlot.getBookedMinutesOfProviders").setParameterList("providerIds", providerIds).setParameter(
+		    "fromDate", fromDate).setParameter("toDate", toDate).list());
+		
+		List<Object[]> timeSlotRows = super.sessionFactory.getCurrentSession().getNamedQuery(
+		    "TimeSlot.getTimeSlotsOfProviders").setParameterList("providerIds", providerIds).setParameter("fromDate",
+		    fromDate).setParameter("toDate", toDate).list();
+		Map<Integer, Integer> bookedMinutes = addOverrunningMinutes(timeSlotRows, ownMinutes);
+		for (Object[] row : timeSlotRows) {
+			Integer booked = bookedMinutes.get(row[0]);
+			availability.add(new Object[] { row[4], row[5], row[2], row[3], booked == null ? 0 : booked });
+		}
+		return availability;
+	}
+	
+	/**
+	 * An appointment longer than its time slot continues into the following time slots of its
+	 * block: adds the minutes of the appointments running past the end of their time slot to the
+	 * minutes booked in the time slots they run into.
+	 * 
+	 * @param timeSlotRows the id, block id and start date of time slots, ordered by block and start
+	 *            date.
+	 * @param ownMinutes the minutes booked by the appointments of each time slot, by time slot id.
+	 * @return the minutes booked from the start of each time slot, by time slot id; the time slots
+	 *         without booked minutes are left out.
+	 */
+	private static Map<Integer, Integer> addOverrunningMinutes(List<Object[]> timeSlotRows, Map<Integer, Integer> ownMinutes) {
+		Map<Integer, Integer> bookedMinutes = new HashMap<Integer, Integer>();
+		Object appointmentBlockId = null;
+		long bookedUntil = Long.MIN_VALUE;
+		for (Object[] row : timeSlotRows) {
+			if (!row[1].equals(appointmentBlockId)) {
+				appointmentBlockId = row[1];
+				bookedUntil = Long.MIN_VALUE;
+			}
+			long startDate = ((Date) row[2]).getTime();
+			Integer own = ownMinutes.get(row[0]);
+			long bookedEnd = Math.max(startDate, bookedUntil) + (own == null ? 0 : own) * 60 * 1000L;
+			if (bookedEnd > startDate)
+				bookedMinutes.put((Integer) row[0], (int) ((bookedEnd - startDate) / (60 * 1000L)));
+			bookedUntil = Math.max(bookedUntil, bookedEnd);
+		}
+		return bookedMinutes;
+	}
+	
+	private static Map<Integer, Integer> toMinutes(List<Object[]> rows) {
+		Map<Integer, Integer> minutes = new HashMap<Integer, Integer>();
+		for (Object[] row : rows)
+			minutes.put((Integer) row[0], ((Number) row[1]).intValue());
+		return minutes;
+	}
+	
+	@Override
+	public List<Object[]> getProviderLocations(AppointmentType appointmentType, Date fromDate, Date toDate,
+	        Integer providerId, Integer locationId, Collection<Integer> excludedAppointmentBlockIds) {
+		StringBuilder hql = new StringBuilder("select distinct block.provider.providerId, block.location.locationId"
+		        + " from AppointmentBlock as block where block.voided = false and :appointmentType in elements(block.types)"
+		        + " and block.startDate <= :toDate and block.endDate >= :fromDate");
+		if (providerId != null)
+			hql.append(" and block.provider.providerId = :providerId");
+		if (locationId != null)
+			hql.append(" and block.location.locationId = :locationId");
+		if (excludedAppointmentBlockIds != null && !excludedAppointmentBlockIds.isEmpty())
+			hql.append(" and block.appointmentBlockId not in (:excludedAppointmentBlockIds)");
+		
+		Query query = super.sessionFactory.getCurrentSession().createQuery(hql.toString());
+		query.setParameter("appointmentType", appointmentType);
+		query.setParameter("fromDate", fromDate);
+		query.setParameter("toDate", toDate);
+		if (providerId != null)
+			query.setParameter("providerId", providerId);
+		if (locationId != null)
+			query.setParameter("locationId", locationId);
+		if (excludedAppointmentBlockIds != null && !excludedAppointmentBlockIds.isEmpty())
+			query.setParameterList("excludedAppointmentBlockIds", excludedAppointmentBlockIds);
+		return query.list();
+	}
+	
+	@Override
+	public List<TimeSlot> getTimeSlots(AppointmentType appointmentType, Date fromDate, Date toDate, Integer providerId,
+	        Integer locationId, Collection<Integer> excludedAppointmentBlockIds, int firstResult, int maxResults) {
+		StringBuilder hql = new StringBuilder("select timeSlot from TimeSlot as timeSlot"
+		        + " inner join timeSlot.appointmentBlock as block where timeSlot.voided = false and block.voided = false"
+		        + " and :appointmentType in elements(block.types) and block.provider.providerId = :providerId"
+		        + " and block.location.locationId = :locationId"
+		        + " and timeSlot.startDate >= :fromDate and timeSlot.startDate <= :toDate");
+		if (excludedAppointmentBlockIds != null && !excludedAppointmentBlockIds.isEmpty())
+			hql.append(" and block.appointmentBlockId not in (:excludedAppointmentBlockIds)");
+		hql.append(" order by timeSlot.startDate, timeSlot.timeSlotId");
+		
+		Query query = super.sessionFactory.getCurrentSession().createQuery(hql.toString());
+		query.setParameter("appointmentType", appointmentType);
+		query.setParameter("providerId", providerId);
+		query.setParameter("locationId", locationId);
+		query.setParameter("fromDate", fromDate);
+		query.setParameter("toDate", toDate);
+		if (excludedAppointmentBlockIds != null && !excludedAppointmentBlockIds.isEmpty())
+			query.setParameterList("excludedAppointmentBlockIds", excludedAppointmentBlockIds);
+		return query.setFirstResult(firstResult).setMaxResults(maxResults).list();
+	}
+	
 }
@@ -0,0 +1,38 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db.hibernate;
+
+import org.hibernate.EmptyInterceptor;
+import org.openmrs.module.appointment.api.metrics.QueryTrace;
+
+/**
+ * Hibernate interceptor that reports every prepared SQL statement to the {@link QueryTrace} of the
+ * current thread, if one is active. OpenMRS chains all Interceptor beans of the application context
+ * into its session factory, so declaring this bean in moduleApplicationContext.xml is enough.
+ */
+public class QueryTracingInterceptor extends EmptyInterceptor {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @see org.hibernate.EmptyInterceptor#onPrepareStatement(java.lang.String)
+	 */
+	@Override
+	public String onPrepareStatement(String sql) {
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null)
+			trace.statementPrepared(sql);
+		return sql;
+	}
+}
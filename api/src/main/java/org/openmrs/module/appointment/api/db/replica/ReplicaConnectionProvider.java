@@ -0,0 +1,203 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db.replica;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.connection.ConnectionProviderFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * A Hibernate connection provider which sends the read-only transactions of the session factory to
+ * a read replica, through a {@link ReplicaRoutingDataSource}. The module cannot replace the
+ * session factory of OpenMRS, so the routing is installed by runtime properties, which OpenMRS
+ * passes on to Hibernate:
+ * 
+ * <pre>
+ * hibernate.connection.provider_class=org.openmrs.module.appointment.api.db.replica.ReplicaConnectionProvider
+ * hibernate.replica.connection.url=jdbc:mysql://replica:3306/openmrs
+ * hibernate.replica.connection.username=openmrs_reader (default the primary's)
+ * hibernate.replica.connection.password=... (default the primary's)
+ * hibernate.replica.maxLagSeconds=10
+ * hibernate.replica.stickySeconds=30
+ * hibernate.replica.lagCheckSeconds=5
+ * </pre>
+ * 
+ * Both databases are connected to by the connection provider Hibernate would otherwise use, with
+ * the same settings. The replica user only needs to read, while the primary user also writes the
+ * heartbeats of the lag checks to the appointment_replica_heartbeat table. Without a replica url,
+ * every connection is from the primary.
+ */
+public class ReplicaConnectionProvider implements ConnectionProvider {
+
+	public static final String REPLICA_URL = "hibernate.replica.connection.url";
+
+	public static final String REPLICA_USERNAME = "hibernate.replica.connection.username";
+
+	public static final String REPLICA_PASSWORD = "hibernate.replica.connection.password";
+
+	public static final String MAX_LAG_SECONDS = "hibernate.replica.maxLagSeconds";
+
+	public static final String STICKY_SECONDS = "hibernate.replica.stickySeconds";
+
+	public static final String LAG_CHECK_SECONDS = "hibernate.replica.lagCheckSeconds";
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private ConnectionProvider primary;
+
+	private ConnectionProvider replica;
+
+	private DataSource dataSource;
+
+	/**
+	 * @see org.hibernate.connection.ConnectionProvider#configure(java.util.Properties)
+	 */
+	public void configure(Properties properties) throws HibernateException {
+		Properties primaryProperties = new Properties();
+		primaryProperties.putAll(properties);
+		primaryProperties.remove(Environment.CONNECTION_PROVIDER);
+		primary = ConnectionProviderFactory.newConnectionProvider(primaryProperties);
+
+		String replicaUrl = properties.getProperty(REPLICA_URL);
+		if (replicaUrl == null || replicaUrl.trim().length() == 0) {
+			log.info("No read replica configured, reading from the primary database");
+			dataSource = new ConnectionProviderDataSource(primary);
+			return;
+		}
+
+		Properties replicaProperties = new Properties();
+		replicaProperties.putAll(primaryProperties);
+		replicaProperties.setProperty(Environment.URL, replicaUrl.trim());
+		if (properties.getProperty(REPLICA_USERNAME) != null)
+			replicaProperties.setProperty(Environment.USER, properties.getProperty(REPLICA_USERNAME));
+		if (properties.getProperty(REPLICA_PASSWORD) != null)
+			replicaProperties.setProperty(Environment.PASS, properties.getProperty(REPLICA_PASSWORD));
+		replica = ConnectionProviderFactory.newConnectionProvider(replicaProperties);
+
+		ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource(new ConnectionProviderDataSource(
+		        primary), new ConnectionProviderDataSource(replica));
+		routingDataSource.setMaxLagSeconds(getIntegerProperty(properties, MAX_LAG_SECONDS, 10));
+		routingDataSource.setStickySeconds(getIntegerProperty(properties, STICKY_SECONDS, 30));
+		routingDataSource.setLagCheckSeconds(getIntegerProperty(properties, LAG_CHECK_SECONDS, 5));
+		ReplicaRoutingDataSource.setInstance(routingDataSource);
+		routingDataSource.start();
+		//Defers getting the connection until the transaction has started and is known to be read-only.
+		dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+		log.info("Routing read-only transactions to the read replica at " + replicaUrl);
+	}
+
+	/**
+	 * @see org.hibernate.connection.ConnectionProvider#getConnection()
+	 */
+	public Connection getConnection() throws SQLException {
+		return dataSource.getConnection();
+	}
+
+	/**
+	 * @see org.hibernate.connection.ConnectionProvider#closeConnection(java.sql.Connection)
+	 */
+	public void closeConnection(Connection connection) throws SQLException {
+		//Hands the connection back to the provider it came from.
+		connection.close();
+	}
+
+	/**
+	 * @see org.hibernate.connection.ConnectionProvider#close()
+	 */
+	public void close() throws HibernateException {
+		ReplicaRoutingDataSource routingDataSource = ReplicaRoutingDataSource.getInstance();
+		if (routingDataSource != null)
+			routingDataSource.stop();
+		ReplicaRoutingDataSource.setInstance(null);
+		try {
+			if (replica != null)
+				replica.close();
+		}
+		finally {
+			primary.close();
+		}
+	}
+
+	/**
+	 * @see org.hibernate.connection.ConnectionProvider#supportsAggressiveRelease()
+	 */
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	private int getIntegerProperty(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value of property " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * The connections of a connection provider as a data source, whose connections go back to the
+	 * provider when closed.
+	 */
+	private static class ConnectionProviderDataSource extends AbstractDataSource {
+
+		private final ConnectionProvider connectionProvider;
+
+		public ConnectionProviderDataSource(ConnectionProvider connectionProvider) {
+			this.connectionProvider = connectionProvider;
+		}
+
+		public Connection getConnection() throws SQLException {
+			final Connection connection = connectionProvider.getConnection();
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+			    new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+				    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					    if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
+						    connectionProvider.closeConnection(connection);
+						    return null;
+					    }
+					    try {
+						    return method.invoke(connection, args);
+					    }
+					    catch (InvocationTargetException e) {
+						    throw e.getTargetException();
+					    }
+				    }
+			    });
+		}
+
+		public Connection getConnection(String username, String password) throws SQLException {
+			throw new UnsupportedOperationException("The connection settings are those of the connection provider");
+		}
+	}
+}
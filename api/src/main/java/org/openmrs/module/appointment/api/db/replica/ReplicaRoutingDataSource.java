@@ -0,0 +1,346 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db.replica;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends the connections of read-only transactions to a read replica of the database, and all
+ * others to the primary. A read-only transaction still uses the primary:
+ * <ul>
+ * <li>when the user committed a transaction which was not read-only within the last sticky
+ * seconds, so that users see their own changes;</li>
+ * <li>when the replica lags more than the maximum lag behind the primary, or cannot be reached.</li>
+ * </ul>
+ * Whether a transaction wrote is not known, so every transaction which is not read-only counts as
+ * a write of its user, whether made by the module or by OpenMRS.
+ * <p>
+ * The lag is measured every lag check seconds by a background thread, which writes a heartbeat of
+ * this node to the appointment_replica_heartbeat table of the primary and reads it back from the
+ * replica: the lag is the age of the oldest heartbeat the replica has not got yet. It so keeps
+ * growing when replication stops. Until the first measurement, reads use the primary.
+ * <p>
+ * The routing is decided when the connection is obtained, so the data source must be wrapped in a
+ * lazy connection proxy, which only gets a connection once the transaction has started and is
+ * known to be read-only.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+	public static final String PRIMARY = "primary";
+
+	public static final String REPLICA = "replica";
+
+	/**
+	 * The most heartbeats kept while the replica does not get them.
+	 */
+	private static final int MAX_PENDING_BEATS = 1000;
+
+	private static volatile ReplicaRoutingDataSource instance;
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private final DataSource primary;
+
+	private final DataSource replica;
+
+	private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+
+	private int maxLagSeconds = 10;
+
+	private int stickySeconds = 30;
+
+	private int lagCheckSeconds = 5;
+
+	/**
+	 * The time of the last write of each user who wrote within the sticky seconds.
+	 */
+	private final Map<Integer, Long> lastWrites = new ConcurrentHashMap<Integer, Long>();
+
+	/**
+	 * The heartbeats written to the primary which were not read from the replica yet, oldest first.
+	 */
+	private final LinkedList<Long> pendingBeats = new LinkedList<Long>();
+
+	private volatile boolean lagging = true;
+
+	private boolean measureFailed;
+
+	private ScheduledExecutorService executor;
+
+	public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+		this.primary = primary;
+		this.replica = replica;
+		Map<Object, Object> targetDataSources = new HashMap<Object, Object>();
+		targetDataSources.put(PRIMARY, primary);
+		targetDataSources.put(REPLICA, replica);
+		setTargetDataSources(targetDataSources);
+		setDefaultTargetDataSource(primary);
+		afterPropertiesSet();
+	}
+
+	/**
+	 * @return the routing data source of the session factory, null if reads are not routed to a
+	 *         replica.
+	 */
+	public static ReplicaRoutingDataSource getInstance() {
+		return instance;
+	}
+
+	static void setInstance(ReplicaRoutingDataSource routingDataSource) {
+		instance = routingDataSource;
+	}
+
+	public void setMaxLagSeconds(int maxLagSeconds) {
+		this.maxLagSeconds = maxLagSeconds;
+	}
+
+	public void setStickySeconds(int stickySeconds) {
+		this.stickySeconds = stickySeconds;
+	}
+
+	public void setLagCheckSeconds(int lagCheckSeconds) {
+		this.lagCheckSeconds = lagCheckSeconds;
+	}
+
+	/**
+	 * Starts measuring the lag of the replica, unless already started.
+	 */
+	public synchronized void start() {
+		if (executor != null)
+			return;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "appointment-replica-lag");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				checkLag();
+			}
+		}, 0, Math.max(1, lagCheckSeconds), TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops measuring the lag of the replica.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Keeps the reads of the current user on the primary for the sticky seconds.
+	 */
+	public void recordWrite() {
+		Integer userId = getCurrentUserId();
+		if (userId != null)
+			lastWrites.put(userId, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource#determineCurrentLookupKey()
+	 */
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (TransactionSynchronizationManager.isActualTransactionActive()
+		        && TransactionSynchronizationManager.isSynchronizationActive()
+		        && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					recordWrite();
+				}
+			});
+		}
+		return isReplicaUsable() ? REPLICA : PRIMARY;
+	}
+
+	/**
+	 * @return whether a connection obtained now may come from the replica.
+	 */
+	boolean isReplicaUsable() {
+		if (!TransactionSynchronizationManager.isActualTransactionActive()
+		        || !TransactionSynchronizationManager.isCurrentTransactionReadOnly())
+			return false;
+		Integer userId = getCurrentUserId();
+		if (userId != null) {
+			Long lastWrite = lastWrites.get(userId);
+			if (lastWrite != null) {
+				if (System.currentTimeMillis() - lastWrite < stickySeconds * 1000L)
+					return false;
+				lastWrites.remove(userId);
+			}
+		}
+		return !lagging;
+	}
+
+	/**
+	 * @return whether the replica lagged more than the maximum lag when last measured.
+	 */
+	public boolean isReplicaLagging() {
+		return lagging;
+	}
+
+	/**
+	 * Writes a heartbeat to the primary and measures the lag of the replica.
+	 */
+	void checkLag() {
+		long lagMillis = getLagMillis();
+		if (lagMillis > maxLagSeconds * 1000L && !lagging)
+			log.warn("The read replica lags " + (lagMillis == Long.MAX_VALUE ? "an unknown time" : lagMillis + " ms")
+			        + " behind, reading from the primary");
+		else if (lagMillis <= maxLagSeconds * 1000L && lagging)
+			log.info("The read replica lags " + lagMillis + " ms behind, reading from the replica");
+		lagging = lagMillis > maxLagSeconds * 1000L;
+	}
+
+	/**
+	 * Writes a heartbeat to the primary, then reads the last heartbeat the replica got.
+	 * 
+	 * @return the age of the oldest heartbeat not on the replica yet, Long.MAX_VALUE if it cannot
+	 *         be measured.
+	 */
+	synchronized long getLagMillis() {
+		try {
+			long beat = currentTimeMillis();
+			writeHeartbeat(beat);
+			//Keeps the oldest heartbeat, whose age is the lag.
+			if (pendingBeats.size() >= MAX_PENDING_BEATS)
+				pendingBeats.remove(1);
+			pendingBeats.add(beat);
+
+			Long replicatedBeat = readHeartbeat();
+			while (replicatedBeat != null && !pendingBeats.isEmpty() && pendingBeats.getFirst() <= replicatedBeat)
+				pendingBeats.removeFirst();
+			measureFailed = false;
+			return pendingBeats.isEmpty() ? 0 : Math.max(0, currentTimeMillis() - pendingBeats.getFirst());
+		}
+		catch (SQLException e) {
+			if (!measureFailed)
+				log.warn("Unable to measure the lag of the read replica", e);
+			measureFailed = true;
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * @return the current time, of the heartbeats.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the id of the authenticated user, null if there is none.
+	 */
+	protected Integer getCurrentUserId() {
+		try {
+			User user = Context.getAuthenticatedUser();
+			return user == null ? null : user.getUserId();
+		}
+		catch (APIException e) {
+			//No user context on this thread.
+			return null;
+		}
+	}
+
+	private void writeHeartbeat(long beat) throws SQLException {
+		Connection connection = primary.getConnection();
+		try {
+			PreparedStatement statement = connection
+			        .prepareStatement("update appointment_replica_heartbeat set beat = ? where node_id = ?");
+			try {
+				statement.setLong(1, beat);
+				statement.setString(2, nodeId);
+				if (statement.executeUpdate() == 0) {
+					PreparedStatement insert = connection
+					        .prepareStatement("insert into appointment_replica_heartbeat (node_id, beat) values (?, ?)");
+					try {
+						insert.setString(1, nodeId);
+						insert.setLong(2, beat);
+						insert.executeUpdate();
+					}
+					finally {
+						insert.close();
+					}
+				}
+			}
+			finally {
+				statement.close();
+			}
+			if (!connection.getAutoCommit())
+				connection.commit();
+		}
+		finally {
+			connection.close();
+		}
+	}
+
+	private Long readHeartbeat() throws SQLException {
+		Connection connection = replica.getConnection();
+		try {
+			PreparedStatement statement = connection
+			        .prepareStatement("select beat from appointment_replica_heartbeat where node_id = ?");
+			try {
+				statement.setString(1, nodeId);
+				ResultSet resultSet = statement.executeQuery();
+				try {
+					return resultSet.next() ? resultSet.getLong(1) : null;
+				}
+				finally {
+					resultSet.close();
+				}
+			}
+			finally {
+				statement.close();
+				//Ends the read, so that the next one on this connection does not see the same snapshot.
+				if (!connection.getAutoCommit())
+					connection.rollback();
+			}
+		}
+		finally {
+			connection.close();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.event;
+
+import java.util.Date;
+
+import org.openmrs.module.appointment.AppointmentChange;
+
+/**
+ * A change of the schedule pushed to the screens showing it: a saved, voided or purged appointment
+ * block, time slot or appointment, with the block and location it belongs to. The block is unknown
+ * when the object has been purged; such events concern every screen.
+ */
+public class ScheduleEvent {
+
+	private final int eventId;
+
+	private final String entityType;
+
+	private final Integer entityId;
+
+	private final String action;
+
+	private final Integer appointmentBlockId;
+
+	private final Integer locationId;
+
+	private final Date startDate;
+
+	private final Date endDate;
+
+	/**
+	 * @param change the change the event is about.
+	 * @param appointmentBlockId the block of the changed object, null if unknown.
+	 * @param locationId the location of the block, null if unknown.
+	 * @param startDate the start of the block, null if unknown.
+	 * @param endDate the end of the block, null if unknown.
+	 */
+	public ScheduleEvent(AppointmentChange change, Integer appointmentBlockId, Integer locationId, Date startDate,
+	    Date endDate) {
+		this.eventId = change.getAppointmentChangeId();
+		this.entityType = change.getEntityType();
+		this.entityId = change.getEntityId();
+		this.action = change.getAction();
+		this.appointmentBlockId = appointmentBlockId;
+		this.locationId = locationId;
+		this.startDate = startDate;
+		this.endDate = endDate;
+	}
+
+	/**
+	 * @return the id of the change the event is about, increasing with the order of the changes.
+	 */
+	public int getEventId() {
+		return eventId;
+	}
+
+	public String getEntityType() {
+		return entityType;
+	}
+
+	public Integer getEntityId() {
+		return entityId;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public Integer getAppointmentBlockId() {
+		return appointmentBlockId;
+	}
+
+	public Integer getLocationId() {
+		return locationId;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	/**
+	 * @param locationId the location shown, null for every location.
+	 * @param fromDate the earliest date shown, null for no limit.
+	 * @param toDate the latest date shown, null for no limit.
+	 * @return whether a screen showing the given location and dates is concerned by the event.
+	 */
+	public boolean concerns(Integer locationId, Date fromDate, Date toDate) {
+		if (appointmentBlockId == null)
+			return true;
+		if (locationId != null && !locationId.equals(this.locationId))
+			return false;
+		if (fromDate != null && endDate != null && endDate.before(fromDate))
+			return false;
+		if (toDate != null && startDate != null && startDate.after(toDate))
+			return false;
+		return true;
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.event;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.api.cluster.ChangeListener;
+import org.openmrs.module.appointment.api.cluster.ChangeLog;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Fans the schedule changes out to the screens subscribed to them. It listens to the
+ * {@link ChangeLog}, so it sees the committed changes of every node, looks up the block of each
+ * changed object once and queues the event for every subscription it concerns.
+ * <p>
+ * The latest events are kept so that a screen reconnecting after a dropped connection can be sent
+ * the events it missed; when they are no longer kept, it is told to reload.
+ * <p>
+ * Each subscription holds a request thread of the web server for as long as its stream lasts, so
+ * they are capped to a small share of the threads by the runtime property
+ * appointment.scheduleEvents.maxSubscriptions (default 20, a tenth of Tomcat's default 200
+ * threads). Screens refused a subscription poll instead.
+ */
+public class ScheduleEventDispatcher implements ChangeListener {
+
+	public static final String MAX_SUBSCRIPTIONS_PROPERTY = "appointment.scheduleEvents.maxSubscriptions";
+
+	/**
+	 * The default maximum number of subscriptions, each holding a request thread of the web server.
+	 */
+	public static final int DEFAULT_MAX_SUBSCRIPTIONS = 20;
+
+	private static final int RECENT_EVENTS = 1000;
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private ChangeLog changeLog;
+
+	private PlatformTransactionManager transactionManager;
+
+	private final List<ScheduleSubscription> subscriptions = new ArrayList<ScheduleSubscription>();
+
+	private final LinkedList<ScheduleEvent> recentEvents = new LinkedList<ScheduleEvent>();
+
+	/**
+	 * The events with ids up to this one are no longer kept.
+	 */
+	private int replayableAfter = Integer.MAX_VALUE;
+
+	private final Object lock = new Object();
+
+	/**
+	 * Read from the runtime properties by the first subscription, -1 until then.
+	 */
+	private int maxSubscriptions = -1;
+
+	/**
+	 * @param changeLog the change log to listen to.
+	 */
+	public void setChangeLog(ChangeLog changeLog) {
+		this.changeLog = changeLog;
+		changeLog.addListener(this);
+	}
+
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	/**
+	 * @param maxSubscriptions the maximum number of subscriptions, overriding the runtime property.
+	 */
+	public void setMaxSubscriptions(int maxSubscriptions) {
+		synchronized (lock) {
+			this.maxSubscriptions = maxSubscriptions;
+		}
+	}
+
+	/**
+	 * @return the maximum number of subscriptions.
+	 */
+	public int getMaxSubscriptions() {
+		synchronized (lock) {
+			if (maxSubscriptions < 0)
+				maxSubscriptions = readMaxSubscriptions();
+			return maxSubscriptions;
+		}
+	}
+
+	/**
+	 * Subscribes a screen to the events concerning the given location and dates.
+	 *
+	 * @param locationId the location shown, null for every location.
+	 * @param fromDate the earliest date shown, null for no limit.
+	 * @param toDate the latest date shown, null for no limit.
+	 * @param lastEventId the id of the last event the screen received before reconnecting, null for
+	 *            a new screen.
+	 * @return the subscription, null if there are already {@link #getMaxSubscriptions()}.
+	 */
+	public ScheduleSubscription subscribe(Integer locationId, Date fromDate, Date toDate, Integer lastEventId) {
+		ScheduleSubscription subscription = new ScheduleSubscription(locationId, fromDate, toDate);
+		synchronized (lock) {
+			if (subscriptions.size() >= getMaxSubscriptions())
+				return null;
+			if (lastEventId != null) {
+				if (lastEventId < replayableAfter)
+					subscription.requestReload();
+				else {
+					for (ScheduleEvent event : recentEvents) {
+						if (event.getEventId() > lastEventId && subscription.isConcernedBy(event))
+							subscription.offer(event);
+					}
+				}
+			}
+			subscriptions.add(subscription);
+		}
+		return subscription;
+	}
+
+	public void unsubscribe(ScheduleSubscription subscription) {
+		synchronized (lock) {
+			subscriptions.remove(subscription);
+		}
+	}
+
+	/**
+	 * @return the number of subscribed screens.
+	 */
+	public int getSubscriptionCount() {
+		synchronized (lock) {
+			return subscriptions.size();
+		}
+	}
+
+	/**
+	 * @see org.openmrs.module.appointment.api.cluster.ChangeListener#onChanges(java.util.List)
+	 */
+	public void onChanges(final List<AppointmentChange> changes) {
+		int lastChangeId = 0;
+		for (AppointmentChange change : changes)
+			lastChangeId = Math.max(lastChangeId, change.getAppointmentChangeId());
+		if (getSubscriptionCount() == 0) {
+			//Nobody to look the blocks up for; screens connecting later reload.
+			synchronized (lock) {
+				recentEvents.clear();
+				replayableAfter = lastChangeId;
+			}
+			return;
+		}
+
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setReadOnly(true);
+		List<ScheduleEvent> events = transactionTemplate.execute(new TransactionCallback<List<ScheduleEvent>>() {
+
+			public List<ScheduleEvent> doInTransaction(TransactionStatus status) {
+				return toEvents(changes);
+			}
+		});
+
+		synchronized (lock) {
+			if (replayableAfter == Integer.MAX_VALUE && !changes.isEmpty())
+				replayableAfter = changes.get(0).getAppointmentChangeId() - 1;
+			for (ScheduleEvent event : events) {
+				recentEvents.add(event);
+				if (recentEvents.size() > RECENT_EVENTS)
+					replayableAfter = Math.max(replayableAfter, recentEvents.removeFirst().getEventId());
+				for (ScheduleSubscription subscription : subscriptions) {
+					if (subscription.isConcernedBy(event))
+						subscription.offer(event);
+				}
+			}
+		}
+	}
+
+	private int readMaxSubscriptions() {
+		String value = Context.getRuntimeProperties().getProperty(MAX_SUBSCRIPTIONS_PROPERTY);
+		if (value == null || value.trim().length() == 0)
+			return DEFAULT_MAX_SUBSCRIPTIONS;
+		try {
+			return Math.max(0, Integer.parseInt(value.trim()));
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value of runtime property " + MAX_SUBSCRIPTIONS_PROPERTY + ": " + value);
+			return DEFAULT_MAX_SUBSCRIPTIONS;
+		}
+	}
+
+	private List<ScheduleEvent> toEvents(List<AppointmentChange> changes) {
+		List<ScheduleEvent> events = new ArrayList<ScheduleEvent>();
+		for (AppointmentChange change : changes) {
+			if ("AppointmentType".equals(change.getEntityType()))
+				continue;
+			AppointmentBlock block = null;
+			if (!AppointmentChange.ACTION_PURGE.equals(change.getAction()))
+				block = changeLog.getAppointmentChangeDAO().getAppointmentBlock(change);
+			if (block == null)
+				events.add(new ScheduleEvent(change, null, null, null, null));
+			else
+				events.add(new ScheduleEvent(change, block.getAppointmentBlockId(), block.getLocation() == null ? null
+				        : block.getLocation().getLocationId(), block.getStartDate(), block.getEndDate()));
+		}
+		return events;
+	}
+}
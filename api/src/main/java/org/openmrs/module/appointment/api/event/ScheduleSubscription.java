@@ -0,0 +1,105 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.event;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The interest of one screen in the schedule of a location between two dates. The dispatcher
+ * queues the events the screen is concerned by until the screen takes them; a screen too slow to
+ * take them loses them and is told to reload instead.
+ */
+public class ScheduleSubscription {
+
+	private static final int CAPACITY = 500;
+
+	private final Integer locationId;
+
+	private final Date fromDate;
+
+	private final Date toDate;
+
+	private final BlockingQueue<ScheduleEvent> events = new ArrayBlockingQueue<ScheduleEvent>(CAPACITY);
+
+	private volatile boolean reloadNeeded;
+
+	/**
+	 * @param locationId the location shown, null for every location.
+	 * @param fromDate the earliest date shown, null for no limit.
+	 * @param toDate the latest date shown, null for no limit.
+	 */
+	public ScheduleSubscription(Integer locationId, Date fromDate, Date toDate) {
+		this.locationId = locationId;
+		this.fromDate = fromDate;
+		this.toDate = toDate;
+	}
+
+	public Integer getLocationId() {
+		return locationId;
+	}
+
+	public Date getFromDate() {
+		return fromDate;
+	}
+
+	public Date getToDate() {
+		return toDate;
+	}
+
+	/**
+	 * @return whether the event concerns this subscription.
+	 */
+	public boolean isConcernedBy(ScheduleEvent event) {
+		return event.concerns(locationId, fromDate, toDate);
+	}
+
+	void offer(ScheduleEvent event) {
+		if (!events.offer(event))
+			reloadNeeded = true;
+	}
+
+	void requestReload() {
+		reloadNeeded = true;
+	}
+
+	/**
+	 * Waits for events and takes those queued.
+	 *
+	 * @param timeout the longest time to wait for the first event.
+	 * @param unit the unit of the timeout.
+	 * @param taken the list the events are added to.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void take(long timeout, TimeUnit unit, List<ScheduleEvent> taken) throws InterruptedException {
+		ScheduleEvent first = events.poll(timeout, unit);
+		if (first == null)
+			return;
+		taken.add(first);
+		events.drainTo(taken);
+	}
+
+	/**
+	 * @return whether events were lost since the previous call, so the screen must reload what it
+	 *         shows, and resets it.
+	 */
+	public boolean checkReloadNeeded() {
+		boolean result = reloadNeeded;
+		reloadNeeded = false;
+		return result;
+	}
+}
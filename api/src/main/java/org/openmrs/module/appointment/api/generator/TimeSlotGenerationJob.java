@@ -0,0 +1,155 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.generator;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.openmrs.module.appointment.AppointmentBlock;
+
+/**
+ * The generation of the time slots of an appointment block, running in the background. It replaces
+ * the slots of the block in a single transaction, so the block keeps its former slots until the job
+ * commits, and can be followed and cancelled by its id until then.
+ */
+public class TimeSlotGenerationJob {
+
+	public enum Status {
+		QUEUED, RUNNING, COMPLETED, CANCELLED, FAILED
+	}
+
+	private final String jobId = UUID.randomUUID().toString();
+
+	private final Integer appointmentBlockId;
+
+	private final Date startDate;
+
+	private final Date endDate;
+
+	private final int slotLengthInMinutes;
+
+	private final int totalSlots;
+
+	private volatile int generatedSlots;
+
+	private volatile Status status = Status.QUEUED;
+
+	private volatile boolean cancelRequested;
+
+	private volatile String errorMessage;
+
+	private final Date dateSubmitted = new Date();
+
+	private volatile Date dateFinished;
+
+	/**
+	 * @param appointmentBlock the saved block to generate the slots of.
+	 * @param slotLengthInMinutes the length of each slot.
+	 */
+	TimeSlotGenerationJob(AppointmentBlock appointmentBlock, int slotLengthInMinutes) {
+		this.appointmentBlockId = appointmentBlock.getAppointmentBlockId();
+		this.startDate = appointmentBlock.getStartDate();
+		this.endDate = appointmentBlock.getEndDate();
+		this.slotLengthInMinutes = slotLengthInMinutes;
+		this.totalSlots = (int) ((endDate.getTime() - startDate.getTime()) / 60000 / slotLengthInMinutes);
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public Integer getAppointmentBlockId() {
+		return appointmentBlockId;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public int getSlotLengthInMinutes() {
+		return slotLengthInMinutes;
+	}
+
+	/**
+	 * @return the number of slots the block will have.
+	 */
+	public int getTotalSlots() {
+		return totalSlots;
+	}
+
+	/**
+	 * @return the number of slots generated so far, not visible to others until the job completes.
+	 */
+	public int getGeneratedSlots() {
+		return generatedSlots;
+	}
+
+	/**
+	 * @return the generated share of the slots, from 0 to 100.
+	 */
+	public int getProgress() {
+		if (status == Status.COMPLETED || totalSlots == 0)
+			return status == Status.COMPLETED ? 100 : 0;
+		return (int) (100L * generatedSlots / totalSlots);
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return whether the job completed, failed or was cancelled.
+	 */
+	public boolean isFinished() {
+		return status == Status.COMPLETED || status == Status.CANCELLED || status == Status.FAILED;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public Date getDateSubmitted() {
+		return dateSubmitted;
+	}
+
+	public Date getDateFinished() {
+		return dateFinished;
+	}
+
+	boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	void requestCancel() {
+		cancelRequested = true;
+	}
+
+	void started() {
+		status = Status.RUNNING;
+	}
+
+	void generated(int generatedSlots) {
+		this.generatedSlots = generatedSlots;
+	}
+
+	void finished(Status status, String errorMessage) {
+		this.errorMessage = errorMessage;
+		this.dateFinished = new Date();
+		this.status = status;
+	}
+}
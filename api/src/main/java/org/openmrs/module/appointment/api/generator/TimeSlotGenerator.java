@@ -0,0 +1,268 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.generator;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerationJob.Status;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs {@link TimeSlotGenerationJob}s on a small pool of background threads, so that saving a long
+ * block with short slots does not hold the request saving it. The jobs wait in a bounded queue and
+ * are rejected once it is full. Jobs are kept for an hour after they finish, for their submitters
+ * to read how they ended.
+ */
+public class TimeSlotGenerator {
+
+	private static final int THREADS = 2;
+
+	private static final int QUEUE_CAPACITY = 50;
+
+	private static final int FLUSH_INTERVAL = 500;
+
+	private static final long FINISHED_JOB_RETENTION_MILLIS = 60 * 60 * 1000;
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private PlatformTransactionManager transactionManager;
+
+	private Executor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+	        new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+
+		        public Thread newThread(Runnable runnable) {
+			        Thread thread = new Thread(runnable, "appointment-time-slot-generator");
+			        thread.setDaemon(true);
+			        return thread;
+		        }
+	        });
+
+	private final Map<String, TimeSlotGenerationJob> jobs = new ConcurrentHashMap<String, TimeSlotGenerationJob>();
+
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	/**
+	 * @param executor the executor running the jobs, replacing the default pool.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Queues the generation of the slots of a block, replacing its current slots.
+	 *
+	 * @param appointmentBlock the saved block.
+	 * @param slotLengthInMinutes the length of each slot.
+	 * @return the queued job.
+	 * @throws APIException if the block is not saved, is already generating or too many jobs are
+	 *             queued.
+	 */
+	public synchronized TimeSlotGenerationJob submit(AppointmentBlock appointmentBlock, int slotLengthInMinutes)
+	        throws APIException {
+		if (appointmentBlock == null || appointmentBlock.getAppointmentBlockId() == null)
+			throw new APIException("The appointment block must be saved before generating its time slots");
+		if (slotLengthInMinutes <= 0)
+			throw new APIException("The time slot length must be positive");
+		if (isGenerating(appointmentBlock.getAppointmentBlockId()))
+			throw new APIException("The time slots of appointment block " + appointmentBlock.getAppointmentBlockId()
+			        + " are already being generated");
+		removeFinishedJobs();
+
+		final TimeSlotGenerationJob job = new TimeSlotGenerationJob(appointmentBlock, slotLengthInMinutes);
+		final UserContext userContext = Context.getUserContext();
+		jobs.put(job.getJobId(), job);
+		try {
+			executor.execute(new Runnable() {
+
+				public void run() {
+					Context.openSession();
+					Context.setUserContext(userContext);
+					try {
+						generate(job);
+					}
+					finally {
+						Context.clearUserContext();
+						Context.closeSession();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			jobs.remove(job.getJobId());
+			throw new APIException("Too many time slot generations are queued, try again later", e);
+		}
+		return job;
+	}
+
+	/**
+	 * @param jobId the id of the job.
+	 * @return the job, null if unknown or finished for more than an hour.
+	 */
+	public TimeSlotGenerationJob getJob(String jobId) {
+		return jobId == null ? null : jobs.get(jobId);
+	}
+
+	/**
+	 * Cancels a job. A running job rolls back what it generated and the block keeps its former
+	 * slots.
+	 *
+	 * @param jobId the id of the job.
+	 * @return whether the job was queued or running.
+	 */
+	public boolean cancel(String jobId) {
+		TimeSlotGenerationJob job = getJob(jobId);
+		if (job == null || job.isFinished())
+			return false;
+		job.requestCancel();
+		return true;
+	}
+
+	/**
+	 * @param appointmentBlockId the id of a block.
+	 * @return whether a job of the block is queued or running.
+	 */
+	public boolean isGenerating(Integer appointmentBlockId) {
+		for (TimeSlotGenerationJob job : jobs.values()) {
+			if (!job.isFinished() && job.getAppointmentBlockId().equals(appointmentBlockId))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the ids of the blocks whose jobs are queued or running.
+	 */
+	public Set<Integer> getGeneratingBlockIds() {
+		Set<Integer> appointmentBlockIds = new HashSet<Integer>();
+		for (TimeSlotGenerationJob job : jobs.values()) {
+			if (!job.isFinished())
+				appointmentBlockIds.add(job.getAppointmentBlockId());
+		}
+		return appointmentBlockIds;
+	}
+
+	/**
+	 * @return the number of jobs waiting for a thread.
+	 */
+	public int getQueuedJobCount() {
+		int queued = 0;
+		for (TimeSlotGenerationJob job : jobs.values()) {
+			if (job.getStatus() == Status.QUEUED)
+				queued++;
+		}
+		return queued;
+	}
+
+	/**
+	 * Stops the threads; queued jobs are dropped and running ones roll back.
+	 */
+	public void shutdown() {
+		for (TimeSlotGenerationJob job : jobs.values())
+			job.requestCancel();
+		if (executor instanceof ExecutorService)
+			((ExecutorService) executor).shutdownNow();
+	}
+
+	/**
+	 * Runs a job in the current thread, which must have an open session and an authenticated user.
+	 */
+	void generate(final TimeSlotGenerationJob job) {
+		if (job.isCancelRequested()) {
+			job.finished(Status.CANCELLED, null);
+			return;
+		}
+		job.started();
+		try {
+			Status status = new TransactionTemplate(transactionManager).execute(new TransactionCallback<Status>() {
+
+				public Status doInTransaction(TransactionStatus transactionStatus) {
+					return generateInTransaction(job, transactionStatus);
+				}
+			});
+			job.finished(status, null);
+		}
+		catch (RuntimeException e) {
+			log.warn("Unable to generate the time slots of appointment block " + job.getAppointmentBlockId(), e);
+			job.finished(Status.FAILED, e.getMessage());
+		}
+	}
+
+	private Status generateInTransaction(TimeSlotGenerationJob job, TransactionStatus transactionStatus) {
+		AppointmentService appointmentService = Context.getService(AppointmentService.class);
+		AppointmentBlock appointmentBlock = appointmentService.getAppointmentBlock(job.getAppointmentBlockId());
+		if (appointmentBlock == null)
+			throw new APIException("Appointment block " + job.getAppointmentBlockId() + " does not exist");
+
+		for (TimeSlot timeSlot : appointmentService.getTimeSlotsInAppointmentBlock(appointmentBlock))
+			appointmentService.purgeTimeSlot(timeSlot);
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(job.getStartDate());
+		for (int i = 0; i < job.getTotalSlots(); i++) {
+			if (job.isCancelRequested()) {
+				transactionStatus.setRollbackOnly();
+				return Status.CANCELLED;
+			}
+			Date startDate = calendar.getTime();
+			calendar.add(Calendar.MINUTE, job.getSlotLengthInMinutes());
+			appointmentService.saveTimeSlot(new TimeSlot(appointmentBlock, startDate, calendar.getTime()));
+			job.generated(i + 1);
+			//Keeps the session small; the slots only refer to the block by id.
+			if ((i + 1) % FLUSH_INTERVAL == 0) {
+				Context.flushSession();
+				Context.clearSession();
+			}
+		}
+		return Status.COMPLETED;
+	}
+
+	private void removeFinishedJobs() {
+		long oldest = System.currentTimeMillis() - FINISHED_JOB_RETENTION_MILLIS;
+		for (Iterator<TimeSlotGenerationJob> it = jobs.values().iterator(); it.hasNext();) {
+			TimeSlotGenerationJob job = it.next();
+			if (job.isFinished() && job.getDateFinished().getTime() < oldest)
+				it.remove();
+		}
+	}
+}
@@ -13,10 +13,18 @@
  */
 package org.openmrs.module.appointment.api.impl;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -27,25 +35,53 @@ import org.openmrs.PatientIdentifier;
 import org.openmrs.Provider;
 import org.openmrs.Visit;
 import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.appointment.Appointment;
 import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentChange;
 import org.openmrs.module.appointment.AppointmentStatusHistory;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentSearchCriteria;
+import org.openmrs.module.appointment.api.AppointmentSearchResult;
 import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.PatientAppointmentSummary;
+import org.openmrs.module.appointment.api.TimeSlotTakenException;
+import org.openmrs.module.appointment.api.availability.AvailabilityCalendar;
+import org.openmrs.module.appointment.api.availability.AvailableTimeSlotSearch;
+import org.openmrs.module.appointment.api.availability.TimeSlotRunScanner;
+import org.openmrs.module.appointment.api.cache.ExpiringLruCache;
+import org.openmrs.module.appointment.api.cache.PatientAppointmentCache;
+import org.openmrs.module.appointment.api.cluster.ChangeListener;
+import org.openmrs.module.appointment.api.cluster.ChangeLog;
 import org.openmrs.module.appointment.api.db.AppointmentBlockDAO;
 import org.openmrs.module.appointment.api.db.AppointmentDAO;
+import org.openmrs.module.appointment.api.db.AppointmentImportDAO;
 import org.openmrs.module.appointment.api.db.AppointmentStatusHistoryDAO;
 import org.openmrs.module.appointment.api.db.AppointmentTypeDAO;
+import org.openmrs.module.appointment.api.db.SavedAppointment;
 import org.openmrs.module.appointment.api.db.TimeSlotDAO;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerationJob;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerator;
+import org.openmrs.module.appointment.api.importer.AppointmentImportReport;
+import org.openmrs.module.appointment.api.importer.AppointmentImporter;
+import org.openmrs.module.appointment.api.metrics.AppointmentMetrics;
+import org.openmrs.module.appointment.api.reschedule.AppointmentRescheduler;
+import org.openmrs.module.appointment.api.reschedule.ReschedulePolicy;
+import org.openmrs.module.appointment.api.reschedule.RescheduleReport;
+import org.openmrs.module.appointment.api.search.PatientNameKey;
 import org.openmrs.validator.ValidateUtil;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * It is a default implementation of {@link AppointmentService}.
  */
-public class AppointmentServiceImpl extends BaseOpenmrsService implements AppointmentService {
+public class AppointmentServiceImpl extends BaseOpenmrsService implements AppointmentService, ChangeListener {
 	
 	protected final Log log = LogFactory.getLog(this.getClass());
 	
@@ -59,6 +95,49 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	
 	private AppointmentStatusHistoryDAO appointmentStatusHistoryDAO;
 	
+	private PatientAppointmentCache patientAppointmentCache = new PatientAppointmentCache();
+	
+	private ChangeLog changeLog;
+	
+	private TimeSlotGenerator timeSlotGenerator = new TimeSlotGenerator();
+	
+	private AvailabilityCalendar availabilityCalendar = new AvailabilityCalendar();
+	
+	private AppointmentMetrics appointmentMetrics = new AppointmentMetrics();
+	
+	private AppointmentImportDAO appointmentImportDAO;
+	
+	private PlatformTransactionManager transactionManager;
+	
+	/**
+	 * The maximum number of patients a patient query of a search is narrowed to.
+	 */
+	private static final int MAX_SEARCHED_PATIENTS = 1000;
+	
+	private static final String CHANGE_FEED_SETTLE_SECONDS_PROPERTY = "appointment.changeFeed.settleSeconds";
+	
+	private static final int DEFAULT_CHANGE_FEED_SETTLE_SECONDS = 30;
+	
+	/**
+	 * The changed objects which change the free time of providers. A change of a provider is recorded
+	 * when appointments or blocks move away from the provider.
+	 */
+	private static final Set<String> AVAILABILITY_ENTITY_TYPES = new HashSet<String>(Arrays.asList("Appointment",
+	    "AppointmentBlock", "AppointmentType", "TimeSlot", "Provider"));
+	
+	/**
+	 * The number of changes of other nodes above which the whole availability calendar is evicted
+	 * rather than the block of each change looked up, as after a bulk change.
+	 */
+	private static final int MAX_LOOKED_UP_AVAILABILITY_CHANGES = 100;
+	
+	/**
+	 * The patients matching recent patient queries: a type-ahead repeats the same query for each
+	 * page, and new or renamed patients show up once the entry expires.
+	 */
+	private final ExpiringLruCache<PatientNameKey, List<Integer>> patientIdsByNameKey = new ExpiringLruCache<PatientNameKey, List<Integer>>(
+	        "patientIdsByNameKey", 1000, 60 * 1000);
+	
 	/**
 	 * @param dao the appointment type dao to set
 	 */
@@ -66,6 +145,168 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 		this.appointmentTypeDAO = appointmentTypeDAO;
 	}
 	
+	/**
+	 * @param patientAppointmentCache the cache of the last and next appointments of patients
+	 */
+	public void setPatientAppointmentCache(PatientAppointmentCache patientAppointmentCache) {
+		this.patientAppointmentCache = patientAppointmentCache;
+	}
+	
+	/**
+	 * @return the cache of the last and next appointments of patients
+	 */
+	public PatientAppointmentCache getPatientAppointmentCache() {
+		return patientAppointmentCache;
+	}
+	
+	/**
+	 * @param changeLog the change log to write changes to, and to evict caches from
+	 */
+	public void setChangeLog(ChangeLog changeLog) {
+		this.changeLog = changeLog;
+		changeLog.addListener(this);
+	}
+	
+	/**
+	 * @return the change log
+	 */
+	public ChangeLog getChangeLog() {
+		return changeLog;
+	}
+	
+	/**
+	 * @param timeSlotGenerator the generator running the time slot generations in the background
+	 */
+	public void setTimeSlotGenerator(TimeSlotGenerator timeSlotGenerator) {
+		this.timeSlotGenerator = timeSlotGenerator;
+	}
+	
+	/**
+	 * @return the time slot generator
+	 */
+	public TimeSlotGenerator getTimeSlotGenerator() {
+		return timeSlotGenerator;
+	}
+	
+	/**
+	 * @param availabilityCalendar the calendar of the free time of providers
+	 */
+	public void setAvailabilityCalendar(AvailabilityCalendar availabilityCalendar) {
+		this.availabilityCalendar = availabilityCalendar;
+	}
+	
+	/**
+	 * @return the calendar of the free time of providers
+	 */
+	public AvailabilityCalendar getAvailabilityCalendar() {
+		return availabilityCalendar;
+	}
+	
+	/**
+	 * @param appointmentMetrics the counters of the booking flow
+	 */
+	public void setAppointmentMetrics(AppointmentMetrics appointmentMetrics) {
+		this.appointmentMetrics = appointmentMetrics;
+	}
+	
+	/**
+	 * @return the counters of the booking flow
+	 */
+	public AppointmentMetrics getAppointmentMetrics() {
+		return appointmentMetrics;
+	}
+	
+	/**
+	 * @param appointmentImportDAO the dao of the CSV imports
+	 */
+	public void setAppointmentImportDAO(AppointmentImportDAO appointmentImportDAO) {
+		this.appointmentImportDAO = appointmentImportDAO;
+	}
+	
+	/**
+	 * @param transactionManager the transaction manager committing each chunk of an import
+	 */
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+	
+	/**
+	 * Evicts what this node cached about the objects other nodes changed; its own changes were
+	 * evicted when they were made.
+	 * 
+	 * @see org.openmrs.module.appointment.api.cluster.ChangeListener#onChanges(java.util.List)
+	 */
+	public void onChanges(List<AppointmentChange> changes) {
+		List<AppointmentChange> availabilityChanges = new ArrayList<AppointmentChange>();
+		for (AppointmentChange change : changes) {
+			if (changeLog.isLocal(change))
+				continue;
+			if ("AppointmentType".equals(change.getEntityType()))
+				getAppointmentTypeDAO().invalidateNameIndex();
+			else if ("Appointment".equals(change.getEntityType()))
+				patientAppointmentCache.evict(change.getPatientId());
+			else if ("TimeSlot".equals(change.getEntityType()) || "AppointmentBlock".equals(change.getEntityType()))
+				patientAppointmentCache.evictAll();
+			if (AVAILABILITY_ENTITY_TYPES.contains(change.getEntityType()))
+				availabilityChanges.add(change);
+		}
+		if (availabilityChanges.size() > MAX_LOOKED_UP_AVAILABILITY_CHANGES)
+			availabilityCalendar.clear();
+		else if (!availabilityChanges.isEmpty())
+			removeAvailability(availabilityChanges);
+	}
+	
+	/**
+	 * Evicts the days the changes of other nodes concern: the days of the block of a changed time
+	 * slot or appointment, and every day of the provider of a changed block, whose dates may have
+	 * changed, or of a changed provider. The whole calendar is evicted for a changed appointment type,
+	 * whose duration counts in the booked minutes, and for a purged object, whose block is unknown.
+	 */
+	private void removeAvailability(final List<AppointmentChange> changes) {
+		//Not read-only, so that a lagging read replica never hides the changed objects.
+		boolean removed = new TransactionTemplate(transactionManager).execute(new TransactionCallback<Boolean>() {
+			
+			public Boolean doInTransaction(TransactionStatus status) {
+				for (AppointmentChange change : changes) {
+					if ("Provider".equals(change.getEntityType())) {
+						availabilityCalendar.remove(change.getEntityId(), null, null);
+						continue;
+					}
+					AppointmentBlock block = null;
+					if (!AppointmentChange.ACTION_PURGE.equals(change.getAction()))
+						block = changeLog.getAppointmentChangeDAO().getAppointmentBlock(change);
+					if (block == null)
+						return false;
+					if ("AppointmentBlock".equals(change.getEntityType()))
+						availabilityCalendar.remove(block.getProvider().getProviderId(), null, null);
+					else
+						availabilityCalendar.remove(block.getProvider().getProviderId(), block.getStartDate(), block
+						        .getEndDate());
+				}
+				return true;
+			}
+		});
+		if (!removed)
+			availabilityCalendar.clear();
+	}
+	
+	private void recordChange(String entityType, Integer entityId, Integer patientId, String action) {
+		//The durations of the types count in the minutes booked with every provider.
+		if ("AppointmentType".equals(entityType))
+			availabilityCalendar.evictAll();
+		if (changeLog != null)
+			changeLog.record(entityType, entityId, patientId, action);
+	}
+	
+	/**
+	 * Evicts the free time of the days of a block, which its time slots and their appointments
+	 * change.
+	 */
+	private void evictAvailability(AppointmentBlock appointmentBlock) {
+		availabilityCalendar.evict(appointmentBlock.getProvider().getProviderId(), appointmentBlock.getStartDate(),
+		    appointmentBlock.getEndDate());
+	}
+	
 	/**
 	 * @return the appointment type dao
 	 */
@@ -120,8 +361,14 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	 * @see org.openmrs.module.appointment.api.AppointmentService#saveAppointmentType(org.openmrs.AppointmentType)
 	 */
 	public AppointmentType saveAppointmentType(AppointmentType appointmentType) throws APIException {
+		return saveAppointmentType(appointmentType, AppointmentChange.ACTION_SAVE);
+	}
+	
+	private AppointmentType saveAppointmentType(AppointmentType appointmentType, String action) {
 		ValidateUtil.validate(appointmentType);
-		return (AppointmentType) getAppointmentTypeDAO().saveOrUpdate(appointmentType);
+		AppointmentType saved = (AppointmentType) getAppointmentTypeDAO().saveOrUpdate(appointmentType);
+		recordChange("AppointmentType", saved.getAppointmentTypeId(), null, action);
+		return saved;
 	}
 	
 	/**
@@ -129,20 +376,21 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	 *      java.lang.String)
 	 */
 	public AppointmentType retireAppointmentType(AppointmentType appointmentType, String reason) {
-		return saveAppointmentType(appointmentType);
+		return saveAppointmentType(appointmentType, AppointmentChange.ACTION_RETIRE);
 	}
 	
 	/**
 	 * @see org.openmrs.module.appointment.api.AppointmentService#unretireAppointmentType(org.openmrs.AppointmentType)
 	 */
 	public AppointmentType unretireAppointmentType(AppointmentType appointmentType) {
-		return saveAppointmentType(appointmentType);
+		return saveAppointmentType(appointmentType, AppointmentChange.ACTION_UNRETIRE);
 	}
 	
 	/**
 	 * @see org.openmrs.module.appointment.api.AppointmentService#purgeAppointmentType(org.openmrs.AppointmentType)
 	 */
 	public void purgeAppointmentType(AppointmentType appointmentType) {
+		recordChange("AppointmentType", appointmentType.getAppointmentTypeId(), null, AppointmentChange.ACTION_PURGE);
 		getAppointmentTypeDAO().delete(appointmentType);
 	}
 	
@@ -199,8 +447,26 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	 * @see org.openmrs.module.appointment.api.AppointmentService#saveAppointmentBlock(org.openmrs.AppointmentBlock)
 	 */
 	public AppointmentBlock saveAppointmentBlock(AppointmentBlock appointmentBlock) throws APIException {
+		return saveAppointmentBlock(appointmentBlock, AppointmentChange.ACTION_SAVE);
+	}
+	
+	private AppointmentBlock saveAppointmentBlock(AppointmentBlock appointmentBlock, String action) {
 		ValidateUtil.validate(appointmentBlock);
-		return (AppointmentBlock) getAppointmentBlockDAO().saveOrUpdate(appointmentBlock);
+		Integer previousProviderId = appointmentBlock.getAppointmentBlockId() == null ? null : getAppointmentBlockDAO()
+		        .getSavedProviderId(appointmentBlock.getAppointmentBlockId());
+		AppointmentBlock saved = (AppointmentBlock) getAppointmentBlockDAO().saveOrUpdate(appointmentBlock);
+		Integer providerId = saved.getProvider().getProviderId();
+		//The dates of an edited block may have changed, and the previous provider loses its time.
+		if (previousProviderId == null)
+			evictAvailability(saved);
+		else
+			availabilityCalendar.evict(providerId, null, null);
+		if (previousProviderId != null && !previousProviderId.equals(providerId)) {
+			availabilityCalendar.evict(previousProviderId, null, null);
+			recordChange("Provider", previousProviderId, null, action);
+		}
+		recordChange("AppointmentBlock", saved.getAppointmentBlockId(), null, action);
+		return saved;
 	}
 	
 	/**
@@ -208,20 +474,93 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	 *      java.lang.String)
 	 */
 	public AppointmentBlock voidAppointmentBlock(AppointmentBlock appointmentBlock, String reason) {
-		return saveAppointmentBlock(appointmentBlock);
+		//Normally already done by the void handler of OpenMRS.
+		if (!appointmentBlock.isVoided()) {
+			appointmentBlock.setVoided(true);
+			appointmentBlock.setVoidedBy(Context.getAuthenticatedUser());
+			appointmentBlock.setDateVoided(new Date());
+			appointmentBlock.setVoidReason(reason);
+		}
+		AppointmentBlock saved = saveAppointmentBlock(appointmentBlock, AppointmentChange.ACTION_VOID);
+		Map<Integer, Integer> appointments = getAppointmentBlockDAO().voidTimeSlotsAndAppointments(saved,
+		    saved.getVoidedBy(), saved.getVoidReason());
+		recordAppointmentChanges(appointments, AppointmentChange.ACTION_VOID);
+		patientAppointmentCache.evictAll();
+		return saved;
 	}
 	
 	/**
 	 * @see org.openmrs.module.appointment.api.AppointmentService#unvoidAppointmentBlock(org.openmrs.AppointmentBlock)
 	 */
 	public AppointmentBlock unvoidAppointmentBlock(AppointmentBlock appointmentBlock) {
-		return saveAppointmentBlock(appointmentBlock);
+		Map<Integer, Integer> appointments = getAppointmentBlockDAO().unvoidTimeSlotsAndAppointments(appointmentBlock,
+		    Context.getAuthenticatedUser(), new Date());
+		if (appointmentBlock.isVoided()) {
+			appointmentBlock.setVoided(false);
+			appointmentBlock.setVoidedBy(null);
+			appointmentBlock.setDateVoided(null);
+			appointmentBlock.setVoidReason(null);
+		}
+		AppointmentBlock saved = saveAppointmentBlock(appointmentBlock, AppointmentChange.ACTION_UNVOID);
+		recordAppointmentChanges(appointments, AppointmentChange.ACTION_UNVOID);
+		patientAppointmentCache.evictAll();
+		return saved;
+	}
+	
+	@Override
+	public RescheduleReport rescheduleAppointmentBlock(AppointmentBlock source, AppointmentBlock target,
+	        ReschedulePolicy policy) throws APIException {
+		if (target.getAppointmentBlockId() == null || target.getAppointmentBlockId().equals(source.getAppointmentBlockId()))
+			throw new APIException("The appointments of a block can only be moved to another saved block");
+		if (timeSlotGenerator.isGenerating(target.getAppointmentBlockId()))
+			throw new APIException("The time slots of appointment block " + target.getAppointmentBlockId()
+			        + " are being generated");
+		List<TimeSlot> timeSlots = getTimeSlotDAO().getTimeSlotsForUpdate(target, null, null, null, null);
+		return newRescheduler().reschedule(source, timeSlots, policy);
+	}
+	
+	@Override
+	public RescheduleReport rescheduleAppointmentBlock(AppointmentBlock source, Provider provider, ReschedulePolicy policy)
+	        throws APIException {
+		if (provider.getProviderId().equals(source.getProvider().getProviderId()))
+			throw new APIException("The appointments of a block can only be moved to another provider");
+		List<TimeSlot> timeSlots = new ArrayList<TimeSlot>();
+		for (TimeSlot timeSlot : getTimeSlotDAO().getTimeSlotsForUpdate(null, provider, source.getLocation(),
+		    source.getStartDate(), source.getEndDate())) {
+			if (!timeSlotGenerator.isGenerating(timeSlot.getAppointmentBlock().getAppointmentBlockId()))
+				timeSlots.add(timeSlot);
+		}
+		return newRescheduler().reschedule(source, timeSlots, policy);
+	}
+	
+	private AppointmentRescheduler newRescheduler() {
+		//The rescheduler records the changes of the appointments it moves itself.
+		availabilityCalendar.evictAll();
+		return new AppointmentRescheduler(getAppointmentDAO(), getTimeSlotDAO(), changeLog, patientAppointmentCache);
+	}
+	
+	/**
+	 * Records the changes of appointments changed in bulk, with a single batch.
+	 * 
+	 * @param appointments the ids of the appointments, mapped to the ids of their patients.
+	 * @param action the action of the changes.
+	 */
+	private void recordAppointmentChanges(Map<Integer, Integer> appointments, String action) {
+		if (changeLog == null || appointments.isEmpty())
+			return;
+		List<AppointmentChange> changes = new ArrayList<AppointmentChange>();
+		for (Map.Entry<Integer, Integer> appointment : appointments.entrySet())
+			changes.add(new AppointmentChange("Appointment", appointment.getKey(), appointment.getValue(), action, null));
+		changeLog.recordAll(changes);
 	}
 	
 	/**
 	 * @see org.openmrs.module.appointment.api.AppointmentService#purgeAppointmentBlock(org.openmrs.AppointmentBlock)
 	 */
 	public void purgeAppointmentBlock(AppointmentBlock appointmentBlock) {
+		patientAppointmentCache.evictAll();
+		evictAvailability(appointmentBlock);
+		recordChange("AppointmentBlock", appointmentBlock.getAppointmentBlockId(), null, AppointmentChange.ACTION_PURGE);
 		getAppointmentBlockDAO().delete(appointmentBlock);
 	}
 	
@@ -238,6 +577,12 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 		return getAppointmentBlockDAO().getAppointmentBlocks(fromDate, toDate, location);
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentBlock> getOverlappingAppointmentBlocks(AppointmentBlock appointmentBlock) {
+		return getAppointmentBlockDAO().getOverlappingAppointmentBlocks(appointmentBlock);
+	}
+	
 	//Appointment
 	/**
 	 * @return the appointment dao
@@ -272,22 +617,75 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	
 	@Override
 	public Appointment saveAppointment(Appointment appointment) throws APIException {
+		return saveAppointment(appointment, AppointmentChange.ACTION_SAVE);
+	}
+	
+	@Override
+	public Appointment bookAppointment(Appointment appointment) throws APIException {
+		TimeSlot timeSlot = appointment.getTimeSlot();
+		if (appointment.getAppointmentId() != null || timeSlot == null || appointment.getAppointmentType() == null)
+			throw new APIException("Only new appointments with a time slot and a type can be booked");
+		int duration = appointment.getAppointmentType().getDuration();
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(timeSlot.getStartDate());
+		calendar.add(Calendar.MINUTE, duration);
+		List<TimeSlot> timeSlots = getTimeSlotDAO().getTimeSlotsForUpdate(timeSlot.getAppointmentBlock(), null, null,
+		    timeSlot.getStartDate(), calendar.getTime());
+		Map<Integer, Integer> bookedMinutes = getTimeSlotDAO().getBookedMinutes(timeSlots);
+		TimeSlotRunScanner scanner = new TimeSlotRunScanner(duration);
+		for (TimeSlot candidate : timeSlots) {
+			Integer booked = bookedMinutes.get(candidate.getTimeSlotId());
+			TimeSlot fitting = scanner.next(candidate, booked == null ? 0 : booked);
+			if (fitting != null && fitting.getTimeSlotId().equals(timeSlot.getTimeSlotId())) {
+				Appointment saved = saveAppointment(appointment);
+				appointmentMetrics.recordBooking(true);
+				return saved;
+			}
+		}
+		appointmentMetrics.recordBooking(false);
+		throw new TimeSlotTakenException("Time slot " + timeSlot.getTimeSlotId() + " has no longer room for an appointment of "
+		        + duration + " minutes");
+	}
+	
+	private Appointment saveAppointment(Appointment appointment, String action) {
 		ValidateUtil.validate(appointment);
-		return (Appointment) getAppointmentDAO().saveOrUpdate(appointment);
+		evictPatient(appointment);
+		SavedAppointment previous = appointment.getAppointmentId() == null ? null : getAppointmentDAO()
+		        .getSavedAppointment(appointment.getAppointmentId());
+		//An appointment moved to another patient also changes the summary of the previous patient.
+		if (previous != null && previous.getPatientId() != null
+		        && !previous.getPatientId().equals(getPatientId(appointment))) {
+			patientAppointmentCache.evict(previous.getPatientId());
+			recordChange("Appointment", appointment.getAppointmentId(), previous.getPatientId(), action);
+		}
+		//So does an appointment moved to another time slot for the provider of the previous one.
+		if (previous != null && !previous.getTimeSlotId().equals(appointment.getTimeSlot().getTimeSlotId())) {
+			availabilityCalendar.evict(previous.getProviderId(), previous.getBlockStartDate(), previous
+			        .getBlockEndDate());
+			recordChange("Provider", previous.getProviderId(), null, action);
+		}
+		evictAvailability(appointment.getTimeSlot().getAppointmentBlock());
+		Appointment saved = (Appointment) getAppointmentDAO().saveOrUpdate(appointment);
+		recordChange("Appointment", saved.getAppointmentId(), getPatientId(saved), action);
+		return saved;
 	}
 	
 	@Override
 	public Appointment voidAppointment(Appointment appointment, String reason) {
-		return saveAppointment(appointment);
+		return saveAppointment(appointment, AppointmentChange.ACTION_VOID);
 	}
 	
 	@Override
 	public Appointment unvoidAppointment(Appointment appointment) {
-		return saveAppointment(appointment);
+		return saveAppointment(appointment, AppointmentChange.ACTION_UNVOID);
 	}
 	
 	@Override
 	public void purgeAppointment(Appointment appointment) {
+		evictPatient(appointment);
+		evictAvailability(appointment.getTimeSlot().getAppointmentBlock());
+		recordChange("Appointment", appointment.getAppointmentId(), getPatientId(appointment),
+		    AppointmentChange.ACTION_PURGE);
 		getAppointmentDAO().delete(appointment);
 	}
 	
@@ -297,6 +695,15 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 		return getAppointmentDAO().getAppointmentsByPatient(patient);
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Appointment> getAppointmentsOfPatient(Patient patient, boolean includeVoided, Date fromDate,
+	        Date toDate, Appointment startAfter, int limit) {
+		if (patient == null || limit <= 0)
+			return new LinkedList<Appointment>();
+		return getAppointmentDAO().getAppointmentsByPatient(patient, includeVoided, fromDate, toDate, startAfter, limit);
+	}
+	
 	@Override
 	@Transactional(readOnly = true)
 	public Appointment getAppointmentByVisit(Visit visit) {
@@ -320,8 +727,18 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	
 	@Override
 	public TimeSlot saveTimeSlot(TimeSlot timeSlot) throws APIException {
+		return saveTimeSlot(timeSlot, AppointmentChange.ACTION_SAVE);
+	}
+	
+	private TimeSlot saveTimeSlot(TimeSlot timeSlot, String action) {
 		ValidateUtil.validate(timeSlot);
-		return (TimeSlot) getTimeSlotDAO().saveOrUpdate(timeSlot);
+		//Appointments only move with existing time slots, new ones have none yet.
+		if (timeSlot.getTimeSlotId() != null)
+			patientAppointmentCache.evictAll();
+		TimeSlot saved = (TimeSlot) getTimeSlotDAO().saveOrUpdate(timeSlot);
+		evictAvailability(saved.getAppointmentBlock());
+		recordChange("TimeSlot", saved.getTimeSlotId(), null, action);
+		return saved;
 	}
 	
 	@Override
@@ -350,16 +767,19 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	
 	@Override
 	public TimeSlot voidTimeSlot(TimeSlot timeSlot, String reason) {
-		return saveTimeSlot(timeSlot);
+		return saveTimeSlot(timeSlot, AppointmentChange.ACTION_VOID);
 	}
 	
 	@Override
 	public TimeSlot unvoidTimeSlot(TimeSlot timeSlot) {
-		return saveTimeSlot(timeSlot);
+		return saveTimeSlot(timeSlot, AppointmentChange.ACTION_UNVOID);
 	}
 	
 	@Override
 	public void purgeTimeSlot(TimeSlot timeSlot) {
+		patientAppointmentCache.evictAll();
+		evictAvailability(timeSlot.getAppointmentBlock());
+		recordChange("TimeSlot", timeSlot.getTimeSlotId(), null, AppointmentChange.ACTION_PURGE);
 		getTimeSlotDAO().delete(timeSlot);
 	}
 	
@@ -374,6 +794,37 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 		return getTimeSlotDAO().getTimeSlotsByAppointmentBlock(appointmentBlock);
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public long[] getFreeTime(Provider provider, Location location, Date day) {
+		return availabilityCalendar.getFreeTime(provider.getProviderId(), getLocationId(location), day);
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Provider> getProvidersFreeAt(List<Provider> providers, Location location, Collection<Date> days,
+	        int minuteOfDay, int minutes) {
+		Map<Integer, Provider> providersById = new LinkedHashMap<Integer, Provider>();
+		for (Provider provider : providers)
+			providersById.put(provider.getProviderId(), provider);
+		List<Provider> free = new ArrayList<Provider>();
+		for (Integer providerId : availabilityCalendar.getProvidersFreeAt(providersById.keySet(), getLocationId(location),
+		    days, minuteOfDay, minutes))
+			free.add(providersById.get(providerId));
+		return free;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Date getFirstFreeTime(Provider provider, Location location, Date fromDay, Date toDay, int minutes) {
+		return availabilityCalendar.getFirstFreeTime(provider.getProviderId(), getLocationId(location), fromDay, toDay,
+		    minutes);
+	}
+	
+	private Integer getLocationId(Location location) {
+		return location == null ? null : location.getLocationId();
+	}
+	
 	//AppointmentStatusHistory
 	/**
 	 * @param dao the appointment status history dao to set
@@ -419,19 +870,103 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 	public AppointmentStatusHistory saveAppointmentStatusHistory(AppointmentStatusHistory appointmentStatusHistory)
 	        throws APIException {
 		ValidateUtil.validate(appointmentStatusHistory);
-		return (AppointmentStatusHistory) getAppointmentStatusHistoryDAO().saveOrUpdate(appointmentStatusHistory);
+		AppointmentStatusHistory saved = (AppointmentStatusHistory) getAppointmentStatusHistoryDAO().saveOrUpdate(
+		    appointmentStatusHistory);
+		recordChange("AppointmentStatusHistory", saved.getAppointmentStatusHistoryId(), getPatientId(saved
+		        .getAppointment()), AppointmentChange.ACTION_SAVE);
+		return saved;
 	}
 	
 	@Override
+	@Transactional(readOnly = true)
 	public Appointment getLastAppointment(Patient patient) {
-		return getAppointmentDAO().getLastAppointment(patient);
+		PatientAppointmentSummary summary = getPatientAppointmentSummary(patient);
+		if (summary == null || summary.getLastAppointmentId() == null)
+			return null;
+		return getAppointment(summary.getLastAppointmentId());
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Appointment getNextAppointment(Patient patient) {
+		PatientAppointmentSummary summary = getPatientAppointmentSummary(patient);
+		if (summary == null || summary.getNextAppointmentId() == null)
+			return null;
+		return getAppointment(summary.getNextAppointmentId());
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public PatientAppointmentSummary getPatientAppointmentSummary(Patient patient) {
+		if (patient == null || patient.getPatientId() == null)
+			return null;
+		PatientAppointmentSummary summary = patientAppointmentCache.get(patient.getPatientId());
+		if (summary == null) {
+			long generation = patientAppointmentCache.getGeneration();
+			summary = new PatientAppointmentSummary(patient.getPatientId(), getAppointmentDAO().getLastAppointment(
+			    patient), getAppointmentDAO().getNextAppointment(patient, new Date()));
+			patientAppointmentCache.put(summary, generation);
+		}
+		return summary;
+	}
+	
+	private static Integer getPatientId(Appointment appointment) {
+		return appointment == null || appointment.getPatient() == null ? null : appointment.getPatient().getPatientId();
+	}
+	
+	private void evictPatient(Appointment appointment) {
+		if (appointment != null && appointment.getPatient() != null)
+			patientAppointmentCache.evict(appointment.getPatient().getPatientId());
 	}
 	
 	@Override
 	@Transactional(readOnly = true)
 	public List<TimeSlot> getTimeSlotsByConstraints(AppointmentType appointmentType, Date fromDate, Date toDate,
 	        Provider provider) throws APIException {
-		return getTimeSlotDAO().getTimeSlotsByConstraints(appointmentType, fromDate, toDate, provider);
+		return getTimeSlotDAO().getTimeSlotsByConstraints(appointmentType, fromDate, toDate, provider,
+		    timeSlotGenerator.getGeneratingBlockIds());
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<TimeSlot> getAvailableTimeSlots(AppointmentType appointmentType, Date fromDate, Date toDate,
+	        Provider provider, Location location, int maxResults) throws APIException {
+		if (appointmentType == null)
+			throw new APIException("Appointment Type can not be null.");
+		if (fromDate == null || toDate == null)
+			throw new APIException("fromDate and toDate are required");
+		if (!fromDate.before(toDate))
+			throw new APIException("fromDate can not be later than toDate");
+		long start = System.nanoTime();
+		try {
+			return new AvailableTimeSlotSearch(getTimeSlotDAO(), availabilityCalendar).search(appointmentType, fromDate,
+			    toDate, provider == null ? null : provider.getProviderId(), getLocationId(location), timeSlotGenerator
+			            .getGeneratingBlockIds(), maxResults);
+		}
+		finally {
+			appointmentMetrics.recordAvailabilitySearch(System.nanoTime() - start);
+		}
+	}
+	
+	@Override
+	public long getAppointmentCount(String status, Date endedBefore) {
+		return getAppointmentDAO().getAppointmentCount(status, endedBefore);
+	}
+	
+	@Override
+	public TimeSlotGenerationJob generateTimeSlots(AppointmentBlock appointmentBlock, int slotLengthInMinutes)
+	        throws APIException {
+		return timeSlotGenerator.submit(appointmentBlock, slotLengthInMinutes);
+	}
+	
+	@Override
+	public TimeSlotGenerationJob getTimeSlotGenerationJob(String jobId) {
+		return timeSlotGenerator.getJob(jobId);
+	}
+	
+	@Override
+	public boolean cancelTimeSlotGeneration(String jobId) {
+		return timeSlotGenerator.cancel(jobId);
 	}
 	
 	@Override
@@ -456,4 +991,109 @@ public class AppointmentServiceImpl extends BaseOpenmrsService implements Appoin
 		return identifiers;
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentSearchResult> searchAppointments(AppointmentSearchCriteria criteria, int limit)
+	        throws APIException {
+		if (criteria == null || limit <= 0)
+			return new LinkedList<AppointmentSearchResult>();
+		
+		List<Integer> patientIds = null;
+		if (criteria.getPatientQuery() != null && criteria.getPatientQuery().trim().length() > 0) {
+			PatientNameKey key = PatientNameKey.valueOf(criteria.getPatientQuery());
+			if (key == null)
+				return new LinkedList<AppointmentSearchResult>();
+			patientIds = patientIdsByNameKey.get(key);
+			if (patientIds == null) {
+				patientIds = getAppointmentDAO().getPatientIdsByWords(key.getWords(), MAX_SEARCHED_PATIENTS);
+				patientIdsByNameKey.put(key, patientIds);
+			}
+			if (patientIds.isEmpty())
+				return new LinkedList<AppointmentSearchResult>();
+		}
+		return getAppointmentDAO().searchAppointments(criteria, patientIds, limit);
+	}
+	
+	/**
+	 * @return the cache of the patients matching recent patient queries.
+	 */
+	public ExpiringLruCache<PatientNameKey, List<Integer>> getPatientIdsByNameKeyCache() {
+		return patientIdsByNameKey;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<AppointmentChange> getChangesSince(Integer cursor, int limit) throws APIException {
+		List<AppointmentChange> changes = new LinkedList<AppointmentChange>();
+		if (changeLog == null || limit <= 0)
+			return changes;
+		
+		//Ids are assigned before their transactions commit; only settled changes can be read in id order.
+		Date settledBefore = new Date(System.currentTimeMillis() - getSettleSeconds() * 1000L);
+		for (AppointmentChange change : changeLog.getAppointmentChangeDAO().getChangesAfter(
+		    cursor == null ? 0 : cursor, limit)) {
+			if (change.getDateCreated().after(settledBefore))
+				break;
+			changes.add(change);
+		}
+		return changes;
+	}
+	
+	@Override
+	@Transactional
+	public int purgeChangesBefore(Date before) throws APIException {
+		if (changeLog == null || before == null)
+			return 0;
+		return changeLog.getAppointmentChangeDAO().deleteChangesBefore(before);
+	}
+	
+	@Override
+	public AppointmentImportReport importAppointmentBlocks(Reader input, int resumeAfterRow) throws APIException {
+		try {
+			return newImporter().importAppointmentBlocks(input, resumeAfterRow);
+		}
+		finally {
+			availabilityCalendar.evictAll();
+			closeQuietly(input);
+		}
+	}
+	
+	@Override
+	public AppointmentImportReport importAppointments(Reader input, int resumeAfterRow) throws APIException {
+		try {
+			return newImporter().importAppointments(input, resumeAfterRow);
+		}
+		finally {
+			availabilityCalendar.evictAll();
+			closeQuietly(input);
+		}
+	}
+	
+	private AppointmentImporter newImporter() {
+		return new AppointmentImporter(transactionManager, appointmentImportDAO, appointmentBlockDAO, appointmentTypeDAO,
+		        getTimeSlotDAO(), changeLog, patientAppointmentCache);
+	}
+	
+	private void closeQuietly(Reader input) {
+		try {
+			input.close();
+		}
+		catch (IOException e) {
+			log.debug("Unable to close the imported CSV", e);
+		}
+	}
+	
+	private int getSettleSeconds() {
+		String value = Context.getAdministrationService().getGlobalProperty(CHANGE_FEED_SETTLE_SECONDS_PROPERTY);
+		if (value == null || value.trim().length() == 0)
+			return DEFAULT_CHANGE_FEED_SETTLE_SECONDS;
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value of global property " + CHANGE_FEED_SETTLE_SECONDS_PROPERTY + ": " + value);
+			return DEFAULT_CHANGE_FEED_SETTLE_SECONDS;
+		}
+	}
+	
 }
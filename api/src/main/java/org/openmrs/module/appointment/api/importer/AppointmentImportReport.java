@@ -0,0 +1,123 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.importer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of a CSV import. Rows are numbered from 1, after the header. The rows are imported
+ * in chunks, each in its own transaction; an import that stopped can be run again on the same input
+ * from the row after {@link #getLastCommittedRow()}.
+ */
+public class AppointmentImportReport implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private int rowsRead;
+
+	private int rowsImported;
+
+	private int lastCommittedRow;
+
+	private final List<RowError> errors = new ArrayList<AppointmentImportReport.RowError>();
+
+	private String failure;
+
+	/**
+	 * @return the number of rows read, including those skipped because they were already imported.
+	 */
+	public int getRowsRead() {
+		return rowsRead;
+	}
+
+	void setRowsRead(int rowsRead) {
+		this.rowsRead = rowsRead;
+	}
+
+	/**
+	 * @return the number of rows imported by this run.
+	 */
+	public int getRowsImported() {
+		return rowsImported;
+	}
+
+	void addRowsImported(int rowsImported) {
+		this.rowsImported += rowsImported;
+	}
+
+	/**
+	 * @return the last row of the last committed chunk.
+	 */
+	public int getLastCommittedRow() {
+		return lastCommittedRow;
+	}
+
+	void setLastCommittedRow(int lastCommittedRow) {
+		this.lastCommittedRow = lastCommittedRow;
+	}
+
+	/**
+	 * @return the rows which were not imported, and why.
+	 */
+	public List<RowError> getErrors() {
+		return errors;
+	}
+
+	void addError(int row, String message) {
+		errors.add(new RowError(row, message));
+	}
+
+	/**
+	 * @return why the import stopped before the end of the input, null if it did not.
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	void setFailure(String failure) {
+		this.failure = failure;
+	}
+
+	/**
+	 * A row which was not imported.
+	 */
+	public static class RowError implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int row;
+
+		private final String message;
+
+		public RowError(int row, String message) {
+			this.row = row;
+			this.message = message;
+		}
+
+		public int getRow() {
+			return row;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return "Row " + row + ": " + message;
+		}
+	}
+}
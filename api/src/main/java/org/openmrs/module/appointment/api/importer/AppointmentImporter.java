@@ -0,0 +1,522 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.availability.TimeSlotBookings;
+import org.openmrs.module.appointment.api.cache.PatientAppointmentCache;
+import org.openmrs.module.appointment.api.cluster.ChangeLog;
+import org.openmrs.module.appointment.api.db.AppointmentBlockDAO;
+import org.openmrs.module.appointment.api.db.AppointmentImportDAO;
+import org.openmrs.module.appointment.api.db.AppointmentTypeDAO;
+import org.openmrs.module.appointment.api.db.TimeSlotDAO;
+import org.openmrs.module.appointment.validator.AppointmentBlockValidator;
+import org.openmrs.module.appointment.validator.AppointmentValidator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.validation.BindException;
+import org.springframework.validation.Validator;
+
+/**
+ * Imports appointment blocks and appointments from CSV, for migrations from other systems. The
+ * input is read as a stream and imported in chunks of {@link #CHUNK_SIZE} rows, each committed in its
+ * own transaction: the references of a chunk are looked up with one query per kind, its rows are
+ * validated, and the valid ones inserted with batched statements. Invalid rows are reported and
+ * skipped. If a chunk fails, the import stops; running it again from the last committed row resumes
+ * it.
+ * <p>
+ * Dates are written {@value #DATE_FORMAT}. The columns of blocks are provider (identifier), location
+ * (name), startDate, endDate, types (names separated by |) and slotLength (minutes); the slots of the
+ * imported blocks are generated. The columns of appointments are patientIdentifier, appointmentType
+ * (name), provider (identifier), location (name), startDate, which must be the start of a time slot
+ * of the provider at the location, and the optional status (default SCHEDULED) and reason. As when
+ * booking, the time slots of a chunk are locked and an appointment is only imported where it fits
+ * with the appointments already booked and those imported before it.
+ */
+public class AppointmentImporter {
+
+	public static final String DATE_FORMAT = "yyyy-MM-dd HH:mm";
+
+	public static final int CHUNK_SIZE = 500;
+
+	private static final String[] BLOCK_COLUMNS = { "provider", "location", "startDate", "endDate", "types",
+	        "slotLength" };
+
+	private static final String[] APPOINTMENT_COLUMNS = { "patientIdentifier", "appointmentType", "provider",
+	        "location", "startDate" };
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private final PlatformTransactionManager transactionManager;
+
+	private final AppointmentImportDAO appointmentImportDAO;
+
+	private final AppointmentBlockDAO appointmentBlockDAO;
+
+	private final AppointmentTypeDAO appointmentTypeDAO;
+
+	private final TimeSlotDAO timeSlotDAO;
+
+	private final ChangeLog changeLog;
+
+	private final PatientAppointmentCache patientAppointmentCache;
+
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+	/**
+	 * The references resolved by previous chunks, as they repeat across a file.
+	 */
+	private final Map<String, Provider> providers = new HashMap<String, Provider>();
+
+	private final Map<String, Location> locations = new HashMap<String, Location>();
+
+	private Map<String, AppointmentType> appointmentTypes;
+
+	public AppointmentImporter(PlatformTransactionManager transactionManager, AppointmentImportDAO appointmentImportDAO,
+	    AppointmentBlockDAO appointmentBlockDAO, AppointmentTypeDAO appointmentTypeDAO, TimeSlotDAO timeSlotDAO,
+	    ChangeLog changeLog, PatientAppointmentCache patientAppointmentCache) {
+		this.transactionManager = transactionManager;
+		this.appointmentImportDAO = appointmentImportDAO;
+		this.appointmentBlockDAO = appointmentBlockDAO;
+		this.appointmentTypeDAO = appointmentTypeDAO;
+		this.timeSlotDAO = timeSlotDAO;
+		this.changeLog = changeLog;
+		this.patientAppointmentCache = patientAppointmentCache;
+		dateFormat.setLenient(false);
+	}
+
+	/**
+	 * Imports appointment blocks, generating their time slots.
+	 *
+	 * @param input the CSV, with a header row.
+	 * @param resumeAfterRow the row after which to start, 0 for a new import.
+	 * @return the report of the import.
+	 * @throws APIException if the header misses a column.
+	 */
+	public AppointmentImportReport importAppointmentBlocks(Reader input, int resumeAfterRow) throws APIException {
+		return run(input, resumeAfterRow, BLOCK_COLUMNS, new ChunkImporter() {
+
+			public int importChunk(List<Row> rows, List<AppointmentImportReport.RowError> errors) {
+				return importBlocks(rows, errors);
+			}
+		});
+	}
+
+	/**
+	 * Imports appointments into existing time slots.
+	 *
+	 * @param input the CSV, with a header row.
+	 * @param resumeAfterRow the row after which to start, 0 for a new import.
+	 * @return the report of the import.
+	 * @throws APIException if the header misses a column.
+	 */
+	public AppointmentImportReport importAppointments(Reader input, int resumeAfterRow) throws APIException {
+		return run(input, resumeAfterRow, APPOINTMENT_COLUMNS, new ChunkImporter() {
+
+			public int importChunk(List<Row> rows, List<AppointmentImportReport.RowError> errors) {
+				return importAppointments(rows, errors);
+			}
+		});
+	}
+
+	private AppointmentImportReport run(Reader input, int resumeAfterRow, String[] requiredColumns,
+	        ChunkImporter chunkImporter) {
+		AppointmentImportReport report = new AppointmentImportReport();
+		report.setLastCommittedRow(resumeAfterRow);
+		CsvReader csvReader = new CsvReader(input instanceof BufferedReader ? input : new BufferedReader(input));
+		int rowNumber = 0;
+		try {
+			List<String> header = csvReader.readRecord();
+			if (header == null)
+				return report;
+			Map<String, Integer> columns = new HashMap<String, Integer>();
+			for (int i = 0; i < header.size(); i++)
+				columns.put(header.get(i).trim(), i);
+			for (String column : requiredColumns) {
+				if (!columns.containsKey(column))
+					throw new APIException("The CSV header has no " + column + " column");
+			}
+
+			List<Row> chunk = new ArrayList<Row>();
+			List<String> record;
+			while ((record = csvReader.readRecord()) != null) {
+				if (isBlank(record))
+					continue;
+				report.setRowsRead(++rowNumber);
+				if (rowNumber <= resumeAfterRow)
+					continue;
+				chunk.add(new Row(rowNumber, record, columns));
+				if (chunk.size() == CHUNK_SIZE) {
+					if (!commit(chunk, chunkImporter, report))
+						return report;
+					chunk.clear();
+				}
+			}
+			if (!chunk.isEmpty())
+				commit(chunk, chunkImporter, report);
+		}
+		catch (IOException e) {
+			report.setFailure("Unable to read the row after row " + rowNumber + ": " + e.getMessage());
+		}
+		return report;
+	}
+
+	private boolean commit(final List<Row> chunk, final ChunkImporter chunkImporter, AppointmentImportReport report) {
+		final List<AppointmentImportReport.RowError> errors = new ArrayList<AppointmentImportReport.RowError>();
+		int lastRow = chunk.get(chunk.size() - 1).getNumber();
+		try {
+			int imported = new TransactionTemplate(transactionManager).execute(new TransactionCallback<Integer>() {
+
+				public Integer doInTransaction(TransactionStatus status) {
+					return chunkImporter.importChunk(chunk, errors);
+				}
+			});
+			report.addRowsImported(imported);
+			for (AppointmentImportReport.RowError error : errors)
+				report.addError(error.getRow(), error.getMessage());
+			report.setLastCommittedRow(lastRow);
+			return true;
+		}
+		catch (RuntimeException e) {
+			log.warn("Unable to import rows " + chunk.get(0).getNumber() + " to " + lastRow, e);
+			report.setFailure("Rows " + chunk.get(0).getNumber() + " to " + lastRow + " were rolled back: "
+			        + e.getMessage());
+			return false;
+		}
+	}
+
+	private int importBlocks(List<Row> rows, List<AppointmentImportReport.RowError> errors) {
+		Set<String> providerIdentifiers = new HashSet<String>();
+		Set<String> locationNames = new HashSet<String>();
+		for (Row row : rows) {
+			providerIdentifiers.add(row.get("provider"));
+			locationNames.add(row.get("location"));
+		}
+		resolveProvidersAndLocations(providerIdentifiers, locationNames);
+
+		User creator = Context.getAuthenticatedUser();
+		Date dateCreated = new Date();
+		List<TimeSlot> timeSlots = new ArrayList<TimeSlot>();
+		List<AppointmentChange> changes = new ArrayList<AppointmentChange>();
+		//The validator only sees the blocks of the previous chunks, which are committed.
+		List<AppointmentBlock> chunkBlocks = new ArrayList<AppointmentBlock>();
+		for (Row row : rows) {
+			try {
+				Set<AppointmentType> types = new HashSet<AppointmentType>();
+				for (String name : row.get("types").split("\\|")) {
+					if (name.trim().length() > 0)
+						types.add(getAppointmentType(name.trim()));
+				}
+				int slotLength = parseInteger(row.get("slotLength"), "slotLength");
+				if (slotLength <= 0)
+					throw new ImportException("The slotLength must be positive");
+				AppointmentBlock appointmentBlock = new AppointmentBlock(parseDate(row.get("startDate"), "startDate"),
+				        parseDate(row.get("endDate"), "endDate"), getProvider(row.get("provider")), getLocation(row
+				                .get("location")), types);
+				for (AppointmentBlock chunkBlock : chunkBlocks) {
+					if (appointmentBlock.overlaps(chunkBlock))
+						throw new ImportException(Context.getMessageSourceService().getMessage(
+						    "appointment.AppointmentBlock.error.overlappingBlock"));
+				}
+				validate(appointmentBlock, new AppointmentBlockValidator());
+				chunkBlocks.add(appointmentBlock);
+
+				appointmentBlockDAO.saveOrUpdate(appointmentBlock);
+				changes.add(new AppointmentChange("AppointmentBlock", appointmentBlock.getAppointmentBlockId(), null,
+				        AppointmentChange.ACTION_SAVE, null));
+				Calendar calendar = Calendar.getInstance();
+				calendar.setTime(appointmentBlock.getStartDate());
+				while (true) {
+					Date startDate = calendar.getTime();
+					calendar.add(Calendar.MINUTE, slotLength);
+					if (calendar.getTime().after(appointmentBlock.getEndDate()))
+						break;
+					TimeSlot timeSlot = new TimeSlot(appointmentBlock, startDate, calendar.getTime());
+					timeSlot.setCreator(creator);
+					timeSlot.setDateCreated(dateCreated);
+					timeSlots.add(timeSlot);
+				}
+			}
+			catch (ImportException e) {
+				errors.add(new AppointmentImportReport.RowError(row.getNumber(), e.getMessage()));
+			}
+		}
+		appointmentImportDAO.insertTimeSlots(timeSlots);
+		int imported = changes.size();
+		for (TimeSlot timeSlot : timeSlots)
+			changes.add(new AppointmentChange("TimeSlot", timeSlot.getTimeSlotId(), null, AppointmentChange.ACTION_SAVE,
+			        null));
+		if (changeLog != null)
+			changeLog.recordAll(changes);
+		return imported;
+	}
+
+	private int importAppointments(List<Row> rows, List<AppointmentImportReport.RowError> errors) {
+		Set<String> patientIdentifiers = new HashSet<String>();
+		Set<String> providerIdentifiers = new HashSet<String>();
+		Set<String> locationNames = new HashSet<String>();
+		Date fromDate = null;
+		Date toDate = null;
+		int maxDuration = 0;
+		for (Row row : rows) {
+			patientIdentifiers.add(row.get("patientIdentifier"));
+			providerIdentifiers.add(row.get("provider"));
+			locationNames.add(row.get("location"));
+			try {
+				Date startDate = parseDate(row.get("startDate"), "startDate");
+				if (fromDate == null || startDate.before(fromDate))
+					fromDate = startDate;
+				if (toDate == null || startDate.after(toDate))
+					toDate = startDate;
+				maxDuration = Math.max(maxDuration, getAppointmentType(row.get("appointmentType")).getDuration());
+			}
+			catch (ImportException e) {
+				//Reported with the row.
+			}
+		}
+		resolveProvidersAndLocations(providerIdentifiers, locationNames);
+		Map<String, Patient> patients = appointmentImportDAO.getPatientsByIdentifier(patientIdentifiers);
+		Map<String, TimeSlot> timeSlots = new HashMap<String, TimeSlot>();
+		TimeSlotBookings bookings = null;
+		Set<Provider> chunkProviders = new HashSet<Provider>();
+		for (String identifier : providerIdentifiers) {
+			if (providers.get(identifier) != null)
+				chunkProviders.add(providers.get(identifier));
+		}
+		if (fromDate != null && !chunkProviders.isEmpty()) {
+			//Long appointments run into the time slots after the last start date.
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(toDate);
+			calendar.add(Calendar.MINUTE, maxDuration);
+			List<TimeSlot> lockedTimeSlots = appointmentImportDAO.getTimeSlots(chunkProviders, fromDate, calendar
+			        .getTime());
+			for (TimeSlot timeSlot : lockedTimeSlots) {
+				AppointmentBlock block = timeSlot.getAppointmentBlock();
+				timeSlots.put(getTimeSlotKey(block.getProvider(), block.getLocation(), timeSlot.getStartDate()), timeSlot);
+			}
+			bookings = new TimeSlotBookings(lockedTimeSlots, timeSlotDAO.getBookedMinutes(lockedTimeSlots));
+		}
+
+		User creator = Context.getAuthenticatedUser();
+		Date dateCreated = new Date();
+		List<Appointment> appointments = new ArrayList<Appointment>();
+		for (Row row : rows) {
+			try {
+				String identifier = row.get("patientIdentifier");
+				if (!patients.containsKey(identifier))
+					throw new ImportException("No patient has the identifier " + identifier);
+				Patient patient = patients.get(identifier);
+				if (patient == null)
+					throw new ImportException("Several patients have the identifier " + identifier);
+				Provider provider = getProvider(row.get("provider"));
+				Location location = getLocation(row.get("location"));
+				Date startDate = parseDate(row.get("startDate"), "startDate");
+				TimeSlot timeSlot = timeSlots.get(getTimeSlotKey(provider, location, startDate));
+				if (timeSlot == null)
+					throw new ImportException("No time slot of " + row.get("provider") + " at " + row.get("location")
+					        + " starts at " + row.get("startDate"));
+				String status = row.get("status").length() == 0 ? "SCHEDULED" : row.get("status");
+				Appointment appointment = new Appointment(timeSlot, null, patient, getAppointmentType(row
+				        .get("appointmentType")), status);
+				if (row.get("reason").length() > 0)
+					appointment.setReason(row.get("reason"));
+				appointment.setCreator(creator);
+				appointment.setDateCreated(dateCreated);
+				validate(appointment, new AppointmentValidator());
+				if (!"CANCELLED".equals(status)) {
+					int duration = appointment.getAppointmentType().getDuration();
+					if (!bookings.fits(timeSlot, duration))
+						throw new ImportException("The time slot of " + row.get("provider") + " at "
+						        + row.get("location") + " starting at " + row.get("startDate")
+						        + " has no room for an appointment of " + duration + " minutes");
+					bookings.book(timeSlot, duration);
+				}
+				appointments.add(appointment);
+			}
+			catch (ImportException e) {
+				errors.add(new AppointmentImportReport.RowError(row.getNumber(), e.getMessage()));
+			}
+		}
+
+		appointmentImportDAO.insertAppointments(appointments);
+		List<AppointmentChange> changes = new ArrayList<AppointmentChange>();
+		for (Appointment appointment : appointments) {
+			Integer patientId = appointment.getPatient().getPatientId();
+			changes.add(new AppointmentChange("Appointment", appointment.getAppointmentId(), patientId,
+			        AppointmentChange.ACTION_SAVE, null));
+			patientAppointmentCache.evict(patientId);
+		}
+		if (changeLog != null)
+			changeLog.recordAll(changes);
+		return appointments.size();
+	}
+
+	private void resolveProvidersAndLocations(Set<String> providerIdentifiers, Set<String> locationNames) {
+		providerIdentifiers.removeAll(providers.keySet());
+		if (!providerIdentifiers.isEmpty()) {
+			providers.putAll(appointmentImportDAO.getProvidersByIdentifier(providerIdentifiers));
+			//Unknown ones are not looked up again.
+			for (String identifier : providerIdentifiers) {
+				if (!providers.containsKey(identifier))
+					providers.put(identifier, null);
+			}
+		}
+		locationNames.removeAll(locations.keySet());
+		if (!locationNames.isEmpty()) {
+			locations.putAll(appointmentImportDAO.getLocationsByName(locationNames));
+			for (String name : locationNames) {
+				if (!locations.containsKey(name))
+					locations.put(name, null);
+			}
+		}
+	}
+
+	private Provider getProvider(String identifier) throws ImportException {
+		Provider provider = providers.get(identifier);
+		if (provider == null)
+			throw new ImportException("No provider has the identifier " + identifier);
+		return provider;
+	}
+
+	private Location getLocation(String name) throws ImportException {
+		Location location = locations.get(name);
+		if (location == null)
+			throw new ImportException("No location is named " + name);
+		return location;
+	}
+
+	private AppointmentType getAppointmentType(String name) throws ImportException {
+		if (appointmentTypes == null) {
+			appointmentTypes = new HashMap<String, AppointmentType>();
+			for (Object appointmentType : appointmentTypeDAO.getAll(false))
+				appointmentTypes.put(((AppointmentType) appointmentType).getName(), (AppointmentType) appointmentType);
+		}
+		AppointmentType appointmentType = appointmentTypes.get(name);
+		if (appointmentType == null)
+			throw new ImportException("No appointment type is named " + name);
+		return appointmentType;
+	}
+
+	private String getTimeSlotKey(Provider provider, Location location, Date startDate) {
+		return provider.getProviderId() + "|" + location.getLocationId() + "|" + startDate.getTime();
+	}
+
+	private Date parseDate(String value, String column) throws ImportException {
+		try {
+			return dateFormat.parse(value);
+		}
+		catch (ParseException e) {
+			throw new ImportException("The " + column + " is not a date written " + DATE_FORMAT + ": " + value);
+		}
+	}
+
+	private int parseInteger(String value, String column) throws ImportException {
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			throw new ImportException("The " + column + " is not a number: " + value);
+		}
+	}
+
+	private void validate(Object object, Validator validator) throws ImportException {
+		BindException errors = new BindException(object, object.getClass().getSimpleName());
+		validator.validate(object, errors);
+		if (errors.hasErrors())
+			throw new ImportException(Context.getMessageSourceService().getMessage(
+			    errors.getAllErrors().get(0).getCode()));
+	}
+
+	private boolean isBlank(List<String> record) {
+		for (String field : record) {
+			if (field.trim().length() > 0)
+				return false;
+		}
+		return true;
+	}
+
+	private interface ChunkImporter {
+
+		int importChunk(List<Row> rows, List<AppointmentImportReport.RowError> errors);
+	}
+
+	private static class Row {
+
+		private final int number;
+
+		private final List<String> fields;
+
+		private final Map<String, Integer> columns;
+
+		Row(int number, List<String> fields, Map<String, Integer> columns) {
+			this.number = number;
+			this.fields = fields;
+			this.columns = columns;
+		}
+
+		int getNumber() {
+			return number;
+		}
+
+		/**
+		 * @return the trimmed value of the column, empty if missing.
+		 */
+		String get(String column) {
+			Integer index = columns.get(column);
+			if (index == null || index >= fields.size())
+				return "";
+			return fields.get(index).trim();
+		}
+	}
+
+	/**
+	 * The reason a row cannot be imported.
+	 */
+	private static class ImportException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		ImportException(String message) {
+			super(message);
+		}
+	}
+}
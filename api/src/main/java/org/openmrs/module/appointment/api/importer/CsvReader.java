@@ -0,0 +1,91 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads comma separated values one record at a time, without loading the whole input. Fields may
+ * be quoted with double quotes, in which case they can hold commas, line breaks and doubled quotes.
+ */
+public class CsvReader {
+
+	private final Reader reader;
+
+	private int lookahead = -2;
+
+	/**
+	 * @param reader the input, which should be buffered.
+	 */
+	public CsvReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return the fields of the next record, null at the end of the input.
+	 * @throws IOException if the input cannot be read.
+	 */
+	public List<String> readRecord() throws IOException {
+		int c = next();
+		if (c == -1)
+			return null;
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		while (true) {
+			if (quoted) {
+				if (c == -1)
+					throw new IOException("Unterminated quoted field");
+				if (c == '"') {
+					if (peek() == '"') {
+						next();
+						field.append('"');
+					} else
+						quoted = false;
+				} else
+					field.append((char) c);
+			} else if (c == '"' && field.length() == 0) {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else if (c == '\r' || c == '\n' || c == -1) {
+				if (c == '\r' && peek() == '\n')
+					next();
+				fields.add(field.toString());
+				return fields;
+			} else
+				field.append((char) c);
+			c = next();
+		}
+	}
+
+	private int next() throws IOException {
+		if (lookahead != -2) {
+			int c = lookahead;
+			lookahead = -2;
+			return c;
+		}
+		return reader.read();
+	}
+
+	private int peek() throws IOException {
+		if (lookahead == -2)
+			lookahead = reader.read();
+		return lookahead;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free counters and latency histograms of the booking flow, recorded by AppointmentService
+ * and the appointment form, and exported by the metrics page. It is a Spring managed bean which is
+ * configured in moduleApplicationContext.xml.
+ */
+public class AppointmentMetrics {
+
+	private final AtomicLong bookings = new AtomicLong();
+
+	private final AtomicLong rejectedBookings = new AtomicLong();
+
+	private final AtomicLong savedForms = new AtomicLong();
+
+	private final AtomicLong invalidForms = new AtomicLong();
+
+	private final AtomicLong takenForms = new AtomicLong();
+
+	private final LatencyHistogram availabilitySearchLatency = new LatencyHistogram();
+
+	/**
+	 * Records a booking.
+	 *
+	 * @param booked whether the appointment was booked, or rejected for lack of room.
+	 */
+	public void recordBooking(boolean booked) {
+		(booked ? bookings : rejectedBookings).incrementAndGet();
+	}
+
+	/**
+	 * Records a search of available time slots.
+	 *
+	 * @param nanos how long the search took.
+	 */
+	public void recordAvailabilitySearch(long nanos) {
+		availabilitySearchLatency.record(nanos);
+	}
+
+	/**
+	 * Records a submission of the appointment form which saved the appointment.
+	 */
+	public void recordFormSaved() {
+		savedForms.incrementAndGet();
+	}
+
+	/**
+	 * Records a submission of the appointment form which failed validation.
+	 */
+	public void recordFormInvalid() {
+		invalidForms.incrementAndGet();
+	}
+
+	/**
+	 * Records a submission of the appointment form whose time slot was taken meanwhile.
+	 */
+	public void recordFormTaken() {
+		takenForms.incrementAndGet();
+	}
+
+	public long getBookings() {
+		return bookings.get();
+	}
+
+	public long getRejectedBookings() {
+		return rejectedBookings.get();
+	}
+
+	public LatencyHistogram getAvailabilitySearchLatency() {
+		return availabilitySearchLatency;
+	}
+
+	/**
+	 * Writes the counters and histograms.
+	 *
+	 * @param writer the writer of the exposition.
+	 */
+	public void write(PrometheusTextWriter writer) throws IOException {
+		writer.family("appointment_bookings_total", "counter", "Appointments booked through AppointmentService.");
+		writer.sample("appointment_bookings_total", new String[] { "outcome", "booked" }, bookings.get());
+		writer.sample("appointment_bookings_total", new String[] { "outcome", "rejected" }, rejectedBookings.get());
+
+		writer.family("appointment_form_submissions_total", "counter", "Submissions of the appointment form.");
+		writer.sample("appointment_form_submissions_total", new String[] { "outcome", "saved" }, savedForms.get());
+		writer.sample("appointment_form_submissions_total", new String[] { "outcome", "invalid" }, invalidForms.get());
+		writer.sample("appointment_form_submissions_total", new String[] { "outcome", "taken" }, takenForms.get());
+
+		writer.family("appointment_availability_search_seconds", "histogram",
+		    "Latency of the searches of available time slots.");
+		writer.histogram("appointment_availability_search_seconds", null, availabilitySearchLatency);
+	}
+}
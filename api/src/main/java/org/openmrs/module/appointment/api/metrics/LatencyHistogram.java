@@ -0,0 +1,157 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free log-linear histogram of latencies in nanoseconds. Every power of two is split into
+ * eight linear sub-buckets, which bounds the relative error of a reported percentile to 12.5%
+ * while keeping the whole histogram in a single fixed array. Recording is a couple of atomic
+ * increments and never allocates.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records a single latency.
+	 *
+	 * @param nanos the latency in nanoseconds, negative values are recorded as zero.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(bucketIndex(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+			max = maxNanos.get();
+	}
+
+	/**
+	 * @return the number of recorded values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of all recorded values in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * @return the largest recorded value in nanoseconds.
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values in nanoseconds, 0 if nothing was recorded.
+	 */
+	public long getMeanNanos() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / n;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket holding the given percentile.
+	 *
+	 * @param percentile a value between 0 and 100.
+	 * @return the latency in nanoseconds below which the given percentage of values fall.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] snapshot = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * total);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return Math.min(bucketUpperBound(i), getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * Returns the cumulative number of values that are less than or equal to the given bound. Used
+	 * to export the histogram in formats with fixed bucket boundaries.
+	 *
+	 * @param nanos the inclusive upper bound in nanoseconds.
+	 * @return the number of recorded values in buckets that end at or below the bound.
+	 */
+	public long getCountAtOrBelow(long nanos) {
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			if (bucketUpperBound(i) > nanos)
+				break;
+			seen += buckets.get(i);
+		}
+		return seen;
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded concurrently with a reset may be partially lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+		return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long lower = ((long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT)) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
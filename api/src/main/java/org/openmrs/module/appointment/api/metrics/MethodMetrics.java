@@ -0,0 +1,94 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call count, error count and latency histogram of a single service method.
+ */
+public class MethodMetrics {
+
+	private final String name;
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	public MethodMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records one invocation of the method.
+	 *
+	 * @param nanos how long the invocation took.
+	 * @param failed whether the invocation threw an exception.
+	 */
+	public void record(long nanos, boolean failed) {
+		latency.record(nanos);
+		if (failed)
+			errors.incrementAndGet();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return latency.getCount();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getMeanMicros() {
+		return latency.getMeanNanos() / 1000;
+	}
+
+	public long getP50Micros() {
+		return latency.getPercentileNanos(50) / 1000;
+	}
+
+	public long getP90Micros() {
+		return latency.getPercentileNanos(90) / 1000;
+	}
+
+	public long getP99Micros() {
+		return latency.getPercentileNanos(99) / 1000;
+	}
+
+	public long getMaxMicros() {
+		return latency.getMaxNanos() / 1000;
+	}
+
+	public void reset() {
+		errors.set(0);
+		latency.reset();
+	}
+
+	/**
+	 * @return a one line summary, used for the JMX representation.
+	 */
+	@Override
+	public String toString() {
+		return name + " calls=" + getCalls() + " errors=" + getErrors() + " meanUs=" + getMeanMicros() + " p50Us="
+		        + getP50Micros() + " p99Us=" + getP99Micros() + " maxUs=" + getMaxMicros();
+	}
+}
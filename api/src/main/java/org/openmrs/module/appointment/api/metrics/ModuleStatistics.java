@@ -0,0 +1,239 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.QueryStatistics;
+import org.hibernate.stat.Statistics;
+import org.openmrs.module.appointment.api.availability.AvailabilityCalendar;
+import org.openmrs.module.appointment.api.cache.PatientAppointmentCache;
+import org.openmrs.module.appointment.api.event.ScheduleEventDispatcher;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerator;
+import org.openmrs.module.appointment.api.warmup.AppointmentWarmUp;
+
+/**
+ * Gathers the counters of the module for the statistics page: the Hibernate statistics of the
+ * module's entities, collections and queries, and the counters of the module's caches and
+ * background executors. The Hibernate statistics are those of the whole session factory, filtered
+ * to the module; they are only collected while enabled, which costs a little on every session.
+ * <p>
+ * A snapshot is a map of sections, each a map of rows, each a map of counters, in display order.
+ */
+public class ModuleStatistics {
+
+	private static final String ENTITY_PREFIX = "org.openmrs.module.appointment.";
+
+	/**
+	 * Matches the HQL naming a module entity and the SQL naming a module table.
+	 */
+	private static final Pattern MODULE_QUERY = Pattern.compile("\\b(Appointment\\w*|TimeSlot)\\b|\\bappointment_\\w+");
+
+	private SessionFactory sessionFactory;
+
+	private PatientAppointmentCache patientAppointmentCache;
+
+	private AvailabilityCalendar availabilityCalendar;
+
+	private TimeSlotGenerator timeSlotGenerator;
+
+	private ScheduleEventDispatcher scheduleEventDispatcher;
+	
+	private AppointmentWarmUp appointmentWarmUp;
+
+	public void setSessionFactory(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	public void setPatientAppointmentCache(PatientAppointmentCache patientAppointmentCache) {
+		this.patientAppointmentCache = patientAppointmentCache;
+	}
+
+	public void setAvailabilityCalendar(AvailabilityCalendar availabilityCalendar) {
+		this.availabilityCalendar = availabilityCalendar;
+	}
+
+	public void setTimeSlotGenerator(TimeSlotGenerator timeSlotGenerator) {
+		this.timeSlotGenerator = timeSlotGenerator;
+	}
+
+	public void setScheduleEventDispatcher(ScheduleEventDispatcher scheduleEventDispatcher) {
+		this.scheduleEventDispatcher = scheduleEventDispatcher;
+	}
+
+	public void setAppointmentWarmUp(AppointmentWarmUp appointmentWarmUp) {
+		this.appointmentWarmUp = appointmentWarmUp;
+	}
+	
+	public boolean isHibernateStatisticsEnabled() {
+		return sessionFactory.getStatistics().isStatisticsEnabled();
+	}
+
+	/**
+	 * Starts or stops collecting the Hibernate statistics of the whole session factory.
+	 */
+	public void setHibernateStatisticsEnabled(boolean enabled) {
+		sessionFactory.getStatistics().setStatisticsEnabled(enabled);
+	}
+
+	/**
+	 * @return the current counters, by section and row.
+	 */
+	public Map<String, Map<String, Map<String, Number>>> getSnapshot() {
+		Map<String, Map<String, Map<String, Number>>> snapshot = new LinkedHashMap<String, Map<String, Map<String, Number>>>();
+		Statistics statistics = sessionFactory.getStatistics();
+		snapshot.put("hibernate", getSessionFactoryStatistics(statistics));
+		snapshot.put("entities", getEntityStatistics(statistics));
+		snapshot.put("collections", getCollectionStatistics(statistics));
+		snapshot.put("queries", getQueryStatistics(statistics));
+		snapshot.put("caches", getCacheStatistics());
+		snapshot.put("executors", getExecutorStatistics());
+		snapshot.put("warmUp", getWarmUpStatistics());
+		return snapshot;
+	}
+
+	/**
+	 * Resets the Hibernate statistics, which are shared with the rest of OpenMRS, and the counters
+	 * of the module's caches.
+	 */
+	public void reset() {
+		sessionFactory.getStatistics().clear();
+		patientAppointmentCache.resetStatistics();
+		availabilityCalendar.resetStatistics();
+	}
+
+	private Map<String, Map<String, Number>> getSessionFactoryStatistics(Statistics statistics) {
+		Map<String, Number> counters = new LinkedHashMap<String, Number>();
+		counters.put("enabled", statistics.isStatisticsEnabled() ? 1 : 0);
+		counters.put("sessionsOpened", statistics.getSessionOpenCount());
+		counters.put("transactions", statistics.getTransactionCount());
+		counters.put("statementsPrepared", statistics.getPrepareStatementCount());
+		counters.put("entitiesLoaded", statistics.getEntityLoadCount());
+		counters.put("entitiesFetched", statistics.getEntityFetchCount());
+		counters.put("collectionsLoaded", statistics.getCollectionLoadCount());
+		counters.put("collectionsFetched", statistics.getCollectionFetchCount());
+		counters.put("queriesExecuted", statistics.getQueryExecutionCount());
+		counters.put("slowestQueryMillis", statistics.getQueryExecutionMaxTime());
+		counters.put("secondLevelCacheHits", statistics.getSecondLevelCacheHitCount());
+		counters.put("secondLevelCacheMisses", statistics.getSecondLevelCacheMissCount());
+		Map<String, Map<String, Number>> rows = new LinkedHashMap<String, Map<String, Number>>();
+		rows.put("sessionFactory", counters);
+		return rows;
+	}
+
+	private Map<String, Map<String, Number>> getEntityStatistics(Statistics statistics) {
+		Map<String, Map<String, Number>> rows = new LinkedHashMap<String, Map<String, Number>>();
+		for (String entityName : sorted(statistics.getEntityNames())) {
+			if (!entityName.startsWith(ENTITY_PREFIX))
+				continue;
+			EntityStatistics entityStatistics = statistics.getEntityStatistics(entityName);
+			Map<String, Number> counters = new LinkedHashMap<String, Number>();
+			counters.put("loads", entityStatistics.getLoadCount());
+			counters.put("fetches", entityStatistics.getFetchCount());
+			counters.put("inserts", entityStatistics.getInsertCount());
+			counters.put("updates", entityStatistics.getUpdateCount());
+			counters.put("deletes", entityStatistics.getDeleteCount());
+			rows.put(entityName.substring(ENTITY_PREFIX.length()), counters);
+		}
+		return rows;
+	}
+
+	private Map<String, Map<String, Number>> getCollectionStatistics(Statistics statistics) {
+		Map<String, Map<String, Number>> rows = new LinkedHashMap<String, Map<String, Number>>();
+		for (String role : sorted(statistics.getCollectionRoleNames())) {
+			if (!role.startsWith(ENTITY_PREFIX))
+				continue;
+			CollectionStatistics collectionStatistics = statistics.getCollectionStatistics(role);
+			Map<String, Number> counters = new LinkedHashMap<String, Number>();
+			counters.put("loads", collectionStatistics.getLoadCount());
+			//Fetches are the collections loaded on their own, one query each: a rising count is an N+1.
+			counters.put("fetches", collectionStatistics.getFetchCount());
+			counters.put("recreates", collectionStatistics.getRecreateCount());
+			counters.put("updates", collectionStatistics.getUpdateCount());
+			rows.put(role.substring(ENTITY_PREFIX.length()), counters);
+		}
+		return rows;
+	}
+
+	private Map<String, Map<String, Number>> getQueryStatistics(Statistics statistics) {
+		Map<String, Map<String, Number>> rows = new LinkedHashMap<String, Map<String, Number>>();
+		for (String query : sorted(statistics.getQueries())) {
+			if (!MODULE_QUERY.matcher(query).find())
+				continue;
+			QueryStatistics queryStatistics = statistics.getQueryStatistics(query);
+			Map<String, Number> counters = new LinkedHashMap<String, Number>();
+			counters.put("executions", queryStatistics.getExecutionCount());
+			counters.put("rows", queryStatistics.getExecutionRowCount());
+			counters.put("meanMillis", queryStatistics.getExecutionAvgTime());
+			counters.put("maxMillis", queryStatistics.getExecutionMaxTime());
+			counters.put("cacheHits", queryStatistics.getCacheHitCount());
+			counters.put("cacheMisses", queryStatistics.getCacheMissCount());
+			rows.put(query, counters);
+		}
+		return rows;
+	}
+
+	private Map<String, Map<String, Number>> getCacheStatistics() {
+		Map<String, Map<String, Number>> rows = new LinkedHashMap<String, Map<String, Number>>();
+		Map<String, Number> counters = new LinkedHashMap<String, Number>();
+		counters.put("size", patientAppointmentCache.getSize());
+		counters.put("maxEntries", patientAppointmentCache.getMaxEntries());
+		counters.put("hits", patientAppointmentCache.getHits());
+		counters.put("misses", patientAppointmentCache.getMisses());
+		counters.put("evictions", patientAppointmentCache.getEvictions());
+		rows.put("patientAppointments", counters);
+		
+		counters = new LinkedHashMap<String, Number>();
+		counters.put("size", availabilityCalendar.getSize());
+		counters.put("maxEntries", availabilityCalendar.getMaxEntries());
+		counters.put("hits", availabilityCalendar.getHits());
+		counters.put("misses", availabilityCalendar.getMisses());
+		counters.put("evictions", availabilityCalendar.getEvictions());
+		rows.put("availabilityCalendar", counters);
+		return rows;
+	}
+
+	private Map<String, Map<String, Number>> getExecutorStatistics() {
+		Map<String, Map<String, Number>> rows = new LinkedHashMap<String, Map<String, Number>>();
+		Map<String, Number> counters = new LinkedHashMap<String, Number>();
+		counters.put("queuedJobs", timeSlotGenerator.getQueuedJobCount());
+		counters.put("generatingBlocks", timeSlotGenerator.getGeneratingBlockIds().size());
+		rows.put("timeSlotGenerator", counters);
+		
+		counters = new LinkedHashMap<String, Number>();
+		counters.put("subscriptions", scheduleEventDispatcher.getSubscriptionCount());
+		rows.put("scheduleEventDispatcher", counters);
+		return rows;
+	}
+
+	private Map<String, Map<String, Number>> getWarmUpStatistics() {
+		Map<String, Map<String, Number>> rows = new LinkedHashMap<String, Map<String, Number>>();
+		Map<String, Long> timings = appointmentWarmUp.getTimings();
+		if (!timings.isEmpty())
+			rows.put("lastWarmUpMillis", new LinkedHashMap<String, Number>(timings));
+		return rows;
+	}
+	
+	private static String[] sorted(String[] names) {
+		String[] copy = names.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4. The samples of a metric
+ * family must be written one after the other, right after the family's header.
+ */
+public class PrometheusTextWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * The upper bounds of the buckets of latency histograms, in seconds.
+	 */
+	private static final double[] LATENCY_BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1,
+	        2.5, 5, 10 };
+
+	private final Writer writer;
+
+	public PrometheusTextWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Writes the header of a metric family.
+	 *
+	 * @param name the name of the family.
+	 * @param type counter, gauge or histogram.
+	 * @param help the description of the family.
+	 */
+	public void family(String name, String type, String help) throws IOException {
+		writer.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+		writer.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	/**
+	 * Writes a sample of a counter or gauge.
+	 *
+	 * @param name the name of the sample.
+	 * @param labels the label names and values, alternately.
+	 * @param value the value.
+	 */
+	public void sample(String name, String[] labels, double value) throws IOException {
+		writer.write(name);
+		writeLabels(labels, null);
+		writer.write(" " + format(value) + "\n");
+	}
+
+	/**
+	 * Writes the samples of a latency histogram, with buckets from a millisecond to ten seconds. A
+	 * bucket counts the values of the histogram's buckets ending at or below its bound, so values
+	 * within 12.5% of a bound may be counted in the next bucket.
+	 *
+	 * @param name the name of the family.
+	 * @param labels the label names and values, alternately.
+	 * @param histogram the latencies.
+	 */
+	public void histogram(String name, String[] labels, LatencyHistogram histogram) throws IOException {
+		long cumulative = 0;
+		for (double bucket : LATENCY_BUCKETS) {
+			cumulative = histogram.getCountAtOrBelow((long) (bucket * 1e9));
+			writer.write(name + "_bucket");
+			writeLabels(labels, format(bucket));
+			writer.write(" " + cumulative + "\n");
+		}
+		//Read last, so that a value recorded meanwhile never makes a bucket exceed the count.
+		long count = Math.max(cumulative, histogram.getCount());
+		writer.write(name + "_bucket");
+		writeLabels(labels, "+Inf");
+		writer.write(" " + count + "\n");
+		writer.write(name + "_sum");
+		writeLabels(labels, null);
+		writer.write(" " + format(histogram.getTotalNanos() / 1e9) + "\n");
+		writer.write(name + "_count");
+		writeLabels(labels, null);
+		writer.write(" " + count + "\n");
+	}
+
+	private void writeLabels(String[] labels, String le) throws IOException {
+		if ((labels == null || labels.length == 0) && le == null)
+			return;
+		writer.write('{');
+		boolean first = true;
+		if (labels != null) {
+			for (int i = 0; i + 1 < labels.length; i += 2) {
+				if (!first)
+					writer.write(',');
+				first = false;
+				writer.write(labels[i] + "=\"" + escape(labels[i + 1]) + "\"");
+			}
+		}
+		if (le != null) {
+			if (!first)
+				writer.write(',');
+			writer.write("le=\"" + le + "\"");
+		}
+		writer.write('}');
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+			return String.valueOf((long) value);
+		return String.valueOf(value);
+	}
+}
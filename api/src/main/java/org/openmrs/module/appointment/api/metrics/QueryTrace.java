@@ -0,0 +1,169 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the SQL statements prepared by the current thread while a trace is active, typically
+ * the duration of one HTTP request. Statements are grouped by their shape (the SQL with parameter
+ * lists and whitespace collapsed) so repeated single-row lookups stand out.
+ * <p>
+ * A trace is bound to the current thread with {@link #start()} and must be released with
+ * {@link #stop()}. Recording is a no-op when no trace is active.
+ */
+public class QueryTrace {
+
+	private static final ThreadLocal<QueryTrace> CURRENT = new ThreadLocal<QueryTrace>();
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+
+	private static final int MAX_SHAPE_LENGTH = 300;
+
+	private final long startNanos = System.nanoTime();
+
+	private final Map<String, int[]> statementsByShape = new HashMap<String, int[]>();
+
+	private int statementCount;
+
+	private long serviceNanos;
+
+	private int serviceDepth;
+
+	private long serviceStartNanos;
+
+	/**
+	 * Starts a new trace for the current thread, replacing any trace left over on it.
+	 *
+	 * @return the started trace.
+	 */
+	public static QueryTrace start() {
+		QueryTrace trace = new QueryTrace();
+		CURRENT.set(trace);
+		return trace;
+	}
+
+	/**
+	 * @return the trace active on the current thread, null if none.
+	 */
+	public static QueryTrace current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Ends the trace of the current thread.
+	 *
+	 * @return the ended trace, null if none was active.
+	 */
+	public static QueryTrace stop() {
+		QueryTrace trace = CURRENT.get();
+		CURRENT.remove();
+		return trace;
+	}
+
+	/**
+	 * Records a prepared statement.
+	 *
+	 * @param sql the SQL of the statement.
+	 */
+	public void statementPrepared(String sql) {
+		statementCount++;
+		String shape = shapeOf(sql);
+		int[] count = statementsByShape.get(shape);
+		if (count == null)
+			statementsByShape.put(shape, new int[] { 1 });
+		else
+			count[0]++;
+	}
+
+	/**
+	 * Marks the entry into a service method. Nested calls are only counted once.
+	 */
+	public void serviceEntered() {
+		if (serviceDepth++ == 0)
+			serviceStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Marks the exit from a service method.
+	 */
+	public void serviceExited() {
+		if (serviceDepth > 0 && --serviceDepth == 0)
+			serviceNanos += System.nanoTime() - serviceStartNanos;
+	}
+
+	/**
+	 * @return the number of statements prepared during the trace.
+	 */
+	public int getStatementCount() {
+		return statementCount;
+	}
+
+	/**
+	 * @return the number of distinct statement shapes.
+	 */
+	public int getDistinctShapeCount() {
+		return statementsByShape.size();
+	}
+
+	/**
+	 * @return the time spent inside AppointmentService calls, in milliseconds.
+	 */
+	public long getServiceMillis() {
+		return serviceNanos / 1000000;
+	}
+
+	/**
+	 * @return the time since the trace was started, in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		return (System.nanoTime() - startNanos) / 1000000;
+	}
+
+	/**
+	 * Returns the most frequently executed statement shapes.
+	 *
+	 * @param limit the maximum number of shapes to return.
+	 * @return lines of the form "count x shape", most frequent first.
+	 */
+	public List<String> getTopShapes(int limit) {
+		List<Map.Entry<String, int[]>> entries = new ArrayList<Map.Entry<String, int[]>>(statementsByShape.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, int[]>>() {
+
+			public int compare(Map.Entry<String, int[]> e1, Map.Entry<String, int[]> e2) {
+				return e2.getValue()[0] - e1.getValue()[0];
+			}
+		});
+		List<String> shapes = new ArrayList<String>();
+		for (int i = 0; i < entries.size() && i < limit; i++)
+			shapes.add(entries.get(i).getValue()[0] + " x " + entries.get(i).getKey());
+		return shapes;
+	}
+
+	static String shapeOf(String sql) {
+		String shape = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+		shape = PARAMETER_LIST.matcher(shape).replaceAll("(?)");
+		if (shape.length() > MAX_SHAPE_LENGTH)
+			shape = shape.substring(0, MAX_SHAPE_LENGTH) + "...";
+		return shape;
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link MethodMetrics} of every AppointmentService method. It is a Spring managed
+ * bean which is configured in moduleApplicationContext.xml and exported to JMX.
+ */
+public class ServiceMetrics implements ServiceMetricsMBean {
+
+	private final ConcurrentMap<Method, MethodMetrics> metrics = new ConcurrentHashMap<Method, MethodMetrics>();
+
+	/**
+	 * Records one invocation of the given method.
+	 *
+	 * @param method the invoked service method.
+	 * @param nanos how long the invocation took.
+	 * @param failed whether the invocation threw an exception.
+	 */
+	public void record(Method method, long nanos, boolean failed) {
+		getMethodMetrics(method).record(nanos, failed);
+	}
+
+	/**
+	 * Gets the metrics of the given method, creating them on first use.
+	 *
+	 * @param method the service method.
+	 * @return the metrics of the method.
+	 */
+	public MethodMetrics getMethodMetrics(Method method) {
+		MethodMetrics methodMetrics = metrics.get(method);
+		if (methodMetrics == null) {
+			methodMetrics = new MethodMetrics(describe(method));
+			MethodMetrics existing = metrics.putIfAbsent(method, methodMetrics);
+			if (existing != null)
+				methodMetrics = existing;
+		}
+		return methodMetrics;
+	}
+
+	/**
+	 * Gets the metrics of the method with the given name, summed over all of its overloads.
+	 *
+	 * @param methodName the simple name of the service method.
+	 * @return the metrics of all overloads, an empty list if the method was never called.
+	 */
+	public List<MethodMetrics> getMethodMetrics(String methodName) {
+		List<MethodMetrics> list = new ArrayList<MethodMetrics>();
+		for (Method method : metrics.keySet())
+			if (method.getName().equals(methodName))
+				list.add(metrics.get(method));
+		return list;
+	}
+
+	/**
+	 * @return the metrics of every method that has been called, sorted by name.
+	 */
+	public List<MethodMetrics> getAllMethodMetrics() {
+		List<MethodMetrics> list = new ArrayList<MethodMetrics>(metrics.values());
+		Collections.sort(list, new Comparator<MethodMetrics>() {
+
+			public int compare(MethodMetrics m1, MethodMetrics m2) {
+				return m1.getName().compareTo(m2.getName());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * @see org.openmrs.module.appointment.api.metrics.ServiceMetricsMBean#getTotalCalls()
+	 */
+	public long getTotalCalls() {
+		long total = 0;
+		for (MethodMetrics methodMetrics : metrics.values())
+			total += methodMetrics.getCalls();
+		return total;
+	}
+
+	/**
+	 * @see org.openmrs.module.appointment.api.metrics.ServiceMetricsMBean#getTotalErrors()
+	 */
+	public long getTotalErrors() {
+		long total = 0;
+		for (MethodMetrics methodMetrics : metrics.values())
+			total += methodMetrics.getErrors();
+		return total;
+	}
+
+	/**
+	 * @see org.openmrs.module.appointment.api.metrics.ServiceMetricsMBean#getMethodSummaries()
+	 */
+	public String[] getMethodSummaries() {
+		List<MethodMetrics> list = getAllMethodMetrics();
+		String[] summaries = new String[list.size()];
+		for (int i = 0; i < summaries.length; i++)
+			summaries[i] = list.get(i).toString();
+		return summaries;
+	}
+
+	/**
+	 * @see org.openmrs.module.appointment.api.metrics.ServiceMetricsMBean#reset()
+	 */
+	public void reset() {
+		for (MethodMetrics methodMetrics : metrics.values())
+			methodMetrics.reset();
+	}
+
+	/**
+	 * Writes the latency histogram and error count of every method that has been called.
+	 *
+	 * @param writer the writer of the exposition.
+	 */
+	public void write(PrometheusTextWriter writer) throws IOException {
+		List<MethodMetrics> list = getAllMethodMetrics();
+		writer.family("appointment_service_call_seconds", "histogram", "Latency of the AppointmentService methods.");
+		for (MethodMetrics methodMetrics : list)
+			writer.histogram("appointment_service_call_seconds", new String[] { "method", methodMetrics.getName() },
+			    methodMetrics.getLatency());
+		writer.family("appointment_service_errors_total", "counter", "Exceptions thrown by the AppointmentService methods.");
+		for (MethodMetrics methodMetrics : list)
+			writer.sample("appointment_service_errors_total", new String[] { "method", methodMetrics.getName() },
+			    methodMetrics.getErrors());
+	}
+
+	private static String describe(Method method) {
+		StringBuilder name = new StringBuilder(method.getName()).append('(');
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0)
+				name.append(", ");
+			name.append(parameterTypes[i].getSimpleName());
+		}
+		return name.append(')').toString();
+	}
+}
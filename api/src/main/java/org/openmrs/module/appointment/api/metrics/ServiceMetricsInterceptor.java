@@ -0,0 +1,58 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * AOP advice that times every AppointmentService call and records it in {@link ServiceMetrics}.
+ * It is registered as a post interceptor of the service proxy in moduleApplicationContext.xml, so
+ * it runs inside the transaction: the recorded latency covers the service method and the flushes
+ * made by its queries, but not the final flush and commit of the transaction. It also reports
+ * the time spent in the service to the {@link QueryTrace} of the current request.
+ */
+public class ServiceMetricsInterceptor implements MethodInterceptor {
+
+	private ServiceMetrics serviceMetrics;
+
+	public void setServiceMetrics(ServiceMetrics serviceMetrics) {
+		this.serviceMetrics = serviceMetrics;
+	}
+
+	public ServiceMetrics getServiceMetrics() {
+		return serviceMetrics;
+	}
+
+	/**
+	 * @see org.aopalliance.intercept.MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+	 */
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		QueryTrace trace = QueryTrace.current();
+		if (trace != null)
+			trace.serviceEntered();
+		boolean failed = true;
+		long start = System.nanoTime();
+		try {
+			Object result = invocation.proceed();
+			failed = false;
+			return result;
+		}
+		finally {
+			serviceMetrics.record(invocation.getMethod(), System.nanoTime() - start, failed);
+			if (trace != null)
+				trace.serviceExited();
+		}
+	}
+}
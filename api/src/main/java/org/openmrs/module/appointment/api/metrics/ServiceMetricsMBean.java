@@ -0,0 +1,40 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+/**
+ * JMX management interface of {@link ServiceMetrics}.
+ */
+public interface ServiceMetricsMBean {
+
+	/**
+	 * @return the total number of recorded service calls.
+	 */
+	long getTotalCalls();
+
+	/**
+	 * @return the total number of service calls that threw an exception.
+	 */
+	long getTotalErrors();
+
+	/**
+	 * @return one summary line per service method that has been called at least once.
+	 */
+	String[] getMethodSummaries();
+
+	/**
+	 * Clears all counters and histograms.
+	 */
+	void reset();
+}
@@ -0,0 +1,147 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.reschedule;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.availability.TimeSlotBookings;
+import org.openmrs.module.appointment.api.cache.PatientAppointmentCache;
+import org.openmrs.module.appointment.api.cluster.ChangeLog;
+import org.openmrs.module.appointment.api.db.AppointmentDAO;
+import org.openmrs.module.appointment.api.db.TimeSlotDAO;
+
+/**
+ * Moves the scheduled appointments of a block to other time slots, in the current transaction. The
+ * target time slots are locked and their booked minutes read once; the moves are then planned in
+ * memory, in the order of the appointments, and applied with batched statements.
+ */
+public class AppointmentRescheduler {
+	
+	public static final String RESCHEDULED_STATUS = "SCHEDULED";
+	
+	private final AppointmentDAO appointmentDAO;
+	
+	private final TimeSlotDAO timeSlotDAO;
+	
+	private final ChangeLog changeLog;
+	
+	private final PatientAppointmentCache patientAppointmentCache;
+	
+	public AppointmentRescheduler(AppointmentDAO appointmentDAO, TimeSlotDAO timeSlotDAO, ChangeLog changeLog,
+	    PatientAppointmentCache patientAppointmentCache) {
+		this.appointmentDAO = appointmentDAO;
+		this.timeSlotDAO = timeSlotDAO;
+		this.changeLog = changeLog;
+		this.patientAppointmentCache = patientAppointmentCache;
+	}
+	
+	/**
+	 * @param source the block whose scheduled appointments are moved.
+	 * @param targetTimeSlots the time slots to move them to, locked and ordered by start date.
+	 * @param policy how the appointments are placed.
+	 * @return the moved and the unplaceable appointments.
+	 */
+	public RescheduleReport reschedule(AppointmentBlock source, List<TimeSlot> targetTimeSlots, ReschedulePolicy policy) {
+		Date now = new Date();
+		List<Appointment> appointments = appointmentDAO.getAppointmentsInAppointmentBlock(source, RESCHEDULED_STATUS);
+		List<TimeSlot> futureTimeSlots = new ArrayList<TimeSlot>();
+		for (TimeSlot timeSlot : targetTimeSlots) {
+			if (timeSlot.getStartDate().after(now))
+				futureTimeSlots.add(timeSlot);
+		}
+		Map<Appointment, TimeSlot> moves = plan(appointments, futureTimeSlots, timeSlotDAO
+		        .getBookedMinutes(futureTimeSlots), policy);
+		Set<Integer> moved = appointmentDAO.moveAppointments(moves, Context.getAuthenticatedUser(), now);
+		
+		RescheduleReport report = new RescheduleReport();
+		List<AppointmentChange> changes = new ArrayList<AppointmentChange>();
+		for (Appointment appointment : appointments) {
+			if (!moved.contains(appointment.getAppointmentId())) {
+				report.addUnplaceableAppointment(appointment);
+				continue;
+			}
+			report.addMove(appointment.getAppointmentId(), moves.get(appointment).getTimeSlotId());
+			Integer patientId = appointment.getPatient().getPatientId();
+			changes.add(new AppointmentChange("Appointment", appointment.getAppointmentId(), patientId,
+			        AppointmentChange.ACTION_SAVE, null));
+			patientAppointmentCache.evict(patientId);
+		}
+		if (changeLog != null && !changes.isEmpty())
+			changeLog.recordAll(changes);
+		return report;
+	}
+	
+	/**
+	 * Places each appointment, in order, in a time slot with room left for it. As when booking, an
+	 * appointment longer than its time slot runs into the following ones, and the appointments placed
+	 * before it are counted.
+	 * 
+	 * @param appointments the appointments to place.
+	 * @param timeSlots the candidate time slots, ordered by start date.
+	 * @param bookedMinutes the minutes already booked in the time slots, by time slot id.
+	 * @param policy how the appointments are placed.
+	 * @return the placed appointments, mapped to their time slots.
+	 */
+	static Map<Appointment, TimeSlot> plan(List<Appointment> appointments, List<TimeSlot> timeSlots,
+	        Map<Integer, Integer> bookedMinutes, ReschedulePolicy policy) {
+		TimeSlotBookings bookings = new TimeSlotBookings(timeSlots, bookedMinutes);
+		Map<Appointment, TimeSlot> moves = new LinkedHashMap<Appointment, TimeSlot>();
+		for (Appointment appointment : appointments) {
+			long startTime = appointment.getTimeSlot().getStartDate().getTime();
+			int duration = appointment.getAppointmentType().getDuration();
+			TimeSlot chosen = null;
+			for (TimeSlot timeSlot : bookings.getFittingTimeSlots(duration)) {
+				if (!offers(timeSlot.getAppointmentBlock(), appointment.getAppointmentType()))
+					continue;
+				long distance = Math.abs(timeSlot.getStartDate().getTime() - startTime);
+				if (policy == ReschedulePolicy.SAME_TIME) {
+					if (distance == 0) {
+						chosen = timeSlot;
+						break;
+					}
+				} else if (policy == ReschedulePolicy.EARLIEST) {
+					chosen = timeSlot;
+					break;
+				} else if (chosen == null || distance < Math.abs(chosen.getStartDate().getTime() - startTime)) {
+					//Strictly nearer only, so ties go to the earlier time slot.
+					chosen = timeSlot;
+				}
+			}
+			if (chosen != null) {
+				bookings.book(chosen, duration);
+				moves.put(appointment, chosen);
+			}
+		}
+		return moves;
+	}
+	
+	private static boolean offers(AppointmentBlock appointmentBlock, AppointmentType appointmentType) {
+		for (AppointmentType type : appointmentBlock.getTypes()) {
+			if (type.getAppointmentTypeId().equals(appointmentType.getAppointmentTypeId()))
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.reschedule;
+
+/**
+ * How the appointments of a rescheduled block are placed in the target time slots. An appointment
+ * only goes to a time slot whose block offers its type and which has room for its duration.
+ */
+public enum ReschedulePolicy {
+	
+	/**
+	 * The time slot starting at the same time, for a provider covering another one.
+	 */
+	SAME_TIME,
+	
+	/**
+	 * The time slot starting nearest to the original one, the earlier one on a tie.
+	 */
+	NEAREST,
+	
+	/**
+	 * The earliest time slot with room.
+	 */
+	EARLIEST
+}
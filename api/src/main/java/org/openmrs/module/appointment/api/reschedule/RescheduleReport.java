@@ -0,0 +1,54 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.reschedule;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.module.appointment.Appointment;
+
+/**
+ * The outcome of rescheduling the appointments of a block.
+ */
+public class RescheduleReport {
+	
+	private final Map<Integer, Integer> moves = new LinkedHashMap<Integer, Integer>();
+	
+	private final List<Appointment> unplaceableAppointments = new ArrayList<Appointment>();
+	
+	/**
+	 * @return the ids of the moved appointments, mapped to the ids of their new time slots.
+	 */
+	public Map<Integer, Integer> getMoves() {
+		return moves;
+	}
+	
+	/**
+	 * @return the appointments left in their time slots, as no target time slot could take them or
+	 *         they were changed meanwhile.
+	 */
+	public List<Appointment> getUnplaceableAppointments() {
+		return unplaceableAppointments;
+	}
+	
+	void addMove(Integer appointmentId, Integer timeSlotId) {
+		moves.put(appointmentId, timeSlotId);
+	}
+	
+	void addUnplaceableAppointment(Appointment appointment) {
+		unplaceableAppointments.add(appointment);
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The normalized form of a patient search phrase. Phrases differing only by case, spacing,
+ * punctuation or word order have the same key, so the patients they match can be cached once.
+ */
+public class PatientNameKey {
+
+	private final String key;
+
+	private final List<String> words;
+
+	private PatientNameKey(List<String> words) {
+		this.words = words;
+		StringBuilder key = new StringBuilder();
+		for (String word : words)
+			key.append(key.length() > 0 ? " " : "").append(word);
+		this.key = key.toString();
+	}
+
+	/**
+	 * Normalizes a search phrase.
+	 *
+	 * @param phrase the phrase typed by the user.
+	 * @return the key of the phrase, null if it has no word.
+	 */
+	public static PatientNameKey valueOf(String phrase) {
+		if (phrase == null)
+			return null;
+		String[] words = phrase.toLowerCase().replaceAll("[^\\p{L}\\p{N}-]+", " ").trim().split(" ");
+		List<String> sorted = new ArrayList<String>();
+		for (String word : words) {
+			if (word.length() > 0 && !sorted.contains(word))
+				sorted.add(word);
+		}
+		if (sorted.isEmpty())
+			return null;
+		Collections.sort(sorted);
+		return new PatientNameKey(Collections.unmodifiableList(sorted));
+	}
+
+	/**
+	 * @return the distinct lower case words of the phrase, in alphabetical order.
+	 */
+	public List<String> getWords() {
+		return words;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof PatientNameKey && key.equals(((PatientNameKey) obj).key);
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+}
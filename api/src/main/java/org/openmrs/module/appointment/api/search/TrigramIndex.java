@@ -0,0 +1,191 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable in-memory index answering case insensitive substring searches over a set of names,
+ * the same matches as an SQL <code>ilike '%phrase%'</code>. Every name is split into its three
+ * character sequences (trigrams); a search only verifies the names containing all trigrams of the
+ * phrase instead of scanning every name.
+ * <p>
+ * Matches are ranked: names starting with the phrase first, then names with a word starting with
+ * the phrase, then the other matches, each group ordered by name.
+ */
+public class TrigramIndex {
+
+	private static final int[] NO_ENTRIES = new int[0];
+
+	private final Integer[] ids;
+
+	private final String[] names;
+
+	private final String[] normalizedNames;
+
+	private final Map<String, int[]> postings;
+
+	/**
+	 * Builds the index.
+	 *
+	 * @param namesById the names to index, by the id returned when they match.
+	 */
+	public TrigramIndex(Map<Integer, String> namesById) {
+		int size = namesById.size();
+		ids = new Integer[size];
+		names = new String[size];
+		normalizedNames = new String[size];
+		Map<String, List<Integer>> entriesByTrigram = new HashMap<String, List<Integer>>();
+		int entry = 0;
+		for (Map.Entry<Integer, String> name : namesById.entrySet()) {
+			ids[entry] = name.getKey();
+			names[entry] = name.getValue() == null ? "" : name.getValue();
+			normalizedNames[entry] = normalize(names[entry]);
+			String normalized = normalizedNames[entry];
+			for (int i = 0; i + 3 <= normalized.length(); i++) {
+				String trigram = normalized.substring(i, i + 3);
+				List<Integer> entries = entriesByTrigram.get(trigram);
+				if (entries == null) {
+					entries = new ArrayList<Integer>();
+					entriesByTrigram.put(trigram, entries);
+				}
+				//Entries are added in order, so a repeated trigram can only repeat the last one.
+				if (entries.isEmpty() || entries.get(entries.size() - 1) != entry)
+					entries.add(entry);
+			}
+			entry++;
+		}
+		postings = new HashMap<String, int[]>(entriesByTrigram.size() * 2);
+		for (Map.Entry<String, List<Integer>> trigram : entriesByTrigram.entrySet()) {
+			List<Integer> entries = trigram.getValue();
+			int[] sorted = new int[entries.size()];
+			for (int i = 0; i < sorted.length; i++)
+				sorted[i] = entries.get(i);
+			postings.put(trigram.getKey(), sorted);
+		}
+	}
+
+	/**
+	 * @return the number of indexed names.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Finds the names containing the phrase, ignoring case.
+	 *
+	 * @param phrase the text to look for, null or empty matches every name.
+	 * @return the ids of the matching names, best matches first.
+	 */
+	public List<Integer> search(String phrase) {
+		final String normalizedPhrase = normalize(phrase == null ? "" : phrase);
+		List<Integer> matches = new ArrayList<Integer>();
+		if (normalizedPhrase.length() < 3) {
+			//Too short to have a trigram, the names are few enough to be scanned.
+			for (int entry = 0; entry < ids.length; entry++) {
+				if (normalizedNames[entry].contains(normalizedPhrase))
+					matches.add(entry);
+			}
+		} else {
+			for (int entry : getCandidates(normalizedPhrase)) {
+				if (normalizedNames[entry].contains(normalizedPhrase))
+					matches.add(entry);
+			}
+		}
+
+		Collections.sort(matches, new Comparator<Integer>() {
+
+			public int compare(Integer entry1, Integer entry2) {
+				int result = rank(normalizedNames[entry1], normalizedPhrase) - rank(normalizedNames[entry2], normalizedPhrase);
+				return result != 0 ? result : names[entry1].compareTo(names[entry2]);
+			}
+		});
+		List<Integer> result = new ArrayList<Integer>(matches.size());
+		for (Integer entry : matches)
+			result.add(ids[entry]);
+		return result;
+	}
+
+	/**
+	 * Ranks how well a name matches a phrase it contains.
+	 *
+	 * @param normalizedName the name, as returned by {@link #normalize(String)}.
+	 * @param normalizedPhrase the phrase, as returned by {@link #normalize(String)}.
+	 * @return 0 if the name starts with the phrase, 1 if one of its words does, 2 otherwise.
+	 */
+	public static int rank(String normalizedName, String normalizedPhrase) {
+		if (normalizedName.startsWith(normalizedPhrase))
+			return 0;
+		for (int i = normalizedName.indexOf(normalizedPhrase); i > 0; i = normalizedName.indexOf(normalizedPhrase, i + 1)) {
+			if (!Character.isLetterOrDigit(normalizedName.charAt(i - 1)))
+				return 1;
+		}
+		return 2;
+	}
+
+	/**
+	 * @return the text as compared by the index.
+	 */
+	public static String normalize(String text) {
+		return text.toLowerCase();
+	}
+
+	/**
+	 * @return the entries containing every trigram of the phrase, in ascending order.
+	 */
+	private int[] getCandidates(String normalizedPhrase) {
+		List<int[]> lists = new ArrayList<int[]>();
+		for (int i = 0; i + 3 <= normalizedPhrase.length(); i++) {
+			int[] entries = postings.get(normalizedPhrase.substring(i, i + 3));
+			if (entries == null)
+				return NO_ENTRIES;
+			lists.add(entries);
+		}
+		//Intersect starting from the rarest trigram to keep the intermediate results small.
+		Collections.sort(lists, new Comparator<int[]>() {
+
+			public int compare(int[] list1, int[] list2) {
+				return list1.length - list2.length;
+			}
+		});
+		int[] candidates = lists.get(0);
+		for (int i = 1; i < lists.size() && candidates.length > 0; i++)
+			candidates = intersect(candidates, lists.get(i));
+		return candidates;
+	}
+
+	private static int[] intersect(int[] sorted1, int[] sorted2) {
+		int[] result = new int[Math.min(sorted1.length, sorted2.length)];
+		int count = 0;
+		for (int i = 0, j = 0; i < sorted1.length && j < sorted2.length;) {
+			if (sorted1[i] < sorted2[j])
+				i++;
+			else if (sorted1[i] > sorted2[j])
+				j++;
+			else {
+				result[count++] = sorted1[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.task;
+
+import java.util.Calendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Scheduled task deleting the change feed entries older than the global property
+ * appointment.changeFeed.retentionDays (default 30). Consumers must read the feed more often than
+ * that, or they miss changes.
+ */
+public class PurgeAppointmentChangesTask extends AbstractTask {
+
+	public static final String RETENTION_DAYS_PROPERTY = "appointment.changeFeed.retentionDays";
+
+	private static final int DEFAULT_RETENTION_DAYS = 30;
+
+	private static final Log log = LogFactory.getLog(PurgeAppointmentChangesTask.class);
+
+	@Override
+	public void execute() {
+		Context.openSession();
+		try {
+			if (!Context.isAuthenticated())
+				authenticate();
+			Calendar before = Calendar.getInstance();
+			before.add(Calendar.DAY_OF_MONTH, -getRetentionDays());
+			int purged = Context.getService(AppointmentService.class).purgeChangesBefore(before.getTime());
+			log.info("Purged " + purged + " appointment changes older than " + before.getTime());
+		}
+		finally {
+			Context.closeSession();
+		}
+	}
+
+	private int getRetentionDays() {
+		String value = Context.getAdministrationService().getGlobalProperty(RETENTION_DAYS_PROPERTY);
+		try {
+			if (value != null && value.trim().length() > 0)
+				return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value of global property " + RETENTION_DAYS_PROPERTY + ": " + value);
+		}
+		return DEFAULT_RETENTION_DAYS;
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.warmup;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.availability.AvailabilityCalendar;
+import org.openmrs.module.appointment.api.db.AppointmentDAO;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Warms the module up in a background thread once the context is refreshed, so that the first
+ * users after a restart do not pay for cold caches: it loads the appointment types and the option
+ * lists of the appointment form, runs the hot queries once so that their statements are prepared
+ * (the named queries are parsed when the session factory is built, the others on first use), and
+ * primes the availability calendar for the next days. Each step is timed and logged. The queries
+ * behind caches, like the last and next appointments of a patient, are run through the DAOs, so
+ * that their results for a patient nobody has are not cached.
+ * <p>
+ * Configured by runtime properties: appointment.warmUp.enabled (default true) and
+ * appointment.warmUp.days (default 7), the number of days of availability to prime. The
+ * availability calendar keeps days for a few minutes only, so priming helps the first searches.
+ */
+public class AppointmentWarmUp {
+
+	public static final String ENABLED_PROPERTY = "appointment.warmUp.enabled";
+
+	public static final String DAYS_PROPERTY = "appointment.warmUp.days";
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private PlatformTransactionManager transactionManager;
+
+	private AvailabilityCalendar availabilityCalendar;
+
+	private AppointmentDAO appointmentDAO;
+
+	private boolean enabled = true;
+
+	private int days = 7;
+
+	private Thread thread;
+
+	private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	public void setAvailabilityCalendar(AvailabilityCalendar availabilityCalendar) {
+		this.availabilityCalendar = availabilityCalendar;
+	}
+
+	public void setAppointmentDAO(AppointmentDAO appointmentDAO) {
+		this.appointmentDAO = appointmentDAO;
+	}
+
+	/**
+	 * @return the milliseconds taken by each step of the last warm-up, in order.
+	 */
+	public Map<String, Long> getTimings() {
+		synchronized (timings) {
+			return new LinkedHashMap<String, Long>(timings);
+		}
+	}
+
+	/**
+	 * Reads the runtime properties and starts warming up in the background, unless disabled or
+	 * already warming up.
+	 */
+	public synchronized void start() {
+		if (thread != null && thread.isAlive())
+			return;
+		Properties properties = Context.getRuntimeProperties();
+		if (properties.getProperty(ENABLED_PROPERTY) != null)
+			enabled = Boolean.parseBoolean(properties.getProperty(ENABLED_PROPERTY).trim());
+		days = getIntegerProperty(properties, DAYS_PROPERTY, days);
+		if (!enabled) {
+			log.info("Appointment warm-up is disabled");
+			return;
+		}
+		thread = new Thread(new Runnable() {
+
+			public void run() {
+				Context.openSession();
+				try {
+					warmUp();
+				}
+				catch (Exception e) {
+					log.warn("Appointment warm-up failed", e);
+				}
+				finally {
+					Context.closeSession();
+				}
+			}
+		}, "appointment-warm-up");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops warming up, after the current step.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Runs every step in the current thread, which must have an open session.
+	 */
+	public void warmUp() {
+		timings.clear();
+		long start = System.currentTimeMillis();
+		final AppointmentService service = Context.getService(AppointmentService.class);
+
+		step("appointmentTypes", new TransactionCallback<Object>() {
+
+			public Object doInTransaction(TransactionStatus status) {
+				service.getAllAppointmentTypes(true);
+				//Builds the index of the type-ahead.
+				return service.getAppointmentTypes("warm-up");
+			}
+		});
+		step("optionLists", new TransactionCallback<Object>() {
+
+			public Object doInTransaction(TransactionStatus status) {
+				//The lists of the appointment form, which is used by authenticated users only.
+				Context.addProxyPrivilege(PrivilegeConstants.VIEW_PROVIDERS);
+				Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
+				try {
+					Context.getProviderService().getAllProviders();
+					return Context.getLocationService().getAllLocations();
+				}
+				finally {
+					Context.removeProxyPrivilege(PrivilegeConstants.VIEW_PROVIDERS);
+					Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
+				}
+			}
+		});
+		step("queries", new TransactionCallback<Object>() {
+
+			public Object doInTransaction(TransactionStatus status) {
+				//Matches nothing, but prepares the statements of the queries.
+				String uuid = UUID.randomUUID().toString();
+				service.getAppointmentByUuid(uuid);
+				service.getAppointmentTypeByUuid(uuid);
+				service.getAppointmentBlockByUuid(uuid);
+				service.getTimeSlotByUuid(uuid);
+				//The last and next appointment queries, for a patient nobody has.
+				Patient patient = new Patient(Integer.MIN_VALUE);
+				appointmentDAO.getLastAppointment(patient);
+				return appointmentDAO.getNextAppointment(patient, new Date());
+			}
+		});
+		step("availability", new TransactionCallback<Object>() {
+
+			public Object doInTransaction(TransactionStatus status) {
+				Date today = getDayStart(new Date());
+				Date lastDay = addDays(today, days);
+				Set<Integer> providerIds = new TreeSet<Integer>();
+				for (AppointmentBlock appointmentBlock : service.getAppointmentBlocks(today, lastDay, null)) {
+					if (!appointmentBlock.isVoided() && appointmentBlock.getProvider() != null)
+						providerIds.add(appointmentBlock.getProvider().getProviderId());
+				}
+				return availabilityCalendar.prime(providerIds, today, addDays(today, days - 1));
+			}
+		});
+		log.info("Appointment warm-up took " + (System.currentTimeMillis() - start) + " ms: " + getTimings());
+	}
+
+	private void step(String name, TransactionCallback<Object> callback) {
+		if (Thread.currentThread().isInterrupted())
+			return;
+		long start = System.currentTimeMillis();
+		try {
+			TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+			transactionTemplate.setReadOnly(true);
+			transactionTemplate.execute(callback);
+		}
+		catch (RuntimeException e) {
+			log.warn("Appointment warm-up step " + name + " failed", e);
+		}
+		timings.put(name, System.currentTimeMillis() - start);
+	}
+
+	private int getIntegerProperty(Properties properties, String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Invalid value of runtime property " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private static Date getDayStart(Date date) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTime();
+	}
+
+	private static Date addDays(Date date, int days) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.add(Calendar.DAY_OF_MONTH, days);
+		return calendar.getTime();
+	}
+}
@@ -16,8 +16,10 @@ package org.openmrs.module.appointment.validator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.annotation.Handler;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.appointment.AppointmentBlock;
 import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.api.AppointmentService;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ValidationUtils;
 import org.springframework.validation.Validator;
@@ -48,6 +50,7 @@ public class AppointmentBlockValidator implements Validator {
 	 *      org.springframework.validation.Errors)
 	 * @should pass validation if all required fields have proper values
 	 *  @should fail validation if start date is not before end date
+	 * @should fail validation if the provider has an overlapping block
 	 */
 	
 	public void validate(Object obj, Errors errors) {
@@ -61,6 +64,10 @@ public class AppointmentBlockValidator implements Validator {
 			ValidationUtils.rejectIfEmpty(errors, "location", "appointment.AppointmentBlock.emptyLocation");
 			if (!appointmentBlock.getStartDate().before(appointmentBlock.getEndDate()))
 				errors.rejectValue("appointmentBlock", "appointment.AppointmentBlock.error.InvalidDateInterval");
+			else if (appointmentBlock.getProvider() != null && !appointmentBlock.isVoided()
+			        && !Context.getService(AppointmentService.class).getOverlappingAppointmentBlocks(appointmentBlock)
+			                .isEmpty())
+				errors.rejectValue("provider", "appointment.AppointmentBlock.error.overlappingBlock");
 		}
 	}
 }
@@ -17,7 +17,12 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -26,10 +31,18 @@ import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Location;
+import org.openmrs.Patient;
 import org.openmrs.Provider;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
 import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentStatusHistory;
 import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.importer.AppointmentImportReport;
+import org.openmrs.module.appointment.api.reschedule.ReschedulePolicy;
+import org.openmrs.module.appointment.api.reschedule.RescheduleReport;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 import org.openmrs.util.OpenmrsUtil;
@@ -136,6 +149,34 @@ public class AppointmentBlockServiceTest extends BaseModuleContextSensitiveTest
 		
 	}
 	
+	@Test(expected = APIException.class)
+	@Verifies(value = "should throw error when the provider has an overlapping block", method = "saveAppointmentBlock(AppointmentBlock)")
+	public void saveAppointmentBlock_shouldThrowErrorWhenTheProviderHasAnOverlappingBlock() throws Exception {
+		service.saveAppointmentBlock(newAppointmentBlock("2005-01-01 10:00", "2005-01-01 12:00"));
+	}
+	
+	@Test
+	@Verifies(value = "should get the blocks of the provider overlapping the block", method = "getOverlappingAppointmentBlocks(AppointmentBlock)")
+	public void getOverlappingAppointmentBlocks_shouldGetTheBlocksOfTheProviderOverlappingTheBlock() throws Exception {
+		List<AppointmentBlock> overlapping = service.getOverlappingAppointmentBlocks(newAppointmentBlock(
+		    "2005-01-01 10:00", "2005-01-02 12:00"));
+		//Block 2 is voided.
+		assertEquals(1, overlapping.size());
+		assertEquals((Integer) 1, overlapping.get(0).getAppointmentBlockId());
+		
+		AppointmentBlock appointmentBlock = newAppointmentBlock("2005-01-01 10:00", "2005-01-01 12:00");
+		appointmentBlock.setProvider(Context.getProviderService().getProvider(2));
+		assertEquals(0, service.getOverlappingAppointmentBlocks(appointmentBlock).size());
+	}
+	
+	@Test
+	@Verifies(value = "should not count the block itself or blocks which only touch it", method = "getOverlappingAppointmentBlocks(AppointmentBlock)")
+	public void getOverlappingAppointmentBlocks_shouldNotCountTheBlockItselfOrBlocksWhichOnlyTouchIt() throws Exception {
+		assertEquals(0, service.getOverlappingAppointmentBlocks(service.getAppointmentBlock(1)).size());
+		assertEquals(0, service.getOverlappingAppointmentBlocks(newAppointmentBlock("2005-01-01 11:00", "2005-01-01 12:00"))
+		        .size());
+	}
+	
 	@Test
 	@Verifies(value = "should void given appointment block", method = "voidAppointmentBlock(AppointmentBlock, String)")
 	public void voidAppointmentBlock_shouldVoidGivenAppointmentBlock() throws Exception {
@@ -174,6 +215,113 @@ public class AppointmentBlockServiceTest extends BaseModuleContextSensitiveTest
 		assertEquals(3, service.getAllAppointmentBlocks().size());
 	}
 	
+	@Test
+	@Verifies(value = "should void the time slots and appointments of the block", method = "voidAppointmentBlock(AppointmentBlock, String)")
+	public void voidAppointmentBlock_shouldVoidTheTimeSlotsAndAppointmentsOfTheBlock() throws Exception {
+		int statusHistoryCount = service.getAllAppointmentStatusHistories().size();
+		
+		service.voidAppointmentBlock(service.getAppointmentBlock(1), "void reason");
+		Context.flushSession();
+		Context.clearSession();
+		
+		for (int timeSlotId : new int[] { 1, 2, 4 }) {
+			assertTrue(service.getTimeSlot(timeSlotId).isVoided());
+			assertEquals("void reason", service.getTimeSlot(timeSlotId).getVoidReason());
+		}
+		for (int appointmentId : new int[] { 1, 2, 4 }) {
+			assertTrue(service.getAppointment(appointmentId).isVoided());
+			assertEquals("void reason", service.getAppointment(appointmentId).getVoidReason());
+		}
+		//Appointment 3 was voided before.
+		assertEquals("some void reason", service.getAppointment(3).getVoidReason());
+		List<AppointmentStatusHistory> statusHistories = service.getAllAppointmentStatusHistories();
+		assertEquals(statusHistoryCount + 3, statusHistories.size());
+		AppointmentStatusHistory statusHistory = null;
+		for (AppointmentStatusHistory candidate : statusHistories) {
+			if (candidate.getAppointment().getAppointmentId() == 4)
+				statusHistory = candidate;
+		}
+		assertNotNull(statusHistory);
+		assertEquals("SCHEDULED", statusHistory.getStatus());
+		assertEquals(service.getAppointmentBlock(1).getDateVoided().getTime(), statusHistory.getEndDate().getTime());
+	}
+	
+	@Test
+	@Verifies(value = "should unvoid only the time slots and appointments voided with the block", method = "unvoidAppointmentBlock(AppointmentBlock)")
+	public void unvoidAppointmentBlock_shouldUnvoidOnlyTheTimeSlotsAndAppointmentsVoidedWithTheBlock() throws Exception {
+		service.voidAppointmentBlock(service.getAppointmentBlock(1), "void reason");
+		Context.flushSession();
+		Context.clearSession();
+		
+		service.unvoidAppointmentBlock(service.getAppointmentBlock(1));
+		Context.flushSession();
+		Context.clearSession();
+		
+		Assert.assertFalse(service.getAppointmentBlock(1).isVoided());
+		for (int timeSlotId : new int[] { 1, 2, 4 })
+			Assert.assertFalse(service.getTimeSlot(timeSlotId).isVoided());
+		for (int appointmentId : new int[] { 1, 2, 4 }) {
+			Assert.assertFalse(service.getAppointment(appointmentId).isVoided());
+			Assert.assertNull(service.getAppointment(appointmentId).getVoidReason());
+		}
+		assertTrue(service.getTimeSlot(3).isVoided());
+		assertTrue(service.getAppointment(3).isVoided());
+	}
+	
+	@Test
+	@Verifies(value = "should void the time slots and appointments at the stored date voided of the block", method = "voidAppointmentBlock(AppointmentBlock, String)")
+	public void voidAppointmentBlock_shouldVoidTheTimeSlotsAndAppointmentsAtTheStoredDateVoidedOfTheBlock()
+	        throws Exception {
+		int statusHistoryCount = service.getAllAppointmentStatusHistories().size();
+		//Voided by the void handler, at a date with milliseconds which a DATETIME column drops.
+		AppointmentBlock appointmentBlock = service.getAppointmentBlock(1);
+		appointmentBlock.setVoided(true);
+		appointmentBlock.setVoidedBy(Context.getAuthenticatedUser());
+		appointmentBlock.setDateVoided(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").parse("2012-03-01 08:00:00.567"));
+		appointmentBlock.setVoidReason("void reason");
+		
+		service.voidAppointmentBlock(appointmentBlock, "void reason");
+		Context.flushSession();
+		Context.clearSession();
+		
+		Date dateVoided = service.getAppointmentBlock(1).getDateVoided();
+		for (int timeSlotId : new int[] { 1, 2, 4 })
+			assertEquals(dateVoided.getTime(), service.getTimeSlot(timeSlotId).getDateVoided().getTime());
+		for (int appointmentId : new int[] { 1, 2, 4 })
+			assertEquals(dateVoided.getTime(), service.getAppointment(appointmentId).getDateVoided().getTime());
+		assertEquals(statusHistoryCount + 3, service.getAllAppointmentStatusHistories().size());
+		
+		service.unvoidAppointmentBlock(service.getAppointmentBlock(1));
+		Context.flushSession();
+		Context.clearSession();
+		
+		Assert.assertFalse(service.getAppointment(4).isVoided());
+	}
+	
+	@Test
+	@Verifies(value = "should record the time the appointments were voided in their status history", method = "unvoidAppointmentBlock(AppointmentBlock)")
+	public void unvoidAppointmentBlock_shouldRecordTheTimeTheAppointmentsWereVoidedInTheirStatusHistory()
+	        throws Exception {
+		service.voidAppointmentBlock(service.getAppointmentBlock(1), "void reason");
+		Context.flushSession();
+		Context.clearSession();
+		Date dateVoided = service.getAppointmentBlock(1).getDateVoided();
+		int statusHistoryCount = service.getAllAppointmentStatusHistories().size();
+		
+		service.unvoidAppointmentBlock(service.getAppointmentBlock(1));
+		Context.flushSession();
+		Context.clearSession();
+		
+		List<AppointmentStatusHistory> statusHistories = service.getAppointmentStatusHistories("VOIDED");
+		assertEquals(statusHistoryCount + 3, service.getAllAppointmentStatusHistories().size());
+		assertEquals(3, statusHistories.size());
+		for (AppointmentStatusHistory statusHistory : statusHistories) {
+			assertEquals(dateVoided.getTime(), statusHistory.getStartDate().getTime());
+			assertTrue(statusHistory.getAppointment().getAppointmentId() != 3);
+		}
+		assertNotNull(service.getAppointment(4).getDateChanged());
+	}
+	
 	@Test
 	@Verifies(value = "should delete given appointment block", method = "purgeAppointmentBlock(AppointmentBlock)")
 	public void purgeAppointmentBlock_shouldDeleteGivenAppointmentBlock() throws Exception {
@@ -223,4 +371,180 @@ public class AppointmentBlockServiceTest extends BaseModuleContextSensitiveTest
 		appointmentBlocks = service.getAppointmentBlocks(null, null, null);
 		assertEquals(3, appointmentBlocks.size());
 	}
+	
+	@Test
+	@Verifies(value = "should get the other blocks of the provider overlapping the block", method = "getOverlappingAppointmentBlocks(AppointmentBlock)")
+	public void getOverlappingAppointmentBlocks_shouldGetTheOtherBlocksOfTheProviderOverlappingTheBlock() throws Exception {
+		List<AppointmentBlock> appointmentBlocks = service.getOverlappingAppointmentBlocks(newAppointmentBlock(
+		    "2005-01-01 10:00", "2005-01-02 10:00"));
+		assertEquals(1, appointmentBlocks.size());
+		assertEquals(new Integer(1), appointmentBlocks.get(0).getAppointmentBlockId());
+		
+		assertEquals(0, service.getOverlappingAppointmentBlocks(service.getAppointmentBlock(1)).size());
+	}
+	
+	@Test
+	@Verifies(value = "should import valid rows and report invalid ones", method = "importAppointmentBlocks(Reader,int)")
+	public void importAppointmentBlocks_shouldImportValidRowsAndReportInvalidOnes() throws Exception {
+		String location = Context.getLocationService().getLocation(1).getName();
+		String csv = "provider,location,startDate,endDate,types,slotLength\n"
+		        + "Test Provider," + location + ",2012-03-01 08:00,2012-03-01 10:00,Initial HIV Clinic Appointment|Return TB Clinic Appointment,30\n"
+		        + "Test Provider," + location + ",2012-03-02 08:00,2012-03-02 10:00,Hospitalization,30\n"
+		        + "\n"
+		        + "\"Test Provider\",\"" + location + "\",2012-03-03 08:00,2012-03-03 09:00,Initial HIV Clinic Appointment,20\n";
+		AppointmentImportReport report = service.importAppointmentBlocks(new StringReader(csv), 0);
+		
+		assertEquals(3, report.getRowsRead());
+		assertEquals(2, report.getRowsImported());
+		assertEquals(3, report.getLastCommittedRow());
+		Assert.assertNull(report.getFailure());
+		assertEquals(1, report.getErrors().size());
+		assertEquals(2, report.getErrors().get(0).getRow());
+		
+		List<AppointmentBlock> appointmentBlocks = service.getAllAppointmentBlocks();
+		assertEquals(5, appointmentBlocks.size());
+		Date startDate = new SimpleDateFormat("yyyy-MM-dd HH:mm").parse("2012-03-01 08:00");
+		AppointmentBlock appointmentBlock = null;
+		for (AppointmentBlock candidate : appointmentBlocks) {
+			if (startDate.equals(candidate.getStartDate()))
+				appointmentBlock = candidate;
+		}
+		assertNotNull(appointmentBlock);
+		assertEquals(2, appointmentBlock.getTypes().size());
+		assertEquals(4, service.getTimeSlotsInAppointmentBlock(appointmentBlock).size());
+	}
+	
+	@Test
+	@Verifies(value = "should resume after the given row", method = "importAppointmentBlocks(Reader,int)")
+	public void importAppointmentBlocks_shouldResumeAfterTheGivenRow() throws Exception {
+		String location = Context.getLocationService().getLocation(1).getName();
+		String csv = "provider,location,startDate,endDate,types,slotLength\n"
+		        + "Test Provider," + location + ",2012-03-01 08:00,2012-03-01 10:00,Initial HIV Clinic Appointment,30\n"
+		        + "Test Provider," + location + ",2012-03-02 08:00,2012-03-02 10:00,Initial HIV Clinic Appointment,30\n";
+		AppointmentImportReport report = service.importAppointmentBlocks(new StringReader(csv), 1);
+		
+		assertEquals(2, report.getRowsRead());
+		assertEquals(1, report.getRowsImported());
+		assertEquals(2, report.getLastCommittedRow());
+		assertEquals(4, service.getAllAppointmentBlocks().size());
+	}
+	
+	@Test
+	@Verifies(value = "should move the appointments to the time slots with room", method = "rescheduleAppointmentBlock(AppointmentBlock,AppointmentBlock,ReschedulePolicy)")
+	public void rescheduleAppointmentBlock_shouldMoveTheAppointmentsToTheTimeSlotsWithRoom() throws Exception {
+		List<TimeSlot> source = saveTomorrowsBlock(1, 9, 60, 30);
+		Appointment first = saveScheduledAppointment(source.get(0), 1);
+		Appointment second = saveScheduledAppointment(source.get(0), 2);
+		Appointment third = saveScheduledAppointment(source.get(1), 1);
+		List<TimeSlot> target = saveTomorrowsBlock(2, 9, 60, 60);
+		int statusHistoryCount = service.getAllAppointmentStatusHistories().size();
+		
+		RescheduleReport report = service.rescheduleAppointmentBlock(source.get(0).getAppointmentBlock(), target.get(0)
+		        .getAppointmentBlock(), ReschedulePolicy.SAME_TIME);
+		assertEquals(2, report.getMoves().size());
+		//No target time slot starts at 9:30.
+		assertEquals(1, report.getUnplaceableAppointments().size());
+		assertEquals(third.getAppointmentId(), report.getUnplaceableAppointments().get(0).getAppointmentId());
+		
+		Context.clearSession();
+		assertEquals(target.get(0).getTimeSlotId(), service.getAppointment(first.getAppointmentId()).getTimeSlot()
+		        .getTimeSlotId());
+		assertEquals(target.get(0).getTimeSlotId(), service.getAppointment(second.getAppointmentId()).getTimeSlot()
+		        .getTimeSlotId());
+		assertEquals(source.get(1).getTimeSlotId(), service.getAppointment(third.getAppointmentId()).getTimeSlot()
+		        .getTimeSlotId());
+		assertEquals(statusHistoryCount + 2, service.getAllAppointmentStatusHistories().size());
+	}
+	
+	@Test
+	@Verifies(value = "should report the appointments which do not fit", method = "rescheduleAppointmentBlock(AppointmentBlock,AppointmentBlock,ReschedulePolicy)")
+	public void rescheduleAppointmentBlock_shouldReportTheAppointmentsWhichDoNotFit() throws Exception {
+		List<TimeSlot> source = saveTomorrowsBlock(1, 9, 60, 30);
+		saveScheduledAppointment(source.get(0), 1);
+		saveScheduledAppointment(source.get(0), 2);
+		Appointment third = saveScheduledAppointment(source.get(1), 1);
+		//10 of the 30 minutes of the target time slot are already booked.
+		List<TimeSlot> target = saveTomorrowsBlock(2, 9, 30, 30);
+		saveScheduledAppointment(target.get(0), 2);
+		
+		RescheduleReport report = service.rescheduleAppointmentBlock(source.get(0).getAppointmentBlock(), target.get(0)
+		        .getAppointmentBlock(), ReschedulePolicy.NEAREST);
+		assertEquals(2, report.getMoves().size());
+		assertEquals(1, report.getUnplaceableAppointments().size());
+		assertEquals(third.getAppointmentId(), report.getUnplaceableAppointments().get(0).getAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should run long appointments into the following time slots", method = "rescheduleAppointmentBlock(AppointmentBlock,AppointmentBlock,ReschedulePolicy)")
+	public void rescheduleAppointmentBlock_shouldRunLongAppointmentsIntoTheFollowingTimeSlots() throws Exception {
+		List<TimeSlot> source = saveTomorrowsBlock(1, 9, 60, 30);
+		Appointment first = saveScheduledAppointment(source.get(0), 1);
+		Appointment second = saveScheduledAppointment(source.get(0), 2);
+		//The 10 minute appointments take two 5 minute time slots each.
+		List<TimeSlot> target = saveTomorrowsBlock(2, 9, 20, 5);
+		
+		RescheduleReport report = service.rescheduleAppointmentBlock(source.get(0).getAppointmentBlock(), target.get(0)
+		        .getAppointmentBlock(), ReschedulePolicy.EARLIEST);
+		assertEquals(0, report.getUnplaceableAppointments().size());
+		assertEquals(target.get(0).getTimeSlotId(), report.getMoves().get(first.getAppointmentId()));
+		assertEquals(target.get(2).getTimeSlotId(), report.getMoves().get(second.getAppointmentId()));
+	}
+	
+	@Test
+	@Verifies(value = "should move the appointments to the time slots of the provider", method = "rescheduleAppointmentBlock(AppointmentBlock,Provider,ReschedulePolicy)")
+	public void rescheduleAppointmentBlock_shouldMoveTheAppointmentsToTheTimeSlotsOfTheProvider() throws Exception {
+		List<TimeSlot> source = saveTomorrowsBlock(1, 9, 60, 30);
+		Appointment first = saveScheduledAppointment(source.get(0), 1);
+		Appointment second = saveScheduledAppointment(source.get(1), 2);
+		List<TimeSlot> target = saveTomorrowsBlock(2, 9, 60, 30);
+		
+		RescheduleReport report = service.rescheduleAppointmentBlock(source.get(0).getAppointmentBlock(), Context
+		        .getProviderService().getProvider(2), ReschedulePolicy.NEAREST);
+		assertEquals(0, report.getUnplaceableAppointments().size());
+		assertEquals(target.get(0).getTimeSlotId(), report.getMoves().get(first.getAppointmentId()));
+		assertEquals(target.get(1).getTimeSlotId(), report.getMoves().get(second.getAppointmentId()));
+	}
+	
+	/**
+	 * Saves a block of tomorrow at location 1 offering appointment type 1, with its time slots.
+	 */
+	private List<TimeSlot> saveTomorrowsBlock(int providerId, int startHour, int minutes, int slotMinutes) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.DATE, 1);
+		calendar.set(Calendar.HOUR_OF_DAY, startHour);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		Date startDate = calendar.getTime();
+		calendar.add(Calendar.MINUTE, minutes);
+		Set<AppointmentType> types = new HashSet<AppointmentType>();
+		types.add(service.getAppointmentType(1));
+		AppointmentBlock appointmentBlock = service.saveAppointmentBlock(new AppointmentBlock(startDate, calendar.getTime(),
+		        Context.getProviderService().getProvider(providerId), Context.getLocationService().getLocation(1), types));
+		
+		List<TimeSlot> timeSlots = new ArrayList<TimeSlot>();
+		calendar.setTime(startDate);
+		for (int i = 0; i < minutes / slotMinutes; i++) {
+			Date slotStartDate = calendar.getTime();
+			calendar.add(Calendar.MINUTE, slotMinutes);
+			timeSlots.add(service.saveTimeSlot(new TimeSlot(appointmentBlock, slotStartDate, calendar.getTime())));
+		}
+		return timeSlots;
+	}
+	
+	private Appointment saveScheduledAppointment(TimeSlot timeSlot, int patientId) {
+		Patient patient = Context.getPatientService().getPatient(patientId);
+		return service.saveAppointment(new Appointment(timeSlot, null, patient, service.getAppointmentType(1), "SCHEDULED"));
+	}
+	
+	/**
+	 * @return a new block of provider 1 at location 1 offering appointment type 1.
+	 */
+	private AppointmentBlock newAppointmentBlock(String startDate, String endDate) throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		Set<AppointmentType> types = new HashSet<AppointmentType>();
+		types.add(service.getAppointmentType(1));
+		return new AppointmentBlock(format.parse(startDate), format.parse(endDate), Context.getProviderService()
+		        .getProvider(1), Context.getLocationService().getLocation(1), types);
+	}
 }
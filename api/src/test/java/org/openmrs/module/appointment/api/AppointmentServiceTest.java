@@ -17,20 +17,29 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.Assert;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentChange;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.importer.AppointmentImportReport;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 
@@ -192,6 +201,60 @@ public class AppointmentServiceTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals(0, appointments.size());
 	}
 	
+	@Test
+	@Verifies(value = "should return the most recent appointments first", method = "getAppointmentsOfPatient(Patient,boolean,Date,Date,Appointment,int)")
+	public void getAppointmentsOfPatient_shouldReturnTheMostRecentAppointmentsFirst() throws Exception {
+		List<Appointment> appointments = service.getAppointmentsOfPatient(new Patient(1), false, null, null, null, 10);
+		assertEquals(2, appointments.size());
+		assertEquals((Integer) 4, appointments.get(0).getAppointmentId());
+		assertEquals((Integer) 1, appointments.get(1).getAppointmentId());
+		
+		assertEquals(0, service.getAppointmentsOfPatient(new Patient(40), false, null, null, null, 10).size());
+	}
+	
+	@Test
+	@Verifies(value = "should not return voided appointments unless asked to", method = "getAppointmentsOfPatient(Patient,boolean,Date,Date,Appointment,int)")
+	public void getAppointmentsOfPatient_shouldNotReturnVoidedAppointmentsUnlessAskedTo() throws Exception {
+		Patient patient = new Patient(2);
+		List<Appointment> appointments = service.getAppointmentsOfPatient(patient, false, null, null, null, 10);
+		assertEquals(1, appointments.size());
+		assertEquals((Integer) 2, appointments.get(0).getAppointmentId());
+		
+		appointments = service.getAppointmentsOfPatient(patient, true, null, null, null, 10);
+		assertEquals(2, appointments.size());
+		assertEquals((Integer) 2, appointments.get(0).getAppointmentId());
+		assertEquals((Integer) 3, appointments.get(1).getAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should return the appointments within the given dates", method = "getAppointmentsOfPatient(Patient,boolean,Date,Date,Appointment,int)")
+	public void getAppointmentsOfPatient_shouldReturnTheAppointmentsWithinTheGivenDates() throws Exception {
+		Date fromDate = new SimpleDateFormat("yyyy-MM-dd").parse("2006-06-01");
+		List<Appointment> appointments = service.getAppointmentsOfPatient(new Patient(1), false, fromDate, null, null, 10);
+		assertEquals(1, appointments.size());
+		assertEquals((Integer) 4, appointments.get(0).getAppointmentId());
+		
+		appointments = service.getAppointmentsOfPatient(new Patient(1), false, null, fromDate, null, 10);
+		assertEquals(1, appointments.size());
+		assertEquals((Integer) 1, appointments.get(0).getAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should continue after the given appointment", method = "getAppointmentsOfPatient(Patient,boolean,Date,Date,Appointment,int)")
+	public void getAppointmentsOfPatient_shouldContinueAfterTheGivenAppointment() throws Exception {
+		Patient patient = new Patient(1);
+		List<Appointment> appointments = service.getAppointmentsOfPatient(patient, false, null, null, null, 1);
+		assertEquals(1, appointments.size());
+		assertEquals((Integer) 4, appointments.get(0).getAppointmentId());
+		
+		appointments = service.getAppointmentsOfPatient(patient, false, null, null, appointments.get(0), 1);
+		assertEquals(1, appointments.size());
+		assertEquals((Integer) 1, appointments.get(0).getAppointmentId());
+		
+		appointments = service.getAppointmentsOfPatient(patient, false, null, null, appointments.get(0), 1);
+		assertEquals(0, appointments.size());
+	}
+	
 	@Test
 	@Verifies(value = "should get appointment corresponding to visit", method = "getAppointmentByVisit(Integer visitId)")
 	public void getAppointmentByVisit_shouldGetCorrectAppointment() {
@@ -237,4 +300,276 @@ public class AppointmentServiceTest extends BaseModuleContextSensitiveTest {
 		toCompare.add(toCompare.size(), "Old Identification Number: 101");
 		assertEquals(identifiers, toCompare);
 	}
+	
+	@Test
+	@Verifies(value = "should find appointments by the start of a patient name", method = "searchAppointments(AppointmentSearchCriteria,int)")
+	public void searchAppointments_shouldFindAppointmentsByTheStartOfAPatientName() {
+		Patient patient = Context.getPatientService().getPatient(2);
+		String familyName = patient.getFamilyName();
+		AppointmentSearchCriteria criteria = new AppointmentSearchCriteria();
+		criteria.setPatientQuery(familyName.substring(0, 3).toUpperCase());
+		List<AppointmentSearchResult> results = service.searchAppointments(criteria, 10);
+		assertEquals(1, results.size());
+		assertEquals((Integer) 2, results.get(0).getAppointmentId());
+		assertEquals(patient.getPatientIdentifier().getIdentifier(), results.get(0).getPatientIdentifier());
+		assertTrue(results.get(0).getPatientName().contains(familyName));
+		
+		criteria.setPatientQuery(familyName + " " + patient.getGivenName());
+		assertEquals(1, service.searchAppointments(criteria, 10).size());
+		
+		criteria.setPatientQuery("101-6");
+		assertEquals((Integer) 2, service.searchAppointments(criteria, 10).get(0).getAppointmentId());
+		
+		criteria.setPatientQuery(familyName + " nosuchname");
+		assertEquals(0, service.searchAppointments(criteria, 10).size());
+	}
+	
+	@Test
+	@Verifies(value = "should find appointments with the given statuses", method = "searchAppointments(AppointmentSearchCriteria,int)")
+	public void searchAppointments_shouldFindAppointmentsWithTheGivenStatuses() {
+		AppointmentSearchCriteria criteria = new AppointmentSearchCriteria();
+		Set<String> statuses = new HashSet<String>();
+		statuses.add("SCHEDULED");
+		criteria.setStatuses(statuses);
+		List<AppointmentSearchResult> results = service.searchAppointments(criteria, 10);
+		assertEquals(2, results.size());
+		assertEquals((Integer) 1, results.get(0).getAppointmentId());
+		assertEquals((Integer) 4, results.get(1).getAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should not return voided appointments unless asked to", method = "searchAppointments(AppointmentSearchCriteria,int)")
+	public void searchAppointments_shouldNotReturnVoidedAppointmentsUnlessAskedTo() {
+		AppointmentSearchCriteria criteria = new AppointmentSearchCriteria();
+		assertEquals(3, service.searchAppointments(criteria, 10).size());
+		
+		criteria.setIncludeVoided(true);
+		List<AppointmentSearchResult> results = service.searchAppointments(criteria, 10);
+		assertEquals(4, results.size());
+		assertEquals((Integer) 3, results.get(1).getAppointmentId());
+		assertTrue(results.get(1).isVoided());
+	}
+	
+	@Test
+	@Verifies(value = "should continue after the last result of a previous page", method = "searchAppointments(AppointmentSearchCriteria,int)")
+	public void searchAppointments_shouldContinueAfterTheLastResultOfAPreviousPage() {
+		AppointmentSearchCriteria criteria = new AppointmentSearchCriteria();
+		List<AppointmentSearchResult> results = service.searchAppointments(criteria, 2);
+		assertEquals(2, results.size());
+		assertEquals((Integer) 1, results.get(0).getAppointmentId());
+		assertEquals((Integer) 2, results.get(1).getAppointmentId());
+		
+		criteria.setStartAfter(results.get(1));
+		results = service.searchAppointments(criteria, 2);
+		assertEquals(1, results.size());
+		assertEquals((Integer) 4, results.get(0).getAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should return the first appointment starting in the future", method = "getNextAppointment(Patient)")
+	public void getNextAppointment_shouldReturnTheFirstAppointmentStartingInTheFuture() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(1);
+		Assert.assertNull(service.getNextAppointment(patient));
+		Assert.assertNull(service.getNextAppointment(null));
+		
+		saveFutureAppointment(patient, 2, "SCHEDULED");
+		Appointment appointment = saveFutureAppointment(patient, 1, "SCHEDULED");
+		assertEquals(appointment.getAppointmentId(), service.getNextAppointment(patient).getAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should not return cancelled appointments", method = "getNextAppointment(Patient)")
+	public void getNextAppointment_shouldNotReturnCancelledAppointments() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(1);
+		saveFutureAppointment(patient, 1, "CANCELLED");
+		Appointment appointment = saveFutureAppointment(patient, 2, "SCHEDULED");
+		assertEquals(appointment.getAppointmentId(), service.getNextAppointment(patient).getAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should return the last and next appointments of the patient", method = "getPatientAppointmentSummary(Patient)")
+	public void getPatientAppointmentSummary_shouldReturnTheLastAndNextAppointmentsOfThePatient() throws Exception {
+		Assert.assertNull(service.getPatientAppointmentSummary(null));
+		
+		PatientAppointmentSummary summary = service.getPatientAppointmentSummary(Context.getPatientService()
+		        .getPatient(2));
+		assertEquals((Integer) 2, summary.getLastAppointmentId());
+		assertEquals("MISSED", summary.getLastAppointmentStatus());
+		Assert.assertNull(summary.getNextAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should reflect saved appointments of the patient", method = "getPatientAppointmentSummary(Patient)")
+	public void getPatientAppointmentSummary_shouldReflectSavedAppointmentsOfThePatient() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(1);
+		assertEquals((Integer) 4, service.getPatientAppointmentSummary(patient).getLastAppointmentId());
+		
+		Appointment appointment = saveFutureAppointment(patient, 1, "SCHEDULED");
+		PatientAppointmentSummary summary = service.getPatientAppointmentSummary(patient);
+		assertEquals(appointment.getAppointmentId(), summary.getNextAppointmentId());
+		assertEquals(appointment.getAppointmentId(), summary.getLastAppointmentId());
+		
+		appointment.setStatus("CANCELLED");
+		service.saveAppointment(appointment);
+		Assert.assertNull(service.getPatientAppointmentSummary(patient).getNextAppointmentId());
+	}
+	
+	@Test
+	@Verifies(value = "should reflect appointments moved to another patient", method = "getPatientAppointmentSummary(Patient)")
+	public void getPatientAppointmentSummary_shouldReflectAppointmentsMovedToAnotherPatient() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(1);
+		assertEquals((Integer) 4, service.getPatientAppointmentSummary(patient).getLastAppointmentId());
+		
+		Appointment appointment = service.getAppointment(4);
+		appointment.setPatient(Context.getPatientService().getPatient(2));
+		service.saveAppointment(appointment);
+		Assert.assertFalse(((Integer) 4).equals(service.getPatientAppointmentSummary(patient).getLastAppointmentId()));
+	}
+	
+	@Test
+	@Verifies(value = "should return the changes after the cursor in order", method = "getChangesSince(Integer,int)")
+	public void getChangesSince_shouldReturnTheChangesAfterTheCursorInOrder() throws Exception {
+		setChangeFeedSettleSeconds("0");
+		Integer cursor = getLastChangeId();
+		
+		Appointment appointment = saveFutureAppointment(Context.getPatientService().getPatient(1), 1, "SCHEDULED");
+		List<AppointmentChange> changes = service.getChangesSince(cursor, 10);
+		assertEquals(2, changes.size());
+		assertEquals("TimeSlot", changes.get(0).getEntityType());
+		assertEquals(appointment.getTimeSlot().getTimeSlotId(), changes.get(0).getEntityId());
+		assertEquals("Appointment", changes.get(1).getEntityType());
+		assertEquals(appointment.getAppointmentId(), changes.get(1).getEntityId());
+		assertEquals(AppointmentChange.ACTION_SAVE, changes.get(1).getAction());
+		assertTrue(changes.get(0).getAppointmentChangeId() < changes.get(1).getAppointmentChangeId());
+		
+		assertEquals(1, service.getChangesSince(cursor, 1).size());
+		assertEquals(0, service.getChangesSince(changes.get(1).getAppointmentChangeId(), 10).size());
+		
+		//Changes younger than the settle delay are held back.
+		setChangeFeedSettleSeconds("3600");
+		assertEquals(0, service.getChangesSince(cursor, 10).size());
+	}
+	
+	@Test
+	@Verifies(value = "should record voided appointments as voided", method = "getChangesSince(Integer,int)")
+	public void getChangesSince_shouldRecordVoidedAppointmentsAsVoided() throws Exception {
+		setChangeFeedSettleSeconds("0");
+		Integer cursor = getLastChangeId();
+		
+		service.voidAppointment(service.getAppointment(1), "test");
+		List<AppointmentChange> changes = service.getChangesSince(cursor, 10);
+		assertEquals(1, changes.size());
+		assertEquals(AppointmentChange.ACTION_VOID, changes.get(0).getAction());
+		assertEquals((Integer) 1, changes.get(0).getEntityId());
+		assertEquals((Integer) 1, changes.get(0).getPatientId());
+	}
+	
+	@Test
+	@Verifies(value = "should delete the changes written before the given date", method = "purgeChangesBefore(Date)")
+	public void purgeChangesBefore_shouldDeleteTheChangesWrittenBeforeTheGivenDate() throws Exception {
+		setChangeFeedSettleSeconds("0");
+		saveFutureAppointment(Context.getPatientService().getPatient(1), 1, "SCHEDULED");
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.DATE, -1);
+		assertEquals(0, service.purgeChangesBefore(calendar.getTime()));
+		
+		calendar.add(Calendar.DATE, 2);
+		assertTrue(service.purgeChangesBefore(calendar.getTime()) >= 2);
+		assertEquals(0, service.getChangesSince(null, 10).size());
+	}
+	
+	@Test
+	@Verifies(value = "should import appointments into the matching time slots", method = "importAppointments(Reader,int)")
+	public void importAppointments_shouldImportAppointmentsIntoTheMatchingTimeSlots() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(2);
+		String location = Context.getLocationService().getLocation(1).getName();
+		importTimeSlots(location, "2012-03-01 08:00", "2012-03-01 09:00", 20);
+		String row = patient.getPatientIdentifier().getIdentifier() + ",Initial HIV Clinic Appointment,Test Provider,"
+		        + location;
+		String csv = "patientIdentifier,appointmentType,provider,location,startDate,status,reason\n" + row
+		        + ",2012-03-01 08:00,,\"Follow-up, fasting\"\n" + row + ",2012-03-01 08:30,SCHEDULED,\n";
+		int appointmentCount = service.getAppointmentsOfPatient(patient).size();
+		
+		AppointmentImportReport report = service.importAppointments(new StringReader(csv), 0);
+		assertEquals(1, report.getRowsImported());
+		assertEquals(1, report.getErrors().size());
+		assertEquals(2, report.getErrors().get(0).getRow());
+		
+		Context.clearSession();
+		List<Appointment> appointments = service.getAppointmentsOfPatient(patient);
+		assertEquals(appointmentCount + 1, appointments.size());
+		Appointment appointment = null;
+		for (Appointment candidate : appointments) {
+			if ("Follow-up, fasting".equals(candidate.getReason()))
+				appointment = candidate;
+		}
+		assertNotNull(appointment);
+		assertEquals(new SimpleDateFormat("yyyy-MM-dd HH:mm").parse("2012-03-01 08:00"), appointment.getTimeSlot()
+		        .getStartDate());
+		assertEquals("SCHEDULED", appointment.getStatus());
+	}
+	
+	@Test
+	@Verifies(value = "should report the appointments which do not fit in their time slot", method = "importAppointments(Reader,int)")
+	public void importAppointments_shouldReportTheAppointmentsWhichDoNotFitInTheirTimeSlot() throws Exception {
+		String location = Context.getLocationService().getLocation(1).getName();
+		importTimeSlots(location, "2012-03-01 08:00", "2012-03-01 08:20", 20);
+		String row = Context.getPatientService().getPatient(2).getPatientIdentifier().getIdentifier()
+		        + ",Initial HIV Clinic Appointment,Test Provider," + location + ",2012-03-01 08:00\n";
+		
+		AppointmentImportReport report = service.importAppointments(new StringReader(
+		        "patientIdentifier,appointmentType,provider,location,startDate\n" + row + row + row), 0);
+		assertEquals(2, report.getRowsImported());
+		assertEquals(1, report.getErrors().size());
+		assertEquals(3, report.getErrors().get(0).getRow());
+	}
+	
+	@Test
+	@Verifies(value = "should count the non voided appointments with the status ended before the date", method = "getAppointmentCount(String,Date)")
+	public void getAppointmentCount_shouldCountTheNonVoidedAppointmentsWithTheStatusEndedBeforeTheDate()
+	        throws Exception {
+		//Appointment 4 is in a voided time slot, appointment 3 is voided.
+		assertEquals(1, service.getAppointmentCount("SCHEDULED", new Date()));
+		assertEquals(1, service.getAppointmentCount("MISSED", new Date()));
+		assertEquals(0, service.getAppointmentCount("FINISHED", new Date()));
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(2005, Calendar.DECEMBER, 31);
+		assertEquals(0, service.getAppointmentCount("SCHEDULED", calendar.getTime()));
+	}
+	
+	@Test(expected = APIException.class)
+	@Verifies(value = "should fail if the header misses a column", method = "importAppointments(Reader,int)")
+	public void importAppointments_shouldFailIfTheHeaderMissesAColumn() throws Exception {
+		service.importAppointments(new StringReader("patientIdentifier,provider,location,startDate\n"), 0);
+	}
+	
+	private void importTimeSlots(String location, String startDate, String endDate, int slotLength) {
+		AppointmentImportReport report = service.importAppointmentBlocks(new StringReader(
+		        "provider,location,startDate,endDate,types,slotLength\nTest Provider," + location + "," + startDate + ","
+		                + endDate + ",Initial HIV Clinic Appointment," + slotLength + "\n"), 0);
+		assertEquals(1, report.getRowsImported());
+	}
+	
+	private void setChangeFeedSettleSeconds(String value) {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty("appointment.changeFeed.settleSeconds", value));
+	}
+	
+	private Integer getLastChangeId() {
+		List<AppointmentChange> changes = service.getChangesSince(null, Integer.MAX_VALUE);
+		return changes.isEmpty() ? null : changes.get(changes.size() - 1).getAppointmentChangeId();
+	}
+	
+	private Appointment saveFutureAppointment(Patient patient, int daysAhead, String status) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.DATE, daysAhead);
+		TimeSlot timeSlot = new TimeSlot();
+		timeSlot.setStartDate(calendar.getTime());
+		calendar.add(Calendar.MINUTE, 15);
+		timeSlot.setEndDate(calendar.getTime());
+		timeSlot.setAppointmentBlock(service.getAppointmentBlock(1));
+		service.saveTimeSlot(timeSlot);
+		Appointment appointment = new Appointment(timeSlot, null, patient, service.getAppointmentType(1), status);
+		return service.saveAppointment(appointment);
+	}
 }
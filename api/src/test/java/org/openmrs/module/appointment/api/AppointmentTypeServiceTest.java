@@ -106,6 +106,26 @@ public class AppointmentTypeServiceTest extends BaseModuleContextSensitiveTest {
 		assertEquals(0, appointmentTypes.size());
 	}
 	
+	@Test
+	@Verifies(value = "should find renamed appointment types by their new name", method = "getAppointmentTypes(String)")
+	public void getAppointmentTypes_shouldFindRenamedAppointmentTypesByTheirNewName() throws Exception {
+		assertEquals(1, service.getAppointmentTypes("HIV Clinic").size());
+		
+		AppointmentType appointmentType = service.getAppointmentType(1);
+		appointmentType.setName("Initial ART Clinic Appointment");
+		service.saveAppointmentType(appointmentType);
+		
+		assertEquals(0, service.getAppointmentTypes("HIV Clinic").size());
+		List<AppointmentType> appointmentTypes = service.getAppointmentTypes("art clinic");
+		assertEquals(1, appointmentTypes.size());
+		assertEquals(appointmentType, appointmentTypes.get(0));
+		
+		//Names starting with the phrase come first, retired types are included.
+		appointmentTypes = service.getAppointmentTypes("Hospitalization");
+		assertEquals(2, appointmentTypes.size());
+		assertEquals("Hospitalization", appointmentTypes.get(0).getName());
+	}
+	
 	@Test
 	@Verifies(value = "should save new appointment type", method = "saveAppointmentType(AppointmentType)")
 	public void saveAppointmentType_shouldSaveNewAppointmentType() throws Exception {
@@ -19,19 +19,28 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.Assert;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Location;
 import org.openmrs.Provider;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.appointment.Appointment;
 import org.openmrs.module.appointment.AppointmentBlock;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.availability.AvailabilityBits;
+import org.openmrs.module.appointment.api.availability.AvailabilityCalendar;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 import org.springframework.transaction.annotation.Transactional;
@@ -227,6 +236,22 @@ public class TimeSlotServiceTest extends BaseModuleContextSensitiveTest {
 		//		assertEquals(0, timeSlots.size());
 	}
 	
+	@Test
+	@Verifies(value = "should return the non voided time slots of blocks offering the type", method = "getTimeSlotsByConstraints(AppointmentType, Date, Date, Provider)")
+	public void getTimeSlotsByConstraints_shouldReturnTheNonVoidedTimeSlotsOfBlocksOfferingTheType() throws Exception {
+		List<TimeSlot> timeSlots = service.getTimeSlotsByConstraints(service.getAppointmentType(1), null, null, null);
+		assertEquals(3, timeSlots.size());
+		assertEquals((Integer) 1, timeSlots.get(0).getTimeSlotId());
+		assertEquals((Integer) 2, timeSlots.get(1).getTimeSlotId());
+		assertEquals((Integer) 4, timeSlots.get(2).getTimeSlotId());
+		
+		assertEquals(0, service.getTimeSlotsByConstraints(service.getAppointmentType(4), null, null, null).size());
+		assertEquals(0, service.getTimeSlotsByConstraints(service.getAppointmentType(1), null, null,
+		    Context.getProviderService().getProvider(2)).size());
+		Date fromDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").parse("2006-01-01 00:00:00.050");
+		assertEquals(2, service.getTimeSlotsByConstraints(service.getAppointmentType(1), fromDate, null, null).size());
+	}
+	
 	@Test
 	@Verifies(value = "should return correct time slots", method = "getTimeSlotsInAppointmentBlock(AppointmentBlock)")
 	public void getTimeSlotsInAppointmentBlock_shouldReturnCorrectTimeSlots() {
@@ -245,4 +270,214 @@ public class TimeSlotServiceTest extends BaseModuleContextSensitiveTest {
 		timeSlots = service.getTimeSlotsInAppointmentBlock(appointmentBlock);
 		assertEquals(0, timeSlots.size());
 	}
+	
+	@Test
+	@Verifies(value = "should return the time left free by the booked appointments", method = "getFreeTime(Provider, Location, Date)")
+	public void getFreeTime_shouldReturnTheTimeLeftFreeByTheBookedAppointments() throws Exception {
+		List<TimeSlot> timeSlots = saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 30);
+		Provider provider = Context.getProviderService().getProvider(1);
+		Location location = Context.getLocationService().getLocation(1);
+		Date day = parseDate("2012-06-04 00:00");
+		
+		long[] freeTime = service.getFreeTime(provider, location, day);
+		assertEquals(12, AvailabilityBits.count(freeTime));
+		assertTrue(AvailabilityBits.isSet(freeTime, 108, 120));
+		
+		//Booking a 10 minutes appointment evicts the cached day.
+		service.saveAppointment(new Appointment(timeSlots.get(0), null, Context.getPatientService().getPatient(1), service
+		        .getAppointmentType(1), "SCHEDULED"));
+		freeTime = service.getFreeTime(provider, location, day);
+		assertEquals(10, AvailabilityBits.count(freeTime));
+		assertTrue(AvailabilityBits.isSet(freeTime, 110, 120));
+		assertFalse(AvailabilityBits.isSet(freeTime, 108, 110));
+		
+		assertEquals(0, AvailabilityBits.count(service.getFreeTime(provider, Context.getLocationService().getLocation(2),
+		    day)));
+		assertEquals(10, AvailabilityBits.count(service.getFreeTime(provider, null, day)));
+	}
+	
+	@Test
+	@Verifies(value = "should only evict the days of the block of the appointment", method = "saveAppointment(Appointment)")
+	public void saveAppointment_shouldOnlyEvictTheDaysOfTheBlockOfTheAppointment() throws Exception {
+		List<TimeSlot> timeSlots = saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 30);
+		saveTimeSlots(1, "2012-06-05 09:00", "2012-06-05 10:00", 30);
+		Provider provider = Context.getProviderService().getProvider(1);
+		AvailabilityCalendar availabilityCalendar = Context.getRegisteredComponent("appointmentAvailabilityCalendar",
+		    AvailabilityCalendar.class);
+		service.getFreeTime(provider, null, parseDate("2012-06-04 00:00"));
+		service.getFreeTime(provider, null, parseDate("2012-06-05 00:00"));
+		int size = availabilityCalendar.getSize();
+		
+		service.saveAppointment(new Appointment(timeSlots.get(0), null, Context.getPatientService().getPatient(1), service
+		        .getAppointmentType(1), "SCHEDULED"));
+		assertEquals(size - 1, availabilityCalendar.getSize());
+	}
+	
+	@Test
+	@Verifies(value = "should return the providers free during the time on every day", method = "getProvidersFreeAt(List, Location, Collection, int, int)")
+	public void getProvidersFreeAt_shouldReturnTheProvidersFreeDuringTheTimeOnEveryDay() throws Exception {
+		saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 30);
+		saveTimeSlots(1, "2012-06-05 09:00", "2012-06-05 10:00", 30);
+		saveTimeSlots(2, "2012-06-04 09:00", "2012-06-04 10:00", 30);
+		List<Provider> providers = Arrays.asList(Context.getProviderService().getProvider(1), Context
+		        .getProviderService().getProvider(2));
+		List<Date> days = Arrays.asList(parseDate("2012-06-04 00:00"), parseDate("2012-06-05 00:00"));
+		
+		List<Provider> free = service.getProvidersFreeAt(providers, null, days, 9 * 60, 30);
+		assertEquals(1, free.size());
+		assertEquals((Integer) 1, free.get(0).getProviderId());
+		assertEquals(2, service.getProvidersFreeAt(providers, null, days.subList(0, 1), 9 * 60, 60).size());
+		assertEquals(0, service.getProvidersFreeAt(providers, null, days.subList(0, 1), 9 * 60 + 30, 60).size());
+	}
+	
+	@Test
+	@Verifies(value = "should return the start of the first free time long enough", method = "getFirstFreeTime(Provider, Location, Date, Date, int)")
+	public void getFirstFreeTime_shouldReturnTheStartOfTheFirstFreeTimeLongEnough() throws Exception {
+		saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 09:30", 15);
+		List<TimeSlot> timeSlots = saveTimeSlots(1, "2012-06-05 09:00", "2012-06-05 10:00", 30);
+		service.saveAppointment(new Appointment(timeSlots.get(0), null, Context.getPatientService().getPatient(1), service
+		        .getAppointmentType(1), "SCHEDULED"));
+		Provider provider = Context.getProviderService().getProvider(1);
+		
+		assertEquals(parseDate("2012-06-04 09:00"), service.getFirstFreeTime(provider, null, parseDate("2012-06-01 00:00"),
+		    parseDate("2012-06-30 00:00"), 30));
+		assertEquals(parseDate("2012-06-05 09:10"), service.getFirstFreeTime(provider, null, parseDate("2012-06-01 00:00"),
+		    parseDate("2012-06-30 00:00"), 45));
+	}
+	
+	@Test
+	@Verifies(value = "should return null if no free time is long enough", method = "getFirstFreeTime(Provider, Location, Date, Date, int)")
+	public void getFirstFreeTime_shouldReturnNullIfNoFreeTimeIsLongEnough() throws Exception {
+		saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 30);
+		Provider provider = Context.getProviderService().getProvider(1);
+		
+		assertNull(service.getFirstFreeTime(provider, null, parseDate("2012-06-01 00:00"), parseDate("2012-06-30 00:00"),
+		    90));
+		assertNull(service.getFirstFreeTime(provider, null, parseDate("2012-06-05 00:00"), parseDate("2012-06-30 00:00"),
+		    30));
+	}
+	
+	@Test
+	@Verifies(value = "should return the first time slots of all providers with room for the type", method = "getAvailableTimeSlots(AppointmentType, Date, Date, Provider, Location, int)")
+	public void getAvailableTimeSlots_shouldReturnTheFirstTimeSlotsOfAllProvidersWithRoomForTheType() throws Exception {
+		List<TimeSlot> timeSlots = saveTimeSlots(2, "2012-06-04 09:00", "2012-06-04 09:30", 10);
+		service.saveAppointment(new Appointment(timeSlots.get(0), null, Context.getPatientService().getPatient(1), service
+		        .getAppointmentType(1), "SCHEDULED"));
+		saveTimeSlots(1, "2012-06-04 09:15", "2012-06-04 10:15", 30);
+		AppointmentType appointmentType = service.getAppointmentType(1);
+		Date fromDate = parseDate("2012-06-04 00:00");
+		Date toDate = parseDate("2012-06-05 00:00");
+		
+		timeSlots = service.getAvailableTimeSlots(appointmentType, fromDate, toDate, null, null, 3);
+		assertEquals(3, timeSlots.size());
+		assertEquals(parseDate("2012-06-04 09:10"), timeSlots.get(0).getStartDate());
+		assertEquals(parseDate("2012-06-04 09:15"), timeSlots.get(1).getStartDate());
+		assertEquals((Integer) 1, timeSlots.get(1).getAppointmentBlock().getProvider().getProviderId());
+		assertEquals(parseDate("2012-06-04 09:20"), timeSlots.get(2).getStartDate());
+		
+		timeSlots = service.getAvailableTimeSlots(appointmentType, fromDate, toDate, null, null, 10);
+		assertEquals(4, timeSlots.size());
+		assertEquals(parseDate("2012-06-04 09:45"), timeSlots.get(3).getStartDate());
+		assertEquals(1, service.getAvailableTimeSlots(appointmentType, fromDate, toDate, null, null, 1).size());
+	}
+	
+	@Test
+	@Verifies(value = "should only return time slots at the location", method = "getAvailableTimeSlots(AppointmentType, Date, Date, Provider, Location, int)")
+	public void getAvailableTimeSlots_shouldOnlyReturnTimeSlotsAtTheLocation() throws Exception {
+		saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 30);
+		Date fromDate = parseDate("2012-06-04 00:00");
+		Date toDate = parseDate("2012-06-05 00:00");
+		
+		assertEquals(2, service.getAvailableTimeSlots(service.getAppointmentType(1), fromDate, toDate, null,
+		    Context.getLocationService().getLocation(1), 10).size());
+		assertEquals(0, service.getAvailableTimeSlots(service.getAppointmentType(1), fromDate, toDate, null,
+		    Context.getLocationService().getLocation(2), 10).size());
+	}
+	
+	@Test
+	@Verifies(value = "should return the first time slot of runs lasting the duration of the type", method = "getAvailableTimeSlots(AppointmentType, Date, Date, Provider, Location, int)")
+	public void getAvailableTimeSlots_shouldReturnTheFirstTimeSlotOfRunsLastingTheDurationOfTheType() throws Exception {
+		AppointmentType appointmentType = service.getAppointmentType(1);
+		appointmentType.setDuration(45);
+		service.saveAppointmentType(appointmentType);
+		saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 15);
+		List<TimeSlot> timeSlots = saveTimeSlots(1, "2012-06-05 09:00", "2012-06-05 10:00", 15);
+		//An appointment in the second time slot leaves no run long enough that day.
+		service.saveAppointment(new Appointment(timeSlots.get(1), null, Context.getPatientService().getPatient(1),
+		        appointmentType, "SCHEDULED"));
+		Provider provider = Context.getProviderService().getProvider(1);
+		
+		timeSlots = service.getAvailableTimeSlots(appointmentType, parseDate("2012-06-04 00:00"),
+		    parseDate("2012-06-06 00:00"), provider, null, 10);
+		assertEquals(2, timeSlots.size());
+		assertEquals(parseDate("2012-06-04 09:00"), timeSlots.get(0).getStartDate());
+		assertEquals(parseDate("2012-06-04 09:15"), timeSlots.get(1).getStartDate());
+		assertEquals(0, service.getAvailableTimeSlots(appointmentType, parseDate("2012-06-04 00:00"),
+		    parseDate("2012-06-06 00:00"), Context.getProviderService().getProvider(2), null, 10).size());
+	}
+	
+	@Test
+	@Verifies(value = "should reserve the following time slots of an appointment longer than its time slot", method = "bookAppointment(Appointment)")
+	public void bookAppointment_shouldReserveTheFollowingTimeSlotsOfAnAppointmentLongerThanItsTimeSlot()
+	        throws Exception {
+		AppointmentType appointmentType = service.getAppointmentType(1);
+		appointmentType.setDuration(30);
+		service.saveAppointmentType(appointmentType);
+		List<TimeSlot> timeSlots = saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 15);
+		
+		Appointment appointment = service.bookAppointment(new Appointment(timeSlots.get(1), null, Context
+		        .getPatientService().getPatient(1), appointmentType, "SCHEDULED"));
+		assertNotNull(appointment.getAppointmentId());
+		assertEquals(timeSlots.get(1), appointment.getTimeSlot());
+		
+		//09:15 to 09:45 is taken, the time slot of 09:30 included.
+		List<TimeSlot> available = service.getAvailableTimeSlots(appointmentType, parseDate("2012-06-04 00:00"),
+		    parseDate("2012-06-05 00:00"), null, null, 10);
+		assertEquals(0, available.size());
+		long[] freeTime = service.getFreeTime(Context.getProviderService().getProvider(1), null,
+		    parseDate("2012-06-04 00:00"));
+		assertEquals(6, AvailabilityBits.count(freeTime));
+		assertTrue(AvailabilityBits.isSet(freeTime, 108, 111));
+		assertTrue(AvailabilityBits.isSet(freeTime, 117, 120));
+	}
+	
+	@Test(expected = TimeSlotTakenException.class)
+	@Verifies(value = "should fail if the time slots are no longer free", method = "bookAppointment(Appointment)")
+	public void bookAppointment_shouldFailIfTheTimeSlotsAreNoLongerFree() throws Exception {
+		AppointmentType appointmentType = service.getAppointmentType(1);
+		appointmentType.setDuration(30);
+		service.saveAppointmentType(appointmentType);
+		List<TimeSlot> timeSlots = saveTimeSlots(1, "2012-06-04 09:00", "2012-06-04 10:00", 15);
+		service.bookAppointment(new Appointment(timeSlots.get(1), null, Context.getPatientService().getPatient(1),
+		        appointmentType, "SCHEDULED"));
+		
+		service.bookAppointment(new Appointment(timeSlots.get(0), null, Context.getPatientService().getPatient(2),
+		        appointmentType, "SCHEDULED"));
+	}
+	
+	/**
+	 * Saves a block of the provider at location 1 offering appointment type 1, with its time slots.
+	 */
+	private List<TimeSlot> saveTimeSlots(int providerId, String startDate, String endDate, int slotMinutes)
+	        throws Exception {
+		Set<AppointmentType> types = new HashSet<AppointmentType>();
+		types.add(service.getAppointmentType(1));
+		AppointmentBlock appointmentBlock = service.saveAppointmentBlock(new AppointmentBlock(parseDate(startDate),
+		        parseDate(endDate), Context.getProviderService().getProvider(providerId), Context.getLocationService()
+		                .getLocation(1), types));
+		
+		List<TimeSlot> timeSlots = new ArrayList<TimeSlot>();
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(appointmentBlock.getStartDate());
+		while (calendar.getTime().before(appointmentBlock.getEndDate())) {
+			Date slotStartDate = calendar.getTime();
+			calendar.add(Calendar.MINUTE, slotMinutes);
+			timeSlots.add(service.saveTimeSlot(new TimeSlot(appointmentBlock, slotStartDate, calendar.getTime())));
+		}
+		return timeSlots;
+	}
+	
+	private Date parseDate(String date) throws Exception {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm").parse(date);
+	}
 }
@@ -0,0 +1,79 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.availability;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link AvailabilityBits}.
+ */
+public class AvailabilityBitsTest {
+
+	@Test
+	@Verifies(value = "should mark the units of the range across words", method = "set(long[], int, int)")
+	public void set_shouldMarkTheUnitsOfTheRangeAcrossWords() {
+		long[] bits = AvailabilityBits.newDay();
+		AvailabilityBits.set(bits, 60, 200);
+		assertEquals(140, AvailabilityBits.count(bits));
+		assertTrue(AvailabilityBits.isSet(bits, 60, 200));
+		assertFalse(AvailabilityBits.isSet(bits, 59, 200));
+		assertFalse(AvailabilityBits.isSet(bits, 60, 201));
+
+		AvailabilityBits.set(bits, 250, 400);
+		assertTrue(AvailabilityBits.isSet(bits, 250, AvailabilityBits.UNITS_PER_DAY));
+		assertEquals(140 + AvailabilityBits.UNITS_PER_DAY - 250, AvailabilityBits.count(bits));
+	}
+
+	@Test
+	@Verifies(value = "should combine days", method = "and(long[], long[])")
+	public void and_shouldCombineDays() {
+		long[] bits = AvailabilityBits.newDay();
+		AvailabilityBits.set(bits, 100, 150);
+		long[] other = AvailabilityBits.newDay();
+		AvailabilityBits.set(other, 120, 200);
+
+		long[] both = bits.clone();
+		AvailabilityBits.and(both, other);
+		assertEquals(30, AvailabilityBits.count(both));
+		assertTrue(AvailabilityBits.isSet(both, 120, 150));
+
+		long[] either = bits.clone();
+		AvailabilityBits.or(either, other);
+		assertEquals(100, AvailabilityBits.count(either));
+		assertTrue(AvailabilityBits.isSet(either, 100, 200));
+	}
+
+	@Test
+	@Verifies(value = "should find the first run long enough", method = "findRun(long[], int)")
+	public void findRun_shouldFindTheFirstRunLongEnough() {
+		long[] bits = AvailabilityBits.newDay();
+		AvailabilityBits.set(bits, 10, 15);
+		AvailabilityBits.set(bits, 60, 70);
+		AvailabilityBits.set(bits, 100, 250);
+
+		assertEquals(10, AvailabilityBits.findRun(bits, 1));
+		assertEquals(10, AvailabilityBits.findRun(bits, 5));
+		assertEquals(60, AvailabilityBits.findRun(bits, 6));
+		assertEquals(60, AvailabilityBits.findRun(bits, 10));
+		assertEquals(100, AvailabilityBits.findRun(bits, 11));
+		assertEquals(100, AvailabilityBits.findRun(bits, 150));
+		assertEquals(-1, AvailabilityBits.findRun(bits, 151));
+		assertEquals(-1, AvailabilityBits.findRun(AvailabilityBits.newDay(), 1));
+	}
+}
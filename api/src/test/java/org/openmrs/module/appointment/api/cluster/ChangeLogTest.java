@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.cluster;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link ChangeLog}.
+ */
+public class ChangeLogTest extends BaseModuleContextSensitiveTest {
+
+	private ChangeLog changeLog;
+
+	private AppointmentService service;
+
+	private final List<AppointmentChange> received = new ArrayList<AppointmentChange>();
+
+	private final ChangeListener listener = new ChangeListener() {
+
+		public void onChanges(List<AppointmentChange> changes) {
+			received.addAll(changes);
+		}
+	};
+
+	@Before
+	public void before() throws Exception {
+		executeDataSet("standardAppointmentTestDataset.xml");
+		service = Context.getService(AppointmentService.class);
+		changeLog = Context.getRegisteredComponent("appointmentChangeLog", ChangeLog.class);
+		changeLog.addListener(listener);
+		//Sets the high-water mark, if not set by a previous test.
+		changeLog.poll();
+		received.clear();
+	}
+
+	@After
+	public void after() {
+		changeLog.removeListener(listener);
+	}
+
+	@Test
+	@Verifies(value = "should deliver the changes written since the previous poll", method = "poll()")
+	public void poll_shouldDeliverTheChangesWrittenSinceThePreviousPoll() throws Exception {
+		Appointment appointment = service.getAppointment(1);
+		appointment.setStatus("MISSED");
+		service.saveAppointment(appointment);
+
+		assertEquals(1, changeLog.poll());
+		assertEquals(1, received.size());
+		AppointmentChange change = received.get(0);
+		assertEquals("Appointment", change.getEntityType());
+		assertEquals(appointment.getAppointmentId(), change.getEntityId());
+		assertEquals(appointment.getPatient().getPatientId(), change.getPatientId());
+		assertEquals(AppointmentChange.ACTION_SAVE, change.getAction());
+		assertEquals(changeLog.getNodeId(), change.getNodeId());
+
+		assertEquals(0, changeLog.poll());
+	}
+
+	@Test
+	@Verifies(value = "should evict the caches of changes made by other nodes", method = "poll()")
+	public void poll_shouldEvictTheCachesOfChangesMadeByOtherNodes() throws Exception {
+		assertNull(service.getPatientAppointmentSummary(Context.getPatientService().getPatient(1))
+		        .getNextAppointmentId());
+
+		//Another node moves appointment 1 to the future, straight in the shared database.
+		getConnection().createStatement().executeUpdate(
+		    "update appointment_time_slot set start_date = dateadd('DAY', 1, current_timestamp()),"
+		            + " end_date = dateadd('DAY', 1, current_timestamp()) where time_slot_id = 1");
+		changeLog.getAppointmentChangeDAO().saveOrUpdate(
+		    new AppointmentChange("TimeSlot", 1, null, AppointmentChange.ACTION_SAVE, "otherNode"));
+		Context.clearSession();
+
+		assertEquals(1, changeLog.poll());
+		assertNotNull(service.getPatientAppointmentSummary(Context.getPatientService().getPatient(1))
+		        .getNextAppointmentId());
+	}
+}
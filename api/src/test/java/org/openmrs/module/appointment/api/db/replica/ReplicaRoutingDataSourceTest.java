@@ -0,0 +1,169 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.db.replica;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests {@link ReplicaRoutingDataSource}, with two in-memory databases as the primary and its
+ * replica.
+ */
+public class ReplicaRoutingDataSourceTest {
+
+	private JdbcTemplate primary;
+
+	private JdbcTemplate replica;
+
+	private Integer currentUserId = 1;
+
+	private long clockOffset;
+
+	private ReplicaRoutingDataSource routingDataSource;
+
+	private DataSourceTransactionManager transactionManager;
+
+	@Before
+	public void before() {
+		primary = createDatabase("primary");
+		replica = createDatabase("replica");
+		routingDataSource = new ReplicaRoutingDataSource(primary.getDataSource(), replica.getDataSource()) {
+
+			@Override
+			protected Integer getCurrentUserId() {
+				return currentUserId;
+			}
+
+			@Override
+			protected long currentTimeMillis() {
+				return System.currentTimeMillis() + clockOffset;
+			}
+		};
+		routingDataSource.checkLag();
+		transactionManager = new DataSourceTransactionManager(new LazyConnectionDataSourceProxy(routingDataSource));
+	}
+
+	@After
+	public void after() {
+		primary.execute("drop all objects");
+		replica.execute("drop all objects");
+	}
+
+	@Test
+	@Verifies(value = "should read from the replica in read-only transactions only", method = "determineCurrentLookupKey()")
+	public void determineCurrentLookupKey_shouldReadFromTheReplicaInReadOnlyTransactionsOnly() {
+		assertEquals("replica", readDatabaseName(true));
+		assertEquals("primary", readDatabaseName(false));
+		assertEquals("primary", new JdbcTemplate(routingDataSource).queryForObject("select name from marker",
+		    String.class));
+	}
+
+	@Test
+	@Verifies(value = "should read from the primary after a recent write of the user", method = "determineCurrentLookupKey()")
+	public void determineCurrentLookupKey_shouldReadFromThePrimaryAfterARecentWriteOfTheUser() {
+		routingDataSource.recordWrite();
+		assertEquals("primary", readDatabaseName(true));
+
+		currentUserId = 2;
+		assertEquals("replica", readDatabaseName(true));
+
+		currentUserId = 1;
+		routingDataSource.setStickySeconds(0);
+		assertEquals("replica", readDatabaseName(true));
+	}
+
+	@Test
+	@Verifies(value = "should read from the primary after the user committed a transaction which was not read-only", method = "determineCurrentLookupKey()")
+	public void determineCurrentLookupKey_shouldReadFromThePrimaryAfterTheUserCommittedATransactionWhichWasNotReadOnly() {
+		assertEquals("replica", readDatabaseName(true));
+		readDatabaseName(false);
+		assertEquals("primary", readDatabaseName(true));
+
+		currentUserId = 2;
+		assertEquals("replica", readDatabaseName(true));
+	}
+
+	@Test
+	@Verifies(value = "should read from the primary while the replica lags", method = "determineCurrentLookupKey()")
+	public void determineCurrentLookupKey_shouldReadFromThePrimaryWhileTheReplicaLags() {
+		routingDataSource.setMaxLagSeconds(10);
+		replicate();
+		routingDataSource.checkLag();
+		assertEquals("replica", readDatabaseName(true));
+
+		//Replication stops for a minute.
+		clockOffset = 60000;
+		routingDataSource.checkLag();
+		assertEquals("primary", readDatabaseName(true));
+
+		replicate();
+		routingDataSource.checkLag();
+		assertEquals("replica", readDatabaseName(true));
+	}
+
+	@Test
+	@Verifies(value = "should read from the primary while the replica cannot be reached", method = "determineCurrentLookupKey()")
+	public void determineCurrentLookupKey_shouldReadFromThePrimaryWhileTheReplicaCannotBeReached() {
+		replica.execute("drop table appointment_replica_heartbeat");
+		routingDataSource.checkLag();
+		assertEquals("primary", readDatabaseName(true));
+	}
+
+	private JdbcTemplate createDatabase(String name) {
+		DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("create table appointment_replica_heartbeat (node_id varchar(100) primary key,"
+		        + " beat bigint not null)");
+		jdbcTemplate.execute("create table marker (name varchar(20))");
+		jdbcTemplate.update("insert into marker values (?)", name);
+		return jdbcTemplate;
+	}
+
+	/**
+	 * Copies the heartbeats of the primary to the replica.
+	 */
+	private void replicate() {
+		replica.execute("delete from appointment_replica_heartbeat");
+		for (Map<String, Object> row : primary.queryForList("select node_id, beat from appointment_replica_heartbeat"))
+			replica.update("insert into appointment_replica_heartbeat (node_id, beat) values (?, ?)", row.get("NODE_ID"),
+			    row.get("BEAT"));
+	}
+
+	private String readDatabaseName(boolean readOnly) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setReadOnly(readOnly);
+		return transactionTemplate.execute(new TransactionCallback<String>() {
+
+			public String doInTransaction(TransactionStatus status) {
+				return new JdbcTemplate(transactionManager.getDataSource()).queryForObject("select name from marker",
+				    String.class);
+			}
+		});
+	}
+}
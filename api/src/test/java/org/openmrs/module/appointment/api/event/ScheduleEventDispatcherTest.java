@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.event;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentChange;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.cluster.ChangeLog;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link ScheduleEventDispatcher}.
+ */
+public class ScheduleEventDispatcherTest extends BaseModuleContextSensitiveTest {
+
+	private ChangeLog changeLog;
+
+	private ScheduleEventDispatcher dispatcher;
+
+	private AppointmentService service;
+
+	private final List<ScheduleSubscription> subscriptions = new ArrayList<ScheduleSubscription>();
+
+	@Before
+	public void before() throws Exception {
+		executeDataSet("standardAppointmentTestDataset.xml");
+		service = Context.getService(AppointmentService.class);
+		changeLog = Context.getRegisteredComponent("appointmentChangeLog", ChangeLog.class);
+		dispatcher = Context.getRegisteredComponent("appointmentScheduleEventDispatcher", ScheduleEventDispatcher.class);
+		//Sets the high-water mark, if not set by a previous test.
+		changeLog.poll();
+	}
+
+	@After
+	public void after() {
+		for (ScheduleSubscription subscription : subscriptions)
+			dispatcher.unsubscribe(subscription);
+	}
+
+	@Test
+	@Verifies(value = "should push the changes to the subscriptions they concern", method = "onChanges(List<AppointmentChange>)")
+	public void onChanges_shouldPushTheChangesToTheSubscriptionsTheyConcern() throws Exception {
+		ScheduleSubscription location1 = subscribe(1, null);
+		ScheduleSubscription location2 = subscribe(2, null);
+
+		Appointment appointment = service.getAppointment(1);
+		appointment.setStatus("MISSED");
+		service.saveAppointment(appointment);
+		changeLog.poll();
+
+		List<ScheduleEvent> events = take(location1);
+		assertEquals(1, events.size());
+		assertEquals("Appointment", events.get(0).getEntityType());
+		assertEquals((Integer) 1, events.get(0).getEntityId());
+		assertEquals(AppointmentChange.ACTION_SAVE, events.get(0).getAction());
+		assertEquals((Integer) 1, events.get(0).getAppointmentBlockId());
+		assertEquals((Integer) 1, events.get(0).getLocationId());
+		assertEquals(0, take(location2).size());
+	}
+
+	@Test
+	@Verifies(value = "should replay the events missed by a reconnecting subscription", method = "subscribe(Integer,Date,Date,Integer)")
+	public void subscribe_shouldReplayTheEventsMissedByAReconnectingSubscription() throws Exception {
+		ScheduleSubscription first = subscribe(null, null);
+		service.voidTimeSlot(service.getTimeSlot(1), "test");
+		changeLog.poll();
+		ScheduleEvent event = take(first).get(0);
+
+		ScheduleSubscription reconnected = subscribe(null, event.getEventId() - 1);
+		List<ScheduleEvent> events = take(reconnected);
+		assertEquals(1, events.size());
+		assertEquals(event.getEventId(), events.get(0).getEventId());
+		assertEquals(AppointmentChange.ACTION_VOID, events.get(0).getAction());
+
+		assertEquals(0, take(subscribe(null, event.getEventId())).size());
+	}
+
+	@Test
+	@Verifies(value = "should refuse subscriptions beyond the maximum", method = "subscribe(Integer,Date,Date,Integer)")
+	public void subscribe_shouldRefuseSubscriptionsBeyondTheMaximum() throws Exception {
+		int maxSubscriptions = dispatcher.getMaxSubscriptions();
+		assertEquals(ScheduleEventDispatcher.DEFAULT_MAX_SUBSCRIPTIONS, maxSubscriptions);
+		dispatcher.setMaxSubscriptions(dispatcher.getSubscriptionCount() + 1);
+		try {
+			assertNotNull(subscribe(null, null));
+			assertNull(dispatcher.subscribe(null, null, null, null));
+		}
+		finally {
+			dispatcher.setMaxSubscriptions(maxSubscriptions);
+		}
+	}
+
+	private ScheduleSubscription subscribe(Integer locationId, Integer lastEventId) {
+		ScheduleSubscription subscription = dispatcher.subscribe(locationId, null, null, lastEventId);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	private List<ScheduleEvent> take(ScheduleSubscription subscription) throws InterruptedException {
+		List<ScheduleEvent> events = new ArrayList<ScheduleEvent>();
+		subscription.take(0, TimeUnit.MILLISECONDS, events);
+		return events;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.generator;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerationJob.Status;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link TimeSlotGenerator}.
+ */
+public class TimeSlotGeneratorTest extends BaseModuleContextSensitiveTest {
+
+	private AppointmentService service;
+
+	private TimeSlotGenerator generator;
+
+	private Executor executor;
+
+	/**
+	 * The jobs submitted to the generator, kept rather than run.
+	 */
+	private final List<Runnable> submitted = new ArrayList<Runnable>();
+
+	@Before
+	public void before() throws Exception {
+		executeDataSet("standardAppointmentTestDataset.xml");
+		service = Context.getService(AppointmentService.class);
+		generator = Context.getRegisteredComponent("appointmentTimeSlotGenerator", TimeSlotGenerator.class);
+		executor = generator.getExecutor();
+		generator.setExecutor(new Executor() {
+
+			public void execute(Runnable command) {
+				submitted.add(command);
+			}
+		});
+	}
+
+	@After
+	public void after() {
+		generator.setExecutor(executor);
+	}
+
+	@Test
+	@Verifies(value = "should generate the time slots of the block", method = "generate(TimeSlotGenerationJob)")
+	public void generate_shouldGenerateTheTimeSlotsOfTheBlock() throws Exception {
+		AppointmentBlock appointmentBlock = saveAppointmentBlock(60);
+		TimeSlotGenerationJob job = new TimeSlotGenerationJob(appointmentBlock, 15);
+		assertEquals(4, job.getTotalSlots());
+
+		generator.generate(job);
+		assertEquals(Status.COMPLETED, job.getStatus());
+		assertEquals(100, job.getProgress());
+		List<TimeSlot> timeSlots = service.getTimeSlotsInAppointmentBlock(appointmentBlock);
+		assertEquals(4, timeSlots.size());
+		long slotLength = 15 * 60 * 1000;
+		for (TimeSlot timeSlot : timeSlots)
+			assertEquals(slotLength, timeSlot.getEndDate().getTime() - timeSlot.getStartDate().getTime());
+	}
+
+	@Test
+	@Verifies(value = "should keep the former time slots when cancelled", method = "generate(TimeSlotGenerationJob)")
+	public void generate_shouldKeepTheFormerTimeSlotsWhenCancelled() throws Exception {
+		AppointmentBlock appointmentBlock = saveAppointmentBlock(60);
+		generator.generate(new TimeSlotGenerationJob(appointmentBlock, 15));
+
+		TimeSlotGenerationJob job = new TimeSlotGenerationJob(appointmentBlock, 30);
+		job.requestCancel();
+		generator.generate(job);
+		assertEquals(Status.CANCELLED, job.getStatus());
+		assertEquals(4, service.getTimeSlotsInAppointmentBlock(appointmentBlock).size());
+	}
+
+	@Test
+	@Verifies(value = "should hide the block from availability until the generation ends", method = "submit(AppointmentBlock,int)")
+	public void submit_shouldHideTheBlockFromAvailabilityUntilTheGenerationEnds() throws Exception {
+		AppointmentType appointmentType = service.getAppointmentType(1);
+		assertEquals(3, service.getTimeSlotsByConstraints(appointmentType, null, null, null).size());
+
+		TimeSlotGenerationJob job = service.generateTimeSlots(service.getAppointmentBlock(1), 60);
+		assertEquals(1, submitted.size());
+		assertEquals(Status.QUEUED, job.getStatus());
+		assertTrue(generator.isGenerating(1));
+		assertEquals(0, service.getTimeSlotsByConstraints(appointmentType, null, null, null).size());
+
+		assertTrue(service.cancelTimeSlotGeneration(job.getJobId()));
+		generator.generate(job);
+		assertEquals(Status.CANCELLED, service.getTimeSlotGenerationJob(job.getJobId()).getStatus());
+		assertFalse(generator.isGenerating(1));
+		assertEquals(3, service.getTimeSlotsByConstraints(appointmentType, null, null, null).size());
+	}
+
+	@Test(expected = APIException.class)
+	@Verifies(value = "should not generate a block twice at once", method = "submit(AppointmentBlock,int)")
+	public void submit_shouldNotGenerateABlockTwiceAtOnce() throws Exception {
+		AppointmentBlock appointmentBlock = saveAppointmentBlock(60);
+		TimeSlotGenerationJob job = service.generateTimeSlots(appointmentBlock, 15);
+		try {
+			service.generateTimeSlots(appointmentBlock, 30);
+		}
+		finally {
+			service.cancelTimeSlotGeneration(job.getJobId());
+			generator.generate(job);
+		}
+	}
+
+	private AppointmentBlock saveAppointmentBlock(int lengthInMinutes) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DATE, 1);
+		AppointmentBlock appointmentBlock = new AppointmentBlock();
+		appointmentBlock.setStartDate(calendar.getTime());
+		calendar.add(Calendar.MINUTE, lengthInMinutes);
+		appointmentBlock.setEndDate(calendar.getTime());
+		appointmentBlock.setProvider(Context.getProviderService().getProvider(1));
+		appointmentBlock.setLocation(Context.getLocationService().getLocation(1));
+		appointmentBlock.setTypes(new HashSet<AppointmentType>());
+		appointmentBlock.getTypes().add(service.getAppointmentType(1));
+		return service.saveAppointmentBlock(appointmentBlock);
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	@Verifies(value = "should place every value in a bucket whose bounds contain it", method = "record(long)")
+	public void record_shouldPlaceValuesInBucketsContainingThem() {
+		long[] values = { 0, 1, 7, 8, 9, 15, 16, 1000, 123456789, Long.MAX_VALUE };
+		for (long value : values) {
+			int index = LatencyHistogram.bucketIndex(value);
+			assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+			if (index > 0)
+				assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+		}
+	}
+
+	@Test
+	@Verifies(value = "should report percentiles within the bucket precision", method = "getPercentileNanos(double)")
+	public void getPercentileNanos_shouldReportPercentilesWithinBucketPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1000L);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000L, histogram.getMaxNanos());
+		assertEquals(500500L, histogram.getMeanNanos());
+		long median = histogram.getPercentileNanos(50);
+		assertTrue(median >= 500000L && median <= 500000L * 1.125);
+		long p99 = histogram.getPercentileNanos(99);
+		assertTrue(p99 >= 990000L && p99 <= 1000000L);
+	}
+
+	@Test
+	@Verifies(value = "should clear all recorded values", method = "reset()")
+	public void reset_shouldClearAllRecordedValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(42);
+		histogram.reset();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMaxNanos());
+		assertEquals(0, histogram.getPercentileNanos(99));
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link ModuleStatistics}.
+ */
+public class ModuleStatisticsTest extends BaseModuleContextSensitiveTest {
+
+	private ModuleStatistics moduleStatistics;
+
+	@Before
+	public void before() throws Exception {
+		executeDataSet("standardAppointmentTestDataset.xml");
+		moduleStatistics = Context.getRegisteredComponent("appointmentModuleStatistics", ModuleStatistics.class);
+		moduleStatistics.setHibernateStatisticsEnabled(true);
+		moduleStatistics.reset();
+	}
+
+	@After
+	public void after() {
+		moduleStatistics.setHibernateStatisticsEnabled(false);
+	}
+
+	@Test
+	@Verifies(value = "should count the loads of the module's entities only", method = "getSnapshot()")
+	public void getSnapshot_shouldCountTheLoadsOfTheModulesEntitiesOnly() throws Exception {
+		Context.clearSession();
+		assertNotNull(Context.getService(AppointmentService.class).getAppointment(1));
+
+		Map<String, Map<String, Map<String, Number>>> snapshot = moduleStatistics.getSnapshot();
+		Map<String, Map<String, Number>> entities = snapshot.get("entities");
+		assertTrue(entities.get("Appointment").get("loads").longValue() >= 1);
+		for (String entityName : entities.keySet())
+			assertFalse(entityName.contains("."));
+		assertEquals(1, snapshot.get("hibernate").get("sessionFactory").get("enabled").intValue());
+		assertNotNull(snapshot.get("caches").get("patientAppointments").get("hits"));
+		assertNotNull(snapshot.get("caches").get("availabilityCalendar").get("evictions"));
+		assertNotNull(snapshot.get("executors").get("timeSlotGenerator").get("queuedJobs"));
+	}
+
+	@Test
+	@Verifies(value = "should reset the hibernate counters", method = "reset()")
+	public void reset_shouldResetTheHibernateCounters() throws Exception {
+		Context.clearSession();
+		Context.getService(AppointmentService.class).getAppointment(1);
+		moduleStatistics.reset();
+
+		Map<String, Map<String, Number>> entities = moduleStatistics.getSnapshot().get("entities");
+		if (entities.containsKey("Appointment"))
+			assertEquals(0, entities.get("Appointment").get("loads").longValue());
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link PrometheusTextWriter}.
+ */
+public class PrometheusTextWriterTest {
+
+	@Test
+	@Verifies(value = "should write samples with escaped labels", method = "sample(String,String[],double)")
+	public void sample_shouldWriteSamplesWithEscapedLabels() throws Exception {
+		StringWriter out = new StringWriter();
+		PrometheusTextWriter writer = new PrometheusTextWriter(out);
+		writer.family("appointment_test_total", "counter", "A test counter.");
+		writer.sample("appointment_test_total", new String[] { "method", "get(\"a\\b\")" }, 3);
+		writer.sample("appointment_test_total", null, 0.5);
+
+		assertEquals("# HELP appointment_test_total A test counter.\n# TYPE appointment_test_total counter\n"
+		        + "appointment_test_total{method=\"get(\\\"a\\\\b\\\")\"} 3\n" + "appointment_test_total 0.5\n", out
+		        .toString());
+	}
+
+	@Test
+	@Verifies(value = "should write cumulative buckets ending with the count", method = "histogram(String,String[],LatencyHistogram)")
+	public void histogram_shouldWriteCumulativeBucketsEndingWithTheCount() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(500000L);
+		histogram.record(20000000L);
+		histogram.record(3000000000L);
+		StringWriter out = new StringWriter();
+		new PrometheusTextWriter(out).histogram("appointment_test_seconds", new String[] { "method", "m" }, histogram);
+		String text = out.toString();
+
+		assertTrue(text, text.contains("appointment_test_seconds_bucket{method=\"m\",le=\"0.001\"} 1\n"));
+		assertTrue(text, text.contains("appointment_test_seconds_bucket{method=\"m\",le=\"0.025\"} 2\n"));
+		assertTrue(text, text.contains("appointment_test_seconds_bucket{method=\"m\",le=\"2.5\"} 2\n"));
+		assertTrue(text, text.contains("appointment_test_seconds_bucket{method=\"m\",le=\"5\"} 3\n"));
+		assertTrue(text, text.contains("appointment_test_seconds_bucket{method=\"m\",le=\"+Inf\"} 3\n"));
+		assertTrue(text, text.contains("appointment_test_seconds_sum{method=\"m\"} 3.0205\n"));
+		assertTrue(text, text.contains("appointment_test_seconds_count{method=\"m\"} 3\n"));
+	}
+
+	@Test
+	@Verifies(value = "should write the booking counters", method = "write(PrometheusTextWriter)")
+	public void write_shouldWriteTheBookingCounters() throws Exception {
+		AppointmentMetrics metrics = new AppointmentMetrics();
+		metrics.recordBooking(true);
+		metrics.recordBooking(true);
+		metrics.recordBooking(false);
+		metrics.recordAvailabilitySearch(1000000L);
+		StringWriter out = new StringWriter();
+		metrics.write(new PrometheusTextWriter(out));
+		String text = out.toString();
+
+		assertTrue(text, text.contains("# TYPE appointment_bookings_total counter\n"));
+		assertTrue(text, text.contains("appointment_bookings_total{outcome=\"booked\"} 2\n"));
+		assertTrue(text, text.contains("appointment_bookings_total{outcome=\"rejected\"} 1\n"));
+		assertTrue(text, text.contains("appointment_availability_search_seconds_count 1\n"));
+	}
+}
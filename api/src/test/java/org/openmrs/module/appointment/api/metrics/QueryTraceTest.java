@@ -0,0 +1,51 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link QueryTrace}.
+ */
+public class QueryTraceTest {
+
+	@Test
+	@Verifies(value = "should group statements that only differ in parameter lists and whitespace", method = "statementPrepared(String)")
+	public void statementPrepared_shouldGroupStatementsByShape() {
+		QueryTrace trace = QueryTrace.start();
+		try {
+			assertSame(trace, QueryTrace.current());
+			trace.statementPrepared("select * from appointment where patient_id=?");
+			trace.statementPrepared("select *  from appointment\n where patient_id=?");
+			trace.statementPrepared("select * from appointment_time_slot where time_slot_id in (?, ?, ?)");
+			trace.statementPrepared("select * from appointment_time_slot where time_slot_id in (?)");
+		}
+		finally {
+			QueryTrace.stop();
+		}
+
+		assertNull(QueryTrace.current());
+		assertEquals(4, trace.getStatementCount());
+		assertEquals(2, trace.getDistinctShapeCount());
+		List<String> top = trace.getTopShapes(1);
+		assertEquals(1, top.size());
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link PatientNameKey}.
+ */
+public class PatientNameKeyTest {
+
+	@Test
+	@Verifies(value = "should ignore case punctuation spacing and word order", method = "valueOf(String)")
+	public void valueOf_shouldIgnoreCasePunctuationSpacingAndWordOrder() {
+		PatientNameKey key = PatientNameKey.valueOf("  Hornblower,  horatio ");
+		assertEquals(Arrays.asList("horatio", "hornblower"), key.getWords());
+		assertEquals(key, PatientNameKey.valueOf("HORATIO hornblower hornblower"));
+		assertEquals(Arrays.asList("101-6"), PatientNameKey.valueOf("101-6").getWords());
+		assertNull(PatientNameKey.valueOf(" ,. "));
+		assertNull(PatientNameKey.valueOf(null));
+	}
+}
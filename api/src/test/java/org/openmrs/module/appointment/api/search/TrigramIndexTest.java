@@ -0,0 +1,61 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link TrigramIndex}.
+ */
+public class TrigramIndexTest {
+
+	private TrigramIndex index;
+
+	@Before
+	public void before() {
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		names.put(1, "Initial HIV Clinic Appointment");
+		names.put(2, "Return TB Clinic Appointment");
+		names.put(3, "Clinical Review");
+		names.put(4, "Preclinical Screening");
+		names.put(5, "Hospitalization");
+		index = new TrigramIndex(names);
+	}
+
+	@Test
+	@Verifies(value = "should find the same names as a case insensitive substring search", method = "search(String)")
+	public void search_shouldFindTheSameNamesAsACaseInsensitiveSubstringSearch() {
+		assertEquals(Arrays.asList(1), index.search("hiv clinic"));
+		assertEquals(Arrays.asList(1, 2), index.search("Clinic Appointment"));
+		assertEquals(Arrays.asList(), index.search("ClinicAppointment"));
+		assertEquals(Arrays.asList(5), index.search("spit"));
+		assertEquals(5, index.search("").size());
+		assertEquals(5, index.search(null).size());
+	}
+
+	@Test
+	@Verifies(value = "should rank prefix matches before word matches before other matches", method = "search(String)")
+	public void search_shouldRankPrefixMatchesBeforeWordMatchesBeforeOtherMatches() {
+		assertEquals(Arrays.asList(3, 1, 2, 4), index.search("clinic"));
+		assertEquals(Arrays.asList(3, 1, 2, 4), index.search("CL"));
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.api.warmup;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.availability.AvailabilityCalendar;
+import org.openmrs.module.appointment.api.cache.PatientAppointmentCache;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link AppointmentWarmUp}.
+ */
+public class AppointmentWarmUpTest extends BaseModuleContextSensitiveTest {
+
+	private AppointmentService service;
+
+	private AppointmentWarmUp warmUp;
+
+	private AvailabilityCalendar availabilityCalendar;
+
+	private PatientAppointmentCache patientAppointmentCache;
+
+	@Before
+	public void before() throws Exception {
+		executeDataSet("standardAppointmentTestDataset.xml");
+		service = Context.getService(AppointmentService.class);
+		warmUp = Context.getRegisteredComponent("appointmentWarmUp", AppointmentWarmUp.class);
+		availabilityCalendar = Context.getRegisteredComponent("appointmentAvailabilityCalendar",
+		    AvailabilityCalendar.class);
+		patientAppointmentCache = Context.getRegisteredComponent("appointmentPatientAppointmentCache",
+		    PatientAppointmentCache.class);
+	}
+
+	@Test
+	@Verifies(value = "should time every step and prime the availability of the providers of the next days", method = "warmUp()")
+	public void warmUp_shouldTimeEveryStepAndPrimeTheAvailabilityOfTheProvidersOfTheNextDays() throws Exception {
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		calendar.set(Calendar.HOUR_OF_DAY, 9);
+		calendar.set(Calendar.MINUTE, 0);
+		Date startDate = calendar.getTime();
+		calendar.add(Calendar.HOUR_OF_DAY, 1);
+		Date endDate = calendar.getTime();
+		AppointmentBlock appointmentBlock = service.saveAppointmentBlock(new AppointmentBlock(startDate, endDate, Context
+		        .getProviderService().getProvider(1), Context.getLocationService().getLocation(1),
+		        new HashSet<AppointmentType>(Collections.singleton(service.getAppointmentType(1)))));
+		service.saveTimeSlot(new TimeSlot(appointmentBlock, startDate, endDate));
+		availabilityCalendar.clear();
+		patientAppointmentCache.clear();
+
+		warmUp.warmUp();
+
+		assertEquals(Arrays.asList("appointmentTypes", "optionLists", "queries", "availability"), Arrays.asList(warmUp
+		        .getTimings().keySet().toArray()));
+		//The 7 days of provider 1.
+		assertEquals(7, availabilityCalendar.getSize());
+		long hits = availabilityCalendar.getHits();
+		availabilityCalendar.getFreeTime(1, null, startDate);
+		assertEquals(hits + 1, availabilityCalendar.getHits());
+		//The queries of the patient summaries are warmed up without caching a summary.
+		assertEquals(0, patientAppointmentCache.getSize());
+	}
+}
@@ -0,0 +1,671 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Fills a database with a synthetic but realistic appointment history, straight through JDBC with
+ * multi-row inserts so production volumes can be generated in minutes. The output only depends on
+ * the seed and the settings: the same settings always produce the same rows, apart from the ids
+ * which continue after the ids already in the target tables.
+ * <p>
+ * The generated data consists of locations, providers, patients (with their persons and names), appointment
+ * types and, for every provider and working day, one appointment block cut into time slots. Part of
+ * the slots are booked, with a status and status history depending on whether the slot lies before
+ * or after the configured "today". Patients are picked with a power law, so a few patients have
+ * many appointments and many have few or none, as in a real clinic.
+ * <p>
+ * The target must already contain the OpenMRS and appointment module schema and the creator user.
+ * The defaults produce about 20 million time slots and 10 million appointments; tests should scale
+ * them down with the setters.
+ */
+public class DatasetGenerator {
+
+	public static final String LOCATION = "location";
+
+	public static final String PERSON = "person";
+
+	public static final String PERSON_NAME = "person_name";
+
+	public static final String PATIENT = "patient";
+
+	public static final String PROVIDER = "provider";
+
+	public static final String APPOINTMENT_TYPE = "appointment_type";
+
+	public static final String APPOINTMENT_BLOCK = "appointment_block";
+
+	public static final String BLOCK_TYPE_MAP = "appointment_block_type_map";
+
+	public static final String TIME_SLOT = "appointment_time_slot";
+
+	public static final String APPOINTMENT = "appointment";
+
+	public static final String STATUS_HISTORY = "appointment_status_history";
+
+	private static final int[] TYPE_DURATIONS = { 10, 15, 20, 30, 45, 60 };
+
+	private static final String[] GIVEN_NAMES = { "Amina", "Brian", "Chidi", "Daniel", "Esther", "Faith", "Grace",
+	        "Hassan", "Irene", "James", "Joseph", "Kofi", "Lucy", "Mary", "Moses", "Naledi", "Otieno", "Peter",
+	        "Rose", "Samuel", "Sarah", "Thabo", "Wanjiru", "Yonas", "Zawadi" };
+
+	private static final String[] FAMILY_NAMES = { "Abebe", "Achieng", "Banda", "Chukwu", "Dlamini", "Haile",
+	        "Kamau", "Kariuki", "Kiplagat", "Mensah", "Mohamed", "Moyo", "Mutua", "Mwangi", "Ndlovu", "Njoroge",
+	        "Nkosi", "Ochieng", "Odhiambo", "Okafor", "Omondi", "Owusu", "Phiri", "Tesfaye", "Wanjala" };
+
+	private long seed = 1;
+
+	private int locations = 50;
+
+	private int providers = 500;
+
+	private int patients = 500000;
+
+	private int appointmentTypes = 20;
+
+	private Date startDate = getDate(2012, Calendar.JANUARY, 2);
+
+	private int days = 5 * 365;
+
+	private Date today;
+
+	private int blockHours = 8;
+
+	private int slotMinutes = 15;
+
+	private double workingDayRate = 0.9;
+
+	private double bookingRate = 0.5;
+
+	private double patientSkew = 3;
+
+	private double voidedRate = 0.01;
+
+	private int creatorId = 1;
+
+	private int rowsPerStatement = 500;
+
+	private int rowsPerCommit = 50000;
+
+	/**
+	 * Command line entry point: DatasetGenerator jdbcUrl username password [seed [scale]], where
+	 * scale multiplies the number of providers and patients (default 1).
+	 */
+	public static void main(String[] args) throws SQLException {
+		if (args.length < 3) {
+			System.err.println("Usage: DatasetGenerator jdbcUrl username password [seed [scale]]");
+			System.exit(2);
+		}
+		DatasetGenerator generator = new DatasetGenerator();
+		if (args.length > 3)
+			generator.setSeed(Long.parseLong(args[3]));
+		if (args.length > 4) {
+			double scale = Double.parseDouble(args[4]);
+			generator.setProviders(Math.max(1, (int) (generator.getProviders() * scale)));
+			generator.setPatients(Math.max(1, (int) (generator.getPatients() * scale)));
+		}
+		Connection connection = DriverManager.getConnection(args[0], args[1], args[2]);
+		try {
+			System.out.println(generator.generate(connection));
+		}
+		finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Generates the dataset into the given connection. A connection in auto commit mode is committed
+	 * every {@link #getRowsPerCommit()} rows and at the end. Otherwise the rows are written in the
+	 * transaction of the caller, who decides whether to commit them, as tests do.
+	 *
+	 * @param connection the target.
+	 * @return the id ranges and row counts of the generated data.
+	 */
+	public Summary generate(Connection connection) throws SQLException {
+		long start = System.currentTimeMillis();
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		RowWriter writer = new RowWriter(connection, autoCommit);
+		try {
+			Summary summary = new Summary();
+			for (String table : new String[] { LOCATION, PERSON, PERSON_NAME, APPOINTMENT_TYPE, APPOINTMENT_BLOCK,
+			        TIME_SLOT, APPOINTMENT, STATUS_HISTORY })
+				summary.firstIds.put(table, nextId(connection, table));
+			summary.firstIds.put(PROVIDER, nextId(connection, PROVIDER));
+			summary.firstIds.put(PATIENT, summary.getFirstId(PERSON) + providers);
+
+			Random random = new Random(seed);
+			generateReferenceData(writer, summary, random);
+			generateSchedule(writer, summary, random);
+
+			writer.flushAll();
+			if (autoCommit)
+				connection.commit();
+			summary.rows.putAll(writer.counts);
+			summary.millis = System.currentTimeMillis() - start;
+			return summary;
+		}
+		catch (SQLException e) {
+			if (autoCommit)
+				connection.rollback();
+			throw e;
+		}
+		finally {
+			writer.close();
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	private void generateReferenceData(RowWriter writer, Summary summary, Random random) throws SQLException {
+		Timestamp created = new Timestamp(addDays(startDate, -30).getTime());
+
+		int locationId = summary.getFirstId(LOCATION);
+		for (int i = 0; i < locations; i++, locationId++)
+			writer.insert(LOCATION, locationId, "Generated Location " + seed + "-" + i, creatorId, created, false, uuid(
+			    LOCATION, locationId));
+
+		//Names come from their own generator so they do not shift the rest of the data.
+		Random names = new Random(seed + 1);
+		int personId = summary.getFirstId(PERSON);
+		int personNameId = summary.getFirstId(PERSON_NAME);
+		for (int i = 0; i < providers + patients; i++, personId++, personNameId++) {
+			Timestamp birthdate = new Timestamp(getDate(1930 + random.nextInt(85), random.nextInt(12),
+			    1 + random.nextInt(28)).getTime());
+			writer.insert(PERSON, personId, random.nextBoolean() ? "M" : "F", birthdate, false, false, creatorId,
+			    created, false, uuid(PERSON, personId));
+			writer.insert(PERSON_NAME, personNameId, true, personId, GIVEN_NAMES[names.nextInt(GIVEN_NAMES.length)],
+			    FAMILY_NAMES[names.nextInt(FAMILY_NAMES.length)], creatorId, created, false, uuid(PERSON_NAME,
+			        personNameId));
+			if (i >= providers)
+				writer.insert(PATIENT, personId, creatorId, created, false);
+		}
+
+		int providerId = summary.getFirstId(PROVIDER);
+		for (int i = 0; i < providers; i++, providerId++)
+			writer.insert(PROVIDER, providerId, summary.getFirstId(PERSON) + i, "GEN-" + seed + "-" + i, creatorId,
+			    created, false, uuid(PROVIDER, providerId));
+
+		int typeId = summary.getFirstId(APPOINTMENT_TYPE);
+		for (int i = 0; i < appointmentTypes; i++, typeId++)
+			writer.insert(APPOINTMENT_TYPE, typeId, "Generated Type " + seed + "-" + i, "Generated appointment type",
+			    TYPE_DURATIONS[random.nextInt(TYPE_DURATIONS.length)], creatorId, created, false, uuid(APPOINTMENT_TYPE,
+			        typeId));
+	}
+
+	private void generateSchedule(RowWriter writer, Summary summary, Random random) throws SQLException {
+		Date todayDate = today != null ? today : addDays(startDate, days * 4 / 5);
+		int slotsPerBlock = blockHours * 60 / slotMinutes;
+		int blockId = summary.getFirstId(APPOINTMENT_BLOCK);
+		int slotId = summary.getFirstId(TIME_SLOT);
+		int appointmentId = summary.getFirstId(APPOINTMENT);
+		int historyId = summary.getFirstId(STATUS_HISTORY);
+
+		//Every provider works at a home location and offers a few appointment types.
+		int[] homeLocations = new int[providers];
+		int[][] providerTypes = new int[providers][];
+		for (int p = 0; p < providers; p++) {
+			homeLocations[p] = summary.getFirstId(LOCATION) + random.nextInt(locations);
+			providerTypes[p] = new int[1 + random.nextInt(Math.min(3, appointmentTypes))];
+			for (int t = 0; t < providerTypes[p].length; t++)
+				providerTypes[p][t] = summary.getFirstId(APPOINTMENT_TYPE) + random.nextInt(appointmentTypes);
+		}
+
+		Calendar cal = Calendar.getInstance();
+		for (int day = 0; day < days; day++) {
+			Date dayStart = addDays(startDate, day);
+			cal.setTime(dayStart);
+			int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
+			if (dayOfWeek == Calendar.SATURDAY || dayOfWeek == Calendar.SUNDAY)
+				continue;
+			boolean past = dayStart.before(todayDate);
+
+			for (int p = 0; p < providers; p++) {
+				if (random.nextDouble() >= workingDayRate)
+					continue;
+				Timestamp blockStart = new Timestamp(dayStart.getTime() + 8 * 3600000L);
+				Timestamp blockEnd = new Timestamp(blockStart.getTime() + blockHours * 3600000L);
+				Timestamp blockCreated = new Timestamp(addDays(dayStart, -14 - random.nextInt(60)).getTime());
+				boolean blockVoided = random.nextDouble() < voidedRate;
+				writer.insert(APPOINTMENT_BLOCK, blockId, homeLocations[p], summary.getFirstId(PROVIDER) + p, blockStart,
+				    blockEnd, uuid(APPOINTMENT_BLOCK, blockId), creatorId, blockCreated, blockVoided,
+				    blockVoided ? blockCreated : null, blockVoided ? "Generated" : null);
+				int[] types = providerTypes[p];
+				for (int t = 0; t < types.length; t++) {
+					//The same type may have been drawn twice for a provider.
+					if (indexOf(types, types[t]) == t)
+						writer.insert(BLOCK_TYPE_MAP, types[t], blockId);
+				}
+
+				for (int s = 0; s < slotsPerBlock; s++, slotId++) {
+					Timestamp slotStart = new Timestamp(blockStart.getTime() + s * slotMinutes * 60000L);
+					Timestamp slotEnd = new Timestamp(slotStart.getTime() + slotMinutes * 60000L);
+					writer.insert(TIME_SLOT, slotId, blockId, slotStart, slotEnd, uuid(TIME_SLOT, slotId), creatorId,
+					    blockCreated, blockVoided, blockVoided ? blockCreated : null, blockVoided ? "Generated" : null);
+					if (random.nextDouble() >= bookingRate)
+						continue;
+
+					String[] statuses = pickStatuses(random, past);
+					int patientId = summary.getFirstId(PATIENT) + (int) (patients * Math.pow(random.nextDouble(), patientSkew));
+					Timestamp booked = new Timestamp(Math.max(blockCreated.getTime(), addDays(slotStart, -1 - random.nextInt(60))
+					        .getTime()));
+					boolean voided = blockVoided || random.nextDouble() < voidedRate;
+					writer.insert(APPOINTMENT, appointmentId, slotId, patientId, types[random.nextInt(types.length)],
+					    statuses[0], uuid(APPOINTMENT, appointmentId), creatorId, booked, voided, voided ? booked : null,
+					    voided ? "Generated" : null);
+					//The history entries after the booking follow each other in ten minute steps from the slot start.
+					for (int h = 1; h < statuses.length; h++, historyId++) {
+						Timestamp historyStart = h == 1 ? booked : new Timestamp(slotStart.getTime() + (h - 2) * 600000L);
+						Timestamp historyEnd = h == statuses.length - 1 ? slotEnd : new Timestamp(slotStart.getTime()
+						        + (h - 1) * 600000L);
+						writer.insert(STATUS_HISTORY, historyId, appointmentId, statuses[h], historyStart, historyEnd);
+					}
+					appointmentId++;
+				}
+				blockId++;
+			}
+		}
+	}
+
+	/**
+	 * Picks the current status of an appointment followed by its status history.
+	 */
+	private static String[] pickStatuses(Random random, boolean past) {
+		double r = random.nextDouble();
+		if (past) {
+			if (r < 0.75)
+				return new String[] { "FINISHED", "Scheduled", "Waiting", "In-Consultation" };
+			if (r < 0.9)
+				return new String[] { "MISSED", "Scheduled", "Missed" };
+			return new String[] { "CANCELLED", "Scheduled", "Cancelled" };
+		}
+		if (r < 0.9)
+			return new String[] { "SCHEDULED", "Scheduled" };
+		return new String[] { "CANCELLED", "Scheduled", "Cancelled" };
+	}
+
+	private static int indexOf(int[] values, int value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == value)
+				return i;
+		}
+		return -1;
+	}
+
+	private String uuid(String table, int id) {
+		return UUID.nameUUIDFromBytes((seed + "/" + table + "/" + id).getBytes()).toString();
+	}
+
+	private static int nextId(Connection connection, String table) throws SQLException {
+		String idColumn = table.equals(TIME_SLOT) ? "time_slot_id" : table + "_id";
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("select max(" + idColumn + ") from " + table);
+			rs.next();
+			return rs.getInt(1) + 1;
+		}
+		finally {
+			statement.close();
+		}
+	}
+
+	private static Date addDays(Date date, int days) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(date);
+		cal.add(Calendar.DATE, days);
+		return cal.getTime();
+	}
+
+	private static Date getDate(int year, int month, int day) {
+		Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(year, month, day);
+		return cal.getTime();
+	}
+
+	/**
+	 * Buffers the rows of every table and writes them with multi-row inserts. Tables are flushed in
+	 * the order they were declared, so rows are always written after the rows they reference.
+	 */
+	private class RowWriter {
+
+		private final Connection connection;
+
+		private final boolean commit;
+
+		private final List<Table> tables = new ArrayList<Table>();
+
+		private final Map<String, Table> tablesByName = new HashMap<String, Table>();
+
+		private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+		private int uncommittedRows;
+
+		RowWriter(Connection connection, boolean commit) {
+			this.connection = connection;
+			this.commit = commit;
+			declare(LOCATION, "location_id", "name", "creator", "date_created", "retired", "uuid");
+			declare(PERSON, "person_id", "gender", "birthdate", "birthdate_estimated", "dead", "creator",
+			    "date_created", "voided", "uuid");
+			declare(PERSON_NAME, "person_name_id", "preferred", "person_id", "given_name", "family_name", "creator",
+			    "date_created", "voided", "uuid");
+			declare(PATIENT, "patient_id", "creator", "date_created", "voided");
+			declare(PROVIDER, "provider_id", "person_id", "identifier", "creator", "date_created", "retired", "uuid");
+			declare(APPOINTMENT_TYPE, "appointment_type_id", "name", "description", "duration", "creator",
+			    "date_created", "retired", "uuid");
+			declare(APPOINTMENT_BLOCK, "appointment_block_id", "location_id", "provider_id", "start_date", "end_date",
+			    "uuid", "creator", "date_created", "voided", "date_voided", "void_reason");
+			declare(BLOCK_TYPE_MAP, "appointment_type_id", "appointment_block_id");
+			declare(TIME_SLOT, "time_slot_id", "appointment_block_id", "start_date", "end_date", "uuid", "creator",
+			    "date_created", "voided", "date_voided", "void_reason");
+			declare(APPOINTMENT, "appointment_id", "time_slot_id", "patient_id", "appointment_type_id", "status",
+			    "uuid", "creator", "date_created", "voided", "date_voided", "void_reason");
+			declare(STATUS_HISTORY, "appointment_status_history_id", "appointment_id", "status", "start_date",
+			    "end_date");
+		}
+
+		private void declare(String name, String... columns) {
+			Table table = new Table(name, columns);
+			tables.add(table);
+			tablesByName.put(name, table);
+			counts.put(name, 0);
+		}
+
+		void insert(String name, Object... values) throws SQLException {
+			Table table = tablesByName.get(name);
+			table.rows.add(values);
+			counts.put(name, counts.get(name) + 1);
+			if (table.rows.size() >= rowsPerStatement)
+				flushUpTo(table);
+		}
+
+		private void flushUpTo(Table last) throws SQLException {
+			for (Table table : tables) {
+				uncommittedRows += table.flush(connection);
+				if (table == last)
+					break;
+			}
+			if (commit && uncommittedRows >= rowsPerCommit) {
+				flushAll();
+				connection.commit();
+				uncommittedRows = 0;
+			}
+		}
+
+		void flushAll() throws SQLException {
+			for (Table table : tables)
+				uncommittedRows += table.flush(connection);
+		}
+
+		void close() throws SQLException {
+			for (Table table : tables)
+				table.close();
+		}
+	}
+
+	private class Table {
+
+		private final String name;
+
+		private final String[] columns;
+
+		private final List<Object[]> rows = new ArrayList<Object[]>();
+
+		private PreparedStatement fullStatement;
+
+		Table(String name, String[] columns) {
+			this.name = name;
+			this.columns = columns;
+		}
+
+		int flush(Connection connection) throws SQLException {
+			int count = rows.size();
+			if (count == 0)
+				return 0;
+			PreparedStatement statement;
+			if (count == rowsPerStatement) {
+				if (fullStatement == null)
+					fullStatement = connection.prepareStatement(getSql(count));
+				statement = fullStatement;
+			} else {
+				statement = connection.prepareStatement(getSql(count));
+			}
+			try {
+				int index = 1;
+				for (Object[] row : rows) {
+					for (Object value : row)
+						statement.setObject(index++, value);
+				}
+				statement.executeUpdate();
+			}
+			finally {
+				if (statement != fullStatement)
+					statement.close();
+			}
+			rows.clear();
+			return count;
+		}
+
+		private String getSql(int rowCount) {
+			StringBuilder row = new StringBuilder("(");
+			for (int i = 0; i < columns.length; i++)
+				row.append(i == 0 ? "?" : ", ?");
+			row.append(')');
+			StringBuilder sql = new StringBuilder("insert into ").append(name).append(" (");
+			for (int i = 0; i < columns.length; i++)
+				sql.append(i == 0 ? "" : ", ").append(columns[i]);
+			sql.append(") values ");
+			for (int i = 0; i < rowCount; i++)
+				sql.append(i == 0 ? "" : ", ").append(row);
+			return sql.toString();
+		}
+
+		void close() throws SQLException {
+			if (fullStatement != null)
+				fullStatement.close();
+		}
+	}
+
+	/**
+	 * The ids and row counts of a generated dataset. Ids of a table are consecutive, starting at
+	 * {@link #getFirstId(String)}.
+	 */
+	public static class Summary {
+
+		private final Map<String, Integer> firstIds = new HashMap<String, Integer>();
+
+		private final Map<String, Integer> rows = new HashMap<String, Integer>();
+
+		private long millis;
+
+		public int getFirstId(String table) {
+			return firstIds.get(table);
+		}
+
+		public int getCount(String table) {
+			Integer count = rows.get(table);
+			return count == null ? 0 : count;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("Generated in ").append(millis).append(" ms:");
+			for (Map.Entry<String, Integer> entry : rows.entrySet())
+				sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+			return sb.toString();
+		}
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public int getLocations() {
+		return locations;
+	}
+
+	public void setLocations(int locations) {
+		this.locations = locations;
+	}
+
+	public int getProviders() {
+		return providers;
+	}
+
+	public void setProviders(int providers) {
+		this.providers = providers;
+	}
+
+	public int getPatients() {
+		return patients;
+	}
+
+	public void setPatients(int patients) {
+		this.patients = patients;
+	}
+
+	public int getAppointmentTypes() {
+		return appointmentTypes;
+	}
+
+	public void setAppointmentTypes(int appointmentTypes) {
+		this.appointmentTypes = appointmentTypes;
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+
+	public int getDays() {
+		return days;
+	}
+
+	public void setDays(int days) {
+		this.days = days;
+	}
+
+	public Date getToday() {
+		return today;
+	}
+
+	/**
+	 * @param today the date separating the past appointments from the scheduled ones, defaults to
+	 *            four fifths of the generated period.
+	 */
+	public void setToday(Date today) {
+		this.today = today;
+	}
+
+	public int getBlockHours() {
+		return blockHours;
+	}
+
+	public void setBlockHours(int blockHours) {
+		this.blockHours = blockHours;
+	}
+
+	public int getSlotMinutes() {
+		return slotMinutes;
+	}
+
+	public void setSlotMinutes(int slotMinutes) {
+		this.slotMinutes = slotMinutes;
+	}
+
+	public double getWorkingDayRate() {
+		return workingDayRate;
+	}
+
+	public void setWorkingDayRate(double workingDayRate) {
+		this.workingDayRate = workingDayRate;
+	}
+
+	public double getBookingRate() {
+		return bookingRate;
+	}
+
+	public void setBookingRate(double bookingRate) {
+		this.bookingRate = bookingRate;
+	}
+
+	public double getPatientSkew() {
+		return patientSkew;
+	}
+
+	/**
+	 * @param patientSkew exponent of the patient distribution, 1 is uniform and higher values
+	 *            concentrate the appointments on fewer patients.
+	 */
+	public void setPatientSkew(double patientSkew) {
+		this.patientSkew = patientSkew;
+	}
+
+	public double getVoidedRate() {
+		return voidedRate;
+	}
+
+	public void setVoidedRate(double voidedRate) {
+		this.voidedRate = voidedRate;
+	}
+
+	public int getCreatorId() {
+		return creatorId;
+	}
+
+	public void setCreatorId(int creatorId) {
+		this.creatorId = creatorId;
+	}
+
+	public int getRowsPerStatement() {
+		return rowsPerStatement;
+	}
+
+	public void setRowsPerStatement(int rowsPerStatement) {
+		this.rowsPerStatement = rowsPerStatement;
+	}
+
+	public int getRowsPerCommit() {
+		return rowsPerCommit;
+	}
+
+	public void setRowsPerCommit(int rowsPerCommit) {
+		this.rowsPerCommit = rowsPerCommit;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.test.DatasetGenerator.Summary;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests {@link DatasetGenerator}.
+ */
+public class DatasetGeneratorTest extends BaseModuleContextSensitiveTest {
+
+	private DatasetGenerator generator;
+
+	@Before
+	public void before() throws Exception {
+		executeDataSet("standardAppointmentTestDataset.xml");
+		generator = new DatasetGenerator();
+		generator.setSeed(7);
+		generator.setLocations(2);
+		generator.setProviders(3);
+		generator.setPatients(20);
+		generator.setAppointmentTypes(3);
+		generator.setDays(14);
+		generator.setRowsPerStatement(50);
+	}
+
+	@Test
+	@Verifies(value = "should generate rows the service can read", method = "generate(Connection)")
+	public void generate_shouldGenerateRowsTheServiceCanRead() throws Exception {
+		Summary summary = generator.generate(getConnection());
+
+		assertEquals(3, summary.getCount(DatasetGenerator.PROVIDER));
+		assertEquals(23, summary.getCount(DatasetGenerator.PERSON));
+		assertEquals(23, summary.getCount(DatasetGenerator.PERSON_NAME));
+		assertEquals(summary.getCount(DatasetGenerator.APPOINTMENT_BLOCK) * 32, summary
+		        .getCount(DatasetGenerator.TIME_SLOT));
+		assertTrue(summary.getCount(DatasetGenerator.APPOINTMENT) > 0);
+		assertTrue(summary.getCount(DatasetGenerator.STATUS_HISTORY) >= summary.getCount(DatasetGenerator.APPOINTMENT));
+
+		Appointment appointment = Context.getService(AppointmentService.class).getAppointment(
+		    summary.getFirstId(DatasetGenerator.APPOINTMENT));
+		assertNotNull(appointment);
+		assertNotNull(appointment.getTimeSlot().getAppointmentBlock().getProvider());
+		assertNotNull(appointment.getPatient());
+	}
+
+	@Test
+	@Verifies(value = "should generate the same rows for the same seed", method = "generate(Connection)")
+	public void generate_shouldGenerateTheSameRowsForTheSameSeed() throws Exception {
+		Summary first = generator.generate(getConnection());
+		Summary second = generator.generate(getConnection());
+
+		assertEquals(first.getCount(DatasetGenerator.APPOINTMENT), second.getCount(DatasetGenerator.APPOINTMENT));
+		assertEquals(getAppointmentRows(first), getAppointmentRows(second));
+	}
+
+	/**
+	 * @return the generated appointments, with their ids made relative to the first generated ids.
+	 */
+	private List<String> getAppointmentRows(Summary summary) throws Exception {
+		PreparedStatement statement = getConnection().prepareStatement(
+		    "select time_slot_id, patient_id, appointment_type_id, status, voided from appointment"
+		            + " where appointment_id >= ? and appointment_id < ? order by appointment_id");
+		try {
+			int firstId = summary.getFirstId(DatasetGenerator.APPOINTMENT);
+			statement.setInt(1, firstId);
+			statement.setInt(2, firstId + summary.getCount(DatasetGenerator.APPOINTMENT));
+			ResultSet rs = statement.executeQuery();
+			List<String> rows = new ArrayList<String>();
+			while (rs.next()) {
+				rows.add((rs.getInt(1) - summary.getFirstId(DatasetGenerator.TIME_SLOT)) + ","
+				        + (rs.getInt(2) - summary.getFirstId(DatasetGenerator.PATIENT)) + ","
+				        + (rs.getInt(3) - summary.getFirstId(DatasetGenerator.APPOINTMENT_TYPE)) + "," + rs.getString(4)
+				        + "," + rs.getBoolean(5));
+			}
+			return rows;
+		}
+		finally {
+			statement.close();
+		}
+	}
+}
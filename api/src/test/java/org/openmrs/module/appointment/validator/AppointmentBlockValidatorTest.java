@@ -0,0 +1,69 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.validator;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.test.Verifies;
+import org.springframework.validation.BindException;
+import org.springframework.validation.Errors;
+
+/**
+ * Tests {@link AppointmentBlockValidator}.
+ */
+public class AppointmentBlockValidatorTest extends BaseModuleContextSensitiveTest {
+
+	@Before
+	public void before() throws Exception {
+		executeDataSet("standardAppointmentTestDataset.xml");
+	}
+
+	@Test
+	@Verifies(value = "should fail validation if the provider has an overlapping block", method = "validate(Object,Errors)")
+	public void validate_shouldFailValidationIfTheProviderHasAnOverlappingBlock() throws Exception {
+		//Block 1 runs from 2005-01-01 00:00 to 11:00.
+		AppointmentBlock appointmentBlock = newAppointmentBlock("2004-12-31 22:00", "2005-01-01 01:00");
+		Errors errors = new BindException(appointmentBlock, "appointmentBlock");
+		new AppointmentBlockValidator().validate(appointmentBlock, errors);
+		assertTrue(errors.hasFieldErrors("provider"));
+
+		appointmentBlock = newAppointmentBlock("2005-01-01 11:00", "2005-01-01 12:00");
+		errors = new BindException(appointmentBlock, "appointmentBlock");
+		new AppointmentBlockValidator().validate(appointmentBlock, errors);
+		assertFalse(errors.hasErrors());
+	}
+
+	/**
+	 * @return a new block of provider 1 at location 1 offering appointment type 1.
+	 */
+	private AppointmentBlock newAppointmentBlock(String startDate, String endDate) throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		Set<AppointmentType> types = new HashSet<AppointmentType>();
+		types.add(Context.getService(AppointmentService.class).getAppointmentType(1));
+		return new AppointmentBlock(format.parse(startDate), format.parse(endDate), Context.getProviderService()
+		        .getProvider(1), Context.getLocationService().getLocation(1), types);
+	}
+}
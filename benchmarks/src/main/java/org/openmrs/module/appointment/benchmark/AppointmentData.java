@@ -0,0 +1,164 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.benchmark;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.test.DatasetGenerator;
+import org.openmrs.module.appointment.test.DatasetGenerator.Summary;
+
+/**
+ * The data the benchmarks run against, written by the {@link DatasetGenerator} of the api tests:
+ * one appointment block per provider and working day, cut into 15 minute slots of which about half
+ * are booked. The number of days is the benchmark parameter that scales the tables.
+ */
+@State(Scope.Benchmark)
+public class AppointmentData {
+
+	public static final int BLOCK_HOURS = 8;
+
+	public static final int SLOT_MINUTES = 15;
+
+	public static final String STATUS_HISTORY = "Missed";
+
+	/**
+	 * How many patients the benchmarks pick from, the generator skews the appointments towards the
+	 * first ones.
+	 */
+	private static final int SAMPLED_PATIENTS = 200;
+
+	@Param( { "30", "365" })
+	public int days;
+
+	@Param( { "20" })
+	public int providers;
+
+	private Date firstDay;
+
+	private List<Integer> providerIds = new ArrayList<Integer>();
+
+	private List<Integer> patientIds = new ArrayList<Integer>();
+
+	private Integer locationId;
+
+	private Integer appointmentTypeId;
+
+	@Setup
+	public void setUp() throws Exception {
+		BenchmarkContext.start();
+
+		DatasetGenerator generator = new DatasetGenerator();
+		generator.setSeed(42);
+		generator.setDays(days);
+		generator.setProviders(providers);
+		generator.setLocations(Math.max(1, providers / 4));
+		generator.setPatients(providers * 250);
+		generator.setAppointmentTypes(5);
+		generator.setBlockHours(BLOCK_HOURS);
+		generator.setSlotMinutes(SLOT_MINUTES);
+		Summary summary;
+		Connection connection = BenchmarkContext.getConnection();
+		try {
+			summary = generator.generate(connection);
+		}
+		finally {
+			connection.close();
+		}
+		System.out.println(summary);
+
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(generator.getStartDate());
+		cal.add(Calendar.HOUR_OF_DAY, 8);
+		firstDay = cal.getTime();
+		for (int i = 0; i < providers; i++)
+			providerIds.add(summary.getFirstId(DatasetGenerator.PROVIDER) + i);
+		for (int i = 0; i < Math.min(SAMPLED_PATIENTS, generator.getPatients()); i++)
+			patientIds.add(summary.getFirstId(DatasetGenerator.PATIENT) + i);
+		locationId = summary.getFirstId(DatasetGenerator.LOCATION);
+		appointmentTypeId = summary.getFirstId(DatasetGenerator.APPOINTMENT_TYPE);
+	}
+
+	/**
+	 * Cuts an appointment block into time slots the way the appointment block form does.
+	 *
+	 * @param block the block to cut.
+	 * @return the unsaved time slots.
+	 */
+	public static List<TimeSlot> createTimeSlots(AppointmentBlock block) {
+		List<TimeSlot> timeSlots = new ArrayList<TimeSlot>();
+		long minutes = (block.getEndDate().getTime() - block.getStartDate().getTime()) / 60000;
+		Date startDate = block.getStartDate();
+		for (int i = 0; i < minutes / SLOT_MINUTES; i++) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTime(startDate);
+			cal.add(Calendar.MINUTE, SLOT_MINUTES);
+			Date endDate = cal.getTime();
+			timeSlots.add(new TimeSlot(block, startDate, endDate));
+			startDate = endDate;
+		}
+		return timeSlots;
+	}
+
+	/**
+	 * @param day the number of days after the first seeded day, may be past the seeded range.
+	 * @return the start of the working day.
+	 */
+	public Date getDay(int day) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(firstDay);
+		cal.add(Calendar.DATE, day);
+		return cal.getTime();
+	}
+
+	/**
+	 * @return the start of a random seeded day.
+	 */
+	public Date getRandomDay(Random random) {
+		return getDay(random.nextInt(days));
+	}
+
+	public static Date getBlockEnd(Date day) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(day);
+		cal.add(Calendar.HOUR_OF_DAY, BLOCK_HOURS);
+		return cal.getTime();
+	}
+
+	public List<Integer> getProviderIds() {
+		return providerIds;
+	}
+
+	public List<Integer> getPatientIds() {
+		return patientIds;
+	}
+
+	public Integer getLocationId() {
+		return locationId;
+	}
+
+	public Integer getAppointmentTypeId() {
+		return appointmentTypeId;
+	}
+}
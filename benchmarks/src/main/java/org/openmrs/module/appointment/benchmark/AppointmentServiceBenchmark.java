@@ -0,0 +1,208 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.benchmark;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentBlock;
+import org.openmrs.module.appointment.AppointmentStatusHistory;
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentSearchCriteria;
+import org.openmrs.module.appointment.api.AppointmentSearchResult;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Benchmarks of the AppointmentService calls behind the module's busiest pages. Every invocation
+ * starts from an empty Hibernate session, so the numbers include the SQL and the hydration of the
+ * results rather than first level cache hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class AppointmentServiceBenchmark {
+
+	/**
+	 * Type-ahead queries, starts of the given and family names written by the dataset generator.
+	 */
+	private static final String[] PATIENT_QUERIES = { "am", "jo", "sa", "mar", "kam", "ochi", "wanj", "dlam" };
+
+	/**
+	 * The rows of one page of search results.
+	 */
+	private static final int SEARCH_PAGE_SIZE = 20;
+
+	/**
+	 * The OpenMRS session of a benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class ServiceSession {
+
+		AppointmentService service;
+
+		TransactionTemplate transactionTemplate;
+
+		Random random = new Random(42);
+
+		AppointmentType appointmentType;
+
+		Location location;
+
+		Provider[] providers;
+
+		Patient[] patients;
+
+		@Setup(Level.Trial)
+		public void open(AppointmentData data) {
+			BenchmarkContext.openSession();
+			service = Context.getService(AppointmentService.class);
+			transactionTemplate = BenchmarkContext.getTransactionTemplate();
+			appointmentType = service.getAppointmentType(data.getAppointmentTypeId());
+			location = Context.getLocationService().getLocation(data.getLocationId());
+			providers = new Provider[data.getProviderIds().size()];
+			for (int i = 0; i < providers.length; i++)
+				providers[i] = Context.getProviderService().getProvider(data.getProviderIds().get(i));
+			patients = new Patient[data.getPatientIds().size()];
+			for (int i = 0; i < patients.length; i++)
+				patients[i] = Context.getPatientService().getPatient(data.getPatientIds().get(i));
+		}
+
+		@TearDown(Level.Invocation)
+		public void clear() {
+			Context.clearSession();
+		}
+
+		@TearDown(Level.Trial)
+		public void close() {
+			BenchmarkContext.closeSession();
+		}
+
+		Provider randomProvider() {
+			return providers[random.nextInt(providers.length)];
+		}
+
+		Patient randomPatient() {
+			return patients[random.nextInt(patients.length)];
+		}
+	}
+
+	/**
+	 * Saves a new block and its time slots the way the appointment block form does, then rolls back
+	 * so the tables keep their size.
+	 */
+	@Benchmark
+	public int generateTimeSlots(final AppointmentData data, final ServiceSession session) {
+		return session.transactionTemplate.execute(new TransactionCallback<Integer>() {
+
+			public Integer doInTransaction(TransactionStatus status) {
+				status.setRollbackOnly();
+				Set<AppointmentType> types = new HashSet<AppointmentType>();
+				types.add(session.appointmentType);
+				Date day = data.getDay(data.days + 1);
+				AppointmentBlock block = new AppointmentBlock(day, AppointmentData.getBlockEnd(day), session
+				        .randomProvider(), session.location, types);
+				session.service.saveAppointmentBlock(block);
+				List<TimeSlot> timeSlots = AppointmentData.createTimeSlots(block);
+				for (TimeSlot timeSlot : timeSlots)
+					session.service.saveTimeSlot(timeSlot);
+				Context.flushSession();
+				return timeSlots.size();
+			}
+		});
+	}
+
+	/**
+	 * Availability search over one week, as done by the appointment form.
+	 */
+	@Benchmark
+	public List<TimeSlot> getTimeSlotsByConstraints(AppointmentData data, ServiceSession session) {
+		Date fromDate = data.getRandomDay(session.random);
+		Date toDate = new Date(fromDate.getTime() + TimeUnit.DAYS.toMillis(7));
+		return session.service.getTimeSlotsByConstraints(session.appointmentType, fromDate, toDate, session
+		        .randomProvider());
+	}
+
+	@Benchmark
+	public Appointment getLastAppointment(ServiceSession session) {
+		return session.service.getLastAppointment(session.randomPatient());
+	}
+
+	/**
+	 * The blocks of one week at one location, as listed by the appointment block list.
+	 */
+	@Benchmark
+	public List<AppointmentBlock> getAppointmentBlocks(AppointmentData data, ServiceSession session) {
+		Date fromDate = data.getRandomDay(session.random);
+		Date toDate = new Date(fromDate.getTime() + TimeUnit.DAYS.toMillis(7));
+		return session.service.getAppointmentBlocks(fromDate, toDate, session.location);
+	}
+
+	@Benchmark
+	public List<AppointmentStatusHistory> getAppointmentStatusHistories(ServiceSession session) {
+		return session.service.getAppointmentStatusHistories(AppointmentData.STATUS_HISTORY);
+	}
+
+	/**
+	 * Type-ahead search by the start of a patient name, from a random day on.
+	 */
+	@Benchmark
+	public List<AppointmentSearchResult> searchAppointmentsByPatient(AppointmentData data, ServiceSession session) {
+		AppointmentSearchCriteria criteria = new AppointmentSearchCriteria();
+		criteria.setPatientQuery(PATIENT_QUERIES[session.random.nextInt(PATIENT_QUERIES.length)]);
+		criteria.setFromDate(data.getRandomDay(session.random));
+		return session.service.searchAppointments(criteria, SEARCH_PAGE_SIZE);
+	}
+
+	/**
+	 * The first two pages of the appointments of a provider, from a random day on.
+	 */
+	@Benchmark
+	public List<AppointmentSearchResult> searchAppointmentsByProvider(AppointmentData data, ServiceSession session) {
+		AppointmentSearchCriteria criteria = new AppointmentSearchCriteria();
+		criteria.setProvider(session.randomProvider());
+		criteria.setFromDate(data.getRandomDay(session.random));
+		List<AppointmentSearchResult> page = session.service.searchAppointments(criteria, SEARCH_PAGE_SIZE);
+		if (page.isEmpty())
+			return page;
+		criteria.setStartAfter(page.get(page.size() - 1));
+		return session.service.searchAppointments(criteria, SEARCH_PAGE_SIZE);
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.benchmark;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.ReplacementDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+import org.dbunit.ext.h2.H2DataTypeFactory;
+import org.dbunit.operation.DatabaseOperation;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.DatabaseUpdater;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.orm.hibernate3.HibernateTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Starts OpenMRS and the appointment module against an in-memory H2 database, the same way
+ * BaseModuleContextSensitiveTest does for the unit tests, so the benchmarks run the real service
+ * with its proxies, interceptors and mappings.
+ * <p>
+ * Hibernate creates the core schema. The module's liquibase.xml is then applied on top of it, which
+ * marks the table change sets as ran and creates everything the mappings don't know about, such as
+ * indexes. The context is started once per JVM; JMH forks a new JVM for every benchmark and
+ * parameter combination, so each of them gets a fresh database.
+ */
+public class BenchmarkContext {
+
+	private static final String URL = "jdbc:h2:mem:appointmentbenchmark;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+
+	private static final String USERNAME = "admin";
+
+	private static final String PASSWORD = "test";
+
+	private static final String[] CONFIG_LOCATIONS = { "classpath:applicationContext-service.xml",
+	        "classpath*:moduleApplicationContext.xml", "classpath*:TestingApplicationContext.xml" };
+
+	private static final String[] DATASETS = { "org/openmrs/include/initialInMemoryTestDataSet.xml",
+	        "org/openmrs/include/standardTestDataset.xml", "standardAppointmentTestDataset.xml" };
+
+	private static ClassPathXmlApplicationContext applicationContext;
+
+	/**
+	 * Starts the application context and loads the standard test datasets, if not done yet.
+	 */
+	public static synchronized void start() throws Exception {
+		if (applicationContext != null)
+			return;
+
+		Class.forName("org.h2.Driver");
+		Context.setRuntimeProperties(getRuntimeProperties());
+		applicationContext = new ClassPathXmlApplicationContext(CONFIG_LOCATIONS);
+
+		Connection connection = getConnection();
+		try {
+			for (String dataset : DATASETS)
+				executeDataSet(connection, dataset);
+		}
+		finally {
+			connection.close();
+		}
+		DatabaseUpdater.executeChangelog("liquibase.xml", null);
+	}
+
+	/**
+	 * Opens an OpenMRS session for the current thread and authenticates it as the admin user.
+	 */
+	public static void openSession() {
+		Context.openSession();
+		Context.authenticate(USERNAME, PASSWORD);
+	}
+
+	/**
+	 * Closes the OpenMRS session of the current thread.
+	 */
+	public static void closeSession() {
+		Context.closeSession();
+	}
+
+	/**
+	 * @return a template running its callbacks in a transaction of the OpenMRS transaction manager.
+	 */
+	public static TransactionTemplate getTransactionTemplate() {
+		return new TransactionTemplate((HibernateTransactionManager) applicationContext.getBean("transactionManager"));
+	}
+
+	/**
+	 * @return a new JDBC connection to the benchmark database, to be closed by the caller.
+	 */
+	public static Connection getConnection() throws SQLException {
+		return DriverManager.getConnection(URL, "sa", "");
+	}
+
+	private static Properties getRuntimeProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("connection.url", URL);
+		properties.setProperty("connection.username", "sa");
+		properties.setProperty("connection.password", "");
+		properties.setProperty("connection.driver_class", "org.h2.Driver");
+		properties.setProperty("hibernate.connection.url", URL);
+		properties.setProperty("hibernate.connection.username", "sa");
+		properties.setProperty("hibernate.connection.password", "");
+		properties.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+		properties.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		properties.setProperty("hibernate.hbm2ddl.auto", "update");
+		properties.setProperty("hibernate.show_sql", "false");
+		//Keep the numbers about the database, not about the second level cache.
+		properties.setProperty("hibernate.cache.use_second_level_cache", "false");
+		properties.setProperty("hibernate.cache.use_query_cache", "false");
+		return properties;
+	}
+
+	private static void executeDataSet(Connection connection, String resource) throws Exception {
+		InputStream in = BenchmarkContext.class.getClassLoader().getResourceAsStream(resource);
+		if (in == null)
+			throw new IllegalStateException("Dataset " + resource + " not found on the classpath");
+		try {
+			ReplacementDataSet dataSet = new ReplacementDataSet(new FlatXmlDataSetBuilder().setColumnSensing(true).build(
+			    in));
+			dataSet.addReplacementObject("[NULL]", null);
+
+			IDatabaseConnection dbUnitConnection = new DatabaseConnection(connection);
+			dbUnitConnection.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new H2DataTypeFactory());
+
+			Statement statement = connection.createStatement();
+			try {
+				statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+				DatabaseOperation.REFRESH.execute(dbUnitConnection, dataSet);
+				statement.execute("SET REFERENTIAL_INTEGRITY TRUE");
+			}
+			finally {
+				statement.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+}
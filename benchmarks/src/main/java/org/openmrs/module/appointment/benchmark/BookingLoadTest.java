@@ -0,0 +1,418 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.benchmark;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.StaleStateException;
+import org.hibernate.exception.LockAcquisitionException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.Appointment;
+import org.openmrs.module.appointment.AppointmentType;
+import org.openmrs.module.appointment.TimeSlot;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.metrics.LatencyHistogram;
+import org.springframework.dao.ConcurrencyFailureException;
+
+/**
+ * Load test of the booking path: many clerks searching for, booking and cancelling appointments on
+ * the same few popular providers and days, all at once. Runs on virtual threads when the JVM has
+ * them and on a fixed thread pool otherwise.
+ * <p>
+ * Reports the throughput, the latency percentiles of every operation, how often an operation had
+ * to be retried because of a deadlock, a lock timeout or an optimistic locking conflict, and how
+ * many slots ended up overbooked: booked for more minutes than they last, or booked twice.
+ * <p>
+ * Usage: <code>BookingLoadTest [--name value]...</code>, see {@link #parse(String[])} for the
+ * options.
+ */
+public class BookingLoadTest {
+
+	private static final String DEADLOCK = "deadlock";
+
+	private static final String LOCK_TIMEOUT = "lock timeout";
+
+	private static final String CONFLICT = "conflict";
+
+	private int clerks = 32;
+
+	private int seconds = 30;
+
+	private int days = 30;
+
+	private int providers = 20;
+
+	private int hotProviders = 2;
+
+	private int hotDays = 7;
+
+	private int maxRetries = 3;
+
+	private String executorType = "auto";
+
+	private AppointmentData data;
+
+	private final Operation search = new Operation("search");
+
+	private final Operation book = new Operation("book");
+
+	private final Operation cancel = new Operation("cancel");
+
+	private final AtomicLong retries = new AtomicLong();
+
+	private final AtomicLong deadlocks = new AtomicLong();
+
+	private final AtomicLong lockTimeouts = new AtomicLong();
+
+	private final AtomicLong conflicts = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		BookingLoadTest test = new BookingLoadTest();
+		test.parse(args);
+		test.run();
+		System.exit(0);
+	}
+
+	/**
+	 * Reads the options, all optional:
+	 * <ul>
+	 * <li>--clerks: concurrent clerks (32)</li>
+	 * <li>--seconds: duration of the run (30)</li>
+	 * <li>--days, --providers: size of the generated schedule (30, 20)</li>
+	 * <li>--hotProviders, --hotDays: the popular part of the schedule all clerks book into (2, 7)</li>
+	 * <li>--maxRetries: retries of an operation failing on a lock (3)</li>
+	 * <li>--executor: auto, virtual or fixed (auto)</li>
+	 * </ul>
+	 */
+	void parse(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String name = args[i].replaceFirst("^--", "");
+			String value = args[i + 1];
+			if ("clerks".equals(name))
+				clerks = Integer.parseInt(value);
+			else if ("seconds".equals(name))
+				seconds = Integer.parseInt(value);
+			else if ("days".equals(name))
+				days = Integer.parseInt(value);
+			else if ("providers".equals(name))
+				providers = Integer.parseInt(value);
+			else if ("hotProviders".equals(name))
+				hotProviders = Integer.parseInt(value);
+			else if ("hotDays".equals(name))
+				hotDays = Integer.parseInt(value);
+			else if ("maxRetries".equals(name))
+				maxRetries = Integer.parseInt(value);
+			else if ("executor".equals(name))
+				executorType = value;
+			else
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+	}
+
+	void run() throws Exception {
+		hotProviders = Math.min(hotProviders, providers);
+		data = new AppointmentData();
+		data.days = days;
+		data.providers = providers;
+		data.setUp();
+		Set<Integer> overbookedBefore = new HashSet<Integer>();
+		Set<Integer> doubleBookedBefore = new HashSet<Integer>();
+		findOverbookedSlots(overbookedBefore, doubleBookedBefore);
+
+		String[] executorName = new String[1];
+		ExecutorService executor = createExecutor(executorName);
+		CountDownLatch startSignal = new CountDownLatch(1);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		List<Future<?>> clerkResults = new ArrayList<Future<?>>();
+		for (int i = 0; i < clerks; i++)
+			clerkResults.add(executor.submit(new Clerk(i, startSignal, deadline)));
+		long start = System.nanoTime();
+		startSignal.countDown();
+		for (Future<?> clerkResult : clerkResults)
+			clerkResult.get();
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+
+		Set<Integer> overbooked = new HashSet<Integer>();
+		Set<Integer> doubleBooked = new HashSet<Integer>();
+		findOverbookedSlots(overbooked, doubleBooked);
+		overbooked.removeAll(overbookedBefore);
+		doubleBooked.removeAll(doubleBookedBefore);
+
+		report(executorName[0], elapsed, overbooked.size(), doubleBooked.size());
+	}
+
+	private ExecutorService createExecutor(String[] name) throws Exception {
+		if (!"fixed".equals(executorType)) {
+			try {
+				Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				name[0] = "virtual threads";
+				return (ExecutorService) method.invoke(null);
+			}
+			catch (NoSuchMethodException e) {
+				if ("virtual".equals(executorType))
+					throw new IllegalStateException("Virtual threads need Java 21 or later");
+			}
+		}
+		name[0] = "a pool of " + clerks + " threads";
+		return Executors.newFixedThreadPool(clerks);
+	}
+
+	/**
+	 * A clerk repeatedly searches the popular part of the schedule, books one of the slots found or
+	 * cancels one of its own earlier bookings.
+	 */
+	private class Clerk implements Runnable {
+
+		private final Random random;
+
+		private final CountDownLatch startSignal;
+
+		private final long deadline;
+
+		private final List<Integer> booked = new ArrayList<Integer>();
+
+		private AppointmentService service;
+
+		Clerk(int number, CountDownLatch startSignal, long deadline) {
+			this.random = new Random(1000 + number);
+			this.startSignal = startSignal;
+			this.deadline = deadline;
+		}
+
+		public void run() {
+			BenchmarkContext.openSession();
+			try {
+				service = Context.getService(AppointmentService.class);
+				startSignal.await();
+				while (System.nanoTime() < deadline) {
+					double action = random.nextDouble();
+					if (action < 0.2)
+						search();
+					else if (action < 0.8 || booked.isEmpty())
+						book();
+					else
+						cancel();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				BenchmarkContext.closeSession();
+			}
+		}
+
+		private List<TimeSlot> search() {
+			final int providerId = data.getProviderIds().get(random.nextInt(hotProviders));
+			final Date fromDate = data.getDay(days * 4 / 5 + random.nextInt(hotDays));
+			final Date toDate = new Date(fromDate.getTime() + TimeUnit.DAYS.toMillis(1));
+			return execute(search, new Callable<List<TimeSlot>>() {
+
+				public List<TimeSlot> call() {
+					AppointmentType type = service.getAppointmentType(data.getAppointmentTypeId());
+					List<TimeSlot> found = new ArrayList<TimeSlot>();
+					for (TimeSlot slot : service.getTimeSlotsByConstraints(type, fromDate, toDate, Context
+					        .getProviderService().getProvider(providerId))) {
+						//Filter again so the test stays valid whatever the search returns.
+						if (!slot.getStartDate().before(fromDate) && slot.getStartDate().before(toDate)
+						        && providerId == slot.getAppointmentBlock().getProvider().getProviderId())
+							found.add(slot);
+					}
+					return found;
+				}
+			});
+		}
+
+		private void book() {
+			List<TimeSlot> found = search();
+			if (found == null || found.isEmpty())
+				return;
+			//Clerks favour the earliest slots, which is where the conflicts are.
+			final TimeSlot slot = found.get((int) (found.size() * Math.pow(random.nextDouble(), 2)));
+			final int patientId = data.getPatientIds().get(random.nextInt(data.getPatientIds().size()));
+			Integer appointmentId = execute(book, new Callable<Integer>() {
+
+				public Integer call() {
+					Appointment appointment = new Appointment(slot, null, Context.getPatientService().getPatient(
+					    patientId), service.getAppointmentType(data.getAppointmentTypeId()), "SCHEDULED");
+					return service.saveAppointment(appointment).getAppointmentId();
+				}
+			});
+			if (appointmentId != null)
+				booked.add(appointmentId);
+		}
+
+		private void cancel() {
+			final Integer appointmentId = booked.remove(random.nextInt(booked.size()));
+			execute(cancel, new Callable<Integer>() {
+
+				public Integer call() {
+					Appointment appointment = service.getAppointment(appointmentId);
+					appointment.setStatus("CANCELLED");
+					return service.saveAppointment(appointment).getAppointmentId();
+				}
+			});
+		}
+
+		/**
+		 * Runs an operation, retrying it when it failed on a lock. The latency includes the retries,
+		 * as the clerk waits for all of them.
+		 *
+		 * @return the result of the operation, null if it failed.
+		 */
+		private <T> T execute(Operation operation, Callable<T> call) {
+			long start = System.nanoTime();
+			for (int attempt = 0;; attempt++) {
+				try {
+					T result = call.call();
+					operation.latency.record(System.nanoTime() - start);
+					return result;
+				}
+				catch (Exception e) {
+					//The session can't be trusted after a failed flush.
+					BenchmarkContext.closeSession();
+					BenchmarkContext.openSession();
+					String cause = classify(e);
+					if (cause != null && attempt < maxRetries) {
+						retries.incrementAndGet();
+						continue;
+					}
+					operation.failures.incrementAndGet();
+					return null;
+				}
+				finally {
+					Context.clearSession();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the failure if it was caused by locking.
+	 *
+	 * @return the kind of locking failure, null if the failure has another cause.
+	 */
+	private String classify(Throwable e) {
+		String kind = null;
+		//The database error is the most precise, it is usually wrapped by Hibernate and Spring.
+		for (Throwable t = e; t != null && kind == null; t = t.getCause()) {
+			if (t.getClass().getName().contains("Deadlock"))
+				kind = DEADLOCK;
+			else if (t instanceof SQLException) {
+				SQLException sqlException = (SQLException) t;
+				//40001 is a deadlock on H2 and MySQL, HYT00 is the H2 lock timeout and 1205 the MySQL one.
+				if ("40001".equals(sqlException.getSQLState()))
+					kind = DEADLOCK;
+				else if ("HYT00".equals(sqlException.getSQLState()) || sqlException.getErrorCode() == 1205)
+					kind = LOCK_TIMEOUT;
+			} else if (t instanceof LockAcquisitionException)
+				kind = LOCK_TIMEOUT;
+		}
+		for (Throwable t = e; t != null && kind == null; t = t.getCause()) {
+			if (t instanceof StaleStateException || t instanceof ConcurrencyFailureException)
+				kind = CONFLICT;
+		}
+
+		if (kind == DEADLOCK)
+			deadlocks.incrementAndGet();
+		else if (kind == LOCK_TIMEOUT)
+			lockTimeouts.incrementAndGet();
+		else if (kind == CONFLICT)
+			conflicts.incrementAndGet();
+		return kind;
+	}
+
+	/**
+	 * Finds the slots whose active appointments last longer than the slot, and those with more than
+	 * one active appointment.
+	 */
+	private void findOverbookedSlots(Set<Integer> overbooked, Set<Integer> doubleBooked) throws SQLException {
+		Connection connection = BenchmarkContext.getConnection();
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery("select s.time_slot_id, s.start_date, s.end_date, sum(t.duration), "
+			        + "count(a.appointment_id) from appointment_time_slot s "
+			        + "join appointment a on a.time_slot_id = s.time_slot_id "
+			        + "join appointment_type t on t.appointment_type_id = a.appointment_type_id "
+			        + "where a.voided = false and a.status <> 'CANCELLED' "
+			        + "group by s.time_slot_id, s.start_date, s.end_date");
+			while (rs.next()) {
+				long slotMinutes = (rs.getTimestamp(3).getTime() - rs.getTimestamp(2).getTime()) / 60000;
+				if (rs.getLong(4) > slotMinutes)
+					overbooked.add(rs.getInt(1));
+				if (rs.getInt(5) > 1)
+					doubleBooked.add(rs.getInt(1));
+			}
+			statement.close();
+		}
+		finally {
+			connection.close();
+		}
+	}
+
+	private void report(String executorName, long elapsedNanos, int overbooked, int doubleBooked) {
+		double elapsedSeconds = elapsedNanos / 1e9;
+		long operations = search.latency.getCount() + book.latency.getCount() + cancel.latency.getCount();
+		System.out.println();
+		System.out.println(String.format("%d clerks on %s for %.1f s, %d providers over %d days, %d hot providers "
+		        + "and %d hot days", clerks, executorName, elapsedSeconds, providers, days, hotProviders, hotDays));
+		System.out.println(String.format("%-10s %10s %10s %10s %10s %10s", "operation", "count", "failed", "p50 ms",
+		    "p99 ms", "max ms"));
+		for (Operation operation : new Operation[] { search, book, cancel })
+			System.out.println(operation);
+		System.out.println(String.format("Throughput: %.1f operations/s, %.1f bookings/s", operations
+		        / elapsedSeconds, book.latency.getCount() / elapsedSeconds));
+		System.out.println(String.format("Retries: %d (deadlocks %d, lock timeouts %d, conflicts %d)", retries.get(),
+		    deadlocks.get(), lockTimeouts.get(), conflicts.get()));
+		System.out.println(String.format("Overbooking: %d slots booked beyond their length, %d slots booked twice",
+		    overbooked, doubleBooked));
+	}
+
+	private static class Operation {
+
+		final String name;
+
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		final AtomicLong failures = new AtomicLong();
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-10s %10d %10d %10.2f %10.2f %10.2f", name, latency.getCount(), failures.get(),
+			    latency.getPercentileNanos(50) / 1e6, latency.getPercentileNanos(99) / 1e6, latency.getMaxNanos() / 1e6);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a JMH result file with the recorded baseline and fails when a benchmark got slower than
+ * the allowed tolerance. Both files must be written with <code>-rf csv</code>.
+ * <p>
+ * Usage: <code>RegressionCheck baseline.csv result.csv [tolerancePercent]</code>, the tolerance
+ * defaults to 10 percent. The exit status is 1 if any benchmark regressed.
+ */
+public class RegressionCheck {
+
+	private static final double DEFAULT_TOLERANCE_PERCENT = 10;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: RegressionCheck baseline.csv result.csv [tolerancePercent]");
+			System.exit(2);
+		}
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE_PERCENT;
+		List<String> regressions = compare(read(args[0]), read(args[1]), tolerance);
+		for (String regression : regressions)
+			System.out.println("REGRESSION " + regression);
+		if (!regressions.isEmpty())
+			System.exit(1);
+		System.out.println("No regression above " + tolerance + "% against " + args[0]);
+	}
+
+	/**
+	 * Compares the scores of the benchmarks found in both results.
+	 *
+	 * @param baseline scores by benchmark key, as returned by {@link #read(String)}.
+	 * @param result scores by benchmark key.
+	 * @param tolerancePercent how much worse than the baseline a score may be.
+	 * @return a description of each regression, empty if none.
+	 */
+	static List<String> compare(Map<String, Score> baseline, Map<String, Score> result, double tolerancePercent) {
+		List<String> regressions = new ArrayList<String>();
+		for (Map.Entry<String, Score> entry : result.entrySet()) {
+			Score expected = baseline.get(entry.getKey());
+			if (expected == null)
+				continue;
+			Score actual = entry.getValue();
+			double change = (actual.value - expected.value) * 100 / expected.value;
+			//Throughput is better when higher, every other mode measures time.
+			if (actual.higherIsBetter)
+				change = -change;
+			if (change > tolerancePercent)
+				regressions.add(String.format("%s: %.3f %s, baseline %.3f %s (%+.1f%%)", entry.getKey(), actual.value,
+				    actual.unit, expected.value, expected.unit, change));
+		}
+		return regressions;
+	}
+
+	/**
+	 * Reads a JMH csv result file.
+	 *
+	 * @param path the file to read.
+	 * @return scores keyed by benchmark name, mode and parameter values.
+	 */
+	static Map<String, Score> read(String path) throws IOException {
+		Map<String, Score> scores = new LinkedHashMap<String, Score>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+		try {
+			List<String> header = split(reader.readLine());
+			int benchmark = header.indexOf("Benchmark");
+			int mode = header.indexOf("Mode");
+			int score = header.indexOf("Score");
+			int unit = header.indexOf("Unit");
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() == 0)
+					continue;
+				List<String> values = split(line);
+				StringBuilder key = new StringBuilder(values.get(benchmark)).append(" [").append(values.get(mode));
+				for (int i = 0; i < header.size(); i++) {
+					if (header.get(i).startsWith("Param: "))
+						key.append(", ").append(header.get(i).substring(7)).append('=').append(values.get(i));
+				}
+				key.append(']');
+				scores.put(key.toString(), new Score(Double.parseDouble(values.get(score)), values.get(unit), "thrpt"
+				        .equals(values.get(mode))));
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return scores;
+	}
+
+	private static List<String> split(String line) {
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == ',' && !quoted) {
+				values.add(value.toString());
+				value.setLength(0);
+			} else
+				value.append(c);
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+	static class Score {
+
+		final double value;
+
+		final String unit;
+
+		final boolean higherIsBetter;
+
+		Score(double value, String unit, boolean higherIsBetter) {
+			this.value = value;
+			this.unit = unit;
+			this.higherIsBetter = higherIsBetter;
+		}
+	}
+}
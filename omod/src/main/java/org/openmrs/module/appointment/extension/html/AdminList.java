@@ -47,6 +47,8 @@ public class AdminList extends AdministrationSectionExt {
 		map.put("/module/appointment/appointmentTypeList.list", "appointment.AppointmentType.manage");
 		map.put("/module/appointment/appointmentBlockList.list", "appointment.AppointmentBlock.manage");
 		map.put("/module/appointment/appointmentForm.form", "appointment.Appointment.create");
+		map.put("/module/appointment/serviceMetrics.list", "appointment.ServiceMetrics.manage");
+		map.put("/module/appointment/statistics.list", "appointment.ModuleStatistics.manage");
 		return map;
 	}
 	
@@ -11,10 +11,11 @@ import org.openmrs.PersonAttribute;
 import org.openmrs.Provider;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.appointment.Appointment;
 import org.openmrs.module.appointment.AppointmentBlock;
 import org.openmrs.module.appointment.TimeSlot;
 import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.PatientAppointmentSummary;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerationJob;
 
 /**
  * DWR patient methods. The methods in here are used in the webapp to get data from the database via
@@ -37,12 +38,13 @@ public class DWRAppointmentService {
 		PersonAttribute phoneAttribute = patient.getAttribute(phonePropertyId);
 		if (phoneAttribute != null)
 			patientData.setPhoneNumber(phoneAttribute.getValue());
-		//Checks if patient missed his/her last appointment.
-		Appointment lastAppointment = Context.getService(AppointmentService.class).getLastAppointment(patient);
+		//Checks if patient missed his/her last appointment, from the cached summary of the patient.
+		PatientAppointmentSummary summary = Context.getService(AppointmentService.class).getPatientAppointmentSummary(
+		    patient);
 		//TODO: change hard coded "MISSED" to correct enum value
-		if (lastAppointment != null && lastAppointment.getStatus() == "MISSED")
+		if (summary != null && "MISSED".equals(summary.getLastAppointmentStatus()))
 			patientData.setDateMissedLastAppointment(Context.getDateFormat().format(
-			    lastAppointment.getTimeSlot().getStartDate()));
+			    summary.getLastAppointmentStartDate()));
 		
 		return patientData;
 	}
@@ -83,4 +85,17 @@ public class DWRAppointmentService {
 			appointmentService.purgeAppointmentBlock(appointmentBlock);
 		}
 	}
+	
+	public TimeSlotGenerationData getTimeSlotGeneration(String jobId) {
+		if (!Context.isAuthenticated())
+			return null;
+		TimeSlotGenerationJob job = Context.getService(AppointmentService.class).getTimeSlotGenerationJob(jobId);
+		return job == null ? null : new TimeSlotGenerationData(job);
+	}
+	
+	public boolean cancelTimeSlotGeneration(String jobId) {
+		if (!Context.isAuthenticated())
+			return false;
+		return Context.getService(AppointmentService.class).cancelTimeSlotGeneration(jobId);
+	}
 }
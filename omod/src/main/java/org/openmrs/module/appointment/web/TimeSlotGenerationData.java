@@ -0,0 +1,92 @@
+package org.openmrs.module.appointment.web;
+
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerationJob;
+
+/**
+ * The state of a time slot generation, as polled by the appointment block list.
+ */
+public class TimeSlotGenerationData {
+	
+	String jobId;
+	
+	String status;
+	
+	int progress;
+	
+	int generatedSlots;
+	
+	int totalSlots;
+	
+	boolean finished;
+	
+	String errorMessage;
+	
+	public TimeSlotGenerationData() {
+	}
+	
+	public TimeSlotGenerationData(TimeSlotGenerationJob job) {
+		setJobId(job.getJobId());
+		setStatus(job.getStatus().name());
+		setProgress(job.getProgress());
+		setGeneratedSlots(job.getGeneratedSlots());
+		setTotalSlots(job.getTotalSlots());
+		setFinished(job.isFinished());
+		setErrorMessage(job.getErrorMessage());
+	}
+	
+	public String getJobId() {
+		return jobId;
+	}
+	
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+	
+	public String getStatus() {
+		return status;
+	}
+	
+	public void setStatus(String status) {
+		this.status = status;
+	}
+	
+	public int getProgress() {
+		return progress;
+	}
+	
+	public void setProgress(int progress) {
+		this.progress = progress;
+	}
+	
+	public int getGeneratedSlots() {
+		return generatedSlots;
+	}
+	
+	public void setGeneratedSlots(int generatedSlots) {
+		this.generatedSlots = generatedSlots;
+	}
+	
+	public int getTotalSlots() {
+		return totalSlots;
+	}
+	
+	public void setTotalSlots(int totalSlots) {
+		this.totalSlots = totalSlots;
+	}
+	
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	public void setFinished(boolean finished) {
+		this.finished = finished;
+	}
+	
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+	
+	public void setErrorMessage(String errorMessage) {
+		this.errorMessage = errorMessage;
+	}
+}
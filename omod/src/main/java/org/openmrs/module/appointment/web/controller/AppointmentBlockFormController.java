@@ -13,8 +13,6 @@
  */
 package org.openmrs.module.appointment.web.controller;
 
-import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
@@ -30,6 +28,7 @@ import org.openmrs.module.appointment.AppointmentBlock;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
 import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerationJob;
 import org.openmrs.module.appointment.validator.AppointmentBlockValidator;
 import org.openmrs.module.appointment.web.AppointmentTypeEditor;
 import org.openmrs.module.appointment.web.ProviderEditor;
@@ -90,8 +89,12 @@ public class AppointmentBlockFormController {
 			if (Context.isAuthenticated()) {
 				AppointmentService as = Context.getService(AppointmentService.class);
 				AppointmentBlock appointmentBlock = as.getAppointmentBlock(appointmentBlockId);
-				TimeSlot timeSlot = Context.getService(AppointmentService.class).getTimeSlotsInAppointmentBlock(
-				    appointmentBlock).get(0);
+				List<TimeSlot> timeSlots = Context.getService(AppointmentService.class).getTimeSlotsInAppointmentBlock(
+				    appointmentBlock);
+				//No slots while they are being generated.
+				if (timeSlots.isEmpty())
+					return "";
+				TimeSlot timeSlot = timeSlots.get(0);
 				return (timeSlot.getEndDate().getTime() - timeSlot.getStartDate().getTime()) / 60000 + "";
 			}
 		}
@@ -132,22 +135,17 @@ public class AppointmentBlockFormController {
 					//String toShow = howManyTimeSlotsToCreate + "," + appointmentBlocklengthInMinutes;
 					List<TimeSlot> currentTimeSlots = appointmentService.getTimeSlotsInAppointmentBlock(appointmentBlock);
 					if (currentTimeSlots.size() != howManyTimeSlotsToCreate) { //the time slot length changed therefore we need to update.
-						//First we will purge the current time slots.
-						for (TimeSlot timeSlot : currentTimeSlots) {
-							appointmentService.purgeTimeSlot(timeSlot);
+						//The time slots are replaced in the background, the list shows the progress.
+						try {
+							TimeSlotGenerationJob job = appointmentService.generateTimeSlots(appointmentBlock, slotLength);
+							httpSession.setAttribute(WebConstants.OPENMRS_MSG_ATTR,
+							    "appointment.AppointmentBlock.generatingTimeSlots");
+							return "redirect:appointmentBlockList.list?timeSlotGenerationJobId=" + job.getJobId();
 						}
-						//Then we will add the new time slots corresponding to the new time slot length 
-						Date startDate = appointmentBlock.getStartDate();
-						Date endDate = null;
-						for (int i = 0; i < howManyTimeSlotsToCreate; i++) {
-							Calendar cal = Context.getDateTimeFormat().getCalendar();
-							cal.setTime(startDate);
-							cal.add(Calendar.MINUTE, slotLength); // add slotLength minutes
-							endDate = cal.getTime();
-							//toShow += ",{" + startDate + "," + endDate + "}";
-							TimeSlot timeSlot = new TimeSlot(appointmentBlock, startDate, endDate);
-							startDate = endDate;
-							appointmentService.saveTimeSlot(timeSlot);
+						catch (APIException e) {
+							httpSession.setAttribute(WebConstants.OPENMRS_ERROR_ATTR, "error.general: "
+							        + e.getLocalizedMessage());
+							return "redirect:appointmentBlockList.list";
 						}
 					}
 					//httpSession.setAttribute(WebConstants.OPENMRS_MSG_ATTR, toShow);
@@ -28,11 +28,14 @@ import org.openmrs.module.appointment.Appointment;
 import org.openmrs.module.appointment.AppointmentType;
 import org.openmrs.module.appointment.TimeSlot;
 import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.TimeSlotTakenException;
+import org.openmrs.module.appointment.api.metrics.AppointmentMetrics;
 import org.openmrs.module.appointment.validator.AppointmentValidator;
 import org.openmrs.module.appointment.web.AppointmentTypeEditor;
 import org.openmrs.module.appointment.web.ProviderEditor;
 import org.openmrs.module.appointment.web.TimeSlotEditor;
 import org.openmrs.web.WebConstants;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.validation.BindingResult;
@@ -52,6 +55,14 @@ public class AppointmentFormController {
 	/** Logger for this class and subclasses */
 	protected final Log log = LogFactory.getLog(getClass());
 	
+	/**
+	 * The number of time slots offered when searching between two dates.
+	 */
+	private static final int MAX_AVAILABLE_TIMES = 50;
+	
+	@Autowired
+	private AppointmentMetrics appointmentMetrics;
+	
 	@InitBinder
 	public void initBinder(WebDataBinder binder) {
 		binder.registerCustomEditor(TimeSlot.class, new TimeSlotEditor());
@@ -93,8 +104,13 @@ public class AppointmentFormController {
 			return null;
 		
 		try {
-			List<TimeSlot> availableTimeSlots = Context.getService(AppointmentService.class).getTimeSlotsByConstraints(
-			    appointmentType, fromDate, toDate, provider);
+			AppointmentService appointmentService = Context.getService(AppointmentService.class);
+			//The first time slots where the type fits, of the provider or of all providers at once.
+			if (fromDate != null && toDate != null)
+				return appointmentService.getAvailableTimeSlots(appointmentType, fromDate, toDate, provider, null,
+				    MAX_AVAILABLE_TIMES);
+			List<TimeSlot> availableTimeSlots = appointmentService.getTimeSlotsByConstraints(appointmentType, fromDate,
+			    toDate, provider);
 			return availableTimeSlots;
 		}
 		catch (Exception ex) {
@@ -124,12 +140,25 @@ public class AppointmentFormController {
 			if (request.getParameter("save") != null) {
 				new AppointmentValidator().validate(appointment, result);
 				
-				if (result.hasErrors())
+				if (result.hasErrors()) {
+					appointmentMetrics.recordFormInvalid();
 					return null;
-				else {
+				} else {
 					//TODO: change to enum
 					appointment.setStatus("SCHEDULED");
-					appointmentService.saveAppointment(appointment);
+					if (appointment.getAppointmentId() == null) {
+						try {
+							appointmentService.bookAppointment(appointment);
+						}
+						catch (TimeSlotTakenException e) {
+							result.rejectValue("timeSlot", "appointment.Appointment.error.timeSlotTaken");
+							appointmentMetrics.recordFormTaken();
+							return null;
+						}
+					} else {
+						appointmentService.saveAppointment(appointment);
+					}
+					appointmentMetrics.recordFormSaved();
 					httpSession.setAttribute(WebConstants.OPENMRS_MSG_ATTR, "appointment.Appointment.saved");
 					return "redirect:/index.htm";
 				}
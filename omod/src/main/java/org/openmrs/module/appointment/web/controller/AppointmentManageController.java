@@ -13,9 +13,19 @@
  */
 package org.openmrs.module.appointment.web.controller;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.api.metrics.ModuleStatistics;
+import org.openmrs.web.WebConstants;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -29,8 +39,89 @@ public class AppointmentManageController {
 	
 	protected final Log log = LogFactory.getLog(getClass());
 	
+	@Autowired
+	private ModuleStatistics moduleStatistics;
+	
 	@RequestMapping(value = "/module/appointment/manage", method = RequestMethod.GET)
 	public void manage(ModelMap model) {
 		model.addAttribute("user", Context.getAuthenticatedUser());
 	}
+	
+	/**
+	 * Shows the Hibernate statistics of the module and the counters of its caches and executors.
+	 */
+	@RequestMapping(value = "/module/appointment/statistics", method = RequestMethod.GET)
+	public void showStatistics(ModelMap model) {
+		//only fill the Object if the user has authenticated properly
+		if (Context.isAuthenticated()) {
+			model.addAttribute("hibernateStatisticsEnabled", moduleStatistics.isHibernateStatisticsEnabled());
+			model.addAttribute("statistics", moduleStatistics.getSnapshot());
+		}
+	}
+	
+	@RequestMapping(value = "/module/appointment/statistics", method = RequestMethod.POST)
+	public String onStatisticsSubmit(HttpServletRequest request) {
+		if (Context.isAuthenticated()) {
+			if (request.getParameter("reset") != null) {
+				moduleStatistics.reset();
+				request.getSession().setAttribute(WebConstants.OPENMRS_MSG_ATTR,
+				    "appointment.ModuleStatistics.resetSuccessfully");
+			} else if (request.getParameter("enable") != null) {
+				moduleStatistics.setHibernateStatisticsEnabled(true);
+			} else if (request.getParameter("disable") != null) {
+				moduleStatistics.setHibernateStatisticsEnabled(false);
+			}
+		}
+		return "redirect:statistics.list";
+	}
+	
+	/**
+	 * Writes the same statistics as JSON, for scraping: an object of sections, each an object of
+	 * rows, each an object of counters.
+	 */
+	@RequestMapping(value = "/module/appointment/statisticsJson", method = RequestMethod.GET)
+	public void writeStatistics(HttpServletResponse response) throws IOException {
+		if (!Context.isAuthenticated()) {
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter writer = response.getWriter();
+		writeJson(writer, moduleStatistics.getSnapshot());
+		writer.flush();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void writeJson(PrintWriter writer, Map<String, ?> map) {
+		writer.write('{');
+		boolean first = true;
+		for (Map.Entry<String, ?> entry : map.entrySet()) {
+			if (!first)
+				writer.write(',');
+			first = false;
+			writeJsonString(writer, entry.getKey());
+			writer.write(':');
+			if (entry.getValue() instanceof Map)
+				writeJson(writer, (Map<String, ?>) entry.getValue());
+			else
+				writer.write(String.valueOf(entry.getValue()));
+		}
+		writer.write('}');
+	}
+	
+	private void writeJsonString(PrintWriter writer, String value) {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				writer.write("\\" + c);
+			else if (c < ' ')
+				writer.write(String.format("\\u%04x", (int) c));
+			else
+				writer.write(c);
+		}
+		writer.write('"');
+	}
 }
@@ -0,0 +1,133 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.web.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.module.appointment.api.AppointmentService;
+import org.openmrs.module.appointment.api.generator.TimeSlotGenerator;
+import org.openmrs.module.appointment.api.metrics.AppointmentMetrics;
+import org.openmrs.module.appointment.api.metrics.PrometheusTextWriter;
+import org.openmrs.module.appointment.api.metrics.ServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Metrics of the module in the Prometheus text format, scraped at metrics.form: booking counts,
+ * availability search and service method latencies, the no-show backlog and the depth of the time
+ * slot generation queue. A scraper authenticates with the username and password of an OpenMRS user
+ * in a basic Authorization header, checked on every scrape; a web session already logged in needs
+ * none.
+ */
+@Controller
+public class MetricsController {
+
+	/** Logger for this class and subclasses */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	/**
+	 * The status of the appointments counted in the no-show backlog once their time slot ended.
+	 */
+	private static final String BACKLOG_STATUS = "SCHEDULED";
+
+	@Autowired
+	private AppointmentMetrics appointmentMetrics;
+
+	@Autowired
+	private ServiceMetrics serviceMetrics;
+
+	@Autowired
+	private TimeSlotGenerator timeSlotGenerator;
+
+	@RequestMapping(value = "/module/appointment/metrics", method = RequestMethod.GET)
+	public void writeMetrics(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		boolean authenticated = false;
+		if (!Context.isAuthenticated()) {
+			if (!authenticate(request.getHeader("Authorization"))) {
+				response.setHeader("WWW-Authenticate", "Basic realm=\"OpenMRS\"");
+				response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+				return;
+			}
+			authenticated = true;
+		}
+		try {
+			write(response);
+		}
+		finally {
+			//Scrapers do not keep the session, which is not left logged in.
+			if (authenticated)
+				Context.logout();
+		}
+	}
+
+	private void write(HttpServletResponse response) throws IOException {
+		long backlog = Context.getService(AppointmentService.class).getAppointmentCount(BACKLOG_STATUS, new Date());
+		response.setContentType(PrometheusTextWriter.CONTENT_TYPE);
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter printWriter = response.getWriter();
+		PrometheusTextWriter writer = new PrometheusTextWriter(printWriter);
+		appointmentMetrics.write(writer);
+		serviceMetrics.write(writer);
+		writer.family("appointment_no_show_backlog", "gauge",
+		    "Scheduled appointments whose time slot ended without being marked missed or completed.");
+		writer.sample("appointment_no_show_backlog", null, backlog);
+		writer.family("appointment_time_slot_generation_queue_depth", "gauge",
+		    "Time slot generations waiting for the generator.");
+		writer.sample("appointment_time_slot_generation_queue_depth", null, timeSlotGenerator.getQueuedJobCount());
+		writer.family("appointment_time_slot_generation_running", "gauge", "Appointment blocks being generated.");
+		writer.sample("appointment_time_slot_generation_running", null, timeSlotGenerator.getGeneratingBlockIds().size());
+		printWriter.flush();
+	}
+
+	/**
+	 * @param authorization the Authorization header of the request.
+	 * @return whether the header has the basic credentials of an OpenMRS user, who is then
+	 *         authenticated.
+	 */
+	private boolean authenticate(String authorization) throws UnsupportedEncodingException {
+		if (authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6))
+			return false;
+		String credentials;
+		try {
+			credentials = new String(DatatypeConverter.parseBase64Binary(authorization.substring(6).trim()), "UTF-8");
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+		int colon = credentials.indexOf(':');
+		if (colon < 0)
+			return false;
+		try {
+			Context.authenticate(credentials.substring(0, colon), credentials.substring(colon + 1));
+			return true;
+		}
+		catch (ContextAuthenticationException e) {
+			log.debug("Metrics scrape with invalid credentials", e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.web.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.api.event.ScheduleEvent;
+import org.openmrs.module.appointment.api.event.ScheduleEventDispatcher;
+import org.openmrs.module.appointment.api.event.ScheduleSubscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Server-sent events stream of the schedule changes concerning a location and a date range, for
+ * the appointment block list to refresh itself. The servlet API of OpenMRS has no asynchronous
+ * requests, so each stream holds its request thread; it ends after {@link #STREAM_MILLIS} and the
+ * browser reconnects, sending the id of the last event it received to get the events it missed.
+ */
+@Controller
+public class ScheduleEventsController {
+
+	/** Logger for this class and subclasses */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private static final long STREAM_MILLIS = 55 * 1000;
+
+	private static final long KEEP_ALIVE_MILLIS = 15 * 1000;
+
+	private static final long RETRY_MILLIS = 2 * 1000;
+
+	@Autowired
+	private ScheduleEventDispatcher scheduleEventDispatcher;
+
+	@RequestMapping(value = "/module/appointment/scheduleEvents", method = RequestMethod.GET)
+	public void stream(@RequestParam(value = "locationId", required = false) String locationId,
+	        @RequestParam(value = "fromDate", required = false) String fromDate,
+	        @RequestParam(value = "toDate", required = false) String toDate, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		if (!Context.isAuthenticated()) {
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		Integer locationIdAsInteger;
+		Date fromAsDate;
+		Date toAsDate;
+		Integer lastEventId;
+		try {
+			locationIdAsInteger = parseInteger(locationId);
+			fromAsDate = parseDate(fromDate);
+			toAsDate = parseDate(toDate);
+			lastEventId = parseInteger(request.getHeader("Last-Event-ID"));
+		}
+		catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		catch (ParseException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		ScheduleSubscription subscription = scheduleEventDispatcher.subscribe(locationIdAsInteger, fromAsDate, toAsDate,
+		    lastEventId);
+		if (subscription == null) {
+			response.setHeader("Retry-After", "60");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		try {
+			response.setContentType("text/event-stream");
+			response.setCharacterEncoding("UTF-8");
+			response.setHeader("Cache-Control", "no-cache");
+			PrintWriter writer = response.getWriter();
+			writer.write("retry: " + RETRY_MILLIS + "\n\n");
+			writer.flush();
+
+			long end = System.currentTimeMillis() + STREAM_MILLIS;
+			List<ScheduleEvent> events = new ArrayList<ScheduleEvent>();
+			for (long remaining = STREAM_MILLIS; remaining > 0; remaining = end - System.currentTimeMillis()) {
+				events.clear();
+				subscription.take(Math.min(remaining, KEEP_ALIVE_MILLIS), TimeUnit.MILLISECONDS, events);
+				if (subscription.checkReloadNeeded())
+					writer.write("event: reload\ndata: {}\n\n");
+				for (ScheduleEvent event : events)
+					writeEvent(writer, event);
+				//A comment keeps proxies from closing an idle stream.
+				if (events.isEmpty())
+					writer.write(":\n\n");
+				writer.flush();
+				if (writer.checkError())
+					break;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			scheduleEventDispatcher.unsubscribe(subscription);
+		}
+	}
+
+	private void writeEvent(PrintWriter writer, ScheduleEvent event) {
+		writer.write("id: " + event.getEventId() + "\n");
+		writer.write("event: change\n");
+		writer.write("data: {\"entityType\":\"" + event.getEntityType() + "\",\"entityId\":" + event.getEntityId()
+		        + ",\"action\":\"" + event.getAction() + "\",\"appointmentBlockId\":" + event.getAppointmentBlockId()
+		        + ",\"locationId\":" + event.getLocationId() + ",\"startDate\":" + toMillis(event.getStartDate())
+		        + ",\"endDate\":" + toMillis(event.getEndDate()) + "}\n\n");
+	}
+
+	private Long toMillis(Date date) {
+		return date == null ? null : date.getTime();
+	}
+
+	private Integer parseInteger(String value) {
+		if (value == null || value.trim().length() == 0)
+			return null;
+		return Integer.valueOf(value.trim());
+	}
+
+	private Date parseDate(String value) throws ParseException {
+		if (value == null || value.trim().length() == 0)
+			return null;
+		return Context.getDateTimeFormat().parse(value);
+	}
+}
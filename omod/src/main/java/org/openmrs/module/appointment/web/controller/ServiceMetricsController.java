@@ -0,0 +1,70 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.web.controller;
+
+import java.util.List;
+import java.util.Vector;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.appointment.api.metrics.MethodMetrics;
+import org.openmrs.module.appointment.api.metrics.ServiceMetrics;
+import org.openmrs.web.WebConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Controller for the page listing the call counts and latencies of the AppointmentService methods.
+ */
+@Controller
+public class ServiceMetricsController {
+
+	/** Logger for this class and subclasses */
+	protected final Log log = LogFactory.getLog(getClass());
+
+	@Autowired
+	private ServiceMetrics serviceMetrics;
+
+	@RequestMapping(value = "/module/appointment/serviceMetrics", method = RequestMethod.GET)
+	public void showForm(ModelMap model) {
+		//default empty Object
+		List<MethodMetrics> methodMetricsList = new Vector<MethodMetrics>();
+		long totalCalls = 0;
+		long totalErrors = 0;
+		//only fill the Object if the user has authenticated properly
+		if (Context.isAuthenticated()) {
+			methodMetricsList = serviceMetrics.getAllMethodMetrics();
+			totalCalls = serviceMetrics.getTotalCalls();
+			totalErrors = serviceMetrics.getTotalErrors();
+		}
+		model.addAttribute("methodMetricsList", methodMetricsList);
+		model.addAttribute("totalCalls", totalCalls);
+		model.addAttribute("totalErrors", totalErrors);
+	}
+
+	@RequestMapping(value = "/module/appointment/serviceMetrics", method = RequestMethod.POST)
+	public String onSubmit(HttpServletRequest request) {
+		if (Context.isAuthenticated() && request.getParameter("reset") != null) {
+			serviceMetrics.reset();
+			request.getSession().setAttribute(WebConstants.OPENMRS_MSG_ATTR, "appointment.ServiceMetrics.resetSuccessfully");
+		}
+		return "redirect:serviceMetrics.list";
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.web.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Holds back the body of a response so headers can still be added after the request was served.
+ */
+class BufferedResponseWrapper extends HttpServletResponseWrapper {
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	private ServletOutputStream outputStream;
+
+	private PrintWriter writer;
+
+	BufferedResponseWrapper(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (writer != null)
+			throw new IllegalStateException("getWriter() has already been called on this response");
+		if (outputStream == null) {
+			outputStream = new ServletOutputStream() {
+
+				@Override
+				public void write(int b) throws IOException {
+					body.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					body.write(b, off, len);
+				}
+			};
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (outputStream != null)
+			throw new IllegalStateException("getOutputStream() has already been called on this response");
+		if (writer == null)
+			writer = new PrintWriter(new OutputStreamWriter(body, getCharacterEncoding()));
+		return writer;
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if (writer != null)
+			writer.flush();
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		//the length is set from the buffered body when it is copied
+	}
+
+	@Override
+	public void resetBuffer() {
+		super.resetBuffer();
+		body.reset();
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		body.reset();
+	}
+
+	/**
+	 * Writes the buffered body to the wrapped response.
+	 */
+	void copyBodyToResponse() throws IOException {
+		if (writer != null)
+			writer.flush();
+		if (body.size() > 0) {
+			HttpServletResponse response = (HttpServletResponse) getResponse();
+			if (!response.isCommitted())
+				response.setContentLength(body.size());
+			body.writeTo(response.getOutputStream());
+		}
+	}
+}
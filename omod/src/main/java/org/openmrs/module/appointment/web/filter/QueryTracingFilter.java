@@ -0,0 +1,158 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.appointment.web.filter;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.appointment.api.metrics.QueryTrace;
+
+/**
+ * Counts the SQL statements executed while serving the module's pages and DWR calls. Requests that
+ * run more statements or take longer than the configured thresholds are logged together with their
+ * most frequent statement shapes. In debug mode the counts are also returned as response headers,
+ * which requires buffering the response so the statements run while rendering are included. The
+ * server-sent event stream of the schedule is long-lived and streamed, so it is neither traced nor
+ * buffered.
+ * <p>
+ * Configured through the init parameters of the filter in config.xml:
+ * <ul>
+ * <li>statementThreshold - log requests running more statements than this (default 50)</li>
+ * <li>slowRequestMillis - log requests slower than this (default 1000)</li>
+ * <li>topShapes - how many statement shapes to log (default 5)</li>
+ * <li>debugHeaders - add X-Appointment-* headers to the responses (default false)</li>
+ * </ul>
+ */
+public class QueryTracingFilter implements Filter {
+
+	private static final String DWR_SERVICE_NAME = "DWRAppointmentService";
+
+	private static final String EVENT_STREAM_PATH = "/module/appointment/scheduleEvents";
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	private int statementThreshold = 50;
+
+	private long slowRequestMillis = 1000;
+
+	private int topShapes = 5;
+
+	private boolean debugHeaders = false;
+
+	/**
+	 * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+	 */
+	public void init(FilterConfig config) throws ServletException {
+		statementThreshold = getIntParameter(config, "statementThreshold", statementThreshold);
+		slowRequestMillis = getIntParameter(config, "slowRequestMillis", (int) slowRequestMillis);
+		topShapes = getIntParameter(config, "topShapes", topShapes);
+		debugHeaders = Boolean.valueOf(config.getInitParameter("debugHeaders"));
+	}
+
+	/**
+	 * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse,
+	 *      javax.servlet.FilterChain)
+	 */
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+	        ServletException {
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		//The dwr mapping covers every module's calls, only trace our own.
+		if (httpRequest.getRequestURI().contains("/dwr/") && !httpRequest.getRequestURI().contains(DWR_SERVICE_NAME)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		if (httpRequest.getRequestURI().contains(EVENT_STREAM_PATH)) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		QueryTrace trace = QueryTrace.start();
+		BufferedResponseWrapper bufferedResponse = null;
+		boolean failed = true;
+		try {
+			if (debugHeaders) {
+				bufferedResponse = new BufferedResponseWrapper((HttpServletResponse) response);
+				chain.doFilter(request, bufferedResponse);
+			} else {
+				chain.doFilter(request, response);
+			}
+			failed = false;
+		}
+		finally {
+			QueryTrace.stop();
+			report(httpRequest, trace);
+			//Also when the chain failed, so that whatever was rendered before the failure is not lost.
+			if (bufferedResponse != null) {
+				try {
+					copyToResponse(bufferedResponse, (HttpServletResponse) response, trace);
+				}
+				catch (IOException e) {
+					if (!failed)
+						throw e;
+					log.debug("Unable to write the buffered response of a failed request", e);
+				}
+			}
+		}
+	}
+
+	private void copyToResponse(BufferedResponseWrapper bufferedResponse, HttpServletResponse response, QueryTrace trace)
+	        throws IOException {
+		if (!response.isCommitted()) {
+			response.setHeader("X-Appointment-Query-Count", String.valueOf(trace.getStatementCount()));
+			response.setHeader("X-Appointment-Query-Shapes", String.valueOf(trace.getDistinctShapeCount()));
+			response.setHeader("X-Appointment-Service-Millis", String.valueOf(trace.getServiceMillis()));
+			response.setHeader("X-Appointment-Elapsed-Millis", String.valueOf(trace.getElapsedMillis()));
+		}
+		bufferedResponse.copyBodyToResponse();
+	}
+
+	/**
+	 * @see javax.servlet.Filter#destroy()
+	 */
+	public void destroy() {
+	}
+
+	private void report(HttpServletRequest request, QueryTrace trace) {
+		long elapsed = trace.getElapsedMillis();
+		if (trace.getStatementCount() > statementThreshold || elapsed > slowRequestMillis) {
+			StringBuilder message = new StringBuilder();
+			message.append(request.getMethod()).append(' ').append(request.getRequestURI()).append(" ran ").append(
+			    trace.getStatementCount()).append(" statements (").append(trace.getDistinctShapeCount()).append(
+			    " distinct) in ").append(elapsed).append(" ms, ").append(trace.getServiceMillis()).append(
+			    " ms in AppointmentService. Top statements:");
+			for (String shape : trace.getTopShapes(topShapes))
+				message.append("\n  ").append(shape);
+			log.warn(message);
+		} else if (log.isDebugEnabled()) {
+			log.debug(request.getRequestURI() + " ran " + trace.getStatementCount() + " statements in " + elapsed + " ms");
+		}
+	}
+
+	private static int getIntParameter(FilterConfig config, String name, int defaultValue) {
+		String value = config.getInitParameter(name);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		return Integer.parseInt(value.trim());
+	}
+}
@@ -100,6 +100,95 @@
                        });
                         
         }
+        var scheduleEvents = null;
+        var scheduleRefreshTimer = null;
+        var schedulePollTimer = null;
+        //Listens to the changes of the shown location and dates, pushed by the server.
+        function subscribeToScheduleEvents()
+        {
+			if (schedulePollTimer != null) {
+				clearTimeout(schedulePollTimer);
+				schedulePollTimer = null;
+			}
+			if (scheduleEvents != null)
+				scheduleEvents.close();
+			if (!window.EventSource) {
+				pollSchedule();
+				return;
+			}
+			var selectedLocation = document.getElementById("locationId");
+			var locationId = selectedLocation.options[selectedLocation.selectedIndex].value;
+			scheduleEvents = new EventSource("scheduleEvents.form?fromDate=" + encodeURIComponent(document.getElementById('fromDate').value)
+					+ "&toDate=" + encodeURIComponent(document.getElementById('toDate').value)
+					+ "&locationId=" + encodeURIComponent(locationId));
+			scheduleEvents.addEventListener("change", scheduleChanged, false);
+			scheduleEvents.addEventListener("reload", scheduleChanged, false);
+			scheduleEvents.onerror = function() {
+				//Refused, e.g. when the server streams to as many screens as it allows: polls instead.
+				if (scheduleEvents != null && scheduleEvents.readyState == EventSource.CLOSED) {
+					scheduleEvents = null;
+					pollSchedule();
+				}
+			};
+        }
+        //Reloads the table every minute, trying to get the changes pushed again after each reload.
+        function pollSchedule()
+        {
+			schedulePollTimer = setTimeout(function() {
+				schedulePollTimer = null;
+				updateAppointmentBlockTable();
+				subscribeToScheduleEvents();
+			}, 60000);
+        }
+        function scheduleChanged(event)
+        {
+			//Changes come in bursts, the table is reloaded once per burst.
+			if (scheduleRefreshTimer == null) {
+				scheduleRefreshTimer = setTimeout(function() {
+					scheduleRefreshTimer = null;
+					updateAppointmentBlockTable();
+				}, 500);
+			}
+        }
+        function applyFilters()
+        {
+			updateAppointmentBlockTable();
+			subscribeToScheduleEvents();
+        }
+        var timeSlotGenerationJobId = '<c:out value="${param.timeSlotGenerationJobId}"/>';
+        var timeSlotGenerationMessages = {
+			COMPLETED: '<openmrs:message code="appointment.AppointmentBlock.generation.COMPLETED" javaScriptEscape="true"/>',
+			CANCELLED: '<openmrs:message code="appointment.AppointmentBlock.generation.CANCELLED" javaScriptEscape="true"/>',
+			FAILED: '<openmrs:message code="appointment.AppointmentBlock.generation.FAILED" javaScriptEscape="true"/>'
+        };
+        //Polls the time slot generation started by the last save until it ends.
+        function followTimeSlotGeneration()
+        {
+			DWRAppointmentService.getTimeSlotGeneration(timeSlotGenerationJobId, function(generation) {
+				if (generation == null) {
+					document.getElementById('timeSlotGeneration').style.display = 'none';
+					return;
+				}
+				if (!generation.finished) {
+					document.getElementById('timeSlotGenerationProgress').innerHTML = generation.generatedSlots + ' / '
+							+ generation.totalSlots + ' (' + generation.progress + '%)';
+					setTimeout(followTimeSlotGeneration, 1000);
+					return;
+				}
+				var status = document.getElementById('timeSlotGenerationStatus');
+				status.innerHTML = timeSlotGenerationMessages[generation.status];
+				if (generation.errorMessage != null)
+					status.appendChild(document.createTextNode(': ' + generation.errorMessage));
+				document.getElementById('timeSlotGenerationProgress').innerHTML = '';
+				document.getElementById('timeSlotGenerationCancel').style.display = 'none';
+			});
+        }
+        function cancelTimeSlotGeneration()
+        {
+			DWRAppointmentService.cancelTimeSlotGeneration(timeSlotGenerationJobId, function() {
+				followTimeSlotGeneration();
+			});
+        }
         function getDateTimeFormat(date){
 		   	var newFormat = "";
 			if((date.getDate()+"").length == 1){
@@ -124,12 +213,22 @@
 			   nextWeekDate.setHours(23,59,59,999);
 			   document.getElementById('fromDate').value = getDateTimeFormat(currentDate);
 			   document.getElementById('toDate').value = getDateTimeFormat(nextWeekDate);
-               updateAppointmentBlockTable();
+               applyFilters();
+               if (timeSlotGenerationJobId != '')
+            	   followTimeSlotGeneration();
         });
  
 </script>
 <h2><spring:message code="appointment.AppointmentBlock.manage.title"/></h2>
 <br/><br/>
+<c:if test="${not empty param.timeSlotGenerationJobId}">
+<div id="timeSlotGeneration" class="box">
+        <span id="timeSlotGenerationStatus"><spring:message code="appointment.AppointmentBlock.generation.progress"/></span>
+        <span id="timeSlotGenerationProgress"></span>
+        <input type="button" id="timeSlotGenerationCancel" value="<spring:message code="appointment.AppointmentBlock.generation.cancel"/>" onClick="cancelTimeSlotGeneration()">
+</div>
+<br/>
+</c:if>
  
 <fieldset style="clear: both">
         <legend><spring:message code="appointment.AppointmentBlock.legend.properties"/></legend>
@@ -145,7 +244,7 @@
 				<td><openmrs:fieldGen type="org.openmrs.Location" formFieldName="locationId" val="${selectedLocation}" /></td>
                                         </tr>
                                         <tr>
-                                                <td><input type="button" value="Apply" onClick="updateAppointmentBlockTable()"></td>
+                                                <td><input type="button" value="Apply" onClick="applyFilters()"></td>
                                         </tr>
                                 </table>
         </div>
@@ -12,4 +12,14 @@
 			<spring:message code="appointment.AppointmentBlock.manage.title"/>
 		</a>
 	</li>
+	<li <c:if test='<%= request.getRequestURI().contains("appointment/serviceMetrics.jsp") %>'>class="active"</c:if>>
+		<a href="${pageContext.request.contextPath}/module/appointment/serviceMetrics.list">
+			<spring:message code="appointment.ServiceMetrics.manage"/>
+		</a>
+	</li>
+	<li <c:if test='<%= request.getRequestURI().contains("appointment/statistics.jsp") %>'>class="active"</c:if>>
+		<a href="${pageContext.request.contextPath}/module/appointment/statistics.list">
+			<spring:message code="appointment.ModuleStatistics.manage"/>
+		</a>
+	</li>
 </ul>
\ No newline at end of file
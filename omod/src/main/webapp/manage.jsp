@@ -5,4 +5,6 @@
 
 <p>Hello ${user.systemId}!</p>
 
+<p><a href="statistics.list"><spring:message code="appointment.ModuleStatistics.manage"/></a></p>
+
 <%@ include file="/WEB-INF/template/footer.jsp"%>
\ No newline at end of file
@@ -0,0 +1,44 @@
+<%@ include file="/WEB-INF/template/include.jsp" %>
+
+<%@ include file="/WEB-INF/template/header.jsp" %>
+<%@ include file="localHeader.jsp" %>
+
+<h2><spring:message code="appointment.ServiceMetrics.title"/></h2>
+
+<spring:message code="appointment.ServiceMetrics.totalCalls"/>: ${totalCalls}
+&nbsp;&nbsp;
+<spring:message code="appointment.ServiceMetrics.totalErrors"/>: ${totalErrors}
+
+<br /><br />
+
+<b class="boxHeader"><spring:message code="appointment.ServiceMetrics.list.title"/></b>
+<form method="post" class="box">
+	<table>
+		<tr>
+			<th> <spring:message code="appointment.ServiceMetrics.column.method"/> </th>
+			<th> <spring:message code="appointment.ServiceMetrics.column.calls"/> </th>
+			<th> <spring:message code="appointment.ServiceMetrics.column.errors"/> </th>
+			<th> <spring:message code="appointment.ServiceMetrics.column.mean"/> </th>
+			<th> <spring:message code="appointment.ServiceMetrics.column.p50"/> </th>
+			<th> <spring:message code="appointment.ServiceMetrics.column.p90"/> </th>
+			<th> <spring:message code="appointment.ServiceMetrics.column.p99"/> </th>
+			<th> <spring:message code="appointment.ServiceMetrics.column.max"/> </th>
+		</tr>
+		<c:forEach var="methodMetrics" items="${methodMetricsList}">
+			<tr>
+				<td valign="top">${methodMetrics.name}</td>
+				<td valign="top" align="right">${methodMetrics.calls}</td>
+				<td valign="top" align="right">${methodMetrics.errors}</td>
+				<td valign="top" align="right">${methodMetrics.meanMicros}</td>
+				<td valign="top" align="right">${methodMetrics.p50Micros}</td>
+				<td valign="top" align="right">${methodMetrics.p90Micros}</td>
+				<td valign="top" align="right">${methodMetrics.p99Micros}</td>
+				<td valign="top" align="right">${methodMetrics.maxMicros}</td>
+			</tr>
+		</c:forEach>
+	</table>
+	<br />
+	<input type="submit" name="reset" value="<spring:message code="appointment.ServiceMetrics.reset"/>" />
+</form>
+
+<%@ include file="/WEB-INF/template/footer.jsp" %>
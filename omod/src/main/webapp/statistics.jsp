@@ -0,0 +1,55 @@
+<%@ include file="/WEB-INF/template/include.jsp" %>
+
+<%@ include file="/WEB-INF/template/header.jsp" %>
+<%@ include file="localHeader.jsp" %>
+
+<h2><spring:message code="appointment.ModuleStatistics.title"/></h2>
+
+<form method="post">
+	<c:choose>
+		<c:when test="${hibernateStatisticsEnabled}">
+			<spring:message code="appointment.ModuleStatistics.hibernateEnabled"/>
+			<input type="submit" name="disable" value="<spring:message code="appointment.ModuleStatistics.disable"/>" />
+		</c:when>
+		<c:otherwise>
+			<spring:message code="appointment.ModuleStatistics.hibernateDisabled"/>
+			<input type="submit" name="enable" value="<spring:message code="appointment.ModuleStatistics.enable"/>" />
+		</c:otherwise>
+	</c:choose>
+	<input type="submit" name="reset" value="<spring:message code="appointment.ModuleStatistics.reset"/>" />
+	<a href="statisticsJson.form"><spring:message code="appointment.ModuleStatistics.json"/></a>
+</form>
+
+<c:forEach var="section" items="${statistics}">
+	<br />
+	<b class="boxHeader"><spring:message code="appointment.ModuleStatistics.section.${section.key}"/></b>
+	<div class="box">
+		<c:choose>
+			<c:when test="${empty section.value}">
+				<spring:message code="general.none"/>
+			</c:when>
+			<c:otherwise>
+				<table>
+					<c:forEach var="row" items="${section.value}" varStatus="status">
+						<c:if test="${status.first}">
+							<tr>
+								<th></th>
+								<c:forEach var="counter" items="${row.value}">
+									<th>${counter.key}</th>
+								</c:forEach>
+							</tr>
+						</c:if>
+						<tr>
+							<td valign="top"><c:out value="${row.key}"/></td>
+							<c:forEach var="counter" items="${row.value}">
+								<td valign="top" align="right">${counter.value}</td>
+							</c:forEach>
+						</tr>
+					</c:forEach>
+				</table>
+			</c:otherwise>
+		</c:choose>
+	</div>
+</c:forEach>
+
+<%@ include file="/WEB-INF/template/footer.jsp" %>